@@ -0,0 +1,159 @@
+package fgj.jmh;
+
+/**
+ * Synthetic FeatherweightGJ programs of a chosen shape, for
+ * benchmarks.  A program has four parts:
+ * <ul>
+ * <li>Peano numerals, the classes <code>Nat</code> and
+ * <code>Succ</code>;</li>
+ * <li>a generic class <code>Box</code>, holding one value;</li>
+ * <li>a number of classes, arranged in chains of subclasses of a
+ * chosen depth, where each class adds a method and the root of each
+ * chain holds a field and a method <code>id</code>;</li>
+ * <li>an expression which walks a numeral of a chosen size, rebuilding
+ * it, and at each step asks an object of the deepest class of the
+ * first chain for <code>id</code>, which is found at the other end of
+ * the chain, and boxes the result in nested boxes of a chosen depth
+ * and unboxes it again.</li>
+ * </ul>
+ * So the number of classes sets the work of building the class table
+ * and checking, the depth sets how far each lookup goes, and the size
+ * of the numeral sets how deeply evaluation recurses, and the nesting
+ * of the boxes sets how large the types to parse, check, and
+ * substitute are.  The programs use no casts.
+ */
+public class Workload {
+
+	/**
+	 * Generate a program.
+	 * @param classes the number of classes in the chains, at least
+	 * <code>depth</code>
+	 * @param depth the number of classes in each chain
+	 * @param recursion the depth of the recursion evaluating the
+	 * expression
+	 * @param nesting the number of boxes nested at each step
+	 * @return the source of the program
+	 */
+	public static String program(int classes, int depth, int recursion,
+			int nesting) {
+		StringBuffer sb = new StringBuffer();
+		String top = className(0, 0);
+		String bottom = className(0, depth - 1);
+
+		// The numerals, walking themselves
+		sb.append("class Nat extends Object {\n");
+		sb.append("  Nat() { super(); }\n");
+		sb.append("  Nat walk(" + top + " t) { return this; }\n");
+		sb.append("}\n");
+		sb.append("class Succ extends Nat {\n");
+		sb.append("  Nat pred;\n");
+		sb.append("  Succ(Nat pred) { super(); this.pred = pred; }\n");
+		sb.append("  Nat walk(" + top + " t) {"
+			+ " return new Succ(" + unbox(box("t.id(this.pred)", nesting), nesting)
+			+ ".walk(t)); }\n");
+		sb.append("}\n");
+
+		// The boxes
+		sb.append("class Box<X extends Object> extends Object {\n");
+		sb.append("  X x;\n");
+		sb.append("  Box(X x) { super(); this.x = x; }\n");
+		sb.append("  X get() { return this.x; }\n");
+		sb.append("}\n");
+
+		// The chains of classes
+		int chains = Math.max(1, classes / depth);
+		for (int c = 0; c < chains; ++c) {
+			String root = className(c, 0);
+			sb.append("class " + root + " extends Object {\n");
+			sb.append("  Nat n;\n");
+			sb.append("  " + root + "(Nat n) { super(); this.n = n; }\n");
+			sb.append("  Nat id(Nat x) { return x; }\n");
+			sb.append("}\n");
+			for (int j = 1; j < depth; ++j) {
+				String name = className(c, j);
+				sb.append("class " + name + " extends " + className(c, j - 1) + " {\n");
+				sb.append("  " + name + "(Nat n) { super(n); }\n");
+				sb.append("  Nat " + letters("m", j) + "() { return this.n; }\n");
+				sb.append("}\n");
+			}
+		}
+
+		// The expression
+		sb.append(numeral(recursion));
+		sb.append(".walk(new " + bottom + "(new Nat()))\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Write a numeral.
+	 * @param n its value
+	 * @return the expression creating it
+	 */
+	public static String numeral(int n) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < n; ++i) sb.append("new Succ(");
+		sb.append("new Nat()");
+		for (int i = 0; i < n; ++i) sb.append(')');
+		return sb.toString();
+	}
+
+	/**
+	 * Write the type of numerals in nested boxes.
+	 * @param nesting the number of boxes
+	 * @return the type
+	 */
+	public static String boxType(int nesting) {
+		return (nesting == 0) ? "Nat" : "Box<" + boxType(nesting - 1) + ">";
+	}
+
+	/**
+	 * Put a numeral in nested boxes.
+	 * @param term the expression of the numeral
+	 * @param nesting the number of boxes
+	 * @return the expression of the boxes
+	 */
+	private static String box(String term, int nesting) {
+		for (int i = 0; i < nesting; ++i) {
+			term = "new Box<" + boxType(i) + ">(" + term + ")";
+		}
+		return term;
+	}
+
+	/**
+	 * Take a value out of nested boxes.
+	 * @param term the expression of the boxes
+	 * @param nesting the number of boxes
+	 * @return the expression of the value
+	 */
+	private static String unbox(String term, int nesting) {
+		StringBuffer sb = new StringBuffer(term);
+		for (int i = 0; i < nesting; ++i) sb.append(".get()");
+		return sb.toString();
+	}
+
+	/**
+	 * Name a class of a chain.
+	 * @param chain the number of the chain
+	 * @param depth the depth of the class in the chain
+	 * @return the name of the class
+	 */
+	private static String className(int chain, int depth) {
+		return letters(letters("C", chain) + "X", depth);
+	}
+
+	/**
+	 * Append a number to a name, written in letters, since names in
+	 * FeatherweightGJ are made of letters only.
+	 * @param prefix the name
+	 * @param n the number
+	 * @return the name followed by the number
+	 */
+	private static String letters(String prefix, int n) {
+		StringBuffer sb = new StringBuffer();
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return prefix + sb.reverse();
+	}
+}
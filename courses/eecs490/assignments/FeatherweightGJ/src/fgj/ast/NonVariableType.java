@@ -23,6 +23,17 @@ public class NonVariableType extends Type {
 	 */
 	public final List typeArgs;
 	
+	/**
+	 * The hash code of this type, computed once, since types are
+	 * used as keys in the caches of the type checker.
+	 */
+	private final int hash;
+	
+	/**
+	 * Whether this type is closed.
+	 */
+	private final boolean closed;
+	
 	/**
 	 * Construct a new non-variable type.
 	 * @param className the name of the actual class
@@ -31,6 +42,15 @@ public class NonVariableType extends Type {
 	public NonVariableType(String className, List typeArgs) {
 		this.className = className;
 		this.typeArgs = Collections.unmodifiableList(typeArgs);
+		int hash = className.hashCode();
+		boolean closed = true;
+		for (Iterator i = typeArgs.iterator(); i.hasNext();) {
+			Type typeArg = (Type) i.next();
+			hash = 31 * hash + typeArg.hashCode();
+			closed = closed && typeArg.isClosed();
+		}
+		this.hash = hash;
+		this.closed = closed;
 	}
 	
 	/**
@@ -51,11 +71,27 @@ public class NonVariableType extends Type {
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
 	public boolean equals(Object o) {
+		if (o == this) return true;
 		if (!(o instanceof NonVariableType)) return false;
 		NonVariableType t = (NonVariableType) o;
+		if (t.hash != this.hash) return false;
 		if (!t.className.equals(this.className)) return false;
 		return t.typeArgs.equals(this.typeArgs);
 	}
+	
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return hash;
+	}
+	
+	/**
+	 * @see fgj.ast.Type#isClosed()
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
 
 	/**
 	 * Return <code>true</code> if this non-variable type
@@ -6,4 +6,11 @@ package fgj.ast;
  */
 public abstract class Type {
 
+	/**
+	 * Return <code>true</code> if no type variable occurs in this
+	 * type, so that judgments about it hold in every type environment.
+	 * @return <code>true</code> if this type is closed;
+	 * <code>false</code> otherwise
+	 */
+	public abstract boolean isClosed();
 }
@@ -28,6 +28,21 @@ public class TypeVariable extends Type {
 		return ((TypeVariable) o).name.equals(this.name);
 	}
 	
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return name.hashCode();
+	}
+	
+	/**
+	 * A type variable is never closed.
+	 * @see fgj.ast.Type#isClosed()
+	 */
+	public boolean isClosed() {
+		return false;
+	}
+	
 	/**
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,300 @@
+package fgj.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import fgj.ast.Program;
+
+/**
+ * A cache of a checked program, kept in a file next to its source.
+ * The cache file for <code>tests/paper1.fgj</code> is
+ * <code>tests/paper1.fgjc</code>.  It holds the program's syntax tree
+ * in the binary form produced by {@link ProgramEncoder}, tagged with
+ * a hash of the source text it was built from and of the class files
+ * of the lexer, parser, class table, and type checker which built and
+ * checked it, and is only ever written after the program has passed
+ * type checking.  When the hash still matches, the program can be
+ * loaded without lexing, parsing, or type checking it again; after any
+ * of those classes changes, as when the type checker is fixed, every
+ * program is checked again.
+ */
+public class ProgramCache {
+
+	/**
+	 * The suffix appended to a source file name to name its cache file.
+	 */
+	public static final String SUFFIX = "c";
+
+	/**
+	 * The class files whose code decides whether a program checks and
+	 * what its syntax tree is, as prefixes of their names.
+	 */
+	private static final String[] IMPLEMENTATION = {
+		"fgj/ast/", "fgj/parse/", "fgj/types/", "fgj/typecheck/", "fgj/cache/"
+	};
+
+	/**
+	 * The hash of the class files named by {@link #IMPLEMENTATION}, or
+	 * <code>null</code> until it is needed.
+	 */
+	private static byte[] fingerprint;
+
+	/**
+	 * The cache file.
+	 */
+	private final File cacheFile;
+
+	/**
+	 * The contents of the source file.
+	 */
+	private final byte[] source;
+
+	/**
+	 * The content hash keying the cache file.
+	 */
+	private final byte[] digest;
+
+	/**
+	 * Read a source file and compute the key of its cache.
+	 * @param sourceFile the program's source file
+	 * @param variant a name for the front end in use (for example,
+	 * <code>"fgj"</code>); programs are only shared between runs
+	 * using the same variant
+	 * @throws IOException the source file could not be read
+	 */
+	public ProgramCache(File sourceFile, String variant) throws IOException {
+		this.cacheFile = new File(sourceFile.getPath() + SUFFIX);
+		this.source = readFile(sourceFile);
+
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(fingerprint());
+			md.update(variant.getBytes("UTF-8"));
+			md.update((byte) 0);
+			md.update(source);
+			this.digest = md.digest();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new Error("Internal cache error: no SHA-1 support");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error("Internal cache error: no UTF-8 support");
+		}
+	}
+
+	/**
+	 * Hash the class files of the implementation, once per run.  From
+	 * a jar, each file is hashed by the CRC the jar records for it, so
+	 * nothing is decompressed; from a directory of classes, by its
+	 * contents.  If the class files cannot be found, the hash is
+	 * different in every run, so that no cache file is trusted.
+	 * @return the hash
+	 */
+	private static synchronized byte[] fingerprint() {
+		if (fingerprint != null) return fingerprint;
+		Map files = new TreeMap();
+		try {
+			CodeSource code = ProgramCache.class.getProtectionDomain()
+				.getCodeSource();
+			File location = (code == null) ? null
+				: new File(code.getLocation().toURI());
+			if (location == null) {
+				files = null;
+			}
+			else if (location.isDirectory()) {
+				for (int i = 0; i < IMPLEMENTATION.length; ++i) {
+					int slash = IMPLEMENTATION[i].lastIndexOf('/');
+					String dirName = IMPLEMENTATION[i].substring(0, slash + 1);
+					String prefix = IMPLEMENTATION[i].substring(slash + 1);
+					String[] names = new File(location, dirName).list();
+					for (int j = 0; names != null && j < names.length; ++j) {
+						if (names[j].startsWith(prefix)
+								&& names[j].endsWith(".class")) {
+							files.put(dirName + names[j], readFile(
+								new File(location, dirName + names[j])));
+						}
+					}
+				}
+			}
+			else {
+				JarFile jar = new JarFile(location);
+				try {
+					for (Enumeration e = jar.entries(); e.hasMoreElements(); ) {
+						JarEntry entry = (JarEntry) e.nextElement();
+						if (isImplementation(entry.getName())) {
+							files.put(entry.getName(), String.valueOf(
+								entry.getCrc()).getBytes("UTF-8"));
+						}
+					}
+				}
+				finally {
+					jar.close();
+				}
+			}
+		}
+		catch (IOException e) {
+			files = null;
+		}
+		catch (URISyntaxException e) {
+			files = null;
+		}
+		catch (SecurityException e) {
+			files = null;
+		}
+
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			if (files == null || files.isEmpty()) {
+				md.update(String.valueOf(System.nanoTime()).getBytes("UTF-8"));
+				md.update(String.valueOf(System.identityHashCode(md))
+					.getBytes("UTF-8"));
+			}
+			else {
+				for (Iterator i = files.entrySet().iterator(); i.hasNext(); ) {
+					Map.Entry file = (Map.Entry) i.next();
+					md.update(((String) file.getKey()).getBytes("UTF-8"));
+					md.update((byte) 0);
+					md.update((byte[]) file.getValue());
+				}
+			}
+			fingerprint = md.digest();
+			return fingerprint;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new Error("Internal cache error: no SHA-1 support");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error("Internal cache error: no UTF-8 support");
+		}
+	}
+
+	/**
+	 * Find whether a class file is part of the implementation.
+	 * @param name the name of the class file, relative to the root of
+	 * the classes
+	 * @return <code>true</code> if it is named by {@link #IMPLEMENTATION}
+	 */
+	private static boolean isImplementation(String name) {
+		if (!name.endsWith(".class")) return false;
+		for (int i = 0; i < IMPLEMENTATION.length; ++i) {
+			if (name.startsWith(IMPLEMENTATION[i])
+					&& name.indexOf('/', IMPLEMENTATION[i].lastIndexOf('/') + 1) < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the source text, for use when the cache misses.
+	 * @return a stream over the contents of the source file
+	 */
+	public InputStream source() {
+		return new ByteArrayInputStream(source);
+	}
+
+	/**
+	 * Load the cached program.
+	 * @return the cached program, or <code>null</code> if there is no
+	 * usable cache file for the current source text
+	 */
+	public Program load() {
+		if (!cacheFile.isFile()) return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return ProgramDecoder.decode(buffer, digest);
+			}
+			finally {
+				file.close();
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Store a checked program in the cache, replacing any previous
+	 * contents.  The file is written under a temporary name of its own
+	 * in the same directory first, so that a concurrent {@link #load}
+	 * never sees half a file, and runs storing the same program at
+	 * once, as in a batch naming a file twice, never write into each
+	 * other's file; the last to finish wins.
+	 * @param program the program, which must have passed type checking
+	 * @throws IOException the cache file could not be written
+	 */
+	public void store(Program program) throws IOException {
+		byte[] bytes = ProgramEncoder.encode(program, digest);
+		File tmp = File.createTempFile(cacheFile.getName() + ".", ".tmp",
+			cacheFile.getAbsoluteFile().getParentFile());
+		boolean stored = false;
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(bytes);
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(cacheFile)) {
+				cacheFile.delete();
+				if (!tmp.renameTo(cacheFile)) {
+					throw new IOException("can't write \"" + cacheFile + "\"");
+				}
+			}
+			stored = true;
+		}
+		finally {
+			if (!stored) tmp.delete();
+		}
+	}
+
+	/**
+	 * Read the entire contents of a file.
+	 * @param file the file to read
+	 * @return its contents
+	 * @throws IOException the file could not be read
+	 */
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int n = 0;
+			while (n < bytes.length) {
+				int k = in.read(bytes, n, bytes.length - n);
+				if (k < 0) break;
+				n += k;
+			}
+			if (n == bytes.length) return bytes;
+			byte[] shorter = new byte[n];
+			System.arraycopy(bytes, 0, shorter, 0, n);
+			return shorter;
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -58,7 +58,7 @@ public class Evaluator {
 	 * @param env the new environment to append
 	 * @param parent the evaluator with the outer environment
 	 */
-	private Evaluator(Map env, Evaluator parent) {
+	protected Evaluator(Map env, Evaluator parent) {
 		this.env = env;
 		this.parent = parent;
 		this.types = parent.types;
@@ -101,7 +101,7 @@ public class Evaluator {
 	 * @throws EvaluationException <code>t</code> references
 	 * an unknown variable
 	 */
-	private Value evalVarTerm(VarTerm t) throws EvaluationException {
+	protected Value evalVarTerm(VarTerm t) throws EvaluationException {
 		
 		// Rule E-InvkNew: variables are mapped to values on invocation
 		Value value = (Value) env.get(t.name);
@@ -127,7 +127,7 @@ public class Evaluator {
 	 * @throws ClassTableException the base expression had an
 	 * unknown type
 	 */
-	private Value evalFieldTerm(FieldTerm t)
+	protected Value evalFieldTerm(FieldTerm t)
 		throws EvaluationException, ClassTableException {
 		
 		// Rule E-Field: evaluate the base first
@@ -150,11 +150,11 @@ public class Evaluator {
 	 * @return the value of the expression
 	 * @throws EvaluationException the message receiver or any of the
 	 * message arguments could not be evaluated, the expression provided
-	 * an incorrect number of arguments
+	 * an incorrect number of arguments, or the thread was interrupted
 	 * @throws ClassTableException the receiver did not
 	 * implement the requested method
 	 */
-	private Value evalCallTerm(CallTerm t)
+	protected Value evalCallTerm(CallTerm t)
 		throws EvaluationException, ClassTableException {
 		
 		// Rule E-Invk-Recv: evaluate the message recipient
@@ -182,8 +182,24 @@ public class Evaluator {
 		// Rule E-InvkNew: perform the "this" substitution
 		newEnv.put("this", base);
 		
+		// Give up here if asked to, since every evaluation that
+		// does not end must pass this way
+		if (Thread.interrupted()) {
+			throw new EvaluationException("interrupted");
+		}
+		
 		// Rule E-InvkNew: evaluate the body in the new environment 			
-		return (new Evaluator(newEnv, this)).evalTerm(body.term);
+		return nest(newEnv).evalTerm(body.term);
+	}
+	
+	/**
+	 * Make the evaluator for a method body, with this one's
+	 * environment as its outer environment.
+	 * @param newEnv the mapping of the method's variables to values
+	 * @return the nested evaluator
+	 */
+	protected Evaluator nest(Map newEnv) {
+		return new Evaluator(newEnv, this);
 	}
 	
 	/**
@@ -193,7 +209,7 @@ public class Evaluator {
 	 * @throws EvaluationException an argument to the constructor
 	 * could not be evaluated
 	 */
-	private Value evalNewTerm(NewTerm t) throws EvaluationException {
+	protected Value evalNewTerm(NewTerm t) throws EvaluationException {
 		
 		// Rule E-New-Arg: evaluate the arguments to the constructor
 		List args = evalArgs(t.args);
@@ -210,7 +226,7 @@ public class Evaluator {
 	 * be evaluated, or the cast failed
 	 * @throws ClassTableException a class table error occurred
 	 */
-	private Value evalCastTerm(CastTerm t)
+	protected Value evalCastTerm(CastTerm t)
 			throws EvaluationException, ClassTableException {
 		
 		// Rule E-Cast: evaluate the term being casted
@@ -1,7 +1,6 @@
 package fgj.eval;
 
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import fgj.ast.NonVariableType;
@@ -36,15 +35,10 @@ public class Value {
 	}
 	
 	/**
-	 * The string representation of a value.
+	 * The string representation of a value, as printed by a
+	 * {@link ValuePrinter}.
 	 */
 	public String toString() {
-		String str = "new " + type;
-		if (args.isEmpty()) return str + "()";
-		str += "(" + args.get(0).toString();
-		for (Iterator i = args.listIterator(1); i.hasNext(); ) {
-			str += ", " + i.next().toString();
-		}
-		return str + ")";
-	}	
+		return new ValuePrinter().toString(this);
+	}
 }
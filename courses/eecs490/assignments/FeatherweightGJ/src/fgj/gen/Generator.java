@@ -0,0 +1,830 @@
+package fgj.gen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generator of well-typed FeatherweightGJ programs of a chosen
+ * shape, for benchmarks and stress tests.  A program is made of any of
+ * these features, each adding its classes and a part of the program's
+ * expression:
+ * <dl>
+ * <dt><code>peano</code></dt>
+ * <dd>arithmetic on Peano numerals, which every program has, since the
+ * other features compute with them;</dd>
+ * <dt><code>church</code></dt>
+ * <dd>arithmetic on Church numerals, whose polymorphic method
+ * <code>iter</code> applies a generic function object;</dd>
+ * <dt><code>lists</code></dt>
+ * <dd>generic cons lists of numerals, appended, reversed, mapped over,
+ * and folded, whose elements are put into and taken out of boxes
+ * nested as deeply as chosen;</dd>
+ * <dt><code>visitor</code></dt>
+ * <dd>a hierarchy of shapes and generic visitors, with double
+ * dispatch;</dd>
+ * <dt><code>hierarchy</code></dt>
+ * <dd>a tree of generic classes of the chosen depth and width, each
+ * with the chosen number of methods, overriding some of those it
+ * inherits.</dd>
+ * </dl>
+ * The size sets how many operations each part of the expression does.
+ * Any expression may be cast, with the chosen percentage of them; an
+ * expression of a class without parameters is cast to
+ * <code>Object</code> and back, and any other is cast to its own type,
+ * since casting down to a generic type is not sound.  Every cast
+ * succeeds.  Numerals are kept small, so that evaluation is quick and
+ * its value short.
+ *
+ * <p>Everything is chosen by a random number generator with a fixed
+ * seed, so the same seed and settings always give the same
+ * programs.</p>
+ */
+public class Generator {
+
+	/**
+	 * The names of the features, in the order they appear.
+	 */
+	public static final List FEATURES = Arrays.asList(new String[] {
+		"peano", "church", "lists", "visitor", "hierarchy" });
+
+	/**
+	 * The largest numeral to compute, which stops products growing.
+	 */
+	private static final int MAX = 64;
+
+	/**
+	 * The source of choices.
+	 */
+	private final Random random;
+
+	/**
+	 * The depth of the class hierarchy.
+	 */
+	private int depth;
+
+	/**
+	 * The number of subclasses of each class in the hierarchy.
+	 */
+	private int width;
+
+	/**
+	 * The number of methods of each class in the hierarchy, and of
+	 * visitors.
+	 */
+	private int methods;
+
+	/**
+	 * The number of operations in each part of the expression.
+	 */
+	private int size;
+
+	/**
+	 * The deepest nesting of boxes.
+	 */
+	private int nesting;
+
+	/**
+	 * The percentage of expressions cast.
+	 */
+	private int casts;
+
+	/**
+	 * The names of the features to include.
+	 */
+	private List features;
+
+	/**
+	 * The program being generated.
+	 */
+	private StringBuffer out;
+
+	/**
+	 * Construct a generator with every feature, and a hierarchy three
+	 * classes deep and two wide with three methods, eight operations
+	 * in each part of the expression, boxes nested two deep, and no
+	 * casts.
+	 * @param seed the seed of the random choices
+	 */
+	public Generator(long seed) {
+		this.random = new Random(seed);
+		this.depth = 3;
+		this.width = 2;
+		this.methods = 3;
+		this.size = 8;
+		this.nesting = 2;
+		this.casts = 0;
+		this.features = FEATURES;
+	}
+
+	/**
+	 * Set the depth of the class hierarchy.
+	 * @param depth the number of classes from the root to a leaf
+	 */
+	public void setDepth(int depth) {
+		this.depth = Math.max(1, depth);
+	}
+
+	/**
+	 * Set the width of the class hierarchy, which also sets the
+	 * number of kinds of shape visited.
+	 * @param width the number of subclasses of each class, at most 26
+	 */
+	public void setWidth(int width) {
+		this.width = Math.min(Math.max(1, width), 26);
+	}
+
+	/**
+	 * Set the number of methods of each class in the hierarchy, which
+	 * also sets the number of visitors.
+	 * @param methods the number of methods
+	 */
+	public void setMethods(int methods) {
+		this.methods = Math.max(1, methods);
+	}
+
+	/**
+	 * Set the number of operations in each part of the expression.
+	 * @param size the number of operations
+	 */
+	public void setSize(int size) {
+		this.size = Math.max(0, size);
+	}
+
+	/**
+	 * Set how deeply the elements of lists may be boxed.
+	 * @param nesting the deepest nesting of boxes
+	 */
+	public void setNesting(int nesting) {
+		this.nesting = Math.max(0, nesting);
+	}
+
+	/**
+	 * Set how many expressions are cast.
+	 * @param casts the percentage of expressions, from 0 to 100
+	 */
+	public void setCasts(int casts) {
+		this.casts = Math.min(Math.max(0, casts), 100);
+	}
+
+	/**
+	 * Set the features to include.
+	 * @param features the {@link String} names of the features, from
+	 * {@link #FEATURES}
+	 * @throws IllegalArgumentException a feature was unknown
+	 */
+	public void setFeatures(List features) {
+		for (int i = 0; i < features.size(); ++i) {
+			if (!FEATURES.contains(features.get(i))) {
+				throw new IllegalArgumentException("unknown feature \""
+					+ features.get(i) + "\"");
+			}
+		}
+		this.features = new ArrayList(features);
+	}
+
+	/**
+	 * Generate a program.  Each call generates a different one.
+	 * @return the source of the program
+	 */
+	public String program() {
+		out = new StringBuffer();
+		List parts = new ArrayList();
+		peanoClasses();
+		if (has("church") || has("lists")) functionClasses();
+		if (has("peano")) parts.add(arithmetic(size).text);
+		if (has("church")) {
+			churchClasses();
+			parts.add(church(size).text + ".toNat()");
+		}
+		if (has("lists")) {
+			listClasses();
+			parts.add(lists());
+		}
+		if (has("visitor")) parts.add(visitor());
+		if (has("hierarchy")) parts.add(hierarchy());
+
+		// Gather the parts into one value
+		if (parts.size() == 1) {
+			out.append(parts.get(0)).append('\n');
+		}
+		else {
+			StringBuffer params = new StringBuffer();
+			StringBuffer inits = new StringBuffer();
+			StringBuffer args = new StringBuffer();
+			line("class Results extends Object {");
+			for (int i = 0; i < parts.size(); ++i) {
+				String field = letters("", i);
+				line("  Object " + field + ";");
+				if (i > 0) {
+					params.append(", ");
+					args.append(",\n  ");
+				}
+				params.append("Object ").append(field);
+				inits.append(" this.").append(field).append(" = ").append(field).append(';');
+				args.append(parts.get(i));
+			}
+			line("  Results(" + params + ") { super();" + inits + " }");
+			line("}");
+			out.append("new Results(\n  ").append(args).append(")\n");
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Determine whether a feature is included.
+	 * @param feature the name of the feature
+	 * @return whether it is
+	 */
+	private boolean has(String feature) {
+		return features.contains(feature);
+	}
+
+	/**
+	 * Write the Peano numerals.
+	 */
+	private void peanoClasses() {
+		line("class Nat extends Object {");
+		line("  Nat() { super(); }");
+		line("  Nat add(Nat m) { return m; }");
+		line("  Nat mul(Nat m) { return this; }");
+		line("}");
+		line("class Succ extends Nat {");
+		line("  Nat pred;");
+		line("  Succ(Nat pred) { super(); this.pred = pred; }");
+		line("  Nat add(Nat m) { return new Succ(this.pred.add(m)); }");
+		line("  Nat mul(Nat m) { return m.add(this.pred.mul(m)); }");
+		line("}");
+	}
+
+	/**
+	 * Write the function objects, and the function adding one.  A
+	 * function object is only ever one of the subclasses, which
+	 * override <code>apply</code>.
+	 */
+	private void functionClasses() {
+		line("class Fun<A extends Object, B extends Object> extends Object {");
+		line("  Fun() { super(); }");
+		line("  B apply(A x) { return this.apply(x); }");
+		line("}");
+		line("class SuccFun extends Fun<Nat, Nat> {");
+		line("  SuccFun() { super(); }");
+		line("  Nat apply(Nat x) { return new Succ(x); }");
+		line("}");
+	}
+
+	/**
+	 * Write the Church numerals.
+	 */
+	private void churchClasses() {
+		line("class Church extends Object {");
+		line("  Church() { super(); }");
+		line("  <X extends Object> X iter(Fun<X, X> f, X x) { return x; }");
+		line("  Nat toNat() { return this.iter<Nat>(new SuccFun(), new Nat()); }");
+		line("}");
+		line("class ChurchSucc extends Church {");
+		line("  Church n;");
+		line("  ChurchSucc(Church n) { super(); this.n = n; }");
+		line("  <X extends Object> X iter(Fun<X, X> f, X x) { return f.apply(this.n.iter<X>(f, x)); }");
+		line("}");
+		line("class ChurchAdd extends Church {");
+		line("  Church a;");
+		line("  Church b;");
+		line("  ChurchAdd(Church a, Church b) { super(); this.a = a; this.b = b; }");
+		line("  <X extends Object> X iter(Fun<X, X> f, X x) { return this.a.iter<X>(f, this.b.iter<X>(f, x)); }");
+		line("}");
+		line("class ChurchMul extends Church {");
+		line("  Church a;");
+		line("  Church b;");
+		line("  ChurchMul(Church a, Church b) { super(); this.a = a; this.b = b; }");
+		line("  <X extends Object> X iter(Fun<X, X> f, X x) { return this.a.iter<X>(new Iterate<X>(this.b, f), x); }");
+		line("}");
+		line("class Iterate<X extends Object> extends Fun<X, X> {");
+		line("  Church n;");
+		line("  Fun<X, X> f;");
+		line("  Iterate(Church n, Fun<X, X> f) { super(); this.n = n; this.f = f; }");
+		line("  X apply(X x) { return this.n.iter<X>(this.f, x); }");
+		line("}");
+	}
+
+	/**
+	 * Write the cons lists, pairs, and boxes.
+	 */
+	private void listClasses() {
+		line("class Pair<X extends Object, Y extends Object> extends Object {");
+		line("  X fst;");
+		line("  Y snd;");
+		line("  Pair(X fst, Y snd) { super(); this.fst = fst; this.snd = snd; }");
+		line("}");
+		line("class Box<X extends Object> extends Object {");
+		line("  X x;");
+		line("  Box(X x) { super(); this.x = x; }");
+		line("}");
+		line("class BoxFun<X extends Object> extends Fun<X, Box<X>> {");
+		line("  BoxFun() { super(); }");
+		line("  Box<X> apply(X x) { return new Box<X>(x); }");
+		line("}");
+		line("class UnboxFun<X extends Object> extends Fun<Box<X>, X> {");
+		line("  UnboxFun() { super(); }");
+		line("  X apply(Box<X> b) { return b.x; }");
+		line("}");
+		line("class AddFun extends Fun<Pair<Nat, Nat>, Nat> {");
+		line("  AddFun() { super(); }");
+		line("  Nat apply(Pair<Nat, Nat> p) { return p.fst.add(p.snd); }");
+		line("}");
+		line("class List<X extends Object> extends Object {");
+		line("  List() { super(); }");
+		line("  Nat length() { return new Nat(); }");
+		line("  List<X> append(List<X> l) { return l; }");
+		line("  List<X> reverse() { return this.onto(new List<X>()); }");
+		line("  List<X> onto(List<X> acc) { return acc; }");
+		line("  <Y extends Object> List<Y> map(Fun<X, Y> f) { return new List<Y>(); }");
+		line("  <Y extends Object> Y fold(Fun<Pair<X, Y>, Y> f, Y y) { return y; }");
+		line("}");
+		line("class Cons<X extends Object> extends List<X> {");
+		line("  X head;");
+		line("  List<X> tail;");
+		line("  Cons(X head, List<X> tail) { super(); this.head = head; this.tail = tail; }");
+		line("  Nat length() { return new Succ(this.tail.length()); }");
+		line("  List<X> append(List<X> l) { return new Cons<X>(this.head, this.tail.append(l)); }");
+		line("  List<X> onto(List<X> acc) { return this.tail.onto(new Cons<X>(this.head, acc)); }");
+		line("  <Y extends Object> List<Y> map(Fun<X, Y> f) { return new Cons<Y>(f.apply(this.head), this.tail.map<Y>(f)); }");
+		line("  <Y extends Object> Y fold(Fun<Pair<X, Y>, Y> f, Y y) { return f.apply(new Pair<X, Y>(this.head, this.tail.fold<Y>(f, y))); }");
+		line("}");
+	}
+
+	/**
+	 * Generate arithmetic on Peano numerals.
+	 * @param ops the number of operations
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private Expr arithmetic(int ops) {
+		if (ops == 0) {
+			int n = random.nextInt(4);
+			return new Expr(cast(numeral(n), "Nat"), n);
+		}
+		int left = random.nextInt(ops);
+		Expr a = arithmetic(left);
+		Expr b = arithmetic(ops - 1 - left);
+		if (random.nextBoolean() && a.value * b.value <= MAX) {
+			return new Expr(cast(a.text + ".mul(" + b.text + ")", "Nat"),
+				a.value * b.value);
+		}
+		else if (a.value + b.value <= MAX) {
+			return new Expr(cast(a.text + ".add(" + b.text + ")", "Nat"),
+				a.value + b.value);
+		}
+		return a;
+	}
+
+	/**
+	 * Generate arithmetic on Church numerals.
+	 * @param ops the number of operations
+	 * @return the expression, of type <code>Church</code>
+	 */
+	private Expr church(int ops) {
+		if (ops == 0) {
+			int n = random.nextInt(4);
+			StringBuffer sb = new StringBuffer();
+			for (int i = 0; i < n; ++i) sb.append("new ChurchSucc(");
+			sb.append("new Church()");
+			for (int i = 0; i < n; ++i) sb.append(')');
+			return new Expr(cast(sb.toString(), "Church"), n);
+		}
+		int left = random.nextInt(ops);
+		Expr a = church(left);
+		Expr b = church(ops - 1 - left);
+		if (random.nextBoolean() && a.value * b.value <= MAX) {
+			return new Expr(cast("new ChurchMul(" + a.text + ", " + b.text + ")",
+				"Church"), a.value * b.value);
+		}
+		else if (a.value + b.value <= MAX) {
+			return new Expr(cast("new ChurchAdd(" + a.text + ", " + b.text + ")",
+				"Church"), a.value + b.value);
+		}
+		return a;
+	}
+
+	/**
+	 * Generate a list, and operations on it, boxing and unboxing its
+	 * elements.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String lists() {
+		int boxes = 0;
+		String list = list(size, 0);
+		for (int i = 0; i < size; ++i) {
+			switch (random.nextInt(4)) {
+			case 0:
+				list = list + ".reverse()";
+				break;
+			case 1:
+				list = list + ".append(" + list(random.nextInt(4), boxes) + ")";
+				break;
+			default:
+				if (boxes < nesting && random.nextBoolean()) {
+					list = list + ".map<" + boxType(boxes + 1) + ">("
+						+ cast("new BoxFun<" + boxType(boxes) + ">()",
+							"Fun<" + boxType(boxes) + ", " + boxType(boxes + 1) + ">")
+						+ ")";
+					++boxes;
+				}
+				else if (boxes > 0) {
+					--boxes;
+					list = list + ".map<" + boxType(boxes) + ">("
+						+ cast("new UnboxFun<" + boxType(boxes) + ">()",
+							"Fun<" + boxType(boxes + 1) + ", " + boxType(boxes) + ">")
+						+ ")";
+				}
+				else {
+					list = list + ".map<Nat>(" + cast("new SuccFun()", "SuccFun") + ")";
+				}
+				break;
+			}
+			list = cast(list, "List<" + boxType(boxes) + ">");
+		}
+		for (; boxes > 0; --boxes) {
+			list = list + ".map<" + boxType(boxes - 1) + ">(new UnboxFun<"
+				+ boxType(boxes - 1) + ">())";
+		}
+		return list + (random.nextBoolean() ? ".fold<Nat>(new AddFun(), new Nat())"
+			: ".length()");
+	}
+
+	/**
+	 * Generate a list of boxed numerals.
+	 * @param length the length of the list
+	 * @param boxes the number of boxes around each numeral
+	 * @return the expression, of type <code>List</code> of the boxes
+	 */
+	private String list(int length, int boxes) {
+		String type = boxType(boxes);
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < length; ++i) {
+			String element = numeral(random.nextInt(4));
+			for (int b = 0; b < boxes; ++b) {
+				element = "new Box<" + boxType(b) + ">(" + element + ")";
+			}
+			sb.append("new Cons<").append(type).append(">(")
+				.append(cast(element, type)).append(", ");
+		}
+		sb.append("new List<").append(type).append(">()");
+		for (int i = 0; i < length; ++i) sb.append(')');
+		return cast(sb.toString(), "List<" + type + ">");
+	}
+
+	/**
+	 * Write shapes and visitors, and generate a visit of a list of
+	 * shapes.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String visitor() {
+		int shapes = width + 1;
+		line("class Shape extends Object {");
+		line("  Nat size;");
+		line("  Shape(Nat size) { super(); this.size = size; }");
+		line("  <R extends Object> R accept(Visitor<R> v) { return v.otherwise; }");
+		line("}");
+		for (int i = 0; i < shapes; ++i) {
+			String name = "Shape" + upper(i);
+			line("class " + name + " extends Shape {");
+			line("  " + name + "(Nat size) { super(size); }");
+			line("  <R extends Object> R accept(Visitor<R> v) { return v.visit"
+				+ name + "(this); }");
+			line("}");
+		}
+		line("class Visitor<R extends Object> extends Object {");
+		line("  R otherwise;");
+		line("  Visitor(R otherwise) { super(); this.otherwise = otherwise; }");
+		for (int i = 0; i < shapes; ++i) {
+			String name = "Shape" + upper(i);
+			line("  R visit" + name + "(" + name + " s) { return this.otherwise; }");
+		}
+		line("}");
+		for (int v = 0; v < methods; ++v) {
+			String visitor = "Visitor" + upper(v);
+			line("class " + visitor + " extends Visitor<Nat> {");
+			line("  " + visitor + "(Nat otherwise) { super(otherwise); }");
+			for (int i = 0; i < shapes; ++i) {
+				if (random.nextBoolean()) continue;
+				String name = "Shape" + upper(i);
+				line("  Nat visit" + name + "(" + name + " s) { return "
+					+ choose(new String[] { "s.size", "new Succ(s.size)",
+						"s.size.add(this.otherwise)" }) + "; }");
+			}
+			line("}");
+		}
+		line("class Shapes extends Object {");
+		line("  Shapes() { super(); }");
+		line("  Nat count(Visitor<Nat> v) { return new Nat(); }");
+		line("}");
+		line("class ShapeCons extends Shapes {");
+		line("  Shape head;");
+		line("  Shapes tail;");
+		line("  ShapeCons(Shape head, Shapes tail) { super(); this.head = head; this.tail = tail; }");
+		line("  Nat count(Visitor<Nat> v) { return this.head.accept<Nat>(v).add(this.tail.count(v)); }");
+		line("}");
+
+		// Visit a list of shapes
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < size; ++i) {
+			String shape = "new Shape" + upper(random.nextInt(shapes)) + "("
+				+ numeral(random.nextInt(4)) + ")";
+			sb.append("new ShapeCons(").append(cast(shape, "Shape")).append(", ");
+		}
+		sb.append("new Shapes()");
+		for (int i = 0; i < size; ++i) sb.append(')');
+		String visitor = "new Visitor" + upper(random.nextInt(methods)) + "("
+			+ numeral(random.nextInt(2)) + ")";
+		return cast(sb.toString(), "Shapes") + ".count("
+			+ cast(visitor, "Visitor<Nat>") + ")";
+	}
+
+	/**
+	 * Write a tree of generic classes, and generate calls of their
+	 * methods.  Each method calls only methods before it, so calls
+	 * always end.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String hierarchy() {
+		List classes = new ArrayList();
+		List parents = new ArrayList();
+		classes.add("H");
+		parents.add(null);
+		line("class H<X extends Object> extends Object {");
+		line("  X x;");
+		line("  Nat n;");
+		line("  H(X x, Nat n) { super(); this.x = x; this.n = n; }");
+		line("  X get() { return this.x; }");
+		for (int m = 0; m < methods; ++m) {
+			line("  Nat " + letters("m", m) + "() { return " + methodBody(m) + "; }");
+		}
+		line("}");
+		for (int i = 0; i < classes.size(); ++i) {
+			String parent = (String) classes.get(i);
+			if (parent.length() >= depth) continue;
+			for (int w = 0; w < width; ++w) {
+				String name = parent + upper(w);
+				classes.add(name);
+				parents.add(parent);
+				line("class " + name + "<X extends Object> extends " + parent + "<X> {");
+				line("  " + name + "(X x, Nat n) { super(x, n); }");
+				for (int m = 0; m < methods; ++m) {
+					if (random.nextBoolean()) continue;
+					line("  Nat " + letters("m", m) + "() { return "
+						+ methodBody(m) + "; }");
+				}
+				line("}");
+			}
+		}
+
+		// Call methods of objects of some classes, seen as some class
+		// above them, sometimes holding a numeral they are asked for
+		String sum = null;
+		for (int i = 0; i < Math.max(1, size / 2); ++i) {
+			int k = random.nextInt(classes.size());
+			boolean holds = random.nextBoolean();
+			String type = holds ? "Nat" : "Object";
+			String object = "new " + classes.get(k) + "<" + type + ">("
+				+ (holds ? numeral(random.nextInt(4)) : "new Object()") + ", "
+				+ numeral(random.nextInt(4)) + ")";
+			for (int up = random.nextInt(depth); up > 0 && parents.get(k) != null; --up) {
+				k = classes.indexOf(parents.get(k));
+			}
+			String call = "((" + classes.get(k) + "<" + type + ">) " + object + ")."
+				+ (holds && random.nextBoolean() ? "get()"
+					: letters("m", random.nextInt(methods)) + "()");
+			sum = (sum == null) ? call : cast(sum, "Nat") + ".add(" + call + ")";
+		}
+		return sum;
+	}
+
+	/**
+	 * Generate the body of a method of the class hierarchy.
+	 * @param m the number of the method
+	 * @return its body, of type <code>Nat</code>, calling only methods
+	 * with smaller numbers
+	 */
+	private String methodBody(int m) {
+		if (m == 0) {
+			return random.nextBoolean() ? "this.n" : "new Succ(this.n)";
+		}
+		String call = "this." + letters("m", random.nextInt(m)) + "()";
+		return choose(new String[] { "this.n", call, "new Succ(" + call + ")" });
+	}
+
+	/**
+	 * Cast an expression, sometimes: to <code>Object</code> and back
+	 * if its type has no parameters, and otherwise to its own type.
+	 * @param text the expression
+	 * @param type its type
+	 * @return the expression, perhaps cast
+	 */
+	private String cast(String text, String type) {
+		if (casts == 0 || random.nextInt(100) >= casts) return text;
+		if (type.indexOf('<') >= 0) return "((" + type + ") " + text + ")";
+		return "((" + type + ") (Object) " + text + ")";
+	}
+
+	/**
+	 * Choose one of some strings.
+	 * @param choices the strings
+	 * @return one of them
+	 */
+	private String choose(String[] choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+
+	/**
+	 * Write a line of the program.
+	 * @param line the line, without a newline
+	 */
+	private void line(String line) {
+		out.append(line).append('\n');
+	}
+
+	/**
+	 * Write the type of numerals in nested boxes.
+	 * @param boxes the number of boxes
+	 * @return the type
+	 */
+	private static String boxType(int boxes) {
+		return (boxes == 0) ? "Nat" : "Box<" + boxType(boxes - 1) + ">";
+	}
+
+	/**
+	 * Write a Peano numeral.
+	 * @param n its value
+	 * @return the expression creating it
+	 */
+	private static String numeral(int n) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < n; ++i) sb.append("new Succ(");
+		sb.append("new Nat()");
+		for (int i = 0; i < n; ++i) sb.append(')');
+		return sb.toString();
+	}
+
+	/**
+	 * Write a number in capital letters, since names are made of
+	 * letters only.
+	 * @param n the number
+	 * @return the letters, <code>A</code> for 0
+	 */
+	private static String upper(int n) {
+		return letters("", n).toUpperCase();
+	}
+
+	/**
+	 * Append a number to a name, written in small letters.
+	 * @param prefix the name
+	 * @param n the number
+	 * @return the name followed by the number, <code>a</code> for 0
+	 */
+	private static String letters(String prefix, int n) {
+		StringBuffer sb = new StringBuffer();
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return prefix + sb.reverse();
+	}
+
+	/**
+	 * An expression, and the value of the numeral it computes.
+	 */
+	private static class Expr {
+
+		/**
+		 * The text of the expression.
+		 */
+		final String text;
+
+		/**
+		 * Its value.
+		 */
+		final int value;
+
+		/**
+		 * Construct an expression.
+		 * @param text the text of the expression
+		 * @param value its value
+		 */
+		Expr(String text, int value) {
+			this.text = text;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Write programs.
+	 * @param args options setting the seed and shape of the programs,
+	 * and how many to write where; see the usage message
+	 */
+	public static void main(String[] args) {
+		long seed = 1;
+		int count = 1;
+		String output = null;
+		Generator generator = null;
+		List settings = new ArrayList();
+		boolean usage = (args.length % 2 != 0);
+		for (int i = 0; !usage && i < args.length; i += 2) {
+			try {
+				if (args[i].equals("--seed")) {
+					seed = Long.parseLong(args[i + 1]);
+				}
+				else if (args[i].equals("--count")) {
+					count = Integer.parseInt(args[i + 1]);
+					usage = (count < 1);
+				}
+				else if (args[i].equals("--output")) {
+					output = args[i + 1];
+				}
+				else if (args[i].equals("--depth") || args[i].equals("--width")
+						|| args[i].equals("--methods") || args[i].equals("--size")
+						|| args[i].equals("--nesting") || args[i].equals("--casts")) {
+					Integer.parseInt(args[i + 1]);
+					settings.add(args[i]);
+					settings.add(args[i + 1]);
+				}
+				else if (args[i].equals("--features")) {
+					settings.add(args[i]);
+					settings.add(args[i + 1]);
+				}
+				else {
+					usage = true;
+				}
+			}
+			catch (NumberFormatException e) {
+				usage = true;
+			}
+		}
+		if (!usage) {
+			generator = new Generator(seed);
+			try {
+				for (int i = 0; i < settings.size(); i += 2) {
+					generator.set((String) settings.get(i), (String) settings.get(i + 1));
+				}
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("fgj: " + e.getMessage());
+				usage = true;
+			}
+		}
+		if (usage || (count > 1 && output == null)) {
+			System.err.println("usage: fgj.gen.Generator [--seed n] [--depth n] [--width n] [--methods n]");
+			System.err.println("           [--size n] [--nesting n] [--casts percent] [--features name,...]");
+			System.err.println("           [--count n --output directory]");
+			System.err.println("features: peano, church, lists, visitor, hierarchy");
+			return;
+		}
+		try {
+			if (output == null) {
+				System.out.print(generator.program());
+			}
+			else {
+				File dir = new File(output);
+				dir.mkdirs();
+				for (int i = 0; i < count; ++i) {
+					Writer out = new OutputStreamWriter(new FileOutputStream(
+						new File(dir, "gen" + i + ".fgj")), "UTF-8");
+					try {
+						out.write(generator.program());
+					}
+					finally {
+						out.close();
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			System.err.println("fgj: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Apply a setting from the command line.
+	 * @param option the option, such as <code>--depth</code>
+	 * @param value its value
+	 * @throws IllegalArgumentException a feature was unknown
+	 */
+	private void set(String option, String value) {
+		if (option.equals("--features")) {
+			setFeatures(Arrays.asList(value.split(",")));
+			return;
+		}
+		int n = Integer.parseInt(value);
+		if (option.equals("--depth")) setDepth(n);
+		else if (option.equals("--width")) setWidth(n);
+		else if (option.equals("--methods")) setMethods(n);
+		else if (option.equals("--size")) setSize(n);
+		else if (option.equals("--nesting")) setNesting(n);
+		else setCasts(n);
+	}
+}
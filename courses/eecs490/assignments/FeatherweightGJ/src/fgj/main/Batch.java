@@ -0,0 +1,324 @@
+package fgj.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Running many programs in one virtual machine, so that the cost of
+ * starting it and of compiling the system is paid once for a whole
+ * test suite rather than once per program.  Programs run on a pool of
+ * threads, and one line is written for each, in the order the programs
+ * were given, as soon as it and every program before it have finished:
+ *
+ * <pre>
+ * file name &lt;tab&gt; milliseconds &lt;tab&gt; result
+ * </pre>
+ *
+ * The result is what running the program alone prints: its value, or
+ * the first error discovered.  A program which cannot be run at all
+ * does not stop the others; its result says why.
+ */
+public class Batch {
+
+	/**
+	 * The work done on each program.
+	 */
+	public interface Pipeline {
+
+		/**
+		 * Run a program.
+		 * @param fileName the name of its source file
+		 * @return the value of the program, or the first error
+		 * discovered while checking or evaluating it
+		 * @throws Exception the program could not be run
+		 */
+		String run(String fileName) throws Exception;
+	}
+
+	/**
+	 * The name of the system, which is also the suffix of its source
+	 * files.
+	 */
+	private final String name;
+
+	/**
+	 * The work done on each program.
+	 */
+	private final Pipeline pipeline;
+
+	/**
+	 * The number of programs to run at once.
+	 */
+	private final int jobs;
+
+	/**
+	 * Construct a batch runner.
+	 * @param name the name of the system (for example, <code>"fgj"</code>)
+	 * @param pipeline the work to do on each program
+	 * @param jobs the number of programs to run at once
+	 */
+	public Batch(String name, Pipeline pipeline, int jobs) {
+		this.name = name;
+		this.pipeline = pipeline;
+		this.jobs = jobs;
+	}
+
+	/**
+	 * Find the source files named by a list of arguments.  Each
+	 * argument is one of
+	 * <ul>
+	 * <li>a directory, standing for every source file under it;</li>
+	 * <li>a glob such as <code>tests/*.fgj</code> or
+	 * <code>suite/**.fgj</code>, standing for every file it matches;</li>
+	 * <li><code>@</code> followed by the name of a manifest, a file
+	 * listing further arguments one per line, relative to the manifest's
+	 * directory, with blank lines and lines starting with
+	 * <code>#</code> ignored;</li>
+	 * <li>anything else, taken as the name of a source file.</li>
+	 * </ul>
+	 * Files under a directory or matching a glob are listed in order of
+	 * their names.
+	 * @param args the {@link String} arguments
+	 * @return the {@link String} list of source file names
+	 * @throws IOException a manifest could not be read
+	 */
+	public List sourceFiles(List args) throws IOException {
+		List files = new ArrayList();
+		for (Iterator i = args.iterator(); i.hasNext(); ) {
+			expand(null, (String) i.next(), files);
+		}
+		return files;
+	}
+
+	/**
+	 * Add the source files named by one argument to a list.
+	 * @param dir the directory relative names are resolved against,
+	 * or <code>null</code> for the current directory
+	 * @param arg the argument
+	 * @param files the list of file names to add to
+	 * @throws IOException a manifest could not be read
+	 */
+	private void expand(File dir, String arg, List files) throws IOException {
+		if (arg.startsWith("@")) {
+			File manifest = resolve(dir, arg.substring(1));
+			BufferedReader reader = new BufferedReader(new FileReader(manifest));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) continue;
+					expand(manifest.getParentFile(), line, files);
+				}
+			}
+			finally {
+				reader.close();
+			}
+			return;
+		}
+		File file = resolve(dir, arg);
+		if (file.isDirectory()) {
+			collect(file, file.getPath() + File.separator, null, files);
+		}
+		else if (isGlob(file.getPath())) {
+
+			// Walk from the longest directory without wildcards
+			String path = file.getPath();
+			int end = path.length();
+			for (int i = 0; i < path.length(); ++i) {
+				if ("*?[{".indexOf(path.charAt(i)) >= 0) {
+					end = i;
+					break;
+				}
+			}
+			String prefix = path.substring(0, path.lastIndexOf(File.separatorChar, end) + 1);
+			File base = new File(prefix.length() == 0 ? "." : prefix);
+			PathMatcher matcher =
+				FileSystems.getDefault().getPathMatcher("glob:" + path);
+			collect(base, prefix, matcher, files);
+		}
+		else {
+			files.add(file.getPath());
+		}
+	}
+
+	/**
+	 * Add the files under a directory to a list, in order of their names.
+	 * @param dir the directory
+	 * @param path the name of the directory as it should appear in
+	 * file names, ending in a separator, or empty for the current
+	 * directory
+	 * @param matcher the glob the files must match, or <code>null</code>
+	 * to take every source file
+	 * @param files the list of file names to add to
+	 */
+	private void collect(File dir, String path, PathMatcher matcher, List files) {
+		String[] names = dir.list();
+		if (names == null) return;
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; ++i) {
+			String fileName = path + names[i];
+			File file = new File(dir, names[i]);
+			if (file.isDirectory()) {
+				collect(file, fileName + File.separator, matcher, files);
+			}
+			else if (matcher != null ? matcher.matches(new File(fileName).toPath()) :
+					fileName.endsWith("." + name)) {
+				files.add(fileName);
+			}
+		}
+	}
+
+	/**
+	 * Resolve a file name against a directory.
+	 * @param dir the directory, or <code>null</code> for the current one
+	 * @param fileName the file name
+	 * @return the file
+	 */
+	private static File resolve(File dir, String fileName) {
+		File file = new File(fileName);
+		return (dir == null || file.isAbsolute()) ? file : new File(dir, fileName);
+	}
+
+	/**
+	 * Determine whether a file name contains wildcards.
+	 * @param fileName the file name
+	 * @return whether or not it is a glob
+	 */
+	private static boolean isGlob(String fileName) {
+		for (int i = 0; i < fileName.length(); ++i) {
+			if ("*?[{".indexOf(fileName.charAt(i)) >= 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Run a list of programs, writing a line for each.
+	 * @param fileNames the {@link String} list of source file names
+	 * @param out where to write the results
+	 * @return the number of programs which could not be run
+	 */
+	public int run(List fileNames, PrintStream out) {
+		ExecutorService pool = Executors.newFixedThreadPool(jobs);
+		try {
+
+			// Start them all
+			List results = new ArrayList(fileNames.size());
+			for (Iterator i = fileNames.iterator(); i.hasNext(); ) {
+				final String fileName = (String) i.next();
+				results.add(pool.submit(new Callable() {
+					public Object call() {
+						return runOne(fileName);
+					}
+				}));
+			}
+
+			// Report them in order
+			int failures = 0;
+			Iterator j = fileNames.iterator();
+			for (Iterator i = results.iterator(); i.hasNext(); ) {
+				String fileName = (String) j.next();
+				Result result;
+				try {
+					result = (Result) ((Future) i.next()).get();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return failures;
+				}
+				catch (ExecutionException e) {
+					result = new Result(false, 0, e.getCause().toString());
+				}
+				if (!result.ran) ++failures;
+				out.println(fileName + "\t" + millis(result.nanos) + "\t" + result.output);
+				out.flush();
+			}
+			return failures;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run one program, catching whatever goes wrong.
+	 * @param fileName the name of its source file
+	 * @return the result
+	 */
+	private Result runOne(String fileName) {
+		long start = System.nanoTime();
+		boolean ran = false;
+		String output;
+		try {
+			output = pipeline.run(fileName);
+			ran = true;
+		}
+		catch (IOException e) {
+			output = "can't read file \"" + fileName + "\": " + e.getMessage();
+		}
+		catch (Exception e) {
+			output = "internal error: " + e;
+		}
+		catch (StackOverflowError e) {
+			output = "internal error: " + e;
+		}
+		return new Result(ran, System.nanoTime() - start, output.replace('\n', ' '));
+	}
+
+	/**
+	 * Format a time in milliseconds, to the nearest microsecond.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String millis(long nanos) {
+		long micros = (nanos + 500) / 1000;
+		String fraction = String.valueOf(1000 + micros % 1000).substring(1);
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/**
+	 * The outcome of running one program.
+	 */
+	private static class Result {
+
+		/**
+		 * Whether the program ran to a value or an error of its own.
+		 */
+		final boolean ran;
+
+		/**
+		 * How long it took, in nanoseconds.
+		 */
+		final long nanos;
+
+		/**
+		 * What it printed.
+		 */
+		final String output;
+
+		/**
+		 * Construct a result.
+		 * @param ran whether the program ran
+		 * @param nanos how long it took
+		 * @param output what it printed
+		 */
+		Result(boolean ran, long nanos, String output) {
+			this.ran = ran;
+			this.nanos = nanos;
+			this.output = output;
+		}
+	}
+}
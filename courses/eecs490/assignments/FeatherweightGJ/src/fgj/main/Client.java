@@ -0,0 +1,326 @@
+package fgj.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A connection to a {@link Server} on this machine.  Requests on one
+ * connection are answered one at a time, in order; to run several at
+ * once, open several clients.
+ *
+ * <p>Run as a program, it sends programs to a server and prints what
+ * each prints, or with <code>--clients</code> and
+ * <code>--repeat</code>, sends them over and over from many
+ * connections at once and reports how fast they were answered.</p>
+ */
+public class Client {
+
+	/**
+	 * The connection to the server.
+	 */
+	private final Socket socket;
+
+	/**
+	 * The stream replies are read from.
+	 */
+	private final DataInputStream in;
+
+	/**
+	 * The stream requests are written to.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Connect to a server.
+	 * @param port the port it listens on
+	 * @throws IOException the connection could not be made
+	 */
+	public Client(int port) throws IOException {
+		this.socket = new Socket(InetAddress.getByName(null), port);
+		this.socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(
+			new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(
+			new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	/**
+	 * Check and evaluate a program.
+	 * @param source the source of the program
+	 * @return its value
+	 * @throws ServerException the program failed to parse, typecheck,
+	 * or evaluate in time
+	 * @throws IOException the server could not be reached
+	 */
+	public String run(String source) throws ServerException, IOException {
+		return request("run", source);
+	}
+
+	/**
+	 * Check a program, and keep it for evaluating expressions against.
+	 * @param source the source of the program; its expression is
+	 * checked but not evaluated
+	 * @return the hash naming the program to {@link #eval}
+	 * @throws ServerException the program failed to parse or typecheck
+	 * @throws IOException the server could not be reached
+	 */
+	public String load(String source) throws ServerException, IOException {
+		return request("load", source);
+	}
+
+	/**
+	 * Check and evaluate an expression against the classes of a
+	 * program loaded earlier.
+	 * @param hash the hash naming the program
+	 * @param source the source of the expression
+	 * @return its value
+	 * @throws ServerException the program is no longer loaded, or the
+	 * expression failed to parse, typecheck, or evaluate in time
+	 * @throws IOException the server could not be reached
+	 */
+	public String eval(String hash, String source)
+		throws ServerException, IOException {
+		return request("eval " + hash, source);
+	}
+
+	/**
+	 * Send a request and wait for its reply.
+	 * @param command the first line of the request
+	 * @param text the rest of the request
+	 * @return the rest of a reply of <code>ok</code>
+	 * @throws ServerException the reply was <code>error</code>
+	 * @throws IOException the server could not be reached
+	 */
+	public synchronized String request(String command, String text)
+		throws ServerException, IOException {
+		Server.writeFrame(out, command + "\n" + text);
+		String reply = Server.readFrame(in, Integer.MAX_VALUE);
+		if (reply == null) throw new IOException("server closed the connection");
+		int newline = reply.indexOf('\n');
+		String status = (newline < 0) ? reply : reply.substring(0, newline);
+		String rest = (newline < 0) ? "" : reply.substring(newline + 1);
+		if (status.equals("ok")) {
+			return rest;
+		}
+		else {
+			throw new ServerException(rest);
+		}
+	}
+
+	/**
+	 * Close the connection.
+	 * @throws IOException the connection could not be closed
+	 */
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Send programs to a server on this machine.
+	 * @param args the port of the server, then the names of the source
+	 * files, optionally preceded by <code>--clients</code> <i>n</i> to
+	 * send from <i>n</i> connections at once and <code>--repeat</code>
+	 * <i>n</i> to send every program <i>n</i> times from each
+	 */
+	public static void main(String[] args) {
+		int clients = 1;
+		int repeat = 1;
+		int i = 0;
+		try {
+			for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+				if (args[i].equals("--clients")) {
+					clients = Integer.parseInt(args[i + 1]);
+				}
+				else if (args[i].equals("--repeat")) {
+					repeat = Integer.parseInt(args[i + 1]);
+				}
+				else {
+					clients = 0;
+				}
+			}
+			if (clients < 1 || repeat < 1 || i + 2 > args.length) {
+				throw new NumberFormatException();
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("usage: fgj.main.Client [--clients n] [--repeat n] port filename.fgj...");
+			return;
+		}
+		try {
+			int port = Integer.parseInt(args[i]);
+			List sources = new ArrayList();
+			for (int j = i + 1; j < args.length; ++j) {
+				sources.add(read(args[j]));
+			}
+			if (clients == 1 && repeat == 1) {
+				Client client = new Client(port);
+				try {
+					for (int j = 0; j < sources.size(); ++j) {
+						System.out.println(args[i + 1 + j] + "\t" +
+							answer(client, (String) sources.get(j)));
+					}
+				}
+				finally {
+					client.close();
+				}
+			}
+			else {
+				loadTest(port, sources, clients, repeat);
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("fgj: bad port \"" + args[i] + "\"");
+		}
+		catch (IOException e) {
+			System.err.println("fgj: " + e.getMessage());
+		}
+		catch (InterruptedException e) {
+			// Give up
+		}
+	}
+
+	/**
+	 * Run a program, and find what running it alone would print.
+	 * @param client the connection to the server
+	 * @param source the source of the program
+	 * @return its value, or the error
+	 * @throws IOException the server could not be reached
+	 */
+	private static String answer(Client client, String source)
+		throws IOException {
+		try {
+			return client.run(source);
+		}
+		catch (ServerException e) {
+			return e.getMessage();
+		}
+	}
+
+	/**
+	 * Send programs over and over from many connections at once, and
+	 * print how many were answered per second, how long they took, and
+	 * how many answers differed from the first answer to the program.
+	 * @param port the port of the server
+	 * @param sources the {@link String} sources of the programs
+	 * @param clients the number of connections to send from
+	 * @param repeat the number of times each sends each program
+	 * @throws IOException the server could not be reached
+	 * @throws InterruptedException the test was interrupted
+	 */
+	private static void loadTest(final int port, final List sources,
+			int clients, final int repeat)
+			throws IOException, InterruptedException {
+
+		// Find the expected answers, which also loads the programs
+		final List expected = new ArrayList();
+		Client first = new Client(port);
+		try {
+			for (int j = 0; j < sources.size(); ++j) {
+				expected.add(answer(first, (String) sources.get(j)));
+			}
+		}
+		finally {
+			first.close();
+		}
+
+		// Send them all from every client, timing each
+		final long[][] times = new long[clients][repeat * sources.size()];
+		final int[] wrong = new int[clients];
+		final IOException[] failure = new IOException[clients];
+		Thread[] threads = new Thread[clients];
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; ++c) {
+			final int index = c;
+			threads[c] = new Thread() {
+				public void run() {
+					try {
+						Client client = new Client(port);
+						try {
+							int n = 0;
+							for (int r = 0; r < repeat; ++r) {
+								for (int j = 0; j < sources.size(); ++j) {
+									long t = System.nanoTime();
+									String a = answer(client, (String) sources.get(j));
+									times[index][n++] = System.nanoTime() - t;
+									if (!a.equals(expected.get(j))) ++wrong[index];
+								}
+							}
+						}
+						finally {
+							client.close();
+						}
+					}
+					catch (IOException e) {
+						failure[index] = e;
+					}
+				}
+			};
+			threads[c].start();
+		}
+		for (int c = 0; c < clients; ++c) {
+			threads[c].join();
+			if (failure[c] != null) throw failure[c];
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// Report
+		long[] all = new long[clients * repeat * sources.size()];
+		int mismatches = 0;
+		for (int c = 0; c < clients; ++c) {
+			System.arraycopy(times[c], 0, all, c * times[c].length, times[c].length);
+			mismatches += wrong[c];
+		}
+		Arrays.sort(all);
+		System.out.println(all.length + " requests from " + clients
+			+ " clients in " + (elapsed / 1000000) + " ms, "
+			+ (long) (all.length * 1e9 / elapsed) + " per second");
+		System.out.println("latency ms: median " + millis(all, 0.5)
+			+ ", 90% " + millis(all, 0.9) + ", 99% " + millis(all, 0.99)
+			+ ", max " + millis(all, 1.0));
+		System.out.println(mismatches + " answers differed from the first");
+	}
+
+	/**
+	 * Find a percentile of sorted times, in milliseconds.
+	 * @param sorted the times in nanoseconds, in increasing order
+	 * @param fraction the fraction of the times at or below the one
+	 * wanted
+	 * @return the time, to the nearest hundredth of a millisecond
+	 */
+	private static String millis(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		long hundredths = sorted[Math.max(index, 0)] / 10000;
+		return (hundredths / 100) + "." + (hundredths / 10 % 10) + (hundredths % 10);
+	}
+
+	/**
+	 * Read a source file.
+	 * @param fileName its name
+	 * @return its contents
+	 * @throws IOException the file could not be read
+	 */
+	private static String read(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) bytes.write(buffer, 0, n);
+			return bytes.toString("UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -1,15 +1,32 @@
 package fgj.main;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import fgj.ast.Program;
+import fgj.cache.ProgramCache;
 import fgj.eval.Evaluator;
+import fgj.eval.Value;
+import fgj.eval.ValuePrinter;
 import fgj.parse.Lexer;
 import fgj.parse.Parser;
+import fgj.typecheck.JudgmentCache;
 import fgj.typecheck.TypeChecker;
+import fgj.typecheck.TypeEnvironment;
 import fgj.types.ClassTable;
 
 /**
@@ -18,32 +35,362 @@ import fgj.types.ClassTable;
  */
 public class Main {
 
+	/**
+	 * The size of the buffer of standard output, in characters.
+	 */
+	private static final int OUTPUT_BUFFER = 1 << 16;
+
+	/**
+	 * The end of a line printed on standard output.
+	 */
+	private static final String LINE_SEPARATOR =
+		System.getProperty("line.separator");
+
 	/**
 	 * The main program.  Calls the parser, class table builder,
 	 * typechecker, and evaluator.  Prints out the results of
 	 * evaluation if successful, or the first error discovered during
 	 * any of the above steps.
-	 * @param args one argument: the name of the source file to use
+	 * @param args the name of the source file to use, optionally
+	 * preceded by <code>--cache</code> to reuse the checked program
+	 * from an earlier run (see {@link ProgramCache}), and
+	 * <code>--parallel</code> to type check on all available processors;
+	 * or <code>--batch</code> followed by any number of directories,
+	 * globs, and manifests naming source files, to run them all (see
+	 * {@link Batch}), where <code>--jobs</code> <i>n</i> sets the number
+	 * run at once and <code>--output</code> <i>file</i> names the file
+	 * to write the results to; or <code>--server</code> <i>port</i> to
+	 * answer requests from other processes (see {@link Server}), where
+	 * <code>--jobs</code> <i>n</i> sets the number answered at once and
+	 * <code>--timeout</code> <i>ms</i> the longest each may run.  A
+	 * single source file may also be preceded by <code>--stats</code>
+	 * or <code>--stats-json</code> to report on standard error how long
+	 * each phase took and what evaluation did (see {@link Stats}).  A
+	 * single source file or a batch may also be preceded by
+	 * <code>--print-depth</code> <i>n</i> and <code>--print-size</code>
+	 * <i>n</i> to cut printed values short below depth <i>n</i> or after
+	 * <i>n</i> objects (see {@link ValuePrinter}), and a single source
+	 * file by <code>--print-shared</code> to print each object shared in
+	 * the value once, as a binding of a name used in its place.
 	 */
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.err.println("usage: fgj filename.fgj");
+		boolean useCache = false;
+		boolean parallel = false;
+		boolean batch = false;
+		String stats = null;
+		int port = -1;
+		long timeout = 10000;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		String output = null;
+		int printDepth = Integer.MAX_VALUE;
+		long printSize = Long.MAX_VALUE;
+		boolean printShared = false;
+		List fileNames = new ArrayList();
+		boolean usage = false;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--cache") && fileNames.isEmpty()) {
+				useCache = true;
+			}
+			else if (args[i].equals("--parallel") && fileNames.isEmpty()) {
+				parallel = true;
+			}
+			else if (args[i].equals("--batch") && fileNames.isEmpty()) {
+				batch = true;
+			}
+			else if ((args[i].equals("--stats") || args[i].equals("--stats-json"))
+					&& fileNames.isEmpty()) {
+				stats = args[i];
+			}
+			else if (args[i].equals("--jobs") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				try {
+					jobs = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--output") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				output = args[++i];
+			}
+			else if (args[i].equals("--server") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				try {
+					port = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--timeout") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				try {
+					timeout = Long.parseLong(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--print-shared") && fileNames.isEmpty()) {
+				printShared = true;
+			}
+			else if (args[i].equals("--print-depth") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				try {
+					printDepth = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--print-size") && fileNames.isEmpty()
+					&& i + 1 < args.length) {
+				try {
+					printSize = Long.parseLong(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].startsWith("--") ||
+					(!batch && !fileNames.isEmpty())) {
+				usage = true;
+				break;
+			}
+			else {
+				fileNames.add(args[i]);
+			}
+		}
+		boolean server = (port >= 0);
+		if (usage || (server ? !fileNames.isEmpty() : fileNames.isEmpty())
+				|| jobs < 1 || timeout < 1 || (!batch && output != null)
+				|| (server && batch) || ((server || batch) && stats != null)
+				|| printDepth < 0 || printSize < 1 || (server
+				&& (printDepth != Integer.MAX_VALUE || printSize != Long.MAX_VALUE))
+				|| (printShared && (server || batch || printDepth != Integer.MAX_VALUE
+				|| printSize != Long.MAX_VALUE))) {
+			System.err.println("usage: fgj [--cache] [--parallel] [print options] filename.fgj");
+			System.err.println("       fgj (--stats | --stats-json) [--cache] [--parallel] filename.fgj");
+			System.err.println("       fgj --batch [--jobs n] [--output file] [--cache] [--parallel] [print limits]");
+			System.err.println("           (directory | glob | @manifest | filename.fgj)...");
+			System.err.println("       fgj --server port [--jobs n] [--timeout ms]");
+			System.err.println("print limits: [--print-depth n] [--print-size n]");
+			System.err.println("print options: print limits | --print-shared");
+			return;
+		}
+		if (server) {
+			runServer(port, jobs, timeout);
 			return;
 		}
 		
+		final boolean cached = useCache;
+		final ForkJoinPool pool = parallel ? new ForkJoinPool() : null;
+		final ValuePrinter printer = new ValuePrinter(printDepth, printSize);
+		final boolean shared = printShared;
+		try {
+			if (batch) {
+				runBatch(new Batch("fgj", new Batch.Pipeline() {
+					public String run(String fileName) throws Exception {
+						try {
+							return printer.toString(
+								Main.run(fileName, cached, pool, null));
+						}
+						catch (FeatherweightGJException e) {
+							return e.getMessage();
+						}
+					}
+				}, jobs), fileNames, output);
+			}
+			else {
+				String fileName = (String) fileNames.get(0);
+				Stats measured = (stats != null) ? new Stats(fileName) : null;
+				try {
+					print(run(fileName, cached, pool, measured), printer, shared);
+				}
+				catch (FileNotFoundException e) {
+					System.err.println("can't find file \"" + fileName + "\"");
+				}
+				catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+				catch (FeatherweightGJException e) {
+					System.err.println(e.getMessage());
+				}
+				if (measured != null) {
+					System.out.flush();
+					if (stats.equals("--stats-json")) {
+						System.err.println(measured.toJson());
+					}
+					else {
+						System.err.print(measured.toText());
+					}
+				}
+			}
+		}
+		finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Run a program through the parser, class table builder,
+	 * typechecker, and evaluator.
+	 * @param fileName the name of the source file
+	 * @param useCache whether to reuse the checked program from an
+	 * earlier run, and save it for later ones
+	 * @param pool the pool to type check in, or <code>null</code> to
+	 * type check on this thread
+	 * @param stats the statistics to collect, or <code>null</code> to
+	 * collect none
+	 * @return the value of the program
+	 * @throws IOException the source file could not be read
+	 * @throws FeatherweightGJException the program failed to parse,
+	 * typecheck, or evaluate
+	 */
+	private static Value run(String fileName, boolean useCache,
+			ForkJoinPool pool, Stats stats)
+			throws IOException, FeatherweightGJException {
+		ClassTable types = null;
+		try {
+			
+			// Use the cached program if it is up to date
+			ProgramCache cache = null;
+			Program program = null;
+			if (useCache) {
+				if (stats != null) stats.begin("load");
+				cache = new ProgramCache(new File(fileName), "fgj");
+				program = cache.load();
+				if (stats != null) {
+					stats.cache("program", (program != null) ? 1 : 0,
+						(program != null) ? 0 : 1);
+				}
+			}
+			boolean checked = (program != null);
+			if (program == null) {
+				if (stats != null) stats.begin("parse");
+				Reader reader = (cache != null) ?
+					(Reader) new InputStreamReader(cache.source()) :
+					new BufferedReader(new FileReader(fileName));
+				try {
+					program = new Parser(new Lexer(reader)).parse();
+				}
+				finally {
+					reader.close();
+				}
+			}
+			if (stats != null) stats.begin("classes");
+			types = new ClassTable(program.classDecls);
+			if (!checked) {
+				if (stats != null) stats.begin("check");
+				TypeChecker checker = new TypeChecker(types);
+				if (pool != null) {
+					checker.checkProgram(program, pool);
+				}
+				else {
+					checker.checkProgram(program);
+				}
+				if (cache != null) storeCache(cache, program);
+			}
+			if (stats != null) stats.begin("eval");
+			Evaluator eval = (stats != null) ?
+				stats.Evaluator(types) : new Evaluator(types);
+			return eval.evalTerm(program.term);
+		}
+		finally {
+			if (stats != null) {
+				stats.end();
+				
+				// Both checking and evaluating casts ask for subtypes
+				if (types != null) {
+					JudgmentCache judgments = TypeEnvironment.sharedJudgments(types);
+					stats.cache("judgment", judgments.hits(), judgments.misses());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Print a value on standard output, writing it as it is walked
+	 * rather than building its string first.
+	 * @param value the value
+	 * @param printer the printer for values
+	 * @param shared whether to print each object shared in the value
+	 * once (see {@link ValuePrinter#printShared})
+	 * @throws IOException the value could not be written
+	 */
+	private static void print(Value value, ValuePrinter printer,
+		boolean shared) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+			OUTPUT_BUFFER);
+		if (shared) {
+			printer.printShared(value, out);
+		}
+		else {
+			printer.print(value, out);
+		}
+		out.write(LINE_SEPARATOR);
+		out.flush();
+	}
+
+	/**
+	 * Run a batch of programs, and report how long it took.
+	 * @param batch the batch runner
+	 * @param args the arguments naming the programs
+	 * @param output the name of the file to write the results to, or
+	 * <code>null</code> for standard output
+	 */
+	private static void runBatch(Batch batch, List args, String output) {
+		try {
+			List fileNames = batch.sourceFiles(args);
+			PrintStream out = (output != null) ? new PrintStream(
+				new BufferedOutputStream(new FileOutputStream(output))) :
+				System.out;
+			long start = System.currentTimeMillis();
+			int failures;
+			try {
+				failures = batch.run(fileNames, out);
+			}
+			finally {
+				if (out != System.out) out.close();
+			}
+			long time = System.currentTimeMillis() - start;
+			System.err.println("fgj: " + fileNames.size() + " programs, "
+				+ failures + " could not be run, " + time + " ms");
+		}
+		catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Answer requests from other processes until killed.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param jobs the number of requests to run at once
+	 * @param timeout the longest a request may run, in milliseconds
+	 */
+	private static void runServer(int port, int jobs, long timeout) {
 		try {
-			Reader reader = new BufferedReader(new FileReader(args[0]));
-			Program program = new Parser(new Lexer(reader)).parse();
-			ClassTable types = new ClassTable(program.classDecls);
-			TypeChecker checker = new TypeChecker(types);
-			checker.checkProgram(program);
-			Evaluator eval = new Evaluator(types);
-			System.out.println(eval.evalTerm(program.term));
-		}
-		catch (FileNotFoundException e) {
-			System.err.println("can't find file \"" + args[0] + "\"");
-		}
-		catch (FeatherweightGJException e) {
+			Server server = new Server(port, jobs, timeout);
+			System.err.println("fgj: listening on port " + server.port());
+			server.serve();
+		}
+		catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Store a checked program in its cache.  Failing to write the
+	 * cache is not an error; the program simply runs uncached.
+	 * @param cache the cache to write
+	 * @param program the checked program
+	 */
+	private static void storeCache(ProgramCache cache, Program program) {
+		try {
+			cache.store(program);
+		}
+		catch (IOException e) {
 			System.err.println(e.getMessage());
 		}
 	}
@@ -0,0 +1,17 @@
+package fgj.main;
+
+/**
+ * An error reported by a {@link Server} in reply to a request: the
+ * program failed to parse, typecheck, or evaluate, or the request
+ * could not be carried out.
+ */
+public class ServerException extends FeatherweightGJException {
+
+	/**
+	 * Construct a new server exception.
+	 * @param str the error the server reported
+	 */
+	public ServerException(String str) {
+		super(str);
+	}
+}
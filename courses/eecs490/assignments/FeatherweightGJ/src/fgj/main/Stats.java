@@ -0,0 +1,436 @@
+package fgj.main;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fgj.ast.CastTerm;
+import fgj.ast.FieldTerm;
+import fgj.ast.NewTerm;
+import fgj.eval.EvaluationException;
+import fgj.eval.Evaluator;
+import fgj.eval.Value;
+import fgj.types.ClassTable;
+import fgj.types.ClassTableException;
+
+/**
+ * Statistics of one run of a program: the time each phase took and
+ * the memory it allocated, what evaluation did, and how well the
+ * caches used worked.  They are collected only when asked for, by
+ * marking where each phase begins and evaluating with the counting
+ * evaluators made here; otherwise nothing is measured.
+ *
+ * <p>Memory is the number of bytes allocated by every thread, as far
+ * as the virtual machine can say, so it includes the typechecking
+ * done by a pool of threads.</p>
+ */
+public class Stats {
+
+	/**
+	 * The name of the source file run.
+	 */
+	private final String fileName;
+
+	/**
+	 * The {@link Phase} list of the phases measured, in order.
+	 */
+	private final List phases;
+
+	/**
+	 * The phase being measured, or <code>null</code> if none is.
+	 */
+	private Phase current;
+
+	/**
+	 * What evaluation did, or <code>null</code> if it did not begin.
+	 */
+	private Counters counters;
+
+	/**
+	 * The {@link Cache} list of the caches used, in order.
+	 */
+	private final List caches;
+
+	/**
+	 * Start collecting the statistics of a run.
+	 * @param fileName the name of the source file run
+	 */
+	public Stats(String fileName) {
+		this.fileName = fileName;
+		this.phases = new ArrayList();
+		this.caches = new ArrayList();
+	}
+
+	/**
+	 * Mark the beginning of a phase, and the end of the one before it.
+	 * @param name the name of the phase
+	 */
+	public void begin(String name) {
+		end();
+		current = new Phase(name);
+		phases.add(current);
+		current.bytes = allocated();
+		current.nanos = System.nanoTime();
+	}
+
+	/**
+	 * Mark the end of the phase being measured, if there is one.
+	 */
+	public void end() {
+		if (current == null) return;
+		current.nanos = System.nanoTime() - current.nanos;
+		current.bytes = allocated() - current.bytes;
+		current = null;
+	}
+
+	/**
+	 * Record how well a cache worked.
+	 * @param name the name of the cache
+	 * @param hits the number of answers it had
+	 * @param misses the number it did not
+	 */
+	public void cache(String name, long hits, long misses) {
+		caches.add(new Cache(name, hits, misses));
+	}
+
+	/**
+	 * Make an evaluator which counts what it does.
+	 * @param types the class table
+	 * @return the evaluator
+	 */
+	public Evaluator Evaluator(ClassTable types) {
+		counters = new Counters();
+		return new CountingEvaluator(types, counters);
+	}
+
+	/**
+	 * Format the statistics for people to read.
+	 * @return the text, ending in a newline
+	 */
+	public String toText() {
+		StringBuffer text = new StringBuffer();
+		text.append(fileName).append('\n');
+		text.append("phase            ms         bytes\n");
+		long nanos = 0;
+		long bytes = 0;
+		for (Iterator i = phases.iterator(); i.hasNext(); ) {
+			Phase phase = (Phase) i.next();
+			text.append(row(phase.name, phase.nanos, phase.bytes));
+			nanos += phase.nanos;
+			bytes += phase.bytes;
+		}
+		text.append(row("total", nanos, bytes));
+		if (counters != null) {
+			text.append("evaluation: " + counters.calls + " calls, "
+				+ counters.objects + " objects, " + counters.fields
+				+ " fields, " + counters.casts + " casts, depth "
+				+ counters.maxDepth + "\n");
+		}
+		for (Iterator i = caches.iterator(); i.hasNext(); ) {
+			Cache cache = (Cache) i.next();
+			long total = cache.hits + cache.misses;
+			text.append(cache.name + " cache: " + cache.hits + " hits, "
+				+ cache.misses + " misses");
+			if (total > 0) {
+				text.append(" (" + Math.round(1000.0 * cache.hits / total) / 10.0 + "%)");
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Format the statistics as a line of JSON, an object of the form
+	 * <pre>
+	 * {"file": <i>name</i>,
+	 *  "phases": [{"phase": <i>name</i>, "ms": <i>ms</i>, "bytes": <i>n</i>}, ...],
+	 *  "total": {"ms": <i>ms</i>, "bytes": <i>n</i>},
+	 *  "evaluation": {"calls": <i>n</i>, "objects": <i>n</i>,
+	 *                 "fields": <i>n</i>, "casts": <i>n</i>, "maxDepth": <i>n</i>},
+	 *  "caches": {<i>name</i>: {"hits": <i>n</i>, "misses": <i>n</i>}, ...}}
+	 * </pre>
+	 * where <code>"evaluation"</code> is missing if evaluation did
+	 * not begin, and bytes are -1 if unknown.
+	 * @return the line, without a newline
+	 */
+	public String toJson() {
+		StringBuffer json = new StringBuffer();
+		json.append("{\"file\":").append(quote(fileName)).append(",\"phases\":[");
+		long nanos = 0;
+		long bytes = 0;
+		for (Iterator i = phases.iterator(); i.hasNext(); ) {
+			Phase phase = (Phase) i.next();
+			json.append("{\"phase\":").append(quote(phase.name)).append(',')
+				.append(measures(phase.nanos, phase.bytes)).append('}');
+			if (i.hasNext()) json.append(',');
+			nanos += phase.nanos;
+			bytes += phase.bytes;
+		}
+		json.append("],\"total\":{").append(measures(nanos, bytes)).append('}');
+		if (counters != null) {
+			json.append(",\"evaluation\":{\"calls\":").append(counters.calls)
+				.append(",\"objects\":").append(counters.objects)
+				.append(",\"fields\":").append(counters.fields)
+				.append(",\"casts\":").append(counters.casts)
+				.append(",\"maxDepth\":").append(counters.maxDepth).append('}');
+		}
+		json.append(",\"caches\":{");
+		for (Iterator i = caches.iterator(); i.hasNext(); ) {
+			Cache cache = (Cache) i.next();
+			json.append(quote(cache.name)).append(":{\"hits\":").append(cache.hits)
+				.append(",\"misses\":").append(cache.misses).append('}');
+			if (i.hasNext()) json.append(',');
+		}
+		return json.append("}}").toString();
+	}
+
+	/**
+	 * Format a row of the table of phases.
+	 * @param name the name of the phase
+	 * @param nanos the time it took, in nanoseconds
+	 * @param bytes the memory it allocated, or a negative number if
+	 * unknown
+	 * @return the row, ending in a newline
+	 */
+	private static String row(String name, long nanos, long bytes) {
+		return pad(name, -10) + pad(millis(nanos), 10)
+			+ pad(bytes < 0 ? "?" : String.valueOf(bytes), 14) + "\n";
+	}
+
+	/**
+	 * Format the JSON members of a time and amount of memory.
+	 * @param nanos the time, in nanoseconds
+	 * @param bytes the memory, or a negative number if unknown
+	 * @return the members
+	 */
+	private static String measures(long nanos, long bytes) {
+		return "\"ms\":" + millis(nanos) + ",\"bytes\":" + (bytes < 0 ? -1 : bytes);
+	}
+
+	/**
+	 * Quote a string for JSON.
+	 * @param str the string
+	 * @return the quoted string
+	 */
+	private static String quote(String str) {
+		StringBuffer sb = new StringBuffer("\"");
+		for (int i = 0; i < str.length(); ++i) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}
+			else if (c < ' ') {
+				sb.append("\\u").append(Integer.toHexString(0x10000 | c).substring(1));
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Format a time in milliseconds, to the nearest microsecond.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String millis(long nanos) {
+		long micros = (nanos + 500) / 1000;
+		String fraction = String.valueOf(1000 + micros % 1000).substring(1);
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+
+	/**
+	 * Find the number of bytes every thread has allocated, if the
+	 * virtual machine can say.
+	 * @return the number of bytes, or a negative number if unknown
+	 */
+	private static long allocated() {
+		java.lang.management.ThreadMXBean bean =
+			ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		long[] bytes = ((com.sun.management.ThreadMXBean) bean)
+			.getThreadAllocatedBytes(bean.getAllThreadIds());
+		long total = 0;
+		for (int i = 0; i < bytes.length; ++i) {
+			if (bytes[i] > 0) total += bytes[i];
+		}
+		return total;
+	}
+
+	/**
+	 * A phase of a run.
+	 */
+	private static class Phase {
+
+		/**
+		 * The name of the phase.
+		 */
+		final String name;
+
+		/**
+		 * The time it took, in nanoseconds; while it is being
+		 * measured, the time it began.
+		 */
+		long nanos;
+
+		/**
+		 * The memory it allocated, in bytes; while it is being
+		 * measured, the memory allocated before it began.
+		 */
+		long bytes;
+
+		/**
+		 * Construct a phase.
+		 * @param name the name of the phase
+		 */
+		Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * How well a cache worked.
+	 */
+	private static class Cache {
+
+		/**
+		 * The name of the cache.
+		 */
+		final String name;
+
+		/**
+		 * The number of answers it had.
+		 */
+		long hits;
+
+		/**
+		 * The number of answers it did not have.
+		 */
+		long misses;
+
+		/**
+		 * Construct a record of a cache.
+		 * @param name the name of the cache
+		 * @param hits the number of answers it had
+		 * @param misses the number it did not
+		 */
+		Cache(String name, long hits, long misses) {
+			this.name = name;
+			this.hits = hits;
+			this.misses = misses;
+		}
+	}
+
+	/**
+	 * What evaluation did.
+	 */
+	private static class Counters {
+
+		/**
+		 * The number of methods invoked.
+		 */
+		long calls;
+
+		/**
+		 * The number of objects created.
+		 */
+		long objects;
+
+		/**
+		 * The number of fields read.
+		 */
+		long fields;
+
+		/**
+		 * The number of casts evaluated.
+		 */
+		long casts;
+
+		/**
+		 * The greatest number of method bodies being evaluated at once.
+		 */
+		int maxDepth;
+	}
+
+	/**
+	 * An evaluator which counts what it does.
+	 */
+	private static class CountingEvaluator extends Evaluator {
+
+		/**
+		 * The counts.
+		 */
+		private final Counters counters;
+
+		/**
+		 * The number of method bodies this evaluator is nested in.
+		 */
+		private final int depth;
+
+		/**
+		 * Construct an evaluator.
+		 * @param types the class table
+		 * @param counters the counts to add to
+		 */
+		CountingEvaluator(ClassTable types, Counters counters) {
+			super(types);
+			this.counters = counters;
+			this.depth = 0;
+		}
+
+		/**
+		 * Construct a nested evaluator for a method body.
+		 * @param env the new environment to append
+		 * @param parent the evaluator with the outer environment
+		 */
+		CountingEvaluator(Map env, CountingEvaluator parent) {
+			super(env, parent);
+			this.counters = parent.counters;
+			this.depth = parent.depth + 1;
+			++counters.calls;
+			if (depth > counters.maxDepth) counters.maxDepth = depth;
+		}
+
+		protected Evaluator nest(Map newEnv) {
+			return new CountingEvaluator(newEnv, this);
+		}
+
+		protected Value evalFieldTerm(FieldTerm t)
+			throws EvaluationException, ClassTableException {
+			++counters.fields;
+			return super.evalFieldTerm(t);
+		}
+
+		protected Value evalNewTerm(NewTerm t) throws EvaluationException {
+			++counters.objects;
+			return super.evalNewTerm(t);
+		}
+
+		protected Value evalCastTerm(CastTerm t)
+			throws EvaluationException, ClassTableException {
+			++counters.casts;
+			return super.evalCastTerm(t);
+		}
+	}
+
+}
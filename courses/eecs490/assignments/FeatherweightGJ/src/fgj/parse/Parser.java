@@ -1,10 +1,12 @@
 package fgj.parse;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -29,6 +31,12 @@ public class Parser {
 	 * Sets of type variables at different nesting levels.
 	 */
 	private final Stack typeVarSets;
+	
+	/**
+	 * The types parsed so far, each mapped to itself, so that every
+	 * occurrence of a type in a program is a single object.
+	 */
+	private final Map types;
 
 	/**
 	 * Construct a new parser.
@@ -38,6 +46,7 @@ public class Parser {
 		this.lexer = lexer;
 		this.pushedTokens = new Stack();
 		this.typeVarSets = new Stack();
+		this.types = new HashMap();
 	}
 	
 	/**
@@ -67,6 +76,20 @@ public class Parser {
 		return new Program(classList, term);
 	}
 	
+	/**
+	 * Convert the token stream into a single FeatherweightGJ
+	 * expression, such as ends a program.
+	 * @return the abstract syntax of the expression
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, or the parser encountered a
+	 * bad token sequence
+	 */
+	public Term parseExpression() throws ParseException {
+		Term term = parseTerm();
+		eat(Token.EOF, "end of file");
+		return term;
+	}
+	
 	/**
 	 * Parse a class declaration.
 	 * @return class declaration abstract syntax
@@ -159,7 +182,8 @@ public class Parser {
 				if (isTypeVar(ty.name)) {
 					die("using type variable as a nonvariable type");
 				}
-				type = new NonVariableType(ty.name, Collections.EMPTY_LIST);
+				type = (NonVariableType) intern(
+					new NonVariableType(ty.name, Collections.EMPTY_LIST));
 			}
 			else {
 				type = cleanupBounds((NonVariableType) p.bound);
@@ -186,16 +210,16 @@ public class Parser {
 			Type arg = (Type) j.next();
 			if (arg instanceof TypeVariable) {
 				TypeVariable t = (TypeVariable) arg;
-				if (!isTypeVar(t.name)) {
-					arg = new NonVariableType(t.name, Collections.EMPTY_LIST);
-				}
+				arg = isTypeVar(t.name) ? intern(t) :
+					intern(new NonVariableType(t.name, Collections.EMPTY_LIST));
 			}
 			else {
 				arg = cleanupBounds((NonVariableType) arg);
 			}
 			typeArgs.add(arg);
 		}
-		return new NonVariableType(type.className, typeArgs);
+		return (NonVariableType) intern(
+			new NonVariableType(type.className, typeArgs));
 	}
 
 	/**
@@ -406,17 +430,29 @@ public class Parser {
 				die("cannot apply type parameters to a type variable");
 			}
 			List typeArgs = parseTypeArgs();
-			return new NonVariableType(name, typeArgs);			
+			return intern(new NonVariableType(name, typeArgs));			
 		}
 		// Type variable name by itself
 		else if (isTypeVar) {
-			return new TypeVariable(name);
+			return intern(new TypeVariable(name));
 		}
 		// Syntactic sugar: C for C<>
 		else {
-			return new NonVariableType(name, Collections.EMPTY_LIST);
+			return intern(new NonVariableType(name, Collections.EMPTY_LIST));
 		}
 	}
+	
+	/**
+	 * Return the single object standing for a type in the program.
+	 * @param type a newly parsed type
+	 * @return the first type parsed equal to it
+	 */
+	private Type intern(Type type) {
+		Type known = (Type) types.get(type);
+		if (known != null) return known;
+		types.put(type, type);
+		return type;
+	}
 
 	/**
 	 * Parse an expression.
@@ -0,0 +1,184 @@
+package fgj.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fgj.ast.NonVariableType;
+import fgj.eval.Value;
+
+/**
+ * Reads values back from what a {@link fgj.eval.ValuePrinter} printed:
+ * either a value written as a constructor invocation, or values with
+ * shared objects, written as bindings of names to invocations followed
+ * by the value.  A name stands for the same object wherever it is
+ * used, so the value read back shares what the value printed did.
+ * Like the printer, the parser keeps a stack of its own rather than
+ * recursing, so values may nest to any depth; only type arguments,
+ * which nest no deeper than in the program, are read by recursion.
+ */
+public class ValueParser {
+
+	/**
+	 * The token provider.
+	 */
+	private final Lexer lexer;
+
+	/**
+	 * The current token.
+	 */
+	private Token token;
+
+	/**
+	 * The objects bound so far, by name.
+	 */
+	private final Map bindings = new HashMap();
+
+	/**
+	 * Construct a new parser.
+	 * @param lexer the token provider
+	 */
+	public ValueParser(Lexer lexer) {
+		this.lexer = lexer;
+	}
+
+	/**
+	 * Read the whole input as a value, after any bindings.
+	 * @return the value
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, a name was used before it was
+	 * bound, or the parser encountered a bad token sequence
+	 */
+	public Value parse() throws ParseException {
+		advance();
+		for (;;) {
+			if (token.id != Token.IDENTIFIER) break;
+			String name = token.value;
+			advance();
+			if (token.id != Token.EQUAL) {
+				// Just a name; it is the whole value
+				Value value = lookup(name);
+				if (token.id != Token.EOF) die("expected end of file");
+				return value;
+			}
+			advance();
+			if (bindings.containsKey(name)) die(name + " bound twice");
+			Value value = parseValue();
+			bindings.put(name, value);
+			if (token.id != Token.SEMI) die("expected ';' after binding");
+			advance();
+		}
+		Value value = parseValue();
+		if (token.id != Token.EOF) die("expected end of file");
+		return value;
+	}
+
+	/**
+	 * Parse a constructor invocation whose arguments are invocations or
+	 * bound names.
+	 * @return the value
+	 * @throws ParseException a parse error occurred
+	 */
+	private Value parseValue() throws ParseException {
+		// The objects whose arguments are being read, outermost
+		// first, as the type and the list of arguments read so far
+		List types = new ArrayList();
+		List argLists = new ArrayList();
+		for (;;) {
+			// Read the start of an argument, down to its first argument
+			Value value;
+			if (token.id == Token.IDENTIFIER) {
+				value = lookup(token.value);
+				advance();
+			}
+			else {
+				if (token.id != Token.NEW) die("expected value");
+				advance();
+				NonVariableType type = parseType();
+				if (token.id != Token.LPAREN) die("expected '('");
+				advance();
+				if (token.id != Token.RPAREN) {
+					types.add(type);
+					argLists.add(new ArrayList());
+					continue;
+				}
+				advance();
+				value = new Value(type, Collections.EMPTY_LIST);
+			}
+
+			// Finish the objects it completes
+			for (;;) {
+				int depth = types.size();
+				if (depth == 0) return value;
+				List args = (List) argLists.get(depth - 1);
+				args.add(value);
+				if (token.id == Token.COMMA) {
+					advance();
+					break;
+				}
+				if (token.id != Token.RPAREN) die("expected ',' or ')'");
+				advance();
+				value = new Value((NonVariableType) types.remove(depth - 1), args);
+				argLists.remove(depth - 1);
+			}
+		}
+	}
+
+	/**
+	 * Parse the type of an object, a class name with any type
+	 * arguments.
+	 * @return the type
+	 * @throws ParseException a parse error occurred
+	 */
+	private NonVariableType parseType() throws ParseException {
+		if (token.id != Token.IDENTIFIER) die("expected class name");
+		String name = token.value;
+		advance();
+		if (token.id != Token.LT) {
+			return new NonVariableType(name, Collections.EMPTY_LIST);
+		}
+		advance();
+		List typeArgs = new ArrayList();
+		if (token.id != Token.GT) {
+			for (;;) {
+				typeArgs.add(parseType());
+				if (token.id != Token.COMMA) break;
+				advance();
+			}
+			if (token.id != Token.GT) die("expected '>' at end of type arguments");
+		}
+		advance();
+		return new NonVariableType(name, typeArgs);
+	}
+
+	/**
+	 * Find the object bound to a name.
+	 * @param name the name
+	 * @return the object
+	 * @throws ParseException the name was not bound
+	 */
+	private Value lookup(String name) throws ParseException {
+		Value value = (Value) bindings.get(name);
+		if (value == null) die(name + " is not bound");
+		return value;
+	}
+
+	/**
+	 * Move on to the next token.
+	 * @throws ParseException the lexer failed
+	 */
+	private void advance() throws ParseException {
+		token = lexer.nextToken();
+	}
+
+	/**
+	 * Throw an exception.
+	 * @param reason the reason for the exception
+	 * @throws ParseException always thrown
+	 */
+	private void die(String reason) throws ParseException {
+		throw new ParseException(lexer.lineNumber(), reason);
+	}
+}
@@ -0,0 +1,186 @@
+package fgj.typecheck;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import fgj.ast.Type;
+
+/**
+ * A record of the judgments a {@link TypeEnvironment} has made: which
+ * pairs of types are in the subtype relation, and which types are well
+ * formed.  Judgments about closed types hold in every environment, so
+ * they are kept in a cache shared by all the environments of a class
+ * table; judgments involving type variables are kept by the environment
+ * that made them.  A cache also counts how often it was consulted, and
+ * how often it knew the answer.
+ *
+ * <p>A cache may be used from several threads at once.  Only
+ * judgments which held are recorded for well-formedness, since a type
+ * which is not well formed ends typechecking.</p>
+ */
+public class JudgmentCache {
+	
+	/**
+	 * The generation of the class table the judgments were made
+	 * against.
+	 */
+	private final int generation;
+
+	/**
+	 * A mapping from pairs of types to whether the first is a subtype
+	 * of the second, as a Boolean.
+	 */
+	private final Map subtypes;
+	
+	/**
+	 * The set of types known to be well formed.
+	 */
+	private final Set wellFormed;
+	
+	/**
+	 * The number of lookups which found a judgment.
+	 */
+	private final LongAdder hits;
+	
+	/**
+	 * The number of lookups which did not.
+	 */
+	private final LongAdder misses;
+	
+	/**
+	 * Construct an empty cache.
+	 * @param generation the generation of the class table the
+	 * judgments will be made against
+	 */
+	JudgmentCache(int generation) {
+		this.generation = generation;
+		this.subtypes = new ConcurrentHashMap();
+		this.wellFormed = ConcurrentHashMap.newKeySet();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+	
+	/**
+	 * Return the generation of the class table the judgments were made
+	 * against.
+	 * @return the class table generation
+	 */
+	public int generation() {
+		return generation;
+	}
+	
+	/**
+	 * Look up a subtype judgment.
+	 * @param subType the sub type
+	 * @param superType the super type
+	 * @return whether <code>subType &lt;: superType</code>, or
+	 * <code>null</code> if it is not known
+	 */
+	Boolean subtype(Type subType, Type superType) {
+		Boolean known = (Boolean) subtypes.get(new Pair(subType, superType));
+		count(known != null);
+		return known;
+	}
+	
+	/**
+	 * Record a subtype judgment.
+	 * @param subType the sub type
+	 * @param superType the super type
+	 * @param holds whether <code>subType &lt;: superType</code>
+	 */
+	void putSubtype(Type subType, Type superType, boolean holds) {
+		subtypes.put(new Pair(subType, superType), Boolean.valueOf(holds));
+	}
+	
+	/**
+	 * Look up a well-formedness judgment.
+	 * @param type the type
+	 * @return <code>true</code> if the type is known to be well formed;
+	 * <code>false</code> otherwise
+	 */
+	boolean wellFormed(Type type) {
+		boolean known = wellFormed.contains(type);
+		count(known);
+		return known;
+	}
+	
+	/**
+	 * Record that a type is well formed.
+	 * @param type the type
+	 */
+	void putWellFormed(Type type) {
+		wellFormed.add(type);
+	}
+	
+	/**
+	 * Count a lookup.
+	 * @param hit whether the judgment was found
+	 */
+	private void count(boolean hit) {
+		if (hit) hits.increment();
+		else misses.increment();
+	}
+	
+	/**
+	 * Return the number of lookups which found a judgment.
+	 * @return the number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Return the number of lookups which did not find a judgment.
+	 * @return the number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * Return the fraction of lookups which found a judgment.
+	 * @return the hit rate, or 0 if there have been no lookups
+	 */
+	public double hitRate() {
+		long hits = hits();
+		long lookups = hits + misses();
+		return (lookups == 0) ? 0 : (double) hits / lookups;
+	}
+	
+	/**
+	 * A pair of types, as the key of a subtype judgment.
+	 */
+	private static class Pair {
+		
+		/**
+		 * The sub type.
+		 */
+		private final Type subType;
+		
+		/**
+		 * The super type.
+		 */
+		private final Type superType;
+		
+		/**
+		 * Construct a pair.
+		 * @param subType the sub type
+		 * @param superType the super type
+		 */
+		Pair(Type subType, Type superType) {
+			this.subType = subType;
+			this.superType = superType;
+		}
+		
+		public boolean equals(Object o) {
+			Pair p = (Pair) o;
+			return subType.equals(p.subType) && superType.equals(p.superType);
+		}
+		
+		public int hashCode() {
+			return 31 * subType.hashCode() + superType.hashCode();
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package fgj.typecheck;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fgj.types.ClassTable;
 import fgj.types.ClassTableException;
@@ -22,6 +26,11 @@ import fgj.ast.*;
  * the reason for typechecking failure.  In addition, if typechecking
  * discovers a stupid cast, a message indicating the participating types
  * is emitted on {@link java.lang.System#err}.
+ *
+ * <p>The typechecker keeps no state of its own while checking, and
+ * each class header and method is checked in a fresh
+ * {@link TypeEnvironment}, so a program may also be checked in
+ * parallel; see {@link #checkProgram(Program, ForkJoinPool)}.</p>
  */
 public class TypeChecker {
 	
@@ -56,6 +65,155 @@ public class TypeChecker {
 		}
 	}
 	
+	/**
+	 * Typecheck an expression outside any class, as the one ending a
+	 * program is checked.  This checks new expressions against a
+	 * program checked earlier without checking its classes again.
+	 * @param term the expression to check
+	 * @throws TypeException the expression failed typechecking
+	 */
+	public void checkExpression(Term term) throws TypeException {
+		try {
+			checkTerm(new TypeEnvironment(types), new HashMap(), term);
+		}
+		catch (ClassTableException e) {
+			throw new TypeException(e);
+		}
+	}
+	
+	/**
+	 * Typecheck a {@link Program}, spreading the work over a pool of
+	 * threads.  Every class header, every method, and the program's
+	 * term is checked as a separate task, and all tasks run to
+	 * completion, except that tasks after one that has already failed
+	 * are skipped.  If any fail, the failure reported is the one
+	 * {@link #checkProgram(Program)} would have reported, which is the
+	 * first in declaration order.  Stupid cast warnings may appear in
+	 * any order.
+	 * @param program the program to check
+	 * @param pool the pool to run the tasks in
+	 * @throws TypeException the program failed typechecking
+	 */
+	public void checkProgram(Program program, ForkJoinPool pool)
+		throws TypeException {
+		
+		// One task per unit of work, in the order checkProgram visits them
+		final List tasks = new ArrayList();
+		final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+		for (Iterator i = program.classDecls.iterator(); i.hasNext();) {
+			final ClassDecl cd = (ClassDecl) i.next();
+			tasks.add(new CheckTask(tasks.size(), firstFailure) {
+				void check() throws TypeException, ClassTableException {
+					checkClassHeader(cd);
+				}
+			});
+			for (Iterator j = cd.methods.iterator(); j.hasNext();) {
+				final Method method = (Method) j.next();
+				tasks.add(new CheckTask(tasks.size(), firstFailure) {
+					void check() throws TypeException, ClassTableException {
+						checkMethod(method, cd);
+					}
+				});
+			}
+		}
+		final Term term = program.term;
+		tasks.add(new CheckTask(tasks.size(), firstFailure) {
+			void check() throws TypeException, ClassTableException {
+				checkTerm(new TypeEnvironment(types), new HashMap(), term);
+			}
+		});
+		
+		// Run them all, then report the first failure
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (Iterator i = tasks.iterator(); i.hasNext();) {
+			((CheckTask) i.next()).rethrow();
+		}
+	}
+	
+	/**
+	 * One unit of work in a parallel check, which records its failure
+	 * rather than letting it escape into the pool.
+	 */
+	private abstract static class CheckTask extends RecursiveAction {
+		
+		/**
+		 * The position of this task in the order of checking.
+		 */
+		private final int index;
+		
+		/**
+		 * The position of the earliest task known to have failed,
+		 * shared by all the tasks of a check.
+		 */
+		private final AtomicInteger firstFailure;
+		
+		/**
+		 * The exception or error raised by the check, if any.
+		 */
+		private Throwable failure;
+		
+		/**
+		 * Construct a task.
+		 * @param index the position of the task in the order of checking
+		 * @param firstFailure the position of the earliest failed task
+		 */
+		CheckTask(int index, AtomicInteger firstFailure) {
+			this.index = index;
+			this.firstFailure = firstFailure;
+		}
+		
+		/**
+		 * Perform the check.
+		 * @throws TypeException the check failed
+		 * @throws ClassTableException a class table operation failed
+		 */
+		abstract void check() throws TypeException, ClassTableException;
+		
+		protected void compute() {
+			
+			// An earlier failure will be reported instead
+			if (index > firstFailure.get()) return;
+			try {
+				check();
+			}
+			catch (ClassTableException e) {
+				failure = new TypeException(e);
+			}
+			catch (TypeException e) {
+				failure = e;
+			}
+			catch (RuntimeException e) {
+				failure = e;
+			}
+			catch (Error e) {
+				failure = e;
+			}
+			
+			// Record our failure if it is the earliest so far
+			if (failure != null) {
+				int first;
+				do {
+					first = firstFailure.get();
+				} while (index < first &&
+					!firstFailure.compareAndSet(first, index));
+			}
+		}
+		
+		/**
+		 * Raise the failure of the check again, if there was one.
+		 * @throws TypeException the check failed
+		 */
+		void rethrow() throws TypeException {
+			if (failure instanceof TypeException) throw (TypeException) failure;
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure instanceof Error) throw (Error) failure;
+		}
+	}
+	
 	/**
 	 * Typecheck a class declaration.
 	 * @param classDecl the class declaration to check
@@ -64,6 +222,24 @@ public class TypeChecker {
 	 */
 	private void checkClass(ClassDecl classDecl)
 		throws TypeException, ClassTableException {
+		checkClassHeader(classDecl);
+		
+		// Make sure the methods are okay
+		for (Iterator m = classDecl.methods.iterator(); m.hasNext();) {
+			Method method = (Method) m.next();
+			checkMethod(method, classDecl);
+		}
+	}
+	
+	/**
+	 * Typecheck everything in a class declaration but its methods:
+	 * its type parameters, superclass, fields, and constructor.
+	 * @param classDecl the class declaration to check
+	 * @throws TypeException the class declaration failed typechecking
+	 * @throws ClassTableException a class table operation failed
+	 */
+	private void checkClassHeader(ClassDecl classDecl)
+		throws TypeException, ClassTableException {
 		
 		// Prepare a type environment
 		TypeEnvironment typeEnv = new TypeEnvironment(types);
@@ -107,12 +283,6 @@ public class TypeChecker {
 		if (i.hasNext() || l.hasNext()) {
 			throw new TypeException("too many fields or arguments");
 		}
-		
-		// Make sure the methods are okay
-		for (Iterator m = classDecl.methods.iterator(); m.hasNext();) {
-			Method method = (Method) m.next();
-			checkMethod(method, classDecl);
-		}
 	}
 	
 	/**
@@ -5,6 +5,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import fgj.ast.NonVariableType;
 import fgj.ast.Type;
@@ -18,6 +19,16 @@ import fgj.types.Substitution;
 /**
  * The mapping of type variables to their bounds, denoted &Delta; in the
  * FeatherweightGJ paper.
+ *
+ * <p>Only {@link #addBounds} changes an environment.  Once its bounds
+ * are in place, an environment and the class table under it may be
+ * queried from several threads at once.</p>
+ *
+ * <p>Subtype and well-formedness judgments are remembered in a
+ * {@link JudgmentCache}, so that each is made only once however often
+ * the same types come up.  Judgments about closed types are shared by
+ * every environment of the class table, until the table changes; the
+ * rest are kept by the environment that made them.</p>
  */
 public class TypeEnvironment {
 
@@ -30,6 +41,24 @@ public class TypeEnvironment {
 	 * The underlying type variable mapping.
 	 */
 	private final Map env;
+	
+	/**
+	 * The judgments about closed types made against this class table.
+	 */
+	private final JudgmentCache shared;
+	
+	/**
+	 * The judgments involving type variables made in this environment
+	 * since its bounds last changed, or <code>null</code> if it has
+	 * no bounds.
+	 */
+	private JudgmentCache local;
+	
+	/**
+	 * A mapping from class tables to their shared judgment caches,
+	 * which does not keep the tables alive.
+	 */
+	private static final Map SHARED = new WeakHashMap();
 
 	/**
 	 * Construct a new type environment using the given class table.
@@ -38,6 +67,35 @@ public class TypeEnvironment {
 	public TypeEnvironment(ClassTable types) {
 		this.types = types;
 		this.env = new HashMap();
+		this.shared = sharedJudgments(types);
+	}
+	
+	/**
+	 * Return the cache of judgments about closed types shared by the
+	 * environments of a class table, replacing it if the table has
+	 * changed since the judgments were made.
+	 * @param types the class table
+	 * @return its shared judgment cache
+	 */
+	public static JudgmentCache sharedJudgments(ClassTable types) {
+		synchronized (SHARED) {
+			JudgmentCache cache = (JudgmentCache) SHARED.get(types);
+			if (cache == null || cache.generation() != types.generation()) {
+				cache = new JudgmentCache(types.generation());
+				SHARED.put(types, cache);
+			}
+			return cache;
+		}
+	}
+	
+	/**
+	 * Return the cache of judgments involving type variables made in
+	 * this environment.
+	 * @return the judgment cache, or <code>null</code> if no bounds
+	 * have been added
+	 */
+	public JudgmentCache localJudgments() {
+		return local;
 	}
 
 	/**
@@ -48,11 +106,15 @@ public class TypeEnvironment {
 		for (Iterator i = bounds.iterator(); i.hasNext();) {
 			TypeParam typeParam = (TypeParam) i.next();
 			env.put(typeParam.varName, typeParam.bound);
-		}				
+		}
+		
+		// Judgments made before may depend on the bounds just added
+		local = new JudgmentCache(types.generation());
 	}
 
 	/**
-	 * Evaluate the subtype relation on two given types.
+	 * Evaluate the subtype relation on two given types, or recall it
+	 * if it has been evaluated on them before.
 	 * @param subType the sub type
 	 * @param superType the super type
 	 * @return <code>true</code> if <code>subType &lt;: superType</code>;
@@ -61,6 +123,29 @@ public class TypeEnvironment {
 	 */
 	public boolean subtype(Type subType, Type superType) 
 			throws ClassTableException {
+		JudgmentCache cache = (subType.isClosed() && superType.isClosed())
+			? shared : local;
+		if (cache == null) return checkSubtype(subType, superType);
+		Boolean known = cache.subtype(subType, superType);
+		if (known != null) return known.booleanValue();
+		boolean holds = checkSubtype(subType, superType);
+		cache.putSubtype(subType, superType, holds);
+		return holds;
+	}
+	
+	/**
+	 * Evaluate the subtype relation on two given types, which
+	 * {@link #subtype} has not seen before.  Judgments this one depends
+	 * on should be made by calling {@link #subtype}, so that they are
+	 * remembered too.
+	 * @param subType the sub type
+	 * @param superType the super type
+	 * @return <code>true</code> if <code>subType &lt;: superType</code>;
+	 * <code>false</code>otherwise
+	 * @throws ClassTableException a class table error occurred
+	 */
+	protected boolean checkSubtype(Type subType, Type superType)
+			throws ClassTableException {
  		// TODO implement subtype
  		return true;
 	}
@@ -82,6 +167,8 @@ public class TypeEnvironment {
 		}
 		else {
 			NonVariableType ty = (NonVariableType) type;
+			JudgmentCache cache = ty.isClosed() ? shared : local;
+			if (cache != null && cache.wellFormed(ty)) return;
 			if (!ty.isObject()) {
 				for (Iterator i = ty.typeArgs.iterator(); i.hasNext();) {
 					Type typeArg = (Type) i.next();
@@ -99,6 +186,7 @@ public class TypeEnvironment {
 					}
 				}
 			}
+			if (cache != null) cache.putWellFormed(ty);
 		}
 	}	
 
@@ -2,10 +2,12 @@ package fgj.types;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import fgj.ast.*;
 
@@ -32,6 +34,15 @@ import fgj.ast.*;
  * <code>mtype</code>, and <code>fields</code>
  * functions defined in the <i>auxiliary definitions</i> table in
  * the FeatherweightGJ paper.
+ *
+ * <p>After construction, classes can be added, replaced, and removed,
+ * for sessions that load classes over time.  Every successful change
+ * advances the table's {@linkplain #generation() generation}, so that
+ * anything cached from the table can tell when it is stale, and
+ * reports the set of classes it affects: a class and its subclasses,
+ * transitively.  The class table is not synchronized; it must not be
+ * changed while it is in use by another thread.  Reading it from
+ * several threads at once is safe, since no query modifies it.</p>
  */
 public class ClassTable {
 	
@@ -41,6 +52,17 @@ public class ClassTable {
 	 */
 	private final Map classMap;
 
+	/**
+	 * A mapping from class names (String) to the set of names of
+	 * their direct subclasses.
+	 */
+	private final Map subclassMap;
+
+	/**
+	 * The number of changes made to the table since it was built.
+	 */
+	private int generation;
+
 	/**
 	 * Build a class table from a list of classes.  This object can
 	 * then be used in typechecking and evaluation.
@@ -51,18 +73,137 @@ public class ClassTable {
 	 */
 	public ClassTable(List classes) throws ClassTableException {
 		classMap = new HashMap();
+		subclassMap = new HashMap();
+		addClasses(classes);
+		generation = 0;
+	}
+
+	/**
+	 * Return the generation of the table: the number of changes made
+	 * to it since it was built.
+	 * @return the current generation
+	 */
+	public int generation() {
+		return generation;
+	}
+
+	/**
+	 * Add a class to the table.
+	 * @param cd the class declaration
+	 * @return the set of names of the classes affected, which is
+	 * just the name of the new class
+	 * @throws ClassTableException the class is already defined, or
+	 * is <code>Object</code>
+	 */
+	public Set addClass(ClassDecl cd) throws ClassTableException {
+		return addClasses(Collections.singletonList(cd));
+	}
+
+	/**
+	 * Add several classes to the table at once.
+	 * @param classes the list of class declarations
+	 * @return the set of names of the classes affected, which are the
+	 * names of the new classes
+	 * @throws ClassTableException a class is already defined, or
+	 * is <code>Object</code>
+	 */
+	public Set addClasses(List classes) throws ClassTableException {
 		
-		// Add the classes, and check for duplicates
+		// Check for duplicates before changing anything
+		Set affected = new HashSet();
 		for (Iterator i = classes.iterator(); i.hasNext();) {
 			ClassDecl cd = (ClassDecl) i.next();
-			if (classMap.containsKey(cd.name)) {
+			if (classMap.containsKey(cd.name) || !affected.add(cd.name)) {
 				throw new ClassTableException("multiply defined class");
 			}
 			if (cd.name.equals("Object")) {
 				throw new ClassTableException("cannot define Object");
 			}
+		}
+		
+		// Add the classes
+		for (Iterator i = classes.iterator(); i.hasNext();) {
+			ClassDecl cd = (ClassDecl) i.next();
 			classMap.put(cd.name, cd);
+			subclasses(cd.superType.className).add(cd.name);
+		}
+		++generation;
+		return affected;
+	}
+
+	/**
+	 * Replace the declaration of a class already in the table.
+	 * @param cd the new class declaration
+	 * @return the set of names of the classes affected: the class and
+	 * all of its subclasses, transitively
+	 * @throws ClassTableException the class doesn't exist
+	 */
+	public Set replaceClass(ClassDecl cd) throws ClassTableException {
+		ClassDecl oldDecl = lookup(cd.name);
+		subclasses(oldDecl.superType.className).remove(cd.name);
+		subclasses(cd.superType.className).add(cd.name);
+		classMap.put(cd.name, cd);
+		++generation;
+		
+		// Every subclass inherits from the new declaration
+		Set affected = new HashSet();
+		LinkedList queue = new LinkedList();
+		queue.add(cd.name);
+		while (!queue.isEmpty()) {
+			String className = (String) queue.removeFirst();
+			if (affected.add(className)) {
+				queue.addAll(subclassesOf(className));
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * Remove a class from the table.  No other class may extend it.
+	 * @param className the name of the class to remove
+	 * @return the set of names of the classes affected, which is just
+	 * the name of the removed class
+	 * @throws ClassTableException the class doesn't exist, or another
+	 * class extends it
+	 */
+	public Set removeClass(String className) throws ClassTableException {
+		ClassDecl cd = lookup(className);
+		Set subclasses = subclassesOf(className);
+		if (!subclasses.isEmpty()) {
+			throw new ClassTableException("class \"" + className +
+				"\" is extended by \"" + subclasses.iterator().next() + "\"");
+		}
+		subclasses(cd.superType.className).remove(className);
+		subclassMap.remove(className);
+		classMap.remove(className);
+		++generation;
+		return Collections.singleton(className);
+	}
+
+	/**
+	 * Return the names of the direct subclasses of a class.
+	 * @param className the name of the class
+	 * @return the set of names of its subclasses, which must not be
+	 * modified
+	 */
+	private Set subclassesOf(String className) {
+		Set subclasses = (Set) subclassMap.get(className);
+		return (subclasses != null) ? subclasses : Collections.EMPTY_SET;
+	}
+
+	/**
+	 * Return the names of the direct subclasses of a class, creating
+	 * an empty set if there are none yet.
+	 * @param className the name of the class
+	 * @return the modifiable set of names of its subclasses
+	 */
+	private Set subclasses(String className) {
+		Set subclasses = (Set) subclassMap.get(className);
+		if (subclasses == null) {
+			subclasses = new HashSet();
+			subclassMap.put(className, subclasses);
 		}
+		return subclasses;
 	}
 	
 	/**
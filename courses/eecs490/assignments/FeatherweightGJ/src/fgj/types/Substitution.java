@@ -46,6 +46,9 @@ public class Substitution {
 	 * @return the substituted type
 	 */
 	public NonVariableType apply(NonVariableType type) {
+		
+		// There is nothing to substitute in a closed type
+		if (type.isClosed()) return type;
 		List typeArgs = new LinkedList();
 		for (Iterator i = type.typeArgs.iterator(); i.hasNext();) {
 			Type t = (Type) i.next();
@@ -0,0 +1,218 @@
+package fj.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import fj.ast.*;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+
+/**
+ * Measures the time taken to build a {@link ClassTable} from large
+ * synthetic class hierarchies.  Three shapes are measured at each
+ * size: a single chain of subclasses, declared leaf first; a wide
+ * tree, where every class extends one common root; and a bushy tree,
+ * where every class has eight subclasses.  If construction is linear,
+ * the time per class stays roughly constant as the size grows.
+ *
+ * <p>Then, on the largest bushy tree, it measures the changes a
+ * long-running session makes to a table, which should cost in
+ * proportion to the classes they affect rather than to the size of
+ * the table.</p>
+ */
+public class ClassTableBench {
+
+	/**
+	 * The numbers of classes to measure with.
+	 */
+	private static final int[] SIZES = { 1000, 10000, 100000 };
+
+	/**
+	 * The number of timed runs for each measurement; the fastest
+	 * is reported.
+	 */
+	private static final int RUNS = 5;
+
+	/**
+	 * Run the benchmarks and print a table of the results.
+	 * @param args ignored
+	 * @throws ClassTableException a generated hierarchy was invalid
+	 */
+	public static void main(String[] args) throws ClassTableException {
+		System.out.println("shape      classes        ms   ns/class");
+		for (int k = 0; k < SIZES.length; ++k) {
+			int n = SIZES[k];
+			report("chain", n, chain(n));
+			report("wide", n, wide(n));
+			report("bushy", n, bushy(n));
+		}
+		System.out.println();
+		changes(SIZES[SIZES.length - 1]);
+	}
+
+	/**
+	 * Time changes to a large bushy tree and print the results.
+	 * @param n the number of classes
+	 * @throws ClassTableException a change was invalid
+	 */
+	private static void changes(int n) throws ClassTableException {
+		ClassTable types = new ClassTable(bushy(n));
+		String leaf = "C" + (n - 1);
+		String leafParent = "C" + ((n - 2) / 8);
+		String mid = "C" + (n / 8 / 8 / 8);
+		System.out.println("change (of " + n + " classes)   affected        us");
+		long best = Long.MAX_VALUE;
+		int affected = 0;
+		for (int run = 0; run < 2 + RUNS; ++run) {
+			long start = System.nanoTime();
+			affected = types.addClass(classDecl("New", leafParent, 1)).size();
+			long time = System.nanoTime() - start;
+			types.removeClass(new Type("New"));
+			if (run >= 2 && time < best) best = time;
+		}
+		change("add leaf", affected, best);
+		change("replace leaf", types, classDecl(leaf, leafParent, 2));
+		change("replace middle", types, classDecl(mid, "C" + ((n / 8 / 8 / 8 - 1) / 8), 2));
+		change("replace root, same fields", types, classDecl("C0", "Object", 1));
+		change("replace root, new fields", types, classDecl("C0", "Object", 2));
+	}
+
+	/**
+	 * Time the replacement of a class and print the result.
+	 * @param what a description of the change
+	 * @param types the class table to change
+	 * @param classDecl the new class declaration
+	 * @throws ClassTableException the change was invalid
+	 */
+	private static void change(String what, ClassTable types,
+		ClassDecl classDecl) throws ClassTableException {
+		long best = Long.MAX_VALUE;
+		int affected = 0;
+		for (int run = 0; run < 2 + RUNS; ++run) {
+			long start = System.nanoTime();
+			affected = types.replaceClass(classDecl).size();
+			long time = System.nanoTime() - start;
+			if (run >= 2 && time < best) best = time;
+		}
+		change(what, affected, best);
+	}
+
+	/**
+	 * Print the timing of a change.
+	 * @param what a description of the change
+	 * @param affected the number of classes affected
+	 * @param time the time it took, in nanoseconds
+	 */
+	private static void change(String what, int affected, long time) {
+		System.out.println(pad(what, -28) + pad(String.valueOf(affected), 9)
+			+ pad(String.valueOf(time / 1000), 10));
+	}
+
+	/**
+	 * Time the construction of a class table and print the result.
+	 * @param shape the name of the hierarchy's shape
+	 * @param n the number of classes
+	 * @param classes the class declarations
+	 * @throws ClassTableException the hierarchy was invalid
+	 */
+	private static void report(String shape, int n, List classes)
+		throws ClassTableException {
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < 2 + RUNS; ++run) {
+			long start = System.nanoTime();
+			new ClassTable(classes);
+			long time = System.nanoTime() - start;
+			if (run >= 2 && time < best) best = time;
+		}
+		System.out.println(pad(shape, -6) + pad(String.valueOf(n), 12)
+			+ pad(String.valueOf(best / 1000000), 10)
+			+ pad(String.valueOf(best / n), 11));
+	}
+
+	/**
+	 * Build a chain of classes, each extending the one before it.
+	 * Only the root declares fields.  The classes are listed from the
+	 * bottom of the chain up.
+	 * @param n the number of classes
+	 * @return the class declarations
+	 */
+	private static List chain(int n) {
+		List classes = new ArrayList(n);
+		for (int i = n - 1; i > 0; --i) {
+			classes.add(classDecl("C" + i, "C" + (i - 1), 0));
+		}
+		classes.add(classDecl("C0", "Object", 2));
+		return classes;
+	}
+
+	/**
+	 * Build a root class with two fields and its subclasses, each
+	 * of which adds one field.
+	 * @param n the number of classes
+	 * @return the class declarations
+	 */
+	private static List wide(int n) {
+		List classes = new ArrayList(n);
+		classes.add(classDecl("C0", "Object", 2));
+		for (int i = 1; i < n; ++i) {
+			classes.add(classDecl("C" + i, "C0", 1));
+		}
+		return classes;
+	}
+
+	/**
+	 * Build a tree in which every class has eight subclasses and
+	 * adds one field.
+	 * @param n the number of classes
+	 * @return the class declarations
+	 */
+	private static List bushy(int n) {
+		List classes = new ArrayList(n);
+		classes.add(classDecl("C0", "Object", 1));
+		for (int i = 1; i < n; ++i) {
+			classes.add(classDecl("C" + i, "C" + ((i - 1) / 8), 1));
+		}
+		return classes;
+	}
+
+	/**
+	 * Construct a class declaration with one method and the given
+	 * number of fields, each of type <code>Object</code>.
+	 * @param name the name of the class
+	 * @param superName the name of its superclass
+	 * @param fieldCount the number of fields to declare
+	 * @return the class declaration
+	 */
+	private static ClassDecl classDecl(String name, String superName,
+		int fieldCount) {
+		List fields = new ArrayList(fieldCount);
+		for (int i = 0; i < fieldCount; ++i) {
+			fields.add(new Declaration(new Type("Object"),
+				name.toLowerCase() + "f" + i));
+		}
+		Constructor cons = new Constructor(name, Collections.EMPTY_LIST,
+			Collections.EMPTY_LIST, Collections.EMPTY_LIST);
+		Method method = new Method(new Type(name), "self",
+			Collections.EMPTY_LIST, new VarTerm("this"));
+		return new ClassDecl(name, new Type(superName), fields, cons,
+			Collections.singletonList(method));
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+}
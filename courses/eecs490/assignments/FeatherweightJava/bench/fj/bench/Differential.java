@@ -0,0 +1,1399 @@
+package fj.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import fj.ast.CallTerm;
+import fj.ast.CastTerm;
+import fj.ast.ClassDecl;
+import fj.ast.Constructor;
+import fj.ast.Declaration;
+import fj.ast.FieldInit;
+import fj.ast.FieldTerm;
+import fj.ast.LiteralTerm;
+import fj.ast.Method;
+import fj.ast.NewTerm;
+import fj.ast.Program;
+import fj.ast.Term;
+import fj.ast.VarTerm;
+import fj.cache.ProgramDecoder;
+import fj.cache.ProgramEncoder;
+import fj.eval.CodeEvaluator;
+import fj.eval.EvaluationException;
+import fj.eval.EvaluationService;
+import fj.eval.Evaluator;
+import fj.eval.Primitives;
+import fj.eval.Value;
+import fj.eval.ValuePrinter;
+import fj.gen.Generator;
+import fj.ir.ProgramCode;
+import fj.opt.Inliner;
+import fj.parse.Lexer;
+import fj.parse.Parser;
+import fj.typecheck.IncrementalChecker;
+import fj.typecheck.TypeChecker;
+import fj.typecheck.TypeException;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+
+/**
+ * Checks that every way of evaluating a program gives the same answer
+ * as the reference {@link Evaluator}, and every way of checking it the
+ * same verdict.  Programs are checked by a {@link ReferenceChecker}
+ * over a {@link ReferenceTable}, so that everything built on checking
+ * runs whether or not the assignment is done.  Each program of a corpus, the
+ * test cases and many generated programs of random shapes, a quarter
+ * of them using the built-in classes of {@link Primitives}, and a few
+ * calling built-in methods on objects with no number, truth, or
+ * elements in them, is run by every engine which can run it:
+ * <ul>
+ * <li><code>tree</code>, the {@link Evaluator} itself, walking the
+ * syntax tree;</li>
+ * <li><code>code</code>, the {@link CodeEvaluator}, on the program as
+ * translated by the {@link TypeChecker};</li>
+ * <li><code>service</code> and <code>service-code</code>, an
+ * {@link EvaluationService}, on the syntax tree and on the translated
+ * program;</li>
+ * <li><code>cached</code>, the {@link Evaluator} on the program as
+ * written to and read back from a cache file;</li>
+ * <li><code>inlined</code> and <code>inlined-code</code>, the
+ * {@link Evaluator} and the {@link CodeEvaluator} on the program with
+ * calls inlined by the {@link Inliner}.</li>
+ * </ul>
+ * Engines on the translated program run only on programs which pass
+ * checking.  An engine which cannot run a program the reference ran
+ * disagrees with it, unless the checker rejected the program, so that
+ * a checker failing for any other reason cannot leave engines
+ * silently untried; how many programs each engine skipped is printed
+ * with its times.  The outcome of a run is the printed value, or the
+ * kind of error: stuck, for an {@link EvaluationException}; overflow,
+ * for a stack overflow; or the class of anything else thrown.  Error
+ * messages are not compared, since engines word them differently,
+ * except on the programs calling built-in methods wrongly, where every
+ * engine must give the error the evaluator gives.
+ *
+ * <p>A program on which an engine disagrees with <code>tree</code> is
+ * shrunk to a smaller one on which the same engines still disagree,
+ * by removing classes and methods and replacing expressions with
+ * expressions inside them, until no such step keeps the disagreement.
+ * Both programs are printed, with every engine's outcome.  After the
+ * corpus has been run once, which also warms up the engines, each
+ * engine runs each program a few more times, and the run ends with the
+ * total of the best times of each engine, and its speedup over
+ * <code>tree</code> on the same programs.</p>
+ *
+ * <p>Every engine also runs a program whose value shares numerals,
+ * each the predecessor of the one before it in a list, and must print
+ * it with {@link ValuePrinter#printShared} binding each shared numeral
+ * once.</p>
+ *
+ * <p>Last, each program of the corpus, and a small program followed by
+ * edits of it which break it in different ways, is checked in each way
+ * the {@link TypeChecker} offers: translating it, checking it alone,
+ * checking it in parallel, and checking it with one
+ * {@link IncrementalChecker}, which sees the programs one after another
+ * as edits of each other, and each broken edit straight after the
+ * program it breaks.  All four must give the same verdict, reject a
+ * program only by throwing a {@link TypeException} or a
+ * {@link ClassTableException}, and reject the edits meant to break the
+ * program and no others.  The exit status is 1 if any engine
+ * disagreed, printed the shared value otherwise, or any way of
+ * checking disagreed.</p>
+ */
+public class Differential {
+
+	/**
+	 * The directory of the test cases in the corpus.
+	 */
+	private static final String TESTS = "tests";
+
+	/**
+	 * The longest an engine may take on one run, in seconds, before
+	 * it is given up on; only engines running on other threads can be.
+	 */
+	private static final long TIMEOUT = 10;
+
+	/**
+	 * The outcome of an engine which cannot run a program.
+	 */
+	private static final String SKIPPED = "skipped";
+
+	/**
+	 * The end of a line between bindings of a value printed shared.
+	 */
+	private static final String LINE_SEPARATOR =
+		System.getProperty("line.separator");
+
+	/**
+	 * Programs using the built-in classes wrongly, which every engine
+	 * must fail on with the same message.
+	 */
+	private static final String[] BUILT_INS = {
+		"new Int().add(1)",
+		"new Bool().not()",
+		"1.add(new Int())",
+		"1.div(0)",
+		"new Vector().get(0)",
+		"new Vector().append(new Int()).get(0)",
+		"class MyVector extends Vector { MyVector() { super(); } }\n"
+			+ "new MyVector().size()",
+		"class MyVector extends Vector { MyVector() { super(); } }\n"
+			+ "new MyVector().append(1)"
+	};
+
+	/**
+	 * A program the edits of {@link #EDITS} break.  Its term evaluates
+	 * to <code>new Triple(new B(), new A(), new B())</code>.
+	 */
+	private static final String EDITED =
+		"class A extends Object {\n" +
+		"  A() { super(); }\n" +
+		"}\n" +
+		"class B extends A {\n" +
+		"  B() { super(); }\n" +
+		"}\n" +
+		"class Pair extends Object {\n" +
+		"  Object fst;\n" +
+		"  Object snd;\n" +
+		"  Pair(Object fst, Object snd) {\n" +
+		"    super(); this.fst = fst; this.snd = snd;\n" +
+		"  }\n" +
+		"  Pair swap() { return new Pair(this.snd, this.fst); }\n" +
+		"}\n" +
+		"class Triple extends Pair {\n" +
+		"  A thd;\n" +
+		"  Triple(Object fst, Object snd, A thd) {\n" +
+		"    super(fst, snd); this.thd = thd;\n" +
+		"  }\n" +
+		"  A third() { return this.thd; }\n" +
+		"  Pair swap() { return new Triple(this.snd, this.fst, this.thd); }\n" +
+		"}\n" +
+		"new Triple(new A(), new B(), new B()).swap()";
+
+	/**
+	 * Edits of {@link #EDITED}, each a piece of it and what replaces
+	 * the piece.  The first keeps the program well typed; each of the
+	 * others breaks it in one way.
+	 */
+	private static final String[][] EDITS = {
+		{ ".swap()", ".third()" },
+		{ "return this.thd;", "return this.fst;" },
+		{ "return this.thd;", "return thd;" },
+		{ "new B(), new B())", "new B(), new Object())" },
+		{ ".swap()", ".swop()" },
+		{ "this.fst, this.thd)", "this.fst)" },
+		{ "Pair swap() { return new Triple", "Triple swap() { return new Triple" },
+		{ "this.thd = thd;", "this.thd = fst;" },
+		{ "class B extends A", "class B extends C" }
+	};
+
+	/**
+	 * A program whose value is a list of numerals, each made from the
+	 * one after it in the list.
+	 */
+	private static final String SHARING =
+		"class Nat extends Object { Nat() { super(); } }\n"
+		+ "class Zero extends Nat { Zero() { super(); } }\n"
+		+ "class Succ extends Nat {\n"
+		+ "  Nat pred;\n"
+		+ "  Succ(Nat pred) { super(); this.pred = pred; }\n"
+		+ "}\n"
+		+ "class List extends Object { List() { super(); } }\n"
+		+ "class Nil extends List { Nil() { super(); } }\n"
+		+ "class Cons extends List {\n"
+		+ "  Nat head;\n"
+		+ "  List tail;\n"
+		+ "  Cons(Nat head, List tail) { super(); this.head = head; this.tail = tail; }\n"
+		+ "  Cons up() { return new Cons(new Succ(this.head), this); }\n"
+		+ "}\n"
+		+ "new Cons(new Zero(), new Nil()).up().up().up()\n";
+
+	/**
+	 * The value of {@link #SHARING}, printed shared.
+	 */
+	private static final String SHARED =
+		"va = new Succ(new Zero());" + LINE_SEPARATOR
+		+ "vb = new Succ(va);" + LINE_SEPARATOR
+		+ "new Cons(new Succ(vb), new Cons(vb, new Cons(va, "
+		+ "new Cons(new Zero(), new Nil()))))";
+
+	/**
+	 * The engines, with the reference first.
+	 */
+	private final Engine[] engines = {
+		new TreeEngine(), new CodeEngine(), new ServiceEngine(false),
+		new ServiceEngine(true), new CachedEngine(), new InlinedEngine(false),
+		new InlinedEngine(true) };
+
+	/**
+	 * The corpus, from names to sources.
+	 */
+	private final Map corpus = new LinkedHashMap();
+
+	/**
+	 * The names of the programs of the corpus using the built-in
+	 * classes.
+	 */
+	private final Set primitive = new HashSet();
+
+	/**
+	 * The names of the programs of the corpus on which the messages of
+	 * errors are compared too.
+	 */
+	private final Set exact = new HashSet();
+
+	/**
+	 * The number of times each engine runs each program when timed.
+	 */
+	private final int repeat;
+
+	/**
+	 * For each engine, the total of its best times, in nanoseconds.
+	 */
+	private final long[] totals;
+
+	/**
+	 * For each engine, the total of the reference engine's best times
+	 * on the same programs, in nanoseconds.
+	 */
+	private final long[] referenceTotals;
+
+	/**
+	 * For each engine, the number of programs it was timed on.
+	 */
+	private final int[] timed;
+
+	/**
+	 * For each engine, the number of programs of the corpus it could
+	 * not run.
+	 */
+	private final int[] skipped;
+
+	/**
+	 * Construct a harness with an empty corpus.
+	 * @param repeat the number of times each engine runs each program
+	 * when timed
+	 */
+	public Differential(int repeat) {
+		this.repeat = repeat;
+		this.totals = new long[engines.length];
+		this.referenceTotals = new long[engines.length];
+		this.timed = new int[engines.length];
+		this.skipped = new int[engines.length];
+	}
+
+	/**
+	 * Run the corpus through every engine, and check that each prints
+	 * shared numerals once.  The exit status is 1 if any engine
+	 * disagreed with the reference, or did not.
+	 * @param args <code>[--seed n] [--count n] [--repeat n] [file
+	 * ...]</code>, where the files are added to the test cases, and the
+	 * seeds of the generated programs start from the given one
+	 * @throws IOException a file could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		int count = 200;
+		int repeat = 5;
+		List files = new ArrayList();
+		File[] tests = new File(TESTS).listFiles();
+		Arrays.sort(tests);
+		for (int i = 0; i < tests.length; ++i) {
+			if (tests[i].getName().endsWith(".fj")) files.add(tests[i]);
+		}
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("--count") && i + 1 < args.length) {
+				count = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--repeat") && i + 1 < args.length) {
+				repeat = Math.max(1, Integer.parseInt(args[++i]));
+			}
+			else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		Differential differential = new Differential(repeat);
+		for (int i = 0; i < files.size(); ++i) {
+			File file = (File) files.get(i);
+			differential.add(file.getPath(), read(file));
+		}
+		for (int i = 0; i < BUILT_INS.length; ++i) {
+			differential.add("built-in/" + i, BUILT_INS[i].getBytes("UTF-8"),
+				true);
+			differential.exact.add("built-in/" + i);
+		}
+		for (int i = 0; i < count; ++i) {
+			boolean primitives = (seed + i) % 4 == 0;
+			differential.add("gen/" + (seed + i) + (primitives ? "-primitives" : ""),
+				generate(seed + i, primitives).getBytes("UTF-8"), primitives);
+		}
+		int failed = differential.run();
+		failed += differential.checkSharing();
+		failed += differential.checkCheckers();
+		if (failed > 0) System.exit(1);
+	}
+
+	/**
+	 * Generate a program of a shape chosen by its seed: one to four
+	 * classes deep, one to three wide, with one to four methods, two
+	 * to ten operations in each part, and no casts or a quarter of
+	 * expressions cast.
+	 * @param seed the seed
+	 * @param primitives whether to compute with the built-in classes
+	 * too
+	 * @return the source of the program
+	 */
+	private static String generate(long seed, boolean primitives) {
+		Random random = new Random(seed);
+		Generator generator = new Generator(seed);
+		generator.setDepth(1 + random.nextInt(4));
+		generator.setWidth(1 + random.nextInt(3));
+		generator.setMethods(1 + random.nextInt(4));
+		generator.setSize(2 + random.nextInt(9));
+		generator.setCasts(random.nextBoolean() ? 0 : 25);
+		if (primitives) {
+			generator.setFeatures(Generator.FEATURES);
+		}
+		return generator.program();
+	}
+
+	/**
+	 * Add a program to the corpus.
+	 * @param name the name of the program
+	 * @param source its source
+	 */
+	public void add(String name, byte[] source) {
+		add(name, source, false);
+	}
+
+	/**
+	 * Add a program to the corpus.
+	 * @param name the name of the program
+	 * @param source its source
+	 * @param primitives whether it uses the built-in classes
+	 */
+	public void add(String name, byte[] source, boolean primitives) {
+		corpus.put(name, source);
+		if (primitives) primitive.add(name);
+	}
+
+	/**
+	 * Run every program of the corpus through every engine, shrinking
+	 * and printing those on which engines disagree, then time the
+	 * engines on the programs on which they agreed and print their
+	 * speedups.
+	 * @return the number of programs on which engines disagreed
+	 */
+	public int run() {
+		List agreed = new ArrayList();
+		int disagreed = 0;
+		int unparsed = 0;
+		int rejected = 0;
+		for (Iterator i = corpus.keySet().iterator(); i.hasNext(); ) {
+			String name = (String) i.next();
+			boolean primitives = primitive.contains(name);
+			Program program;
+			try {
+				byte[] source = (byte[]) corpus.get(name);
+				program = new Parser(new Lexer(new ByteArrayInputStream(source)),
+					primitives).parse();
+			}
+			catch (Exception e) {
+				++unparsed;
+				continue;
+			}
+			Subject subject = new Subject(program, primitives);
+			String[] outcomes = outcomes(subject);
+			for (int e = 0; e < engines.length; ++e) {
+				if (outcomes[e] == SKIPPED) ++skipped[e];
+			}
+			if (subject.rejected) ++rejected;
+			boolean messages = exact.contains(name);
+			if (disagreement(subject, outcomes, messages) == null) {
+				agreed.add(subject);
+				continue;
+			}
+			++disagreed;
+			System.out.println("engines disagree on " + name + ":");
+			if (subject.problem != null) {
+				System.out.println("  (not translated: " + subject.problem + ")");
+			}
+			print(outcomes);
+			Subject minimal = shrink(subject, outcomes, messages);
+			System.out.println("smallest program on which they disagree:");
+			System.out.println(source(minimal.program));
+			print(outcomes(minimal));
+			System.out.println();
+		}
+		System.out.println(corpus.size() + " programs, " + unparsed
+			+ " did not parse, " + rejected + " rejected by the checker, "
+			+ disagreed + " had disagreements");
+
+		for (int i = 0; i < agreed.size(); ++i) time((Subject) agreed.get(i));
+		System.out.println();
+		for (int e = 0; e < engines.length; ++e) {
+			String speedup = (totals[e] == 0) ? "-" :
+				String.valueOf((double) Math.round(
+					(double) referenceTotals[e] / totals[e] * 100) / 100) + "x";
+			System.out.println(pad(engines[e].name, -14)
+				+ pad(String.valueOf(timed[e]), 5) + " programs "
+				+ pad(String.valueOf(skipped[e]), 5) + " skipped "
+				+ pad(millis(totals[e]), 12) + "  speedup " + speedup);
+		}
+		return disagreed;
+	}
+
+	/**
+	 * Run {@link #SHARING} through every engine, and check that each
+	 * value prints shared as {@link #SHARED}: the
+	 * numerals of the list are the objects the program made, so each
+	 * made from another is bound once and used by name.
+	 * @return the number of engines which printed it otherwise, or
+	 * could not run it
+	 */
+	public int checkSharing() {
+		Subject subject;
+		try {
+			subject = new Subject(new Parser(new Lexer(
+				new ByteArrayInputStream(SHARING.getBytes("UTF-8")))).parse(),
+				false);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(e.toString());
+		}
+		int failed = 0;
+		for (int e = 0; e < engines.length; ++e) {
+			String printed;
+			Object prepared = null;
+			try {
+				prepared = engines[e].prepare(subject);
+				if (prepared == null) {
+					printed = SKIPPED;
+				}
+				else {
+					StringBuffer sb = new StringBuffer();
+					new ValuePrinter().printShared((Value) engines[e].run(prepared), sb);
+					printed = sb.toString();
+				}
+			}
+			catch (Throwable t) {
+				printed = t.toString();
+			}
+			finally {
+				if (prepared != null) engines[e].finish(prepared);
+			}
+			if (!printed.equals(SHARED)) {
+				System.out.println(engines[e].name
+					+ " does not print shared numerals once:");
+				System.out.println(printed);
+				++failed;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Check each program of the corpus, then {@link #EDITED} and each
+	 * of its {@link #EDITS}, in every way the {@link TypeChecker}
+	 * offers, and print the programs on which they disagree, those on
+	 * which checking threw anything but a {@link TypeException} or a
+	 * {@link ClassTableException}, and the edits given a verdict other
+	 * than the one meant.
+	 * @return the number of such programs
+	 */
+	public int checkCheckers() {
+		List names = new ArrayList();
+		List programs = new ArrayList();
+		List primitives = new ArrayList();
+		for (Iterator i = corpus.keySet().iterator(); i.hasNext(); ) {
+			String name = (String) i.next();
+			names.add(name);
+			programs.add(corpus.get(name));
+			primitives.add(Boolean.valueOf(primitive.contains(name)));
+		}
+		try {
+			for (int i = 0; i < EDITS.length; ++i) {
+				names.add("edited");
+				programs.add(EDITED.getBytes("UTF-8"));
+				primitives.add(Boolean.FALSE);
+				int at = EDITED.indexOf(EDITS[i][0]);
+				names.add("edit/" + i);
+				programs.add((EDITED.substring(0, at) + EDITS[i][1]
+					+ EDITED.substring(at + EDITS[i][0].length())).getBytes("UTF-8"));
+				primitives.add(Boolean.FALSE);
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		IncrementalChecker incremental;
+		try {
+			incremental = new IncrementalChecker(new ReferenceChecker(
+				new ReferenceTable(new ArrayList())));
+		}
+		catch (ClassTableException e) {
+			throw new IllegalStateException(e.toString());
+		}
+		int failed = 0;
+		for (int i = 0; i < programs.size(); ++i) {
+			String name = (String) names.get(i);
+			boolean usesPrimitives = ((Boolean) primitives.get(i)).booleanValue();
+			String[] verdicts = new String[4];
+			try {
+				byte[] source = (byte[]) programs.get(i);
+				Program program = new Parser(new Lexer(
+					new ByteArrayInputStream(source)), usesPrimitives).parse();
+				Subject subject = new Subject(program, usesPrimitives);
+				for (int way = 0; way < 3; ++way) {
+					verdicts[way] = verdict(subject, way, pool);
+				}
+				try {
+					incremental.check(usesPrimitives ? new Program(
+						Primitives.withBuiltIns(program.classDecls), program.term)
+						: program);
+					verdicts[3] = "ok";
+				}
+				catch (Throwable t) {
+					verdicts[3] = t.getClass().getName() + ": " + t.getMessage();
+				}
+			}
+			catch (Exception e) {
+				continue;
+			}
+			boolean ok = verdicts[0].equals("ok");
+			boolean agreed = ok
+				|| verdicts[0].startsWith(TypeException.class.getName() + ":")
+				|| verdicts[0].startsWith(ClassTableException.class.getName() + ":");
+			if (name.equals("edited") || name.equals("edit/0")) {
+				agreed &= ok;
+			}
+			else if (name.startsWith("edit/")) {
+				agreed &= !ok;
+			}
+			for (int way = 1; way < verdicts.length; ++way) {
+				agreed &= verdicts[way].equals(verdicts[0]);
+			}
+			if (!agreed) {
+				System.out.println("checkers disagree on " + name + ":");
+				String[] ways = { "compile", "check", "parallel", "incremental" };
+				for (int way = 0; way < verdicts.length; ++way) {
+					System.out.println("  " + pad(ways[way], -14) + verdicts[way]);
+				}
+				++failed;
+			}
+		}
+		pool.shutdown();
+		System.out.println(programs.size() + " programs checked in "
+			+ "4 ways, " + failed + " with disagreements");
+		return failed;
+	}
+
+	/**
+	 * Check a program in one way.
+	 * @param subject the program
+	 * @param way 0 to translate it, 1 to check it alone, 2 to check it
+	 * in parallel
+	 * @param pool the pool to check in parallel in
+	 * @return <code>ok</code>, or the class and message of what was
+	 * thrown
+	 */
+	private static String verdict(Subject subject, int way, ForkJoinPool pool) {
+		try {
+			ClassTable types = subject.table(subject.program.classDecls);
+			TypeChecker checker = new ReferenceChecker(types);
+			if (way == 0) {
+				checker.compileProgram(subject.program);
+			}
+			else if (way == 1) {
+				checker.checkProgram(subject.program);
+			}
+			else {
+				checker.checkProgram(subject.program, pool);
+			}
+			return "ok";
+		}
+		catch (Throwable t) {
+			return t.getClass().getName() + ": " + t.getMessage();
+		}
+	}
+
+	/**
+	 * Run a program through every engine.
+	 * @param subject the program
+	 * @return the outcome of each engine, in the order of
+	 * {@link #engines}
+	 */
+	private String[] outcomes(Subject subject) {
+		String[] outcomes = new String[engines.length];
+		for (int e = 0; e < engines.length; ++e) {
+			outcomes[e] = outcome(engines[e], subject);
+		}
+		return outcomes;
+	}
+
+	/**
+	 * Run a program through an engine once.
+	 * @param engine the engine
+	 * @param subject the program
+	 * @return the printed value, <code>stuck</code>,
+	 * <code>overflow</code>, <code>timeout</code>, or the class of
+	 * anything else thrown, followed after a colon by its message; or
+	 * {@link #SKIPPED} if the engine cannot run the program
+	 */
+	private static String outcome(Engine engine, Subject subject) {
+		Object prepared = null;
+		try {
+			prepared = engine.prepare(subject);
+			if (prepared == null) return SKIPPED;
+			return engine.run(prepared).toString();
+		}
+		catch (EvaluationException e) {
+			return "stuck: " + e.getMessage();
+		}
+		catch (StackOverflowError e) {
+			return "overflow:";
+		}
+		catch (TimeoutException e) {
+			return "timeout:";
+		}
+		catch (Throwable e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+		finally {
+			if (prepared != null) engine.finish(prepared);
+		}
+	}
+
+	/**
+	 * Find which engines disagree with the reference.  An engine which
+	 * could not run a program the reference ran disagrees too, unless
+	 * the checker rejected the program, since then there is nothing
+	 * translated for it to run.
+	 * @param subject the program
+	 * @param outcomes the outcome of each engine
+	 * @param messages whether to compare the messages of errors too
+	 * @return a description of the engines, or <code>null</code> if
+	 * they all agree
+	 */
+	private String disagreement(Subject subject, String[] outcomes,
+			boolean messages) {
+		StringBuffer sb = new StringBuffer();
+		String reference = messages ? outcomes[0] : kind(outcomes[0]);
+		for (int e = 1; e < engines.length; ++e) {
+			if (outcomes[e] == SKIPPED) {
+				boolean excused = outcomes[0] == SKIPPED || subject.rejected;
+				sb.append(' ').append(engines[e].name)
+					.append(excused ? "=skipped" : "=differs (skipped)");
+			}
+			else if (!(messages ? outcomes[e] : kind(outcomes[e])).equals(reference)) {
+				sb.append(' ').append(engines[e].name).append("=differs");
+			}
+		}
+		return (sb.indexOf("=differs") < 0) ? null : sb.toString();
+	}
+
+	/**
+	 * Find what an outcome is compared by: the printed value, or the
+	 * kind of error without its message.
+	 * @param outcome the outcome
+	 * @return the part of it compared
+	 */
+	private static String kind(String outcome) {
+		int colon = outcome.indexOf(':');
+		return (colon < 0) ? outcome : outcome.substring(0, colon);
+	}
+
+	/**
+	 * Print the outcome of each engine.
+	 * @param outcomes the outcomes
+	 */
+	private void print(String[] outcomes) {
+		for (int e = 0; e < engines.length; ++e) {
+			System.out.println("  " + pad(engines[e].name, -14) + outcomes[e]);
+		}
+	}
+
+	/**
+	 * Shrink a program on which engines disagree.  Each step tries
+	 * smaller programs in turn, and keeps the first on which the same
+	 * engines disagree, and the same engines are skipped; the program
+	 * is as small as it gets when no smaller one does.
+	 * @param subject the program
+	 * @param outcomes the outcome of each engine on it
+	 * @param messages whether the messages of errors are compared
+	 * @return the smallest program found
+	 */
+	private Subject shrink(Subject subject, String[] outcomes,
+			boolean messages) {
+		String wanted = disagreement(subject, outcomes, messages);
+		boolean shrunk = true;
+		while (shrunk) {
+			shrunk = false;
+			List candidates = smaller(subject.program);
+			for (int i = 0; i < candidates.size() && !shrunk; ++i) {
+				Subject candidate = new Subject((Program) candidates.get(i),
+					subject.primitives);
+				if (wanted.equals(disagreement(candidate, outcomes(candidate),
+						messages))) {
+					subject = candidate;
+					shrunk = true;
+				}
+			}
+		}
+		return subject;
+	}
+
+	/**
+	 * Find the programs one step smaller than a program: without one of
+	 * its classes, without one of the methods of a class, or with one
+	 * expression, in a method or the program's own, replaced by one of
+	 * the expressions immediately inside it.
+	 * @param program the program
+	 * @return the smaller programs, those removing most first
+	 */
+	private static List smaller(Program program) {
+		List smaller = new ArrayList();
+		List classDecls = program.classDecls;
+		for (int i = classDecls.size() - 1; i >= 0; --i) {
+			List fewer = new ArrayList(classDecls);
+			fewer.remove(i);
+			smaller.add(new Program(fewer, program.term));
+		}
+		for (int i = 0; i < classDecls.size(); ++i) {
+			ClassDecl classDecl = (ClassDecl) classDecls.get(i);
+			for (int j = classDecl.methods.size() - 1; j >= 0; --j) {
+				List methods = new ArrayList(classDecl.methods);
+				methods.remove(j);
+				smaller.add(replace(program, i, new ClassDecl(classDecl.name,
+					classDecl.superType, classDecl.fields,
+					classDecl.constructor, methods, classDecl.isNative)));
+			}
+		}
+		List terms = smaller(program.term);
+		for (int i = 0; i < terms.size(); ++i) {
+			smaller.add(new Program(classDecls, (Term) terms.get(i)));
+		}
+		for (int i = 0; i < classDecls.size(); ++i) {
+			ClassDecl classDecl = (ClassDecl) classDecls.get(i);
+			for (int j = 0; j < classDecl.methods.size(); ++j) {
+				Method method = (Method) classDecl.methods.get(j);
+				terms = smaller(method.body);
+				for (int k = 0; k < terms.size(); ++k) {
+					List methods = new ArrayList(classDecl.methods);
+					methods.set(j, new Method(method.returnType, method.name,
+						method.params, (Term) terms.get(k)));
+					smaller.add(replace(program, i, new ClassDecl(classDecl.name,
+						classDecl.superType, classDecl.fields,
+						classDecl.constructor, methods, classDecl.isNative)));
+				}
+			}
+		}
+		return smaller;
+	}
+
+	/**
+	 * Replace a class of a program.
+	 * @param program the program
+	 * @param index the index of the class
+	 * @param classDecl the class to put in its place
+	 * @return the new program
+	 */
+	private static Program replace(Program program, int index, ClassDecl classDecl) {
+		List classDecls = new ArrayList(program.classDecls);
+		classDecls.set(index, classDecl);
+		return new Program(classDecls, program.term);
+	}
+
+	/**
+	 * Find the expressions one step smaller than an expression, each
+	 * with one expression within it, or itself, replaced by one of the
+	 * expressions immediately inside that one.
+	 * @param t the expression
+	 * @return the smaller expressions, those replacing the outermost
+	 * expressions first
+	 */
+	private static List smaller(Term t) {
+		List smaller = new ArrayList(children(t));
+		if (t instanceof FieldTerm) {
+			FieldTerm f = (FieldTerm) t;
+			List bases = smaller(f.base);
+			for (int i = 0; i < bases.size(); ++i) {
+				smaller.add(new FieldTerm((Term) bases.get(i), f.fieldName));
+			}
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm c = (CallTerm) t;
+			List bases = smaller(c.base);
+			for (int i = 0; i < bases.size(); ++i) {
+				smaller.add(new CallTerm((Term) bases.get(i), c.methodName, c.args));
+			}
+			for (int i = 0; i < c.args.size(); ++i) {
+				List args = smaller((Term) c.args.get(i));
+				for (int j = 0; j < args.size(); ++j) {
+					List newArgs = new ArrayList(c.args);
+					newArgs.set(i, args.get(j));
+					smaller.add(new CallTerm(c.base, c.methodName, newArgs));
+				}
+			}
+		}
+		else if (t instanceof NewTerm) {
+			NewTerm n = (NewTerm) t;
+			for (int i = 0; i < n.args.size(); ++i) {
+				List args = smaller((Term) n.args.get(i));
+				for (int j = 0; j < args.size(); ++j) {
+					List newArgs = new ArrayList(n.args);
+					newArgs.set(i, args.get(j));
+					smaller.add(new NewTerm(n.type, newArgs));
+				}
+			}
+		}
+		else if (t instanceof CastTerm) {
+			CastTerm c = (CastTerm) t;
+			List terms = smaller(c.term);
+			for (int i = 0; i < terms.size(); ++i) {
+				smaller.add(new CastTerm(c.type, (Term) terms.get(i)));
+			}
+		}
+		return smaller;
+	}
+
+	/**
+	 * Find the expressions immediately inside an expression.
+	 * @param t the expression
+	 * @return the expressions
+	 */
+	private static List children(Term t) {
+		List children = new ArrayList();
+		if (t instanceof FieldTerm) {
+			children.add(((FieldTerm) t).base);
+		}
+		else if (t instanceof CallTerm) {
+			children.add(((CallTerm) t).base);
+			children.addAll(((CallTerm) t).args);
+		}
+		else if (t instanceof NewTerm) {
+			children.addAll(((NewTerm) t).args);
+		}
+		else if (t instanceof CastTerm) {
+			children.add(((CastTerm) t).term);
+		}
+		return children;
+	}
+
+	/**
+	 * Time every engine which agreed with the reference on a program,
+	 * adding its best time to its total.
+	 * @param subject the program
+	 */
+	private void time(Subject subject) {
+		long[] best = new long[engines.length];
+		for (int e = 0; e < engines.length; ++e) {
+			best[e] = -1;
+			Object prepared = null;
+			try {
+				prepared = engines[e].prepare(subject);
+				if (prepared == null) continue;
+				for (int n = 0; n < repeat; ++n) {
+					long start = System.nanoTime();
+					engines[e].run(prepared);
+					long time = System.nanoTime() - start;
+					if (best[e] < 0 || time < best[e]) best[e] = time;
+				}
+			}
+			catch (Throwable t) {
+				// Programs which fail are timed too, and the reference
+				// failed in the same way
+				continue;
+			}
+			finally {
+				if (prepared != null) engines[e].finish(prepared);
+			}
+		}
+		for (int e = 0; e < engines.length; ++e) {
+			if (best[0] < 0 || best[e] < 0) continue;
+			totals[e] += best[e];
+			referenceTotals[e] += best[0];
+			++timed[e];
+		}
+	}
+
+	/**
+	 * Write a program as source text.
+	 * @param program the program
+	 * @return its source
+	 */
+	private static String source(Program program) {
+		StringBuffer sb = new StringBuffer();
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			if (classDecl.isNative) sb.append("native ");
+			sb.append("class " + classDecl.name + " extends "
+				+ classDecl.superType + " {\n");
+			for (Iterator j = classDecl.fields.iterator(); j.hasNext(); ) {
+				Declaration field = (Declaration) j.next();
+				sb.append("  " + field.type + " " + field.name + ";\n");
+			}
+			Constructor constructor = classDecl.constructor;
+			sb.append("  " + constructor.className + "(");
+			declarations(sb, constructor.params);
+			sb.append(") { super(");
+			for (Iterator j = constructor.superArgs.iterator(); j.hasNext(); ) {
+				sb.append(j.next());
+				if (j.hasNext()) sb.append(", ");
+			}
+			sb.append(");");
+			for (Iterator j = constructor.inits.iterator(); j.hasNext(); ) {
+				FieldInit init = (FieldInit) j.next();
+				sb.append(" this." + init.fieldName + " = " + init.initName + ";");
+			}
+			sb.append(" }\n");
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				Method method = (Method) j.next();
+				sb.append("  " + method.returnType + " " + method.name + "(");
+				declarations(sb, method.params);
+				if (classDecl.isNative) {
+					sb.append(");\n");
+					continue;
+				}
+				sb.append(") { return ");
+				source(sb, method.body);
+				sb.append("; }\n");
+			}
+			sb.append("}\n");
+		}
+		source(sb, program.term);
+		return sb.toString();
+	}
+
+	/**
+	 * Write a list of declarations, separated by commas.
+	 * @param sb the buffer to write to
+	 * @param declarations the {@link Declaration}s
+	 */
+	private static void declarations(StringBuffer sb, List declarations) {
+		for (Iterator i = declarations.iterator(); i.hasNext(); ) {
+			Declaration d = (Declaration) i.next();
+			sb.append(d.type + " " + d.name);
+			if (i.hasNext()) sb.append(", ");
+		}
+	}
+
+	/**
+	 * Write an expression as source text.
+	 * @param sb the buffer to write to
+	 * @param t the expression
+	 */
+	private static void source(StringBuffer sb, Term t) {
+		if (t instanceof VarTerm) {
+			sb.append(((VarTerm) t).name);
+		}
+		else if (t instanceof FieldTerm) {
+			source(sb, ((FieldTerm) t).base);
+			sb.append('.').append(((FieldTerm) t).fieldName);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm c = (CallTerm) t;
+			source(sb, c.base);
+			sb.append('.').append(c.methodName);
+			arguments(sb, c.args);
+		}
+		else if (t instanceof NewTerm) {
+			sb.append("new ").append(((NewTerm) t).type);
+			arguments(sb, ((NewTerm) t).args);
+		}
+		else if (t instanceof LiteralTerm) {
+			sb.append(((LiteralTerm) t).value);
+		}
+		else {
+			sb.append("((").append(((CastTerm) t).type).append(") ");
+			source(sb, ((CastTerm) t).term);
+			sb.append(')');
+		}
+	}
+
+	/**
+	 * Write a list of arguments, in parentheses.
+	 * @param sb the buffer to write to
+	 * @param args the argument {@link Term}s
+	 */
+	private static void arguments(StringBuffer sb, List args) {
+		sb.append('(');
+		for (Iterator i = args.iterator(); i.hasNext(); ) {
+			source(sb, (Term) i.next());
+			if (i.hasNext()) sb.append(", ");
+		}
+		sb.append(')');
+	}
+
+	/**
+	 * Read a file.
+	 * @param file the file
+	 * @return its contents
+	 * @throws IOException the file could not be read
+	 */
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Format a time in milliseconds.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String millis(long nanos) {
+		long hundredths = (nanos + 5000) / 10000;
+		String fraction = String.valueOf(100 + hundredths % 100).substring(1);
+		return (hundredths / 100) + "." + fraction + " ms";
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+
+	/**
+	 * A program, with what the engines need to run it: its class table,
+	 * and its translation, if it passes checking.
+	 */
+	private static class Subject {
+
+		/**
+		 * The program.
+		 */
+		final Program program;
+
+		/**
+		 * Its class table, or <code>null</code> if it could not be
+		 * built.
+		 */
+		final ClassTable types;
+
+		/**
+		 * Its translation, or <code>null</code> if it did not pass
+		 * checking.
+		 */
+		final ProgramCode code;
+
+		/**
+		 * Whether the program uses the built-in classes.
+		 */
+		final boolean primitives;
+
+		/**
+		 * Whether the program was rejected by the class table or the
+		 * checker, with a {@link ClassTableException} or a
+		 * {@link TypeException}.
+		 */
+		final boolean rejected;
+
+		/**
+		 * Why the program was not translated, or <code>null</code> if
+		 * it was.
+		 */
+		final String problem;
+
+		/**
+		 * Build the class table of a program, and check and translate
+		 * it.
+		 * @param program the program
+		 * @param primitives whether it uses the built-in classes
+		 */
+		Subject(Program program, boolean primitives) {
+			this.program = program;
+			this.primitives = primitives;
+			ClassTable types = null;
+			ProgramCode code = null;
+			Throwable problem = null;
+			try {
+				types = table(program.classDecls);
+				code = new ReferenceChecker(types).compileProgram(program);
+			}
+			catch (Exception e) {
+				problem = e;
+			}
+			catch (Error e) {
+				// Deep expressions may overflow the stack
+				problem = e;
+			}
+			this.types = types;
+			this.code = code;
+			this.rejected = problem instanceof ClassTableException
+				|| problem instanceof TypeException;
+			this.problem = (problem == null) ? null : problem.toString();
+		}
+
+		/**
+		 * Build a class table of classes of the program, with the
+		 * built-in classes if it uses them.
+		 * @param classDecls the {@link ClassDecl}s
+		 * @return the class table
+		 * @throws ClassTableException the classes are not well formed
+		 */
+		ClassTable table(List classDecls) throws ClassTableException {
+			return new ReferenceTable(primitives
+				? Primitives.withBuiltIns(classDecls) : classDecls);
+		}
+	}
+
+	/**
+	 * A way of evaluating programs.
+	 */
+	private abstract static class Engine {
+
+		/**
+		 * The name of the engine, for reports.
+		 */
+		final String name;
+
+		/**
+		 * Construct an engine.
+		 * @param name its name
+		 */
+		Engine(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Get ready to run a program, doing whatever should not be
+		 * timed.
+		 * @param subject the program
+		 * @return what {@link #run} needs, or <code>null</code> if the
+		 * engine cannot run the program
+		 * @throws Exception the program could not be made ready
+		 */
+		abstract Object prepare(Subject subject) throws Exception;
+
+		/**
+		 * Evaluate a program.
+		 * @param prepared what {@link #prepare} returned
+		 * @return the value of the program
+		 * @throws Exception the program could not be evaluated
+		 */
+		abstract Object run(Object prepared) throws Exception;
+
+		/**
+		 * Release what {@link #prepare} took.
+		 * @param prepared what it returned
+		 */
+		void finish(Object prepared) {
+		}
+	}
+
+	/**
+	 * The reference engine, the {@link Evaluator}.
+	 */
+	private static class TreeEngine extends Engine {
+
+		/**
+		 * Construct the engine.
+		 */
+		TreeEngine() {
+			super("tree");
+		}
+
+		Object prepare(Subject subject) {
+			return (subject.types == null) ? null : subject;
+		}
+
+		Object run(Object prepared) throws EvaluationException {
+			Subject subject = (Subject) prepared;
+			return new Evaluator(subject.types).evalTerm(subject.program.term);
+		}
+	}
+
+	/**
+	 * The {@link CodeEvaluator}.
+	 */
+	private static class CodeEngine extends Engine {
+
+		/**
+		 * Construct the engine.
+		 */
+		CodeEngine() {
+			super("code");
+		}
+
+		Object prepare(Subject subject) {
+			return (subject.code == null) ? null : subject;
+		}
+
+		Object run(Object prepared) throws EvaluationException {
+			Subject subject = (Subject) prepared;
+			return new CodeEvaluator(subject.types, subject.code).evalProgram();
+		}
+	}
+
+	/**
+	 * An {@link EvaluationService} of its own for each program.
+	 */
+	private static class ServiceEngine extends Engine {
+
+		/**
+		 * Whether to run the translated program.
+		 */
+		private final boolean code;
+
+		/**
+		 * Construct an engine.
+		 * @param code whether to run the translated program rather than
+		 * the syntax tree
+		 */
+		ServiceEngine(boolean code) {
+			super(code ? "service-code" : "service");
+			this.code = code;
+		}
+
+		Object prepare(Subject subject) {
+			if (subject.types == null || (code && subject.code == null)) {
+				return null;
+			}
+			return new Object[] { subject, new EvaluationService(subject.types) };
+		}
+
+		Object run(Object prepared) throws Exception {
+			Subject subject = (Subject) ((Object[]) prepared)[0];
+			EvaluationService service = (EvaluationService) ((Object[]) prepared)[1];
+			Future future = code ? service.evaluate(subject.code) :
+				service.evaluate(subject.program.term);
+			try {
+				return future.get(TIMEOUT, TimeUnit.SECONDS);
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception) throw (Exception) cause;
+				throw (Error) cause;
+			}
+			finally {
+				future.cancel(true);
+			}
+		}
+
+		void finish(Object prepared) {
+			((EvaluationService) ((Object[]) prepared)[1]).shutdown();
+		}
+	}
+
+	/**
+	 * The {@link Evaluator}, on the program written to a cache file and
+	 * read back.
+	 */
+	private static class CachedEngine extends Engine {
+
+		/**
+		 * The digest the cache file is written for.
+		 */
+		private static final byte[] DIGEST = new byte[16];
+
+		/**
+		 * Construct the engine.
+		 */
+		CachedEngine() {
+			super("cached");
+		}
+
+		Object prepare(Subject subject) throws Exception {
+			if (subject.types == null) return null;
+			Program program = ProgramDecoder.decode(ByteBuffer.wrap(
+				ProgramEncoder.encode(subject.program, DIGEST)), DIGEST);
+			if (program == null) {
+				throw new IOException("the cache file could not be read back");
+			}
+			return new Object[] { subject.table(program.classDecls), program };
+		}
+
+		Object run(Object prepared) throws EvaluationException {
+			ClassTable types = (ClassTable) ((Object[]) prepared)[0];
+			Program program = (Program) ((Object[]) prepared)[1];
+			return new Evaluator(types).evalTerm(program.term);
+		}
+	}
+
+	/**
+	 * The {@link Evaluator} or the {@link CodeEvaluator}, on the
+	 * program with calls inlined.
+	 */
+	private static class InlinedEngine extends Engine {
+
+		/**
+		 * Whether to run the translated program.
+		 */
+		private final boolean code;
+
+		/**
+		 * Construct an engine.
+		 * @param code whether to run the translated program rather than
+		 * the syntax tree
+		 */
+		InlinedEngine(boolean code) {
+			super(code ? "inlined-code" : "inlined");
+			this.code = code;
+		}
+
+		Object prepare(Subject subject) throws Exception {
+			if (subject.code == null) return null;
+			Inliner inliner = new Inliner(subject.types,
+				subject.program.classDecls);
+			Program program = inliner.inline(subject.program);
+			ClassTable types = subject.table(program.classDecls);
+			return new Object[] { types, program,
+				code ? inliner.translate(program) : null };
+		}
+
+		Object run(Object prepared) throws EvaluationException {
+			ClassTable types = (ClassTable) ((Object[]) prepared)[0];
+			Program program = (Program) ((Object[]) prepared)[1];
+			ProgramCode translated = (ProgramCode) ((Object[]) prepared)[2];
+			if (translated != null) {
+				return new CodeEvaluator(types, translated).evalProgram();
+			}
+			return new Evaluator(types).evalTerm(program.term);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package fj.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import fj.ast.Program;
+import fj.eval.EvaluationService;
+import fj.eval.Evaluator;
+import fj.main.FeatherweightJavaException;
+import fj.parse.Lexer;
+import fj.parse.Parser;
+import fj.types.ClassTable;
+
+/**
+ * Measures how the throughput of an {@link EvaluationService} grows
+ * with the number of threads it evaluates on.  Every request evaluates
+ * the same expression, a Fibonacci number in Peano numerals, against
+ * one shared class table.  Since requests share nothing that changes
+ * but the service's lock-free caches, requests per second should grow
+ * in proportion to the threads, up to the number of processors, and
+ * then stay flat.  The last line measures the service's default, which
+ * is virtual threads where the virtual machine has them.
+ */
+public class EvaluationBench {
+
+	/**
+	 * The program evaluated.  It uses no casts, so that it needs only
+	 * the parts of the class table that are written already.
+	 */
+	private static final String SOURCE =
+		"class Nat extends Object {\n" +
+		"  Nat() { super(); }\n" +
+		"  Nat add(Nat m) { return m; }\n" +
+		"  Pair fibs() { return new Pair(new Nat(), new Succ(new Nat())); }\n" +
+		"}\n" +
+		"class Succ extends Nat {\n" +
+		"  Nat pred;\n" +
+		"  Succ(Nat pred) { super(); this.pred = pred; }\n" +
+		"  Nat add(Nat m) { return new Succ(this.pred.add(m)); }\n" +
+		"  Pair fibs() { return this.pred.fibs().step(); }\n" +
+		"}\n" +
+		"class Pair extends Object {\n" +
+		"  Nat fst;\n" +
+		"  Nat snd;\n" +
+		"  Pair(Nat fst, Nat snd) { super(); this.fst = fst; this.snd = snd; }\n" +
+		"  Pair step() { return new Pair(this.snd, this.fst.add(this.snd)); }\n" +
+		"}\n" +
+		"new Succ(new Succ(new Succ(new Succ(new Succ(new Succ(\n" +
+		"  new Succ(new Succ(new Succ(new Succ(new Succ(new Succ(\n" +
+		"  new Nat())))))))))))).fibs().fst\n";
+
+	/**
+	 * The number of requests in each measurement.
+	 */
+	private static final int REQUESTS = 2000;
+
+	/**
+	 * The number of timed runs for each measurement; the fastest
+	 * is reported.
+	 */
+	private static final int RUNS = 3;
+
+	/**
+	 * Run the benchmark and print a table of the results.
+	 * @param args ignored
+	 * @throws Exception the program failed to parse or evaluate
+	 */
+	public static void main(String[] args) throws Exception {
+		Program program = new Parser(new Lexer(
+			new ByteArrayInputStream(SOURCE.getBytes()))).parse();
+		ClassTable types = new ClassTable(program.classDecls);
+		String expected = new Evaluator(types).evalTerm(program.term).toString();
+
+		// Warm up, so the first row is not slowed by compilation
+		measure(new EvaluationService(types, 1), program, expected);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println(processors + " processors");
+		System.out.println("threads   requests/s   speedup");
+		double base = 0;
+		for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+			double rate = measure(new EvaluationService(types, threads),
+				program, expected);
+			if (threads == 1) base = rate;
+			report(String.valueOf(threads), rate, base);
+		}
+		EvaluationService service = new EvaluationService(types);
+		report(service.usesVirtualThreads() ? "virtual" : "default",
+			measure(service, program, expected), base);
+	}
+
+	/**
+	 * Measure the throughput of a service.
+	 * @param service the service, which is shut down afterwards
+	 * @param program the program whose expression to evaluate
+	 * @param expected the value it should have
+	 * @return the best rate, in requests per second
+	 * @throws Exception a request failed or had the wrong value
+	 */
+	private static double measure(EvaluationService service,
+		Program program, String expected) throws Exception {
+		try {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < 1 + RUNS; ++run) {
+				long start = System.nanoTime();
+				List futures = new ArrayList(REQUESTS);
+				for (int i = 0; i < REQUESTS; ++i) {
+					futures.add(service.evaluate(program.term));
+				}
+				for (int i = 0; i < REQUESTS; ++i) {
+					Object value = value((Future) futures.get(i));
+					if (!value.toString().equals(expected)) {
+						throw new Error("wrong value: " + value);
+					}
+				}
+				long time = System.nanoTime() - start;
+				if (run >= 1 && time < best) best = time;
+			}
+			return REQUESTS * 1e9 / best;
+		}
+		finally {
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Wait for the value of a request.
+	 * @param future the request
+	 * @return its value
+	 * @throws Exception the request failed
+	 */
+	private static Object value(Future future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof FeatherweightJavaException) {
+				throw (FeatherweightJavaException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Print a line of the table.
+	 * @param threads the threads used
+	 * @param rate the requests per second
+	 * @param base the requests per second on one thread
+	 */
+	private static void report(String threads, double rate, double base) {
+		System.out.println(pad(threads, -7) + pad(String.valueOf((long) rate), 13)
+			+ pad(String.valueOf(Math.round(rate / base * 100) / 100.0), 10));
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+}
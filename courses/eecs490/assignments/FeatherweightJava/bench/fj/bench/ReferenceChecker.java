@@ -0,0 +1,151 @@
+package fj.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.*;
+import fj.typecheck.TypeChecker;
+import fj.typecheck.TypeException;
+import fj.types.ClassTable;
+import fj.types.FieldInfo;
+import fj.types.MethodType;
+
+/**
+ * A typechecker with the judgments the assignment leaves to be written
+ * filled in, over a {@link ReferenceTable}.  Everything else, the
+ * class headers, native methods, translation into code, and parallel
+ * and incremental checking, is the {@link TypeChecker}'s own, so the
+ * harnesses exercise it as it is.  Like the table, it is not a model
+ * answer and is never submitted.
+ */
+public class ReferenceChecker extends TypeChecker {
+
+	/**
+	 * The types of the variables in scope: those of the method being
+	 * checked, and none in the program's term.
+	 */
+	private Map env = Collections.EMPTY_MAP;
+
+	/**
+	 * Construct a typechecker with the given class table.
+	 * @param types the class table, normally a {@link ReferenceTable}
+	 */
+	public ReferenceChecker(ClassTable types) {
+		super(types);
+	}
+
+	protected TypeChecker newChecker(ClassTable types) {
+		return new ReferenceChecker(types);
+	}
+
+	protected Type checkVarTerm(VarTerm t) throws TypeException {
+		Type type = (Type) env.get(t.name);
+		if (type == null) {
+			throw new TypeException("unknown variable \"" + t.name + "\"");
+		}
+		return type;
+	}
+
+	protected Type checkFieldTerm(FieldTerm t) throws TypeException {
+		Type base = checkTerm(t.base);
+		FieldInfo fields = types.fields(base);
+		if (fields == null) {
+			throw new TypeException("unknown class \"" + base + "\"");
+		}
+		Integer index = (Integer) fields.map.get(t.fieldName);
+		if (index == null) {
+			throw new TypeException("no field \"" + t.fieldName + "\" in "
+				+ base);
+		}
+		return ((Declaration) fields.list.get(index.intValue())).type;
+	}
+
+	protected Type checkCallTerm(CallTerm t) throws TypeException {
+		Type base = checkTerm(t.base);
+		MethodType methodType = types.mtype(t.methodName, base);
+		if (methodType == null) {
+			throw new TypeException("no method \"" + t.methodName + "\" in "
+				+ base);
+		}
+		checkArguments(t.args, methodType.paramTypes);
+		return methodType.returnType;
+	}
+
+	protected Type checkNewTerm(NewTerm t) throws TypeException {
+		FieldInfo fields = types.fields(t.type);
+		if (fields == null) {
+			throw new TypeException("unknown class \"" + t.type + "\"");
+		}
+		List fieldTypes = new ArrayList(fields.list.size());
+		for (Iterator i = fields.list.iterator(); i.hasNext(); ) {
+			fieldTypes.add(((Declaration) i.next()).type);
+		}
+		checkArguments(t.args, fieldTypes);
+		return t.type;
+	}
+
+	protected Type checkCastTerm(CastTerm t) throws TypeException {
+		Type type = checkTerm(t.term);
+		if (types.fields(t.type) == null) {
+			throw new TypeException("unknown class \"" + t.type + "\"");
+		}
+		if (!types.subtype(type, t.type) && !types.subtype(t.type, type)) {
+			System.err.println("stupid cast of " + type + " to " + t.type);
+		}
+		return t.type;
+	}
+
+	protected void checkMethod(Method method, Type type)
+		throws TypeException {
+		Map saved = env;
+		env = new HashMap();
+		try {
+			for (Iterator i = method.params.iterator(); i.hasNext(); ) {
+				Declaration param = (Declaration) i.next();
+				env.put(param.name, param.type);
+			}
+			env.put("this", type);
+			Type bodyType = checkTerm(method.body);
+			if (!types.subtype(bodyType, method.returnType)) {
+				throw new TypeException("method \"" + method.name
+					+ "\" returns " + bodyType + ", not " + method.returnType);
+			}
+		}
+		finally {
+			env = saved;
+		}
+		if (!types.override(method.name, types.superType(type),
+			new MethodType(method.paramTypes, method.returnType))) {
+			throw new TypeException("method \"" + method.name
+				+ "\" does not override correctly");
+		}
+	}
+
+	/**
+	 * Typecheck the arguments of a call or object creation.
+	 * @param args the arguments
+	 * @param paramTypes the types they must be subtypes of
+	 * @throws TypeException an argument failed typechecking, is not of
+	 * a subtype of its parameter's, or there are too many or too few
+	 */
+	private void checkArguments(List args, List paramTypes)
+		throws TypeException {
+		if (args.size() != paramTypes.size()) {
+			throw new TypeException(args.size() + " arguments where "
+				+ paramTypes.size() + " are expected");
+		}
+		Iterator j = paramTypes.iterator();
+		for (Iterator i = args.iterator(); i.hasNext(); ) {
+			Type argType = checkTerm((Term) i.next());
+			Type paramType = (Type) j.next();
+			if (!types.subtype(argType, paramType)) {
+				throw new TypeException(argType + " is not a subtype of "
+					+ paramType);
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package fj.bench;
+
+import java.util.List;
+
+import fj.eval.Primitives;
+import fj.main.Main;
+import fj.typecheck.TypeChecker;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+
+/**
+ * The main program, with the {@link ReferenceTable} and the
+ * {@link ReferenceChecker} in place of the class table and typechecker
+ * of the assignment.  It takes every option {@link Main} takes, so
+ * that translation, parallel and incremental checking, the cache,
+ * batches, the server, and the REPL can be tried on programs before
+ * the assignment is done:
+ * <code>java -cp fj.jar:bench-class fj.bench.ReferenceMain file.fj</code>.
+ * Cached programs are kept apart from those {@link Main} checks.
+ */
+public class ReferenceMain extends Main {
+
+	/**
+	 * Run the main program.
+	 * @param args as for {@link Main#main}
+	 */
+	public static void main(String[] args) {
+		runMain("fj", args, new Factory() {
+			public ClassTable ClassTable(List classDecls)
+				throws ClassTableException {
+				return new ReferenceTable(primitives
+					? Primitives.withBuiltIns(classDecls) : classDecls);
+			}
+			public TypeChecker TypeChecker(ClassTable types) {
+				return new ReferenceChecker(types);
+			}
+			public String cacheVariant(String name) {
+				return super.cacheVariant(name) + "-reference";
+			}
+		});
+	}
+}
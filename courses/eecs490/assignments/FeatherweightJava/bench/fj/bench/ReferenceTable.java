@@ -0,0 +1,61 @@
+package fj.bench;
+
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.Type;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+import fj.types.MethodType;
+
+/**
+ * A class table with the judgments the assignment leaves to be
+ * written, subtyping and overriding, written out.  With a {@link
+ * ReferenceChecker}, it lets the harnesses check and translate
+ * programs, and so run every engine on them, whatever state
+ * {@link ClassTable} is in.  It is not a model answer: it is only as
+ * careful as the harnesses need, and is never submitted.
+ */
+public class ReferenceTable extends ClassTable {
+
+	/**
+	 * Build a class table from a list of classes.
+	 * @param classes the list of class declarations
+	 * @throws ClassTableException the classes are not well formed
+	 */
+	public ReferenceTable(List classes) throws ClassTableException {
+		super(classes);
+	}
+
+	/**
+	 * Construct a recording view of a class table.
+	 * @param table the table to view
+	 * @param facts the mapping to record facts in
+	 */
+	protected ReferenceTable(ClassTable table, Map facts) {
+		super(table, facts);
+	}
+
+	public ClassTable recording(Map facts) {
+		return new ReferenceTable(this, facts);
+	}
+
+	public boolean override(String methodName, Type superType,
+		MethodType methodType) {
+		MethodType inherited = mtype(methodName, superType);
+		return inherited == null
+			|| (inherited.paramTypes.equals(methodType.paramTypes)
+				&& inherited.returnType.equals(methodType.returnType));
+	}
+
+	public boolean subtype(Type typeSub, Type typeSuper) {
+
+		// The hierarchy has no cycles, so the walk ends at Object or
+		// at a class not in the table
+		for (Type t = typeSub; t != null; t = superType(t)) {
+			if (t.equals(typeSuper)) return true;
+			if (t.isObject()) return false;
+		}
+		return false;
+	}
+}
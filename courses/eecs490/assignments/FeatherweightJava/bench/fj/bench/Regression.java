@@ -0,0 +1,645 @@
+package fj.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fj.ast.Program;
+import fj.eval.Evaluator;
+import fj.gen.Generator;
+import fj.parse.Lexer;
+import fj.parse.Parser;
+import fj.typecheck.TypeChecker;
+import fj.types.ClassTable;
+
+/**
+ * Checks that a change has not made any stage of running a program
+ * slower.  Every program of a fixed corpus, the test cases and some
+ * large generated programs, goes through each stage (lexing, parsing,
+ * building the class table, checking, and evaluating) many times,
+ * after the whole corpus has been through them to warm up, and the
+ * median and 99th percentile of the times and the median of the bytes
+ * allocated are compared with a baseline kept in a file.  A stage
+ * regresses if its median time grows by more than a quarter, its 99th
+ * percentile doubles, or its allocation grows by more than a tenth;
+ * growths too small to measure reliably are ignored.
+ *
+ * <p>How fast a machine runs changes from minute to minute, as other
+ * work shares it, so between the runs of each stage the harness times
+ * a reference computation which no change to the program touches.  A
+ * time regresses only if it grew both as measured and in proportion
+ * to the reference: a stage whose median took as long as three runs
+ * of the reference in the baseline may take as long as three runs of
+ * the reference take now.  Neither comparison alone is steady enough
+ * on a shared machine.  A stage which still seems to regress is
+ * measured twice more and judged by the best of the three.  Each regression is reported with
+ * its program and stage, and the run fails if there are any.</p>
+ *
+ * <p>A stage which throws is recorded as failing, and so are the
+ * stages after it which need its result; these have no timings.  A
+ * stage which failed in the baseline and now succeeds is reported as
+ * new.  The baseline holds times from one machine, so record it again
+ * with <code>--record</code> when moving to another, or after a change
+ * which is meant to cost more.  Run with <code>-Xbatch</code>, so that
+ * the compiler does not take time from the measurements, and with a
+ * heap of fixed size, since the times change with the size the heap
+ * grows to.</p>
+ */
+public class Regression {
+
+	/**
+	 * The names of the stages, in order.
+	 */
+	private static final String[] STAGES = {
+		"lex", "parse", "classes", "check", "eval" };
+
+	/**
+	 * The directory of the test cases in the corpus.
+	 */
+	private static final String TESTS = "tests";
+
+	/**
+	 * The default baseline file.
+	 */
+	private static final String BASELINE = "bench/regression.baseline";
+
+	/**
+	 * The generated programs in the corpus: the name, the seed, depth,
+	 * width, methods, size, and percentage of casts, and the features.
+	 * The last uses no casts, which need a complete class table to
+	 * evaluate.
+	 */
+	private static final Object[][] GENERATED = {
+		{ "gen/wide", new long[] { 1, 2, 16, 8, 32, 0 }, "hierarchy" },
+		{ "gen/deep", new long[] { 2, 12, 1, 16, 64, 0 }, "hierarchy,visitor" },
+		{ "gen/casts", new long[] { 3, 3, 3, 4, 32, 25 },
+			"peano,church,lists,visitor,hierarchy" },
+		{ "gen/eval", new long[] { 4, 1, 8, 8, 256, 0 }, "peano,visitor" },
+	};
+
+	/**
+	 * The greatest growth of the median time, as a ratio.
+	 */
+	private static final double MEDIAN_LIMIT = 1.25;
+
+	/**
+	 * The greatest growth of the 99th percentile of the times, as a
+	 * ratio.
+	 */
+	private static final double P99_LIMIT = 2.0;
+
+	/**
+	 * The greatest growth of the bytes allocated, as a ratio.
+	 */
+	private static final double ALLOCATION_LIMIT = 1.10;
+
+	/**
+	 * The smallest growth of a time which counts, in nanoseconds.
+	 */
+	private static final long TIME_FLOOR = 5000;
+
+	/**
+	 * The smallest growth of an allocation which counts, in bytes.
+	 */
+	private static final long ALLOCATION_FLOOR = 1024;
+
+	/**
+	 * The number of times to measure a stage again before deciding it
+	 * regressed.
+	 */
+	private static final int RETRIES = 2;
+
+	/**
+	 * The fewest runs of each stage, both to warm up and to measure.
+	 */
+	private static final int MIN_RUNS = 20;
+
+	/**
+	 * The most runs of each stage, both to warm up and to measure.
+	 */
+	private static final int MAX_RUNS = 2000;
+
+	/**
+	 * The keys of the reference computation.
+	 */
+	private static final int REFERENCE_SIZE = 256;
+
+	/**
+	 * A result of the reference computation, kept so that it is not
+	 * optimized away.
+	 */
+	private static int sink;
+
+	/**
+	 * The time to spend measuring each stage of each program, in
+	 * nanoseconds; warming up on it takes half as long.
+	 */
+	private final long time;
+
+	/**
+	 * The corpus, a map from the name of each program to its source.
+	 */
+	private final Map corpus = new LinkedHashMap();
+
+	/**
+	 * The measurements, each an array holding the program, the stage,
+	 * and the measurement as returned by {@link #measure(String,
+	 * String, boolean)}.
+	 */
+	private final List results = new ArrayList();
+
+	/**
+	 * The source of the program being measured.
+	 */
+	private byte[] source;
+
+	/**
+	 * The program being measured, once parsed.
+	 */
+	private Program program;
+
+	/**
+	 * The class table of the program being measured, once built.
+	 */
+	private ClassTable types;
+
+	/**
+	 * Construct a harness with an empty corpus.
+	 * @param time the time to spend measuring each stage of each
+	 * program, in milliseconds
+	 */
+	public Regression(long time) {
+		this.time = time * 1000000;
+	}
+
+	/**
+	 * Measure the corpus, and either record the results as the
+	 * baseline or compare them with it.  The exit status is 1 if any
+	 * stage regressed.
+	 * @param args <code>[--record] [--time ms] [baseline]</code>
+	 * @throws IOException a file could not be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean record = false;
+		long time = 1000;
+		String baseline = BASELINE;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--record")) {
+				record = true;
+			}
+			else if (args[i].equals("--time") && i + 1 < args.length) {
+				time = Long.parseLong(args[++i]);
+			}
+			else {
+				baseline = args[i];
+			}
+		}
+
+		Regression regression = new Regression(time);
+		File[] tests = new File(TESTS).listFiles();
+		Arrays.sort(tests);
+		for (int i = 0; i < tests.length; ++i) {
+			if (tests[i].getName().endsWith(".fj")) {
+				regression.add(TESTS + "/" + tests[i].getName(), read(tests[i]));
+			}
+		}
+		for (int i = 0; i < GENERATED.length; ++i) {
+			long[] shape = (long[]) GENERATED[i][1];
+			Generator generator = new Generator(shape[0]);
+			generator.setDepth((int) shape[1]);
+			generator.setWidth((int) shape[2]);
+			generator.setMethods((int) shape[3]);
+			generator.setSize((int) shape[4]);
+			generator.setCasts((int) shape[5]);
+			generator.setFeatures(Arrays.asList(((String) GENERATED[i][2]).split(",")));
+			regression.add((String) GENERATED[i][0],
+				generator.program().getBytes("UTF-8"));
+		}
+
+		regression.run();
+		if (record) {
+			regression.write(new File(baseline));
+			System.out.println("recorded " + baseline);
+		}
+		else if (regression.compare(readBaseline(new File(baseline)), baseline) > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Add a program to the corpus.
+	 * @param name the name of the program
+	 * @param source its source
+	 */
+	public void add(String name, byte[] source) {
+		corpus.put(name, source);
+	}
+
+	/**
+	 * Warm up on the whole corpus, then measure each stage of each
+	 * program.  Warming up on all of it before measuring any of it
+	 * means what the compiler learns from later programs does not
+	 * change the code earlier ones are measured with.
+	 */
+	public void run() {
+		for (int pass = 0; pass < 2; ++pass) {
+			for (Iterator i = corpus.keySet().iterator(); i.hasNext(); ) {
+				String name = (String) i.next();
+				for (int j = 0; j < STAGES.length; ++j) {
+					long[] result = measure(name, STAGES[j], pass == 0);
+					if (pass == 0) continue;
+					results.add(new Object[] { name, STAGES[j], result });
+					System.out.println(pad(name, -18) + pad(STAGES[j], -8)
+						+ describe(result));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measure a stage of a program, after running it once to see
+	 * whether it succeeds.  The stages it needs the results of are run
+	 * first: parsing, for building the class table, and both, for
+	 * checking and evaluating.
+	 * @param name the name of the program
+	 * @param stage the name of the stage
+	 * @param warmUp whether to only run the stage, to warm up
+	 * @return the median time, 99th percentile time, median allocation,
+	 * and median time of the reference computation, or
+	 * <code>null</code> if the stage or one it needs failed, or when
+	 * warming up
+	 */
+	private long[] measure(String name, String stage, boolean warmUp) {
+		source = (byte[]) corpus.get(name);
+		try {
+			int k = Arrays.asList(STAGES).indexOf(stage);
+			for (int i = 1; i < Math.min(k, 3); ++i) run(STAGES[i]);
+			run(stage);
+		}
+		catch (Exception e) {
+			return null;
+		}
+		catch (Error e) {
+			// Unfinished parts of the class table throw Error, and deep
+			// recursion may overflow the stack
+			return null;
+		}
+		try {
+			if (warmUp) {
+				long deadline = System.nanoTime() + time / 2;
+				for (int n = 0; n < MIN_RUNS || (n < MAX_RUNS && System.nanoTime() < deadline); ++n) {
+					sink += reference();
+					run(stage);
+				}
+				return null;
+			}
+
+			// Start with an empty heap, so that this stage does not pay
+			// for collecting the garbage of the last
+			System.gc();
+			long[] times = new long[MAX_RUNS];
+			long[] bytes = new long[MAX_RUNS];
+			long[] references = new long[MAX_RUNS];
+			int n = 0;
+			long deadline = System.nanoTime() + time;
+			while (n < MIN_RUNS || (n < MAX_RUNS && System.nanoTime() < deadline)) {
+				long start = System.nanoTime();
+				sink += reference();
+				references[n] = System.nanoTime() - start;
+				long before = allocated();
+				start = System.nanoTime();
+				run(stage);
+				times[n] = System.nanoTime() - start;
+				bytes[n] = allocated() - before;
+				++n;
+			}
+			Arrays.sort(times, 0, n);
+			Arrays.sort(bytes, 0, n);
+			Arrays.sort(references, 0, n);
+			return new long[] { times[n / 2],
+				times[Math.min(n - 1, (int) Math.ceil(n * 0.99) - 1)], bytes[n / 2],
+				references[n / 2] };
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(name + " " + stage
+				+ " succeeded once, then failed: " + e);
+		}
+	}
+
+	/**
+	 * Run a stage of the program once, keeping what later stages need.
+	 * @param stage the name of the stage
+	 * @throws Exception the stage failed
+	 */
+	private void run(String stage) throws Exception {
+		if (stage.equals("lex")) {
+			Lexer lexer = new Lexer(new ByteArrayInputStream(source));
+			do {
+				lexer.advance();
+			} while (lexer.token != Lexer.EOF);
+		}
+		else if (stage.equals("parse")) {
+			program = new Parser(new Lexer(new ByteArrayInputStream(source))).parse();
+		}
+		else if (stage.equals("classes")) {
+			types = new ClassTable(program.classDecls);
+		}
+		else if (stage.equals("check")) {
+			new TypeChecker(types).checkProgram(program);
+		}
+		else {
+			new Evaluator(types).evalTerm(program.term);
+		}
+	}
+
+	/**
+	 * Compare the measurements with the baseline, measuring again the
+	 * stages which seem to have regressed, and print the regressions.
+	 * @param baseline the baseline, as read by {@link #readBaseline}
+	 * @param fileName the name of the baseline file
+	 * @return the number of regressions
+	 */
+	public int compare(Map baseline, String fileName) {
+		List regressions = new ArrayList();
+		List added = new ArrayList();
+		for (int i = 0; i < results.size(); ++i) {
+			Object[] result = (Object[]) results.get(i);
+			String name = (String) result[0];
+			String stage = (String) result[1];
+			long[] now = (long[]) result[2];
+			String key = name + " " + stage;
+			long[] base = (long[]) baseline.get(key);
+			if (base == null) {
+				added.add(key);
+			}
+			else if (base.length == 0) {
+				if (now != null) added.add(key + " (failed in the baseline)");
+			}
+			else if (now == null) {
+				regressions.add(key + ": now fails");
+			}
+			else {
+				long[] scaled = scale(now, base);
+				List found = regressions(key, scaled, base);
+				for (int retry = 0; retry < RETRIES && !found.isEmpty(); ++retry) {
+					System.out.println("measuring " + key + " again");
+					long[] again = measure(name, stage, false);
+					if (again == null) break;
+					again = scale(again, base);
+					for (int j = 0; j < scaled.length; ++j) {
+						scaled[j] = Math.min(scaled[j], again[j]);
+					}
+					found = regressions(key, scaled, base);
+				}
+				regressions.addAll(found);
+			}
+		}
+
+		System.out.println();
+		for (int i = 0; i < added.size(); ++i) {
+			System.out.println("not in the baseline: " + added.get(i));
+		}
+		if (regressions.isEmpty()) {
+			System.out.println("no regressions against " + fileName);
+		}
+		else {
+			System.out.println(regressions.size() + " regressions against " + fileName + ":");
+			for (int i = 0; i < regressions.size(); ++i) {
+				System.out.println("  " + regressions.get(i));
+			}
+		}
+		return regressions.size();
+	}
+
+	/**
+	 * Scale the times of a measurement to the speed of the machine
+	 * when the baseline was measured, if that makes them shorter.
+	 * @param now the measurement
+	 * @param base the baseline
+	 * @return the measurement, with each time the lesser of the time
+	 * as measured and the time multiplied by the time of the reference
+	 * computation in the baseline over its time now
+	 */
+	private static long[] scale(long[] now, long[] base) {
+		double ratio = Math.min(1.0, (double) base[3] / Math.max(1, now[3]));
+		return new long[] { (long) (now[0] * ratio), (long) (now[1] * ratio),
+			now[2], base[3] };
+	}
+
+	/**
+	 * Find how a measurement regressed from the baseline.
+	 * @param key the program and stage measured
+	 * @param now the measurement, scaled by {@link #scale}
+	 * @param base the baseline
+	 * @return a description of each regression
+	 */
+	private static List regressions(String key, long[] now, long[] base) {
+		List found = new ArrayList();
+		if (now[0] > base[0] * MEDIAN_LIMIT && now[0] - base[0] > TIME_FLOOR) {
+			found.add(key + ": median " + micros(now[0]) + ", was "
+				+ micros(base[0]) + growth(now[0], base[0]));
+		}
+		if (now[1] > base[1] * P99_LIMIT && now[1] - base[1] > TIME_FLOOR) {
+			found.add(key + ": p99 " + micros(now[1]) + ", was "
+				+ micros(base[1]) + growth(now[1], base[1]));
+		}
+		if (now[2] > base[2] * ALLOCATION_LIMIT && now[2] - base[2] > ALLOCATION_FLOOR) {
+			found.add(key + ": allocated " + now[2] + " bytes, was "
+				+ base[2] + growth(now[2], base[2]));
+		}
+		return found;
+	}
+
+	/**
+	 * Write the measurements as a baseline.
+	 * @param file the baseline file
+	 * @throws IOException the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF-8"));
+		try {
+			out.println("# Baseline of fj.bench.Regression: program, stage, median ns,");
+			out.println("# 99th percentile ns, median bytes allocated, and median ns of");
+			out.println("# the reference computation, or \"fails\".");
+			out.println("# Record it again with \"ant regress-baseline\".");
+			for (int i = 0; i < results.size(); ++i) {
+				Object[] result = (Object[]) results.get(i);
+				long[] now = (long[]) result[2];
+				out.print(result[0] + " " + result[1]);
+				if (now == null) {
+					out.println(" fails");
+				}
+				else {
+					out.println(" " + now[0] + " " + now[1] + " " + now[2] + " " + now[3]);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a baseline file.
+	 * @param file the file
+	 * @return a map from the program and stage, separated by a space,
+	 * to an array of the median time, the 99th percentile time, the
+	 * median allocation, and the median time of the reference
+	 * computation, which is empty if the stage failed
+	 * @throws IOException the file could not be read, or was not a
+	 * baseline
+	 */
+	public static Map readBaseline(File file) throws IOException {
+		Map baseline = new HashMap();
+		BufferedReader in;
+		try {
+			in = new BufferedReader(new FileReader(file));
+		}
+		catch (FileNotFoundException e) {
+			throw new IOException("no baseline " + file
+				+ "; make one with \"ant regress-baseline\"");
+		}
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				String[] words = line.split("\\s+");
+				try {
+					if (words.length == 3 && words[2].equals("fails")) {
+						baseline.put(words[0] + " " + words[1], new long[0]);
+					}
+					else if (words.length == 6) {
+						baseline.put(words[0] + " " + words[1], new long[] {
+							Long.parseLong(words[2]), Long.parseLong(words[3]),
+							Long.parseLong(words[4]), Long.parseLong(words[5]) });
+					}
+					else {
+						throw new NumberFormatException();
+					}
+				}
+				catch (NumberFormatException e) {
+					throw new IOException(file + ": bad line \"" + line + "\"");
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return baseline;
+	}
+
+	/**
+	 * Describe a measurement.
+	 * @param result the measurement
+	 * @return the description
+	 */
+	private static String describe(long[] result) {
+		if (result == null) return "fails";
+		return "median " + micros(result[0]) + "  p99 " + micros(result[1])
+			+ "  allocated " + result[2] + " bytes  (reference "
+			+ micros(result[3]) + ")";
+	}
+
+	/**
+	 * Run the reference computation, which allocates and compares
+	 * objects much as the stages do, but uses only the Java library.
+	 * @return a number which depends on the whole computation
+	 */
+	private static int reference() {
+		Map map = new TreeMap();
+		for (int i = 0; i < REFERENCE_SIZE; ++i) {
+			map.put(new Integer(i * 7919 % 1021), String.valueOf(i));
+		}
+		return map.size();
+	}
+
+	/**
+	 * Read a file.
+	 * @param file the file
+	 * @return its contents
+	 * @throws IOException the file could not be read
+	 */
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Find the number of bytes this thread has allocated, if the
+	 * virtual machine can say.
+	 * @return the number of bytes, or 0 if unknown
+	 */
+	private static long allocated() {
+		java.lang.management.ThreadMXBean bean =
+			ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return 0;
+		return ((com.sun.management.ThreadMXBean) bean)
+			.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Describe how much a measurement grew.
+	 * @param now the measurement
+	 * @param was the baseline
+	 * @return the growth as a percentage, in parentheses
+	 */
+	private static String growth(long now, long was) {
+		return (was == 0) ? "" : " (+" + ((now - was) * 100 / was) + "%)";
+	}
+
+	/**
+	 * Format a time in microseconds.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String micros(long nanos) {
+		long tenths = (nanos + 50) / 100;
+		return (tenths / 10) + "." + (tenths % 10) + " us";
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,151 @@
+package fj.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fj.ast.Program;
+import fj.eval.EvaluationException;
+import fj.eval.Evaluator;
+import fj.eval.Value;
+import fj.parse.Lexer;
+import fj.parse.ParseException;
+import fj.parse.Parser;
+import fj.typecheck.TypeChecker;
+import fj.typecheck.TypeException;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+
+/**
+ * Measures each stage of running a program on its own: lexing,
+ * parsing, building the class table, typechecking, and evaluating.
+ * Each benchmark starts from the output of the stages before it,
+ * prepared once per trial, on a {@link Workload} of the shape given by
+ * the parameters.  Typechecking needs a complete
+ * {@link TypeChecker} and {@link ClassTable}; until then, that
+ * benchmark fails and the others still run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class PipelineBenchmark {
+
+	/**
+	 * The number of classes in the program.
+	 */
+	@Param({ "16", "256" })
+	public int classes;
+
+	/**
+	 * The depth of the class hierarchy.
+	 */
+	@Param({ "1", "16" })
+	public int depth;
+
+	/**
+	 * The depth of the recursion evaluating the program.
+	 */
+	@Param({ "16", "256" })
+	public int recursion;
+
+	/**
+	 * The source of the program.
+	 */
+	private byte[] source;
+
+	/**
+	 * The parsed program.
+	 */
+	private Program program;
+
+	/**
+	 * The class table of the program.
+	 */
+	private ClassTable types;
+
+	/**
+	 * Generate the program and run it through each stage once.
+	 * @throws Exception the program failed to parse or build its
+	 * class table
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		source = Workload.program(Math.max(classes, depth), depth, recursion)
+			.getBytes("UTF-8");
+		program = parse();
+		types = classTable();
+	}
+
+	/**
+	 * Read every token of the program.
+	 * @return the number of tokens
+	 * @throws ParseException the program contained an illegal
+	 * character
+	 */
+	@Benchmark
+	public int lex() throws ParseException {
+		Lexer lexer = new Lexer(new ByteArrayInputStream(source));
+		int count = 0;
+		do {
+			lexer.advance();
+			++count;
+		} while (lexer.token != Lexer.EOF);
+		return count;
+	}
+
+	/**
+	 * Parse the program.
+	 * @return the program
+	 * @throws ParseException the program failed to parse
+	 */
+	@Benchmark
+	public Program parse() throws ParseException {
+		return new Parser(new Lexer(new ByteArrayInputStream(source))).parse();
+	}
+
+	/**
+	 * Build the class table of the program.
+	 * @return the class table
+	 * @throws ClassTableException the classes were invalid
+	 */
+	@Benchmark
+	public ClassTable classTable() throws ClassTableException {
+		return new ClassTable(program.classDecls);
+	}
+
+	/**
+	 * Typecheck the program.
+	 * @return the class table checked against
+	 * @throws TypeException the program failed to typecheck
+	 */
+	@Benchmark
+	public ClassTable check() throws TypeException {
+		new TypeChecker(types).checkProgram(program);
+		return types;
+	}
+
+	/**
+	 * Evaluate the program's expression.
+	 * @return its value
+	 * @throws EvaluationException the expression failed to evaluate
+	 */
+	@Benchmark
+	public Value eval() throws EvaluationException {
+		return new Evaluator(types).evalTerm(program.term);
+	}
+}
@@ -39,6 +39,12 @@ public class ClassDecl {
 	 */
 	public final List methods;
 	
+	/**
+	 * Whether the class is declared <code>native</code>, its methods
+	 * being bodies of {@link NativeTerm}s bound to Java methods.
+	 */
+	public final boolean isNative;
+	
 	/**
 	 * Construct a new class declaration.
 	 * @param name the name of the class
@@ -50,11 +56,27 @@ public class ClassDecl {
 	 */
 	public ClassDecl(String name, Type superType, List fields,
 			Constructor constructor, List methods) {
+		this(name, superType, fields, constructor, methods, false);
+	}
+	
+	/**
+	 * Construct a new class declaration which may be native.
+	 * @param name the name of the class
+	 * @param superType the type extended by this class
+	 * @param fields the {@linkplain Declaration field declarations}
+	 * of this class
+	 * @param constructor the constructor of this class
+	 * @param methods the {@link Method} objects of this class
+	 * @param isNative whether the class is native
+	 */
+	public ClassDecl(String name, Type superType, List fields,
+			Constructor constructor, List methods, boolean isNative) {
 		this.name = name;
 		this.type = new Type(name);
 		this.superType = superType;
 		this.fields = Collections.unmodifiableList(fields);
 		this.constructor = constructor;
 		this.methods = Collections.unmodifiableList(methods);
+		this.isNative = isNative;
 	}
 }
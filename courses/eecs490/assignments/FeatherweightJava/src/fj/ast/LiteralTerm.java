@@ -0,0 +1,49 @@
+package fj.ast;
+
+/**
+ * AST node representing a literal of one of the built-in classes
+ * <code>Int</code> and <code>Bool</code>: a decimal number, or
+ * <code>true</code> or <code>false</code>.  Only a parser asked to
+ * accept the built-in classes creates these.
+ */
+public class LiteralTerm extends Term {
+
+	/**
+	 * The built-in class of integers.
+	 */
+	public static final Type INT = new Type("Int");
+
+	/**
+	 * The built-in class of booleans.
+	 */
+	public static final Type BOOL = new Type("Bool");
+
+	/**
+	 * The class of the literal, {@link #INT} or {@link #BOOL}.
+	 */
+	public final Type type;
+	
+	/**
+	 * The value of the literal: a Long for an <code>Int</code>, a
+	 * Boolean for a <code>Bool</code>.
+	 */
+	public final Object value;
+	
+	/**
+	 * Construct a new integer literal.
+	 * @param value the integer
+	 */
+	public LiteralTerm(long value) {
+		this.type = INT;
+		this.value = new Long(value);
+	}
+	
+	/**
+	 * Construct a new boolean literal.
+	 * @param value the boolean
+	 */
+	public LiteralTerm(boolean value) {
+		this.type = BOOL;
+		this.value = Boolean.valueOf(value);
+	}
+}
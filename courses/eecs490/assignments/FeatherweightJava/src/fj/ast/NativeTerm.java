@@ -0,0 +1,51 @@
+package fj.ast;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AST node standing for the body of a method of a native class: a
+ * call of the Java static method the method is bound to (see
+ * {@link fj.eval.Natives}), passing it the method's parameters.  The
+ * parser creates one for each method of a class declared
+ * <code>native</code>, which has no body of its own.
+ */
+public class NativeTerm extends Term {
+
+	/**
+	 * The name of the native class, which names the library of Java
+	 * methods to bind to.
+	 */
+	public final String library;
+	
+	/**
+	 * The name of the method, and of its binding in the library.
+	 */
+	public final String methodName;
+	
+	/**
+	 * The return type of the method, and so of this expression.
+	 */
+	public final Type type;
+	
+	/**
+	 * The list of {@link VarTerm}s naming the parameters of the method,
+	 * in order, which are the arguments passed to the Java method.
+	 */
+	public final List args;
+	
+	/**
+	 * Construct a new native method body.
+	 * @param library the name of the native class
+	 * @param methodName the name of the method
+	 * @param type the return type of the method
+	 * @param args the {@link VarTerm}s of the parameters
+	 */
+	public NativeTerm(String library, String methodName, Type type,
+			List args) {
+		this.library = library;
+		this.methodName = methodName;
+		this.type = type;
+		this.args = Collections.unmodifiableList(args);
+	}
+}
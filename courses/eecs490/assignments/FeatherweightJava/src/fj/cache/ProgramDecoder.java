@@ -0,0 +1,289 @@
+package fj.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fj.ast.*;
+
+/**
+ * Reconstructs a {@link Program} from the binary form written by
+ * {@link ProgramEncoder}.  The decoder reads directly from a
+ * {@link ByteBuffer}, which is normally a read-only mapping of the
+ * cache file, so no intermediate copy of the file is made.
+ */
+public class ProgramDecoder {
+
+	/**
+	 * The buffer being decoded.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The symbol table, shared by every name in the program.
+	 */
+	private final String[] symbols;
+
+	/**
+	 * Construct a decoder positioned at the start of the syntax tree.
+	 * @param buffer the buffer to decode
+	 * @param symbols the already decoded symbol table
+	 */
+	private ProgramDecoder(ByteBuffer buffer, String[] symbols) {
+		this.buffer = buffer;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Decode a program, provided it was encoded from source text with
+	 * the given digest.
+	 * @param buffer the contents of a cache file
+	 * @param digest the content hash of the current source text
+	 * @return the decoded program, or <code>null</code> if the buffer
+	 * is not a cache file of this version, was written for different
+	 * source text, is truncated or otherwise malformed, or nests terms
+	 * too deeply to decode on this thread's stack
+	 */
+	public static Program decode(ByteBuffer buffer, byte[] digest) {
+		try {
+			// Check the header against what we expect
+			for (int i = 0; i < ProgramEncoder.MAGIC.length; ++i) {
+				if (buffer.get() != ProgramEncoder.MAGIC[i]) return null;
+			}
+			if (buffer.get() != ProgramEncoder.VERSION) return null;
+			byte[] stored = new byte[readCount(buffer)];
+			buffer.get(stored);
+			if (!Arrays.equals(stored, digest)) return null;
+
+			// Read the symbol table
+			String[] symbols = new String[readCount(buffer)];
+			for (int i = 0; i < symbols.length; ++i) {
+				byte[] bytes = new byte[readCount(buffer)];
+				buffer.get(bytes);
+				symbols[i] = new String(bytes, "UTF-8");
+			}
+
+			// And finally the program itself
+			Program program = new ProgramDecoder(buffer, symbols).readProgram();
+			return buffer.hasRemaining() ? null : program;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+		catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+		catch (StackOverflowError e) {
+			
+			// Nested too deeply for this thread, which is a miss too
+			return null;
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error("Internal cache error: no UTF-8 support");
+		}
+		catch (MalformedCacheException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode a program: its class declarations followed by its term.
+	 * @return the decoded program
+	 * @throws MalformedCacheException an invalid term tag was read
+	 */
+	private Program readProgram() throws MalformedCacheException {
+		int count = readCount();
+		List classDecls = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			classDecls.add(readClass());
+		}
+		return new Program(classDecls, readTerm());
+	}
+
+	/**
+	 * Decode a class declaration.
+	 * @return the decoded class declaration
+	 * @throws MalformedCacheException an invalid term tag was read
+	 */
+	private ClassDecl readClass() throws MalformedCacheException {
+		String name = readSymbol();
+		boolean isNative = buffer.get() != 0;
+		Type superType = new Type(readSymbol());
+		List fields = readDeclarations();
+
+		String className = readSymbol();
+		List params = readDeclarations();
+		int count = readCount();
+		List superArgs = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			superArgs.add(readSymbol());
+		}
+		count = readCount();
+		List inits = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			String fieldName = readSymbol();
+			inits.add(new FieldInit(fieldName, readSymbol()));
+		}
+		Constructor cons = new Constructor(className, params, superArgs, inits);
+
+		count = readCount();
+		List methods = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			Type returnType = new Type(readSymbol());
+			String methodName = readSymbol();
+			List methodParams = readDeclarations();
+			methods.add(new Method(returnType, methodName,
+				methodParams, readTerm()));
+		}
+		return new ClassDecl(name, superType, fields, cons, methods,
+			isNative);
+	}
+
+	/**
+	 * Decode a list of {@linkplain Declaration field or parameter
+	 * declarations}.
+	 * @return the decoded declarations
+	 */
+	private List readDeclarations() {
+		int count = readCount();
+		List decls = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			Type type = new Type(readSymbol());
+			decls.add(new Declaration(type, readSymbol()));
+		}
+		return decls;
+	}
+
+	/**
+	 * Decode an expression.
+	 * @return the decoded expression
+	 * @throws MalformedCacheException an invalid term tag was read
+	 */
+	private Term readTerm() throws MalformedCacheException {
+		switch (buffer.get()) {
+		case ProgramEncoder.VAR:
+			return new VarTerm(readSymbol());
+		case ProgramEncoder.FIELD: {
+			Term base = readTerm();
+			return new FieldTerm(base, readSymbol());
+		}
+		case ProgramEncoder.CALL: {
+			Term base = readTerm();
+			String methodName = readSymbol();
+			return new CallTerm(base, methodName, readTerms());
+		}
+		case ProgramEncoder.NEW: {
+			Type type = new Type(readSymbol());
+			return new NewTerm(type, readTerms());
+		}
+		case ProgramEncoder.CAST: {
+			Type type = new Type(readSymbol());
+			return new CastTerm(type, readTerm());
+		}
+		case ProgramEncoder.LITERAL: {
+			Type type = new Type(readSymbol());
+			String value = readSymbol();
+			if (type.equals(LiteralTerm.BOOL)) {
+				return new LiteralTerm(value.equals("true"));
+			}
+			try {
+				return new LiteralTerm(Long.parseLong(value));
+			}
+			catch (NumberFormatException e) {
+				throw new MalformedCacheException();
+			}
+		}
+		case ProgramEncoder.NATIVE: {
+			String library = readSymbol();
+			String methodName = readSymbol();
+			Type type = new Type(readSymbol());
+			return new NativeTerm(library, methodName, type, readTerms());
+		}
+		default:
+			throw new MalformedCacheException();
+		}
+	}
+
+	/**
+	 * Decode a list of expressions.
+	 * @return the decoded {@link Term} list
+	 * @throws MalformedCacheException an invalid term tag was read
+	 */
+	private List readTerms() throws MalformedCacheException {
+		int count = readCount();
+		List terms = new ArrayList(count);
+		for (int i = 0; i < count; ++i) {
+			terms.add(readTerm());
+		}
+		return terms;
+	}
+
+	/**
+	 * Decode the length of a list from the syntax tree.
+	 * @return the decoded length
+	 */
+	private int readCount() {
+		return readCount(buffer);
+	}
+
+	/**
+	 * Decode a reference to the symbol table.
+	 * @return the referenced name
+	 */
+	private String readSymbol() {
+		return symbols[readInt()];
+	}
+
+	/**
+	 * Decode a non-negative integer from the syntax tree.
+	 * @return the decoded integer
+	 */
+	private int readInt() {
+		return readInt(buffer);
+	}
+
+	/**
+	 * Read an integer written by {@link ProgramEncoder#writeInt}.
+	 * @param buffer the buffer to read from
+	 * @return the decoded integer
+	 * @throws BufferUnderflowException the integer runs past the end
+	 * of the buffer, or is longer than any written
+	 */
+	private static int readInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		
+		// No integer takes more than five bytes
+		throw new BufferUnderflowException();
+	}
+
+	/**
+	 * Read the length of a list or byte string.  Every element takes
+	 * at least one byte, so a length larger than what remains of the
+	 * buffer can only come from a damaged file.
+	 * @param buffer the buffer to read from
+	 * @return the decoded length
+	 * @throws BufferUnderflowException the length is out of range
+	 */
+	private static int readCount(ByteBuffer buffer) {
+		int count = readInt(buffer);
+		if (count < 0 || count > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		return count;
+	}
+
+	/**
+	 * Raised internally when the tree contains an unknown tag.  It
+	 * never escapes {@link ProgramDecoder#decode}.
+	 */
+	private static class MalformedCacheException extends Exception {
+	}
+}
@@ -0,0 +1,282 @@
+package fj.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.*;
+
+/**
+ * Converts a checked {@link Program} into the compact binary form
+ * stored in a program cache file.  Every name in the program (class,
+ * field, method, and variable names) is interned into a symbol table
+ * written once at the front of the file; the syntax tree itself then
+ * refers to names by their index in that table.  All integers are
+ * written as unsigned variable-length quantities.
+ *
+ * @see ProgramDecoder
+ */
+public class ProgramEncoder {
+
+	/**
+	 * The bytes identifying a FeatherweightJava program cache file.
+	 */
+	static final byte[] MAGIC = { 'F', 'J', 'C' };
+
+	/**
+	 * The version of the file format; bumped whenever the layout
+	 * below changes, so that stale cache files are simply ignored.
+	 */
+	static final int VERSION = 2;
+
+	/** Tag for a {@link VarTerm}. */
+	static final int VAR = 1;
+
+	/** Tag for a {@link FieldTerm}. */
+	static final int FIELD = 2;
+
+	/** Tag for a {@link CallTerm}. */
+	static final int CALL = 3;
+
+	/** Tag for a {@link NewTerm}. */
+	static final int NEW = 4;
+
+	/** Tag for a {@link CastTerm}. */
+	static final int CAST = 5;
+
+	/** Tag for a {@link LiteralTerm}. */
+	static final int LITERAL = 6;
+
+	/** Tag for a {@link NativeTerm}. */
+	static final int NATIVE = 7;
+
+	/**
+	 * The encoded syntax tree, written before the symbol table is
+	 * complete.
+	 */
+	private final ByteArrayOutputStream body;
+
+	/**
+	 * Mapping of symbol names (String) to their indices (Integer).
+	 */
+	private final Map symbolMap;
+
+	/**
+	 * The interned symbols, in index order.
+	 */
+	private final List symbols;
+
+	/**
+	 * Construct an empty encoder.
+	 */
+	private ProgramEncoder() {
+		this.body = new ByteArrayOutputStream();
+		this.symbolMap = new HashMap();
+		this.symbols = new ArrayList();
+	}
+
+	/**
+	 * Encode a program, tagging it with the digest of its source.
+	 * @param program the program to encode
+	 * @param digest the content hash of the program's source text
+	 * @return the complete contents of a cache file
+	 */
+	public static byte[] encode(Program program, byte[] digest) {
+		ProgramEncoder encoder = new ProgramEncoder();
+		encoder.writeProgram(program);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(MAGIC, 0, MAGIC.length);
+		out.write(VERSION);
+		writeInt(out, digest.length);
+		out.write(digest, 0, digest.length);
+		writeInt(out, encoder.symbols.size());
+		for (Iterator i = encoder.symbols.iterator(); i.hasNext(); ) {
+			byte[] bytes = utf8((String) i.next());
+			writeInt(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		byte[] tree = encoder.body.toByteArray();
+		out.write(tree, 0, tree.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encode a program: its class declarations followed by its term.
+	 * @param program the program to encode
+	 */
+	private void writeProgram(Program program) {
+		writeInt(program.classDecls.size());
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			writeClass((ClassDecl) i.next());
+		}
+		writeTerm(program.term);
+	}
+
+	/**
+	 * Encode a class declaration.
+	 * @param classDecl the class declaration to encode
+	 */
+	private void writeClass(ClassDecl classDecl) {
+		writeSymbol(classDecl.name);
+		body.write(classDecl.isNative ? 1 : 0);
+		writeSymbol(classDecl.superType.className);
+		writeDeclarations(classDecl.fields);
+
+		Constructor cons = classDecl.constructor;
+		writeSymbol(cons.className);
+		writeDeclarations(cons.params);
+		writeInt(cons.superArgs.size());
+		for (Iterator i = cons.superArgs.iterator(); i.hasNext(); ) {
+			writeSymbol((String) i.next());
+		}
+		writeInt(cons.inits.size());
+		for (Iterator i = cons.inits.iterator(); i.hasNext(); ) {
+			FieldInit init = (FieldInit) i.next();
+			writeSymbol(init.fieldName);
+			writeSymbol(init.initName);
+		}
+
+		writeInt(classDecl.methods.size());
+		for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
+			Method method = (Method) i.next();
+			writeSymbol(method.returnType.className);
+			writeSymbol(method.name);
+			writeDeclarations(method.params);
+			writeTerm(method.body);
+		}
+	}
+
+	/**
+	 * Encode a list of {@linkplain Declaration field or parameter
+	 * declarations}.
+	 * @param decls the declarations to encode
+	 */
+	private void writeDeclarations(List decls) {
+		writeInt(decls.size());
+		for (Iterator i = decls.iterator(); i.hasNext(); ) {
+			Declaration decl = (Declaration) i.next();
+			writeSymbol(decl.type.className);
+			writeSymbol(decl.name);
+		}
+	}
+
+	/**
+	 * Encode an expression.
+	 * @param t the expression to encode
+	 */
+	private void writeTerm(Term t) {
+		if (t instanceof VarTerm) {
+			body.write(VAR);
+			writeSymbol(((VarTerm) t).name);
+		}
+		else if (t instanceof FieldTerm) {
+			FieldTerm term = (FieldTerm) t;
+			body.write(FIELD);
+			writeTerm(term.base);
+			writeSymbol(term.fieldName);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			body.write(CALL);
+			writeTerm(term.base);
+			writeSymbol(term.methodName);
+			writeTerms(term.args);
+		}
+		else if (t instanceof NewTerm) {
+			NewTerm term = (NewTerm) t;
+			body.write(NEW);
+			writeSymbol(term.type.className);
+			writeTerms(term.args);
+		}
+		else if (t instanceof CastTerm) {
+			CastTerm term = (CastTerm) t;
+			body.write(CAST);
+			writeSymbol(term.type.className);
+			writeTerm(term.term);
+		}
+		else if (t instanceof LiteralTerm) {
+			LiteralTerm term = (LiteralTerm) t;
+			body.write(LITERAL);
+			writeSymbol(term.type.className);
+			writeSymbol(term.value.toString());
+		}
+		else if (t instanceof NativeTerm) {
+			NativeTerm term = (NativeTerm) t;
+			body.write(NATIVE);
+			writeSymbol(term.library);
+			writeSymbol(term.methodName);
+			writeSymbol(term.type.className);
+			writeTerms(term.args);
+		}
+		else {
+			throw new Error("Internal cache error: invalid term type");
+		}
+	}
+
+	/**
+	 * Encode a list of expressions.
+	 * @param terms the {@link Term} list to encode
+	 */
+	private void writeTerms(List terms) {
+		writeInt(terms.size());
+		for (Iterator i = terms.iterator(); i.hasNext(); ) {
+			writeTerm((Term) i.next());
+		}
+	}
+
+	/**
+	 * Encode a reference to a name, interning it if it is new.
+	 * @param name the name to encode
+	 */
+	private void writeSymbol(String name) {
+		Integer index = (Integer) symbolMap.get(name);
+		if (index == null) {
+			index = new Integer(symbols.size());
+			symbolMap.put(name, index);
+			symbols.add(name);
+		}
+		writeInt(index.intValue());
+	}
+
+	/**
+	 * Encode a non-negative integer into the syntax tree.
+	 * @param value the integer to encode
+	 */
+	private void writeInt(int value) {
+		writeInt(body, value);
+	}
+
+	/**
+	 * Write a non-negative integer as a variable-length quantity:
+	 * seven bits per byte, low bits first, with the high bit set on
+	 * every byte but the last.
+	 * @param out the stream to write to
+	 * @param value the integer to write
+	 */
+	static void writeInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Convert a string to UTF-8.
+	 * @param str the string to convert
+	 * @return its UTF-8 bytes
+	 */
+	private static byte[] utf8(String str) {
+		try {
+			return str.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error("Internal cache error: no UTF-8 support");
+		}
+	}
+}
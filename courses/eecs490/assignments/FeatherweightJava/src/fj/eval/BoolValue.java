@@ -0,0 +1,50 @@
+package fj.eval;
+
+import fj.ast.LiteralTerm;
+
+/**
+ * A value of the built-in class <code>Bool</code>.  There are only
+ * two, {@link #TRUE} and {@link #FALSE}.
+ */
+public class BoolValue extends PrimitiveValue {
+
+	/**
+	 * The value <code>true</code>.
+	 */
+	public static final BoolValue TRUE = new BoolValue(true);
+
+	/**
+	 * The value <code>false</code>.
+	 */
+	public static final BoolValue FALSE = new BoolValue(false);
+
+	/**
+	 * The boolean.
+	 */
+	public final boolean value;
+
+	/**
+	 * Construct one of the two boolean values.
+	 * @param value the boolean
+	 */
+	private BoolValue(boolean value) {
+		super(LiteralTerm.BOOL);
+		this.value = value;
+	}
+
+	/**
+	 * Return the value of a boolean.
+	 * @param value the boolean
+	 * @return {@link #TRUE} or {@link #FALSE}
+	 */
+	public static BoolValue valueOf(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	/**
+	 * The literal which stands for this boolean.
+	 */
+	public String toString() {
+		return value ? "true" : "false";
+	}
+}
@@ -0,0 +1,239 @@
+package fj.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fj.ir.*;
+import fj.types.ClassTable;
+
+/**
+ * An evaluation engine for translated programs.  It computes the same
+ * values as {@link Evaluator}, but runs the {@linkplain fj.ir code}
+ * the typechecker translated a program into, rather than its terms:
+ * variables are read from an array frame instead of looked up by name,
+ * fields are read at fixed offsets, and only downcasts are checked.
+ */
+public class CodeEvaluator {
+	
+	/**
+	 * An empty frame, for code outside any method.
+	 */
+	private static final Value[] NO_VARIABLES = new Value[0];
+
+	/**
+	 * The class table.
+	 */
+	protected final ClassTable types;
+	
+	/**
+	 * The translated program.
+	 */
+	protected final ProgramCode program;
+
+	/**
+	 * Construct an evaluator for a translated program.
+	 * @param types the class table the program was checked against
+	 * @param program the translated program
+	 */
+	public CodeEvaluator(ClassTable types, ProgramCode program) {
+		this.types = types;
+		this.program = program;
+	}
+	
+	/**
+	 * Evaluate the program's expression to a value.
+	 * @return the value of the expression
+	 * @throws EvaluationException the expression could not be
+	 * evaluated
+	 */
+	public Value evalProgram() throws EvaluationException {
+		return evalCode(program.term, NO_VARIABLES);
+	}
+
+	/**
+	 * Evaluate code to a value.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the value of the code
+	 * @throws EvaluationException the code could not be evaluated
+	 */
+	public Value evalCode(Code c, Value[] frame) throws EvaluationException {
+		if (c instanceof VarCode) {
+			return frame[((VarCode) c).slot];
+		}
+		else if (c instanceof FieldCode) {
+			return evalFieldCode((FieldCode) c, frame);
+		}
+		else if (c instanceof CallCode) {
+			return evalCallCode((CallCode) c, frame);
+		}
+		else if (c instanceof NewCode) {
+			return evalNewCode((NewCode) c, frame);
+		}
+		else if (c instanceof CastCode) {
+			return evalCastCode((CastCode) c, frame);
+		}
+		else if (c instanceof LiteralCode) {
+			return Primitives.valueOf(((LiteralCode) c).value);
+		}
+		else if (c instanceof NativeCode) {
+			return evalNativeCode((NativeCode) c, frame);
+		}
+		else {
+			throw new Error("Internal evaluator error: invalid code type");
+		}
+	}
+	
+	/**
+	 * Evaluate a field access.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the value of the field
+	 * @throws EvaluationException the base could not be evaluated
+	 */
+	protected Value evalFieldCode(FieldCode c, Value[] frame)
+		throws EvaluationException {
+		
+		// Rules E-Field and E-ProjNew, with the field already found
+		Value base = evalCode(c.base, frame);
+		return (Value) base.args.get(c.offset);
+	}
+	
+	/**
+	 * Evaluate a method invocation.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the value of the invocation
+	 * @throws EvaluationException the receiver, an argument, or the
+	 * method body could not be evaluated, or the thread was interrupted
+	 */
+	protected Value evalCallCode(CallCode c, Value[] frame)
+		throws EvaluationException {
+		
+		// Rules E-Invk-Recv and E-Invk-Arg: evaluate into the new frame
+		Value base = evalCode(c.base, frame);
+		List args = c.args;
+		Value[] newFrame = new Value[args.size() + 1];
+		newFrame[0] = base;
+		for (int i = 0; i < args.size(); ++i) {
+			newFrame[i + 1] = evalCode((Code) args.get(i), frame);
+		}
+		return invoke(c, newFrame);
+	}
+	
+	/**
+	 * Run the method a call invokes on its receiver.
+	 * @param c the call
+	 * @param frame the receiver, followed by the arguments
+	 * @return the value of the method body
+	 * @throws EvaluationException the method body could not be
+	 * evaluated, a built-in method failed, or the thread was
+	 * interrupted
+	 */
+	protected Value invoke(CallCode c, Value[] frame)
+		throws EvaluationException {
+		
+		// The built-in classes compute their methods themselves
+		if (frame[0] instanceof PrimitiveValue) {
+			return Primitives.invoke(c.selector, frame);
+		}
+		
+		// Rule E-InvkNew: find the method for the receiver's class
+		MethodCode method = c.dispatch(program, frame[0].type);
+		if (method == null) {
+			
+			// An object a built-in class made with new runs the body
+			// the class is declared with
+			method = Primitives.method(types, c.selector, frame[0].type);
+		}
+		if (method == null) {
+			throw new EvaluationException("unknown method");
+		}
+		if (Thread.interrupted()) {
+			throw new EvaluationException("interrupted");
+		}
+		return evalMethod(method, frame);
+	}
+	
+	/**
+	 * Run the body of a method.
+	 * @param method the method
+	 * @param frame the receiver, followed by the arguments
+	 * @return the value of the method body
+	 * @throws EvaluationException the method body could not be
+	 * evaluated
+	 */
+	protected Value evalMethod(MethodCode method, Value[] frame)
+		throws EvaluationException {
+		return evalCode(method.body, frame);
+	}
+	
+	/**
+	 * Evaluate an object creation.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the new object
+	 * @throws EvaluationException an argument could not be evaluated
+	 */
+	protected Value evalNewCode(NewCode c, Value[] frame)
+		throws EvaluationException {
+		
+		// Rule E-New-Arg: evaluate the arguments left to right
+		List args = c.args;
+		if (args.size() == 1 && types.successor(c.type)) {
+			
+			// A successor of a numeral only adds one to its count
+			return NumeralValue.successor(c.type,
+				evalCode((Code) args.get(0), frame));
+		}
+		if (args.isEmpty()) {
+			
+			// A built-in class may make its own kind of object
+			Value value = Primitives.create(types, c.type);
+			if (value != null) return value;
+		}
+		List values = new ArrayList(args.size());
+		for (int i = 0; i < args.size(); ++i) {
+			values.add(evalCode((Code) args.get(i), frame));
+		}
+		return new Value(c.type, values);
+	}
+	
+	/**
+	 * Call the Java method a method of a native class is bound to.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the result of the Java method
+	 * @throws EvaluationException the Java method failed
+	 */
+	protected Value evalNativeCode(NativeCode c, Value[] frame)
+		throws EvaluationException {
+		List args = c.args;
+		Value[] values = new Value[args.size()];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = evalCode((Code) args.get(i), frame);
+		}
+		return c.method.invoke(values);
+	}
+	
+	/**
+	 * Evaluate a downcast.
+	 * @param c the code to evaluate
+	 * @param frame the values of the variables in scope
+	 * @return the value cast
+	 * @throws EvaluationException the object could not be evaluated,
+	 * or the cast failed
+	 */
+	protected Value evalCastCode(CastCode c, Value[] frame)
+		throws EvaluationException {
+		
+		// Rule E-CastNew: just return the value if the cast is okay
+		Value value = evalCode(c.term, frame);
+		if (types.subtype(value.type, c.type)) {
+			return value;
+		}
+		else {
+			throw new EvaluationException("invalid cast");
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package fj.eval;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import fj.ast.Term;
+import fj.ast.Type;
+import fj.ir.ProgramCode;
+import fj.types.ClassTable;
+import fj.types.MethodBody;
+
+/**
+ * A service evaluating many expressions at once against one class
+ * table.  Each request runs on a thread of its own, in an evaluator of
+ * its own, so requests share nothing that changes but two caches of the
+ * service: the body of each method looked up, and the verdict of each
+ * subtyping question asked.  These are concurrent maps, which are read
+ * without locks, so requests do not wait for one another once they
+ * have warmed up.  The class table itself is only read, and must not be
+ * changed while the service is in use.
+ *
+ * <p>Where the virtual machine has virtual threads, every request gets
+ * a new virtual thread; otherwise requests share a pool of one thread
+ * per processor, or as many as asked for.  Each request's {@link
+ * Future} yields its {@link Value}, or fails with its {@link
+ * EvaluationException}; cancelling it interrupts the evaluation.</p>
+ */
+public class EvaluationService {
+
+	/**
+	 * The stack size of pool threads, in bytes, which bounds how deeply
+	 * evaluation may recurse.
+	 */
+	private static final long STACK_SIZE = 64L << 20;
+
+	/**
+	 * The class table, with the service's caches.
+	 */
+	private final ClassTable types;
+
+	/**
+	 * The threads requests run on.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Whether each request runs on a virtual thread.
+	 */
+	private final boolean virtual;
+
+	/**
+	 * Construct a service using virtual threads if the virtual machine
+	 * has them, or else one thread per processor.
+	 * @param types the class table to evaluate against
+	 */
+	public EvaluationService(ClassTable types) {
+		this(types, 0);
+	}
+
+	/**
+	 * Construct a service.
+	 * @param types the class table to evaluate against
+	 * @param threads the number of threads to evaluate on, or 0 to use
+	 * virtual threads if the virtual machine has them, and one thread
+	 * per processor if not
+	 */
+	public EvaluationService(ClassTable types, int threads) {
+		this.types = new SharedTable(types);
+		ExecutorService virtualThreads = (threads == 0) ?
+			virtualThreadExecutor() : null;
+		this.virtual = (virtualThreads != null);
+		if (virtual) {
+			this.executor = virtualThreads;
+		}
+		else {
+			if (threads == 0) threads = Runtime.getRuntime().availableProcessors();
+			this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(null, r, "evaluator", STACK_SIZE);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evaluate an expression.
+	 * @param term the expression, which should have been typechecked
+	 * against the class table
+	 * @return the {@link Future} of its {@link Value}
+	 */
+	public Future evaluate(final Term term) {
+		return executor.submit(new Callable() {
+			public Object call() throws EvaluationException {
+				return new Evaluator(types).evalTerm(term);
+			}
+		});
+	}
+
+	/**
+	 * Evaluate the expression of a translated program.
+	 * @param program the program, translated against the class table
+	 * @return the {@link Future} of its {@link Value}
+	 */
+	public Future evaluate(final ProgramCode program) {
+		return executor.submit(new Callable() {
+			public Object call() throws EvaluationException {
+				return new CodeEvaluator(types, program).evalProgram();
+			}
+		});
+	}
+
+	/**
+	 * Determine whether requests run on virtual threads.
+	 * @return whether they do
+	 */
+	public boolean usesVirtualThreads() {
+		return virtual;
+	}
+
+	/**
+	 * Stop accepting requests.  Those already made are still evaluated.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Make an executor starting a virtual thread for every task, if
+	 * the virtual machine has them.  It is found by reflection, since
+	 * this code is compiled for virtual machines that do not.
+	 * @return the executor, or <code>null</code> if there are no
+	 * virtual threads
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor", new Class[0])
+				.invoke(null, new Object[0]);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A view of a class table which remembers the answers to the
+	 * queries evaluation makes, for every thread to share.  The answers
+	 * are the table's own, so a table overriding the judgments of
+	 * {@link ClassTable} is viewed as it answers.
+	 */
+	private static class SharedTable extends ClassTable {
+
+		/**
+		 * The table viewed.
+		 */
+		private final ClassTable table;
+
+		/**
+		 * A mapping from class names to mappings from method names to
+		 * their {@link MethodBody} in that class.
+		 */
+		private final ConcurrentHashMap bodies;
+
+		/**
+		 * A mapping from class names to mappings from the names of
+		 * classes to whether the first is a subtype of the second.
+		 */
+		private final ConcurrentHashMap subtypes;
+
+		/**
+		 * Construct a view of a class table.
+		 * @param table the table
+		 */
+		SharedTable(ClassTable table) {
+			super(table, null);
+			this.table = table;
+			this.bodies = new ConcurrentHashMap();
+			this.subtypes = new ConcurrentHashMap();
+		}
+
+		public MethodBody mbody(String methodName, Type type) {
+			ConcurrentHashMap classBodies = classMap(bodies, type.className);
+			MethodBody body = (MethodBody) classBodies.get(methodName);
+			if (body == null) {
+				body = table.mbody(methodName, type);
+				if (body != null) classBodies.putIfAbsent(methodName, body);
+			}
+			return body;
+		}
+
+		public boolean subtype(Type typeSub, Type typeSuper) {
+			ConcurrentHashMap verdicts = classMap(subtypes, typeSub.className);
+			Boolean verdict = (Boolean) verdicts.get(typeSuper.className);
+			if (verdict == null) {
+				verdict = table.subtype(typeSub, typeSuper) ? Boolean.TRUE : Boolean.FALSE;
+				verdicts.putIfAbsent(typeSuper.className, verdict);
+			}
+			return verdict.booleanValue();
+		}
+
+		/**
+		 * Find the map of answers about a class, making it if need be.
+		 * @param maps the mapping from class names to maps of answers
+		 * @param className the name of the class
+		 * @return its map of answers
+		 */
+		private static ConcurrentHashMap classMap(ConcurrentHashMap maps,
+				String className) {
+			ConcurrentHashMap map = (ConcurrentHashMap) maps.get(className);
+			if (map == null) {
+				maps.putIfAbsent(className, new ConcurrentHashMap());
+				map = (ConcurrentHashMap) maps.get(className);
+			}
+			return map;
+		}
+	}
+}
@@ -85,6 +85,12 @@ public class Evaluator {
 		else if (t instanceof CastTerm) {
 			return evalCastTerm((CastTerm) t);
 		}
+		else if (t instanceof LiteralTerm) {
+			return Primitives.valueOf(((LiteralTerm) t).value);
+		}
+		else if (t instanceof NativeTerm) {
+			return evalNativeTerm((NativeTerm) t);
+		}
 		else {
 			throw new Error("Internal evaluator error: invalid term type");
 		}
@@ -147,8 +153,9 @@ public class Evaluator {
 	 * @return the value of the expression
 	 * @throws EvaluationException the message receiver or any of the
 	 * message arguments could not be evaluated, the expression provided
-	 * an incorrect number of arguments, or the receiver did not
-	 * implement the requested method
+	 * an incorrect number of arguments, the receiver did not
+	 * implement the requested method, a built-in method failed, or
+	 * the thread was interrupted
 	 */
 	protected Value evalCallTerm(CallTerm t) throws EvaluationException {
 		
@@ -158,6 +165,11 @@ public class Evaluator {
 		// Rule E-Invk-Arg: evaluate the arguments to the method
 		List args = evalArgs(t.args);
 		
+		// The built-in classes compute their methods themselves
+		if (base instanceof PrimitiveValue) {
+			return Primitives.invoke(t.methodName, (PrimitiveValue) base, args);
+		}
+		
 		// Rule E-InvkNew: get the method arguments and body
 		MethodBody body = types.mbody(t.methodName, base.type);
 		if (body == null) {
@@ -180,8 +192,39 @@ public class Evaluator {
 		// Rule E-InvkNew: perform the "this" substitution
 		newEnv.put("this", base);
 		
+		// Give up here if asked to, since every evaluation that
+		// does not end must pass this way
+		if (Thread.interrupted()) {
+			throw new EvaluationException("interrupted");
+		}
+		
+		return evalMethod(t, body, newEnv);
+	}
+	
+	/**
+	 * Evaluate the body of the method an invocation found.
+	 * @param t the invocation
+	 * @param body the method's parameters and body
+	 * @param newEnv the mapping of the method's variables to values
+	 * @return the value of the method body
+	 * @throws EvaluationException the method body could not be
+	 * evaluated
+	 */
+	protected Value evalMethod(CallTerm t, MethodBody body, Map newEnv)
+		throws EvaluationException {
+		
 		// Rule E-InvkNew: evaluate the body in the new environment 			
-		return (new Evaluator(newEnv, this)).evalTerm(body.term);
+		return nest(newEnv).evalTerm(body.term);
+	}
+	
+	/**
+	 * Make the evaluator for a method body, with this one's
+	 * environment as its outer environment.
+	 * @param newEnv the mapping of the method's variables to values
+	 * @return the nested evaluator
+	 */
+	protected Evaluator nest(Map newEnv) {
+		return new Evaluator(newEnv, this);
 	}
 	
 	/**
@@ -196,10 +239,40 @@ public class Evaluator {
 		// Rule E-New-Arg: evaluate the arguments to the constructor
 		List args = evalArgs(t.args);
 		
+		// A successor of a numeral only adds one to its count
+		if (args.size() == 1 && types.successor(t.type)) {
+			return NumeralValue.successor(t.type, (Value) args.get(0));
+		}
+		
+		// A built-in class may make its own kind of object
+		if (args.isEmpty()) {
+			Value value = Primitives.create(types, t.type);
+			if (value != null) return value;
+		}
+		
 		// "New"s are terminal in this semantics
 		return new Value(t.type, args);
 	}
 	
+	/**
+	 * Evaluate the body of a method of a native class.
+	 * @param t the body to evaluate
+	 * @return the result of the Java method
+	 * @throws EvaluationException the method is not on the whitelist,
+	 * or the Java method failed
+	 */
+	protected Value evalNativeTerm(NativeTerm t) throws EvaluationException {
+		NativeMethod method = Natives.lookup(t.library, t.methodName);
+		if (method == null) {
+			throw new EvaluationException("unknown native method");
+		}
+		Value[] args = new Value[t.args.size()];
+		for (int i = 0; i < args.length; ++i) {
+			args[i] = evalTerm((Term) t.args.get(i));
+		}
+		return method.invoke(args);
+	}
+	
 	/**
 	 * Evaluate a type cast expression.
 	 * @param t the expression to evaluate
@@ -0,0 +1,59 @@
+package fj.eval;
+
+import fj.ast.LiteralTerm;
+
+/**
+ * A value of the built-in class <code>Int</code>: a 64-bit integer.
+ */
+public class IntValue extends PrimitiveValue {
+
+	/**
+	 * The least integer kept in {@link #CACHE}.
+	 */
+	private static final int CACHE_LOW = -128;
+
+	/**
+	 * The shared values of the small integers, which are the ones
+	 * most often computed.
+	 */
+	private static final IntValue[] CACHE = new IntValue[1024 - CACHE_LOW];
+
+	static {
+		for (int i = 0; i < CACHE.length; ++i) {
+			CACHE[i] = new IntValue(i + CACHE_LOW);
+		}
+	}
+
+	/**
+	 * The integer.
+	 */
+	public final long value;
+
+	/**
+	 * Construct a new integer value.
+	 * @param value the integer
+	 */
+	private IntValue(long value) {
+		super(LiteralTerm.INT);
+		this.value = value;
+	}
+
+	/**
+	 * Return the value of an integer, shared for small integers.
+	 * @param value the integer
+	 * @return its value
+	 */
+	public static IntValue valueOf(long value) {
+		if (value >= CACHE_LOW && value < CACHE_LOW + CACHE.length) {
+			return CACHE[(int) value - CACHE_LOW];
+		}
+		return new IntValue(value);
+	}
+
+	/**
+	 * The literal which stands for this integer.
+	 */
+	public String toString() {
+		return Long.toString(value);
+	}
+}
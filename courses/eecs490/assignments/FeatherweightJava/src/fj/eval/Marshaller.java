@@ -0,0 +1,174 @@
+package fj.eval;
+
+import fj.ast.LiteralTerm;
+import fj.ast.Type;
+
+/**
+ * Converts values between FeatherweightJava and Java for the methods
+ * of native classes (see {@link Natives}).  The conversions of this
+ * class are:
+ *
+ * <ul>
+ * <li><code>Int</code> to and from <code>long</code>,
+ * <code>int</code>, <code>Long</code>, and <code>Integer</code>; an
+ * integer which does not fit in an <code>int</code> cannot be
+ * passed as one;</li>
+ * <li><code>Bool</code> to and from <code>boolean</code> and
+ * <code>Boolean</code>;</li>
+ * <li><code>Vector</code> to and from <code>String</code>, each
+ * character an <code>Int</code> element;</li>
+ * <li>any object to {@link Value}, as it is; a {@link Value}
+ * returned is an <code>Object</code>, which the program may cast.</li>
+ * </ul>
+ *
+ * <p>A subclass may add conversions of its own, or replace these, by
+ * overriding all four methods consistently, and be given to
+ * {@link Natives#allow(String, String, Class, String, Class[], Marshaller)}
+ * for the methods which use it.</p>
+ */
+public class Marshaller {
+
+	/**
+	 * The marshaller of the conversions above.
+	 */
+	public static final Marshaller DEFAULT = new Marshaller();
+
+	/**
+	 * Determine whether arguments of a FeatherweightJava type can be
+	 * passed as a Java type.
+	 * @param type the type of the parameter of the FeatherweightJava
+	 * method
+	 * @param javaType the type of the parameter of the Java method
+	 * @return whether {@link #toJava} converts values of the type
+	 */
+	public boolean accepts(Type type, Class javaType) {
+		if (javaType == Value.class) return true;
+		if (type.equals(LiteralTerm.INT)) {
+			return javaType == Long.TYPE || javaType == Integer.TYPE ||
+				javaType == Long.class || javaType == Integer.class;
+		}
+		if (type.equals(LiteralTerm.BOOL)) {
+			return javaType == Boolean.TYPE || javaType == Boolean.class;
+		}
+		if (type.equals(Primitives.VECTOR)) {
+			return javaType == String.class;
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether results of a Java type can be returned as a
+	 * FeatherweightJava type.
+	 * @param javaType the return type of the Java method
+	 * @param type the return type of the FeatherweightJava method
+	 * @return whether {@link #toValue} converts results of the Java
+	 * type to the FeatherweightJava type
+	 */
+	public boolean returns(Class javaType, Type type) {
+		if (javaType == Long.TYPE || javaType == Integer.TYPE ||
+			javaType == Long.class || javaType == Integer.class) {
+			return type.equals(LiteralTerm.INT);
+		}
+		if (javaType == Boolean.TYPE || javaType == Boolean.class) {
+			return type.equals(LiteralTerm.BOOL);
+		}
+		if (javaType == String.class) {
+			return type.equals(Primitives.VECTOR);
+		}
+		if (javaType == Value.class) {
+			return type.isObject();
+		}
+		return false;
+	}
+
+	/**
+	 * Convert an argument to Java.
+	 * @param value the argument
+	 * @param javaType the type of the parameter of the Java method,
+	 * which {@link #accepts} the type of the argument
+	 * @return the Java object, boxed if the type is primitive
+	 * @throws EvaluationException the value has no number, truth, or
+	 * elements in it, as an object made with <code>new Int()</code>
+	 * does not, or it does not fit in the Java type
+	 */
+	public Object toJava(Value value, Class javaType)
+		throws EvaluationException {
+		if (javaType == Value.class) return value;
+		if (javaType == Long.TYPE || javaType == Long.class) {
+			return new Long(intValue(value));
+		}
+		if (javaType == Integer.TYPE || javaType == Integer.class) {
+			long n = intValue(value);
+			if (n != (int) n) {
+				throw new EvaluationException("integer out of range");
+			}
+			return new Integer((int) n);
+		}
+		if (javaType == Boolean.TYPE || javaType == Boolean.class) {
+			if (!(value instanceof BoolValue)) {
+				throw new EvaluationException("invalid cast");
+			}
+			return Boolean.valueOf(((BoolValue) value).value);
+		}
+		if (javaType == String.class) {
+			if (!(value instanceof VectorValue)) {
+				throw new EvaluationException("invalid cast");
+			}
+			VectorValue vector = (VectorValue) value;
+			StringBuffer sb = new StringBuffer(vector.size());
+			for (int i = 0; i < vector.size(); ++i) {
+				long c = intValue(vector.get(i));
+				if (c != (char) c) {
+					throw new EvaluationException("character out of range");
+				}
+				sb.append((char) c);
+			}
+			return sb.toString();
+		}
+		throw new EvaluationException("cannot pass to " + javaType.getName());
+	}
+
+	/**
+	 * Convert a result to a value.
+	 * @param object the result
+	 * @param javaType the return type of the Java method, which
+	 * {@link #returns} the type of the FeatherweightJava method
+	 * @return the value
+	 * @throws EvaluationException the result was <code>null</code>
+	 */
+	public Value toValue(Object object, Class javaType)
+		throws EvaluationException {
+		if (object == null) {
+			throw new EvaluationException("native method returned null");
+		}
+		if (object instanceof Value) return (Value) object;
+		if (object instanceof Long || object instanceof Integer) {
+			return IntValue.valueOf(((Number) object).longValue());
+		}
+		if (object instanceof Boolean) {
+			return BoolValue.valueOf(((Boolean) object).booleanValue());
+		}
+		if (object instanceof String) {
+			String s = (String) object;
+			VectorValue vector = VectorValue.EMPTY;
+			for (int i = 0; i < s.length(); ++i) {
+				vector = vector.append(IntValue.valueOf(s.charAt(i)));
+			}
+			return vector;
+		}
+		throw new EvaluationException("cannot return " + javaType.getName());
+	}
+
+	/**
+	 * Return the integer in an argument.
+	 * @param value the argument
+	 * @return its number
+	 * @throws EvaluationException it is not an {@link IntValue}
+	 */
+	private static long intValue(Value value) throws EvaluationException {
+		if (!(value instanceof IntValue)) {
+			throw new EvaluationException("invalid cast");
+		}
+		return ((IntValue) value).value;
+	}
+}
@@ -0,0 +1,132 @@
+package fj.eval;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+import fj.ast.Type;
+
+/**
+ * A Java static method which the methods of a native class may be
+ * bound to, with the {@link Marshaller} converting its arguments and
+ * result.  Natives are made by {@link Natives#allow}, which puts them
+ * on the whitelist.
+ */
+public class NativeMethod {
+
+	/**
+	 * The name of the library, the native class whose method this is.
+	 */
+	public final String library;
+
+	/**
+	 * The name of the method in the library.
+	 */
+	public final String name;
+
+	/**
+	 * The method, taking its arguments as an array of objects and
+	 * returning an object, boxed as needed.
+	 */
+	private final MethodHandle handle;
+
+	/**
+	 * The types of the Java method's parameters.
+	 */
+	private final Class[] paramTypes;
+
+	/**
+	 * The return type of the Java method.
+	 */
+	private final Class returnType;
+
+	/**
+	 * The converter of arguments and results.
+	 */
+	private final Marshaller marshaller;
+
+	/**
+	 * What to call the Java method in messages.
+	 */
+	private final String description;
+
+	/**
+	 * Construct a native method.
+	 * @param library the name of the library
+	 * @param name the name of the method in the library
+	 * @param handle the Java method
+	 * @param marshaller the converter of arguments and results
+	 * @param description what to call the Java method in messages
+	 */
+	NativeMethod(String library, String name, MethodHandle handle,
+			Marshaller marshaller, String description) {
+		MethodType type = handle.type();
+		int arity = type.parameterCount();
+		this.library = library;
+		this.name = name;
+		this.handle = handle.asType(MethodType.genericMethodType(arity))
+			.asSpreader(Object[].class, arity);
+		this.paramTypes = type.parameterArray();
+		this.returnType = type.returnType();
+		this.marshaller = marshaller;
+		this.description = description;
+	}
+
+	/**
+	 * Determine how the signature of a FeatherweightJava method
+	 * disagrees with that of this Java method, if it does.
+	 * @param type the return type of the FeatherweightJava method
+	 * @param argTypes the types of the arguments it passes
+	 * @return the reason the signatures disagree, or
+	 * <code>null</code> if the marshaller converts every argument and
+	 * the result
+	 */
+	public String disagreement(Type type, List argTypes) {
+		if (argTypes.size() != paramTypes.length) {
+			return "it takes " + paramTypes.length + " arguments";
+		}
+		for (int i = 0; i < paramTypes.length; ++i) {
+			Type argType = (Type) argTypes.get(i);
+			if (!marshaller.accepts(argType, paramTypes[i])) {
+				return "cannot pass " + argType + " as " +
+					paramTypes[i].getName();
+			}
+		}
+		if (!marshaller.returns(returnType, type)) {
+			return "cannot return " + returnType.getName() + " as " + type;
+		}
+		return null;
+	}
+
+	/**
+	 * Call the Java method.
+	 * @param args the arguments
+	 * @return the result
+	 * @throws EvaluationException an argument or the result could not
+	 * be converted, or the Java method threw an exception
+	 */
+	public Value invoke(Value[] args) throws EvaluationException {
+		Object[] javaArgs = new Object[args.length];
+		for (int i = 0; i < args.length; ++i) {
+			javaArgs[i] = marshaller.toJava(args[i], paramTypes[i]);
+		}
+		Object result;
+		try {
+			result = (Object) handle.invokeExact(javaArgs);
+		}
+		catch (Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new EvaluationException(description + " threw " + e);
+		}
+		return marshaller.toValue(result, returnType);
+	}
+
+	/**
+	 * The Java method, as messages name it.
+	 */
+	public String toString() {
+		return description;
+	}
+}
@@ -0,0 +1,197 @@
+package fj.eval;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The whitelist of Java static methods which native classes may bind
+ * their methods to.  A class declared <code>native</code>, which
+ * programs may do along with using the built-in classes of
+ * {@link Primitives}, declares its methods without bodies:
+ *
+ * <pre>
+ * native class Math extends Object {
+ *     Math() { super(); }
+ *     Int floorMod(Int a, Int b);
+ * }
+ * </pre>
+ *
+ * <p>The class's name names a library on the whitelist, and each
+ * method's name a {@link NativeMethod} in the library; calling the
+ * method on an object of the class, or of a subclass which does not
+ * override it, calls the Java method with the arguments converted by
+ * its {@link Marshaller}, ignoring the receiver.  The typechecker
+ * rejects a method which is not on the whitelist, or whose signature
+ * the marshaller cannot convert to and from the Java method's.  The
+ * call is dispatched as any other is, so an evaluator of translated
+ * code caches it, and only the conversions and the call through a
+ * method handle are added.</p>
+ *
+ * <p>The whitelist starts with these libraries, all of methods of
+ * <code>java.lang</code> of the same names:</p>
+ *
+ * <pre>
+ * Math: Int abs(Int n); Int max(Int a, Int b); Int min(Int a, Int b);
+ *       Int floorDiv(Int a, Int b); Int floorMod(Int a, Int b);
+ *       Int addExact(Int a, Int b); Int multiplyExact(Int a, Int b);
+ * Bits: Int bitCount(Int n); Int reverse(Int n); Int highestOneBit(Int n);
+ *       Int rotateLeft(Int n, Int d); Int rotateRight(Int n, Int d);
+ *       Int numberOfLeadingZeros(Int n); Int numberOfTrailingZeros(Int n);
+ * Text: Vector toString(Int n); Vector toHexString(Int n);
+ *       Int parseLong(Vector s); Vector valueOf(Bool b);
+ * </pre>
+ *
+ * <p>Math and Bits are of <code>java.lang.Math</code> and
+ * <code>java.lang.Long</code>; Text is of <code>Long</code> but for
+ * <code>valueOf</code>, which is of <code>String</code>, and a
+ * <code>Vector</code> of character codes stands for a string.  An
+ * exception thrown by a Java method, such as the
+ * <code>ArithmeticException</code> of dividing by zero or of an
+ * overflowing <code>addExact</code>, is an evaluation error.
+ * {@link #allow} adds more, each with a marshaller of its
+ * choosing.</p>
+ */
+public class Natives {
+
+	/**
+	 * A mapping from library names to mappings from method names to
+	 * their {@link NativeMethod}s.
+	 */
+	private static final Map LIBRARIES = new ConcurrentHashMap();
+
+	static {
+		Class[] one = { Long.TYPE };
+		Class[] two = { Long.TYPE, Long.TYPE };
+		Class[] shift = { Long.TYPE, Integer.TYPE };
+		String[] math = {
+			"abs", "max", "min", "floorDiv", "floorMod", "addExact",
+			"multiplyExact"
+		};
+		for (int i = 0; i < math.length; ++i) {
+			allow("Math", math[i], Math.class, math[i], (i == 0) ? one : two);
+		}
+		String[] bits = {
+			"bitCount", "reverse", "highestOneBit", "numberOfLeadingZeros",
+			"numberOfTrailingZeros", "rotateLeft", "rotateRight"
+		};
+		for (int i = 0; i < bits.length; ++i) {
+			allow("Bits", bits[i], Long.class, bits[i], (i < 5) ? one : shift);
+		}
+		allow("Text", "toString", Long.class, "toString", one);
+		allow("Text", "toHexString", Long.class, "toHexString", one);
+		allow("Text", "parseLong", Long.class, "parseLong",
+			new Class[] { String.class });
+		allow("Text", "valueOf", String.class, "valueOf",
+			new Class[] { Boolean.TYPE });
+	}
+
+	/**
+	 * This class is not to be instantiated.
+	 */
+	private Natives() {
+	}
+
+	/**
+	 * Put a public static Java method on the whitelist, converting
+	 * with the {@linkplain Marshaller#DEFAULT default marshaller}.
+	 * @param library the name of the native class
+	 * @param name the name of the method in the native class
+	 * @param owner the Java class declaring the method
+	 * @param javaName the name of the Java method
+	 * @param paramTypes the types of its parameters
+	 * @throws IllegalArgumentException there is no such public static
+	 * method
+	 */
+	public static void allow(String library, String name, Class owner,
+			String javaName, Class[] paramTypes) {
+		allow(library, name, owner, javaName, paramTypes, Marshaller.DEFAULT);
+	}
+
+	/**
+	 * Put a public static Java method on the whitelist.
+	 * @param library the name of the native class
+	 * @param name the name of the method in the native class
+	 * @param owner the Java class declaring the method
+	 * @param javaName the name of the Java method
+	 * @param paramTypes the types of its parameters
+	 * @param marshaller the converter of its arguments and result
+	 * @throws IllegalArgumentException there is no such public static
+	 * method
+	 */
+	public static void allow(String library, String name, Class owner,
+			String javaName, Class[] paramTypes, Marshaller marshaller) {
+		java.lang.reflect.Method method;
+		MethodHandle handle;
+		try {
+			method = owner.getMethod(javaName, paramTypes);
+			handle = MethodHandles.publicLookup().unreflect(method);
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("no public method " +
+				owner.getName() + "." + javaName);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("cannot access " +
+				owner.getName() + "." + javaName);
+		}
+		if (!Modifier.isStatic(method.getModifiers())) {
+			throw new IllegalArgumentException(owner.getName() + "." +
+				javaName + " is not static");
+		}
+		allow(library, name, handle, marshaller,
+			owner.getName() + "." + javaName);
+	}
+
+	/**
+	 * Put a method handle on the whitelist, as though it were a static
+	 * method.
+	 * @param library the name of the native class
+	 * @param name the name of the method in the native class
+	 * @param handle the method handle
+	 * @param marshaller the converter of its arguments and result
+	 */
+	public static void allow(String library, String name,
+			MethodHandle handle, Marshaller marshaller) {
+		allow(library, name, handle, marshaller, handle.toString());
+	}
+
+	/**
+	 * Put a native method on the whitelist, replacing any of the same
+	 * name in the same library.
+	 * @param library the name of the native class
+	 * @param name the name of the method in the native class
+	 * @param handle the method handle
+	 * @param marshaller the converter of its arguments and result
+	 * @param description what to call the method in messages
+	 */
+	private static void allow(String library, String name,
+			MethodHandle handle, Marshaller marshaller, String description) {
+		Map methods = (Map) LIBRARIES.get(library);
+		if (methods == null) {
+			synchronized (LIBRARIES) {
+				methods = (Map) LIBRARIES.get(library);
+				if (methods == null) {
+					methods = new ConcurrentHashMap();
+					LIBRARIES.put(library, methods);
+				}
+			}
+		}
+		methods.put(name, new NativeMethod(library, name, handle,
+			marshaller, description));
+	}
+
+	/**
+	 * Find a method on the whitelist.
+	 * @param library the name of the native class
+	 * @param name the name of the method
+	 * @return the method, or <code>null</code> if it is not on the
+	 * whitelist
+	 */
+	public static NativeMethod lookup(String library, String name) {
+		Map methods = (Map) LIBRARIES.get(library);
+		return (methods != null) ? (NativeMethod) methods.get(name) : null;
+	}
+}
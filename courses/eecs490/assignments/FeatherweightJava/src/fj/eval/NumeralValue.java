@@ -0,0 +1,129 @@
+package fj.eval;
+
+import java.lang.ref.WeakReference;
+
+import fj.ast.Type;
+
+/**
+ * A chain of objects of a successor class (see
+ * {@link fj.types.ClassTable#successor(Type)}), each the field of the
+ * one before, kept as the number of objects in the chain and the
+ * value at its end: <code>new Succ(new Succ(new Zero()))</code> is kept
+ * as 2 and <code>new Zero()</code>.  A numeral takes the same memory
+ * however long its chain, and adding one to it takes a single object.
+ *
+ * <p>To everything else a numeral is an object of the successor class,
+ * whose one argument is the rest of the chain.  A numeral refers to
+ * the rest of its chain only weakly: to the object it was made from,
+ * while anything else still refers to that object, so that reading
+ * the argument gives the very object the program passed, and a value
+ * sharing it prints it once (see {@link ValuePrinter#printShared}).
+ * Once nothing else refers to it, it is forgotten, and reading the
+ * argument makes a numeral one shorter, or gives the value at the end;
+ * no one can tell it from the object forgotten, since nothing else
+ * refers to either.  So a chain takes memory only for the parts the
+ * program keeps.</p>
+ */
+public class NumeralValue extends Value {
+
+	/**
+	 * The number of objects of the successor class in the chain, at
+	 * least 1.
+	 */
+	public final long count;
+
+	/**
+	 * The value at the end of the chain, which is not a numeral of the
+	 * same class.
+	 */
+	public final Value base;
+
+	/**
+	 * Construct a new numeral.
+	 * @param type the successor class
+	 * @param count the number of its objects in the chain
+	 * @param base the value at the end of the chain
+	 * @param rest the rest of the chain, if there is one and it is
+	 * known, or <code>null</code>
+	 */
+	private NumeralValue(Type type, long count, Value base, Value rest) {
+		super(type, new Predecessor(type, count, base, rest));
+		this.count = count;
+		this.base = base;
+	}
+
+	/**
+	 * Make the object of a successor class whose field is a value.
+	 * @param type the successor class
+	 * @param value the value of its field
+	 * @return the numeral, one longer than <code>value</code> if that
+	 * is a numeral of the same class
+	 */
+	public static Value successor(Type type, Value value) {
+		if (value instanceof NumeralValue && value.type.equals(type)) {
+			NumeralValue numeral = (NumeralValue) value;
+			return new NumeralValue(type, numeral.count + 1, numeral.base,
+				numeral);
+		}
+		return new NumeralValue(type, 1, value, null);
+	}
+
+	/**
+	 * The arguments of a numeral: the rest of its chain, the object it
+	 * was made from while that is still referred to, or else made when
+	 * read.
+	 */
+	private static class Predecessor extends Fields {
+
+		/**
+		 * The successor class.
+		 */
+		private final Type type;
+
+		/**
+		 * The number of objects of the successor class in the chain.
+		 */
+		private final long count;
+
+		/**
+		 * The value at the end of the chain.
+		 */
+		private final Value base;
+
+		/**
+		 * The rest of the chain, the object the numeral was made from
+		 * or the one made when it was last read, held weakly; or
+		 * <code>null</code> if there is none yet.
+		 */
+		private WeakReference rest;
+
+		/**
+		 * Construct the arguments of a numeral.
+		 * @param type the successor class
+		 * @param count the number of its objects in the chain
+		 * @param base the value at the end of the chain
+		 * @param rest the rest of the chain, or <code>null</code>
+		 */
+		Predecessor(Type type, long count, Value base, Value rest) {
+			this.type = type;
+			this.count = count;
+			this.base = base;
+			this.rest = (rest != null) ? new WeakReference(rest) : null;
+		}
+
+		public Object get(int index) {
+			if (index != 0) throw new IndexOutOfBoundsException();
+			if (count == 1) return base;
+			Value value = (rest != null) ? (Value) rest.get() : null;
+			if (value == null) {
+				value = new NumeralValue(type, count - 1, base, null);
+				rest = new WeakReference(value);
+			}
+			return value;
+		}
+
+		public int size() {
+			return 1;
+		}
+	}
+}
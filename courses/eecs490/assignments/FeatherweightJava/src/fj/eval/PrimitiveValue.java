@@ -0,0 +1,39 @@
+package fj.eval;
+
+import java.util.Collections;
+import java.util.List;
+
+import fj.ast.Type;
+
+/**
+ * A value of one of the built-in classes, which holds a Java value
+ * in place of fields.  Integers and booleans are printed as the
+ * literals which stand for them, and vectors as the expressions which
+ * build them.  The methods of the built-in classes are computed by
+ * {@link Primitives}.
+ */
+public abstract class PrimitiveValue extends Value {
+
+	/**
+	 * Construct a new value of a built-in class.
+	 * @param type the built-in class
+	 */
+	protected PrimitiveValue(Type type) {
+		super(type, Collections.EMPTY_LIST);
+	}
+
+	/**
+	 * Construct a new value of a built-in class which has arguments,
+	 * as far as the rest of the system can see.
+	 * @param type the built-in class
+	 * @param args the arguments
+	 */
+	protected PrimitiveValue(Type type, List args) {
+		super(type, args);
+	}
+
+	/**
+	 * The literal or expression which stands for this value.
+	 */
+	public abstract String toString();
+}
@@ -0,0 +1,391 @@
+package fj.eval;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.CastTerm;
+import fj.ast.ClassDecl;
+import fj.ast.LiteralTerm;
+import fj.ast.Method;
+import fj.ast.NewTerm;
+import fj.ast.Type;
+import fj.ir.CastCode;
+import fj.ir.MethodCode;
+import fj.ir.NewCode;
+import fj.parse.Lexer;
+import fj.parse.ParseException;
+import fj.parse.Parser;
+import fj.types.ClassTable;
+
+/**
+ * The built-in classes <code>Int</code>, <code>Bool</code>, and
+ * <code>Vector</code>, an extension of FeatherweightJava which
+ * programs opt into.  Their values are {@link IntValue}s and
+ * {@link BoolValue}s, written as literals, and {@link VectorValue}s,
+ * the empty one made by <code>new Vector()</code>.  Their methods are
+ * computed here in Java rather than by evaluating method bodies, so
+ * that arithmetic takes constant time instead of an object for every
+ * unit, and reading an element of a vector takes time logarithmic in
+ * its size instead of a step for every element before it.
+ *
+ * <p>To the class table and the typechecker the built-in classes are
+ * ordinary classes, declared before the program's own (see
+ * {@link #withBuiltIns(List)}), with these methods:</p>
+ *
+ * <pre>
+ * class Int extends Object {
+ *     Int add(Int n); Int sub(Int n); Int mul(Int n); Int div(Int n); Int mod(Int n);
+ *     Bool lt(Int n); Bool le(Int n); Bool gt(Int n); Bool ge(Int n); Bool eq(Int n);
+ * }
+ * class Bool extends Object {
+ *     Bool and(Bool b); Bool or(Bool b); Bool not();
+ *     Object cond(Object a, Object b);
+ * }
+ * class Vector extends Object {
+ *     Object get(Int i); Vector set(Int i, Object x); Int size(); Vector append(Object x);
+ * }
+ * </pre>
+ *
+ * <p>Arithmetic wraps around as Java's <code>long</code> does, and
+ * dividing by zero is an evaluation error.  <code>cond</code> returns
+ * <code>a</code> if the receiver is true and <code>b</code> otherwise;
+ * both have already been evaluated, so to choose between computations
+ * rather than values, pass objects whose methods do them.  Vectors
+ * never change: <code>set</code> and <code>append</code> return a new
+ * vector, sharing most of its structure with the old one, and an index
+ * out of bounds is an evaluation error.  The bodies the classes are
+ * declared with are never run on a built-in value; an object of
+ * <code>Int</code> or <code>Bool</code> or of a subclass of a built-in
+ * class made with <code>new</code> has no number, truth, or elements
+ * in it, and calling a built-in method on it, or passing it to one,
+ * is an evaluation error.  Such a call runs the body the class is
+ * declared with, which fails with an invalid cast, on the syntax tree
+ * and on translated code alike (see {@link #method}).</p>
+ */
+public class Primitives {
+
+	/**
+	 * The declarations of the built-in classes, as the typechecker
+	 * sees them.
+	 */
+	private static final String SOURCE =
+		"class Int extends Object {\n" +
+		"  Int() { super(); }\n" +
+		"  Int add(Int n) { return (Int) new Object(); }\n" +
+		"  Int sub(Int n) { return (Int) new Object(); }\n" +
+		"  Int mul(Int n) { return (Int) new Object(); }\n" +
+		"  Int div(Int n) { return (Int) new Object(); }\n" +
+		"  Int mod(Int n) { return (Int) new Object(); }\n" +
+		"  Bool lt(Int n) { return (Bool) new Object(); }\n" +
+		"  Bool le(Int n) { return (Bool) new Object(); }\n" +
+		"  Bool gt(Int n) { return (Bool) new Object(); }\n" +
+		"  Bool ge(Int n) { return (Bool) new Object(); }\n" +
+		"  Bool eq(Int n) { return (Bool) new Object(); }\n" +
+		"}\n" +
+		"class Bool extends Object {\n" +
+		"  Bool() { super(); }\n" +
+		"  Bool and(Bool b) { return (Bool) new Object(); }\n" +
+		"  Bool or(Bool b) { return (Bool) new Object(); }\n" +
+		"  Bool not() { return (Bool) new Object(); }\n" +
+		"  Object cond(Object a, Object b) { return (Bool) new Object(); }\n" +
+		"}\n" +
+		"class Vector extends Object {\n" +
+		"  Vector() { super(); }\n" +
+		"  Object get(Int i) { return (Vector) new Object(); }\n" +
+		"  Vector set(Int i, Object x) { return (Vector) new Object(); }\n" +
+		"  Int size() { return (Int) new Object(); }\n" +
+		"  Vector append(Object x) { return (Vector) new Object(); }\n" +
+		"}\n";
+
+	/** The names of the built-in methods, indexed by operation. */
+	private static final String[] NAMES = {
+		"add", "sub", "mul", "div", "mod", "lt", "le", "gt", "ge", "eq",
+		"and", "or", "not", "cond",
+		"get", "set", "size", "append"
+	};
+
+	/** The number of arguments of each operation. */
+	private static final int[] ARITY = {
+		1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+		1, 1, 0, 2,
+		1, 2, 0, 1
+	};
+
+	/** The first operation of <code>Bool</code>; those before are of <code>Int</code>. */
+	private static final int BOOL_OPERATIONS = 10;
+
+	/** The first operation of <code>Vector</code>. */
+	private static final int VECTOR_OPERATIONS = 14;
+
+	/**
+	 * The built-in class of vectors.
+	 */
+	public static final Type VECTOR = new Type("Vector");
+
+	/**
+	 * A mapping from method names to their operations (Integer).
+	 */
+	private static final Map OPERATIONS = new HashMap();
+
+	static {
+		for (int i = 0; i < NAMES.length; ++i) {
+			OPERATIONS.put(NAMES[i], new Integer(i));
+		}
+	}
+
+	/**
+	 * The declarations of the built-in classes.
+	 */
+	private static final List CLASSES;
+
+	/**
+	 * The declaration of <code>Vector</code>, by which the table tells
+	 * it from a program's own class of that name.
+	 */
+	private static final ClassDecl VECTOR_DECL;
+
+	static {
+		try {
+			CLASSES = Collections.unmodifiableList(new Parser(new Lexer(
+				new ByteArrayInputStream(SOURCE.getBytes()))).parseClasses());
+		}
+		catch (ParseException e) {
+			throw new Error("Internal error: built-in classes do not parse");
+		}
+		VECTOR_DECL = (ClassDecl) CLASSES.get(CLASSES.size() - 1);
+	}
+
+	/**
+	 * The code of the bodies the built-in methods are declared with,
+	 * by the class name and method name separated by a dot.
+	 */
+	private static final Map CODE = new HashMap();
+
+	static {
+		for (Iterator i = CLASSES.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				Method method = (Method) j.next();
+
+				// Every body casts a new Object, so translate it here
+				// rather than through the typechecker
+				CastTerm body = (CastTerm) method.body;
+				NewTerm object = (NewTerm) body.term;
+				CODE.put(classDecl.name + "." + method.name,
+					new MethodCode(classDecl.type, method.name,
+						method.params.size(), new CastCode(
+							new NewCode(object.type, Collections.EMPTY_LIST),
+							body.type)));
+			}
+		}
+	}
+
+	/**
+	 * No instances; everything is static.
+	 */
+	private Primitives() {
+	}
+
+	/**
+	 * Add the built-in classes to the classes of a program.
+	 * @param classDecls the program's {@link fj.ast.ClassDecl}s
+	 * @return the declarations of the built-in classes, followed by
+	 * <code>classDecls</code>, to build a class table from
+	 */
+	public static List withBuiltIns(List classDecls) {
+		List all = new ArrayList(CLASSES.size() + classDecls.size());
+		all.addAll(CLASSES);
+		all.addAll(classDecls);
+		return all;
+	}
+
+	/**
+	 * Return the value of a literal.
+	 * @param value the literal's value, a Long or a Boolean, as in
+	 * {@link LiteralTerm#value}
+	 * @return the {@link IntValue} or {@link BoolValue}
+	 */
+	public static Value valueOf(Object value) {
+		if (value instanceof Boolean) {
+			return BoolValue.valueOf(((Boolean) value).booleanValue());
+		}
+		return IntValue.valueOf(((Long) value).longValue());
+	}
+
+	/**
+	 * Compute a method of a built-in class.
+	 * @param methodName the name of the method
+	 * @param receiver the value the method is called on
+	 * @param args the {@link Value}s of the arguments
+	 * @return the result
+	 * @throws EvaluationException the class has no such method, it was
+	 * given the wrong number of arguments, an argument has no number
+	 * or truth in it, an integer was divided by zero, or an index was
+	 * out of the bounds of a vector
+	 */
+	public static Value invoke(String methodName, PrimitiveValue receiver,
+			List args) throws EvaluationException {
+		Value[] frame = new Value[args.size() + 1];
+		frame[0] = receiver;
+		for (int i = 0; i < args.size(); ++i) {
+			frame[i + 1] = (Value) args.get(i);
+		}
+		return invoke(methodName, frame);
+	}
+
+	/**
+	 * Compute a method of a built-in class.
+	 * @param methodName the name of the method
+	 * @param frame the receiver, which must be a
+	 * {@link PrimitiveValue}, followed by the arguments
+	 * @return the result
+	 * @throws EvaluationException the class has no such method, it was
+	 * given the wrong number of arguments, an argument has no number
+	 * or truth in it, an integer was divided by zero, or an index was
+	 * out of the bounds of a vector
+	 */
+	public static Value invoke(String methodName, Value[] frame)
+		throws EvaluationException {
+		Integer operation = (Integer) OPERATIONS.get(methodName);
+		Value receiver = frame[0];
+		int first = (receiver instanceof IntValue) ? 0
+			: (receiver instanceof BoolValue) ? BOOL_OPERATIONS
+			: VECTOR_OPERATIONS;
+		int last = (receiver instanceof IntValue) ? BOOL_OPERATIONS
+			: (receiver instanceof BoolValue) ? VECTOR_OPERATIONS
+			: NAMES.length;
+		int op = (operation != null) ? operation.intValue() : -1;
+		if (op < first || op >= last) {
+			throw new EvaluationException("unknown method");
+		}
+		if (frame.length != ARITY[op] + 1) {
+			throw new EvaluationException("incorrect number of arguments");
+		}
+		if (op < BOOL_OPERATIONS) {
+			long m = ((IntValue) receiver).value;
+			long n = intArg(frame[1]);
+			switch (op) {
+			case 0: return IntValue.valueOf(m + n);
+			case 1: return IntValue.valueOf(m - n);
+			case 2: return IntValue.valueOf(m * n);
+			case 3:
+				if (n == 0) throw new EvaluationException("division by zero");
+				return IntValue.valueOf(m / n);
+			case 4:
+				if (n == 0) throw new EvaluationException("division by zero");
+				return IntValue.valueOf(m % n);
+			case 5: return BoolValue.valueOf(m < n);
+			case 6: return BoolValue.valueOf(m <= n);
+			case 7: return BoolValue.valueOf(m > n);
+			case 8: return BoolValue.valueOf(m >= n);
+			default: return BoolValue.valueOf(m == n);
+			}
+		}
+		if (op < VECTOR_OPERATIONS) {
+			boolean p = ((BoolValue) receiver).value;
+			switch (op) {
+			case 10: return BoolValue.valueOf(p & boolArg(frame[1]));
+			case 11: return BoolValue.valueOf(p | boolArg(frame[1]));
+			case 12: return BoolValue.valueOf(!p);
+			default: return p ? frame[1] : frame[2];
+			}
+		}
+		VectorValue vector = (VectorValue) receiver;
+		switch (op) {
+		case 14: return vector.get(index(vector, frame[1]));
+		case 15: return vector.set(index(vector, frame[1]), frame[2]);
+		case 16: return IntValue.valueOf(vector.size());
+		default: return vector.append(frame[1]);
+		}
+	}
+
+	/**
+	 * Make the object a built-in class creates with <code>new</code>
+	 * and no arguments, if it is not simply an object with no fields.
+	 * @param types the class table
+	 * @param type the class to create
+	 * @return the empty vector if <code>type</code> is the built-in
+	 * class <code>Vector</code>, or <code>null</code>
+	 */
+	public static Value create(ClassTable types, Type type) {
+		if (type.equals(VECTOR) && types.declaration(type) == VECTOR_DECL) {
+			return VectorValue.EMPTY;
+		}
+		return null;
+	}
+
+	/**
+	 * Find the code of a built-in method that an object which is not a
+	 * built-in value inherits, as an object of <code>Int</code> made
+	 * with <code>new</code>, or of a subclass of <code>Vector</code>,
+	 * does.  Translated programs hold only the methods of the
+	 * program's own classes, so the evaluator of translated code runs
+	 * this code for such an object, as the evaluator of syntax trees
+	 * runs the body from the class table.
+	 * @param types the class table
+	 * @param methodName the name of the method
+	 * @param type the class of the object
+	 * @return the code of the method, or <code>null</code> if the
+	 * class does not inherit one by that name from a built-in class
+	 */
+	public static MethodCode method(ClassTable types, String methodName,
+			Type type) {
+		for (Type t = type; t != null && !t.isObject(); t = types.superType(t)) {
+			ClassDecl classDecl = types.declaration(t);
+			for (int i = 0; i < CLASSES.size(); ++i) {
+				if (CLASSES.get(i) == classDecl) {
+					return (MethodCode) CODE.get(t.className + "." + methodName);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the index of an element of a vector in an argument.
+	 * @param vector the vector
+	 * @param arg the argument
+	 * @return the index
+	 * @throws EvaluationException it is not an {@link IntValue}, or it
+	 * is out of the bounds of the vector
+	 */
+	private static int index(VectorValue vector, Value arg)
+		throws EvaluationException {
+		long i = intArg(arg);
+		if (i < 0 || i >= vector.size()) {
+			throw new EvaluationException("index out of bounds");
+		}
+		return (int) i;
+	}
+
+	/**
+	 * Return the integer in an argument.
+	 * @param arg the argument
+	 * @return its integer
+	 * @throws EvaluationException it is not an {@link IntValue}
+	 */
+	private static long intArg(Value arg) throws EvaluationException {
+		if (!(arg instanceof IntValue)) {
+			throw new EvaluationException("invalid cast");
+		}
+		return ((IntValue) arg).value;
+	}
+
+	/**
+	 * Return the boolean in an argument.
+	 * @param arg the argument
+	 * @return its boolean
+	 * @throws EvaluationException it is not a {@link BoolValue}
+	 */
+	private static boolean boolArg(Value arg) throws EvaluationException {
+		if (!(arg instanceof BoolValue)) {
+			throw new EvaluationException("invalid cast");
+		}
+		return ((BoolValue) arg).value;
+	}
+}
@@ -1,7 +1,7 @@
 package fj.eval;
 
+import java.util.AbstractList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import fj.ast.Type;
@@ -28,23 +28,40 @@ public class Value {
 	/**
 	 * Construct a new value.
 	 * @param type the type of the value
-	 * @param args the values of its fields
+	 * @param args the values of its fields; unless they are
+	 * {@link Fields}, a view of them which cannot be modified is kept
 	 */
 	public Value(Type type, List args) {
 		this.type = type;
-		this.args = Collections.unmodifiableList(args);
+		this.args = (args instanceof Fields)
+			? args : Collections.unmodifiableList(args);
 	}
 	
 	/**
-	 * The string representation of a value.
+	 * The string representation of a value, as printed by a
+	 * {@link ValuePrinter}.
 	 */
 	public String toString() {
-		String str = "new " + type;
-		if (args.isEmpty()) return str + "()";
-		str += "(" + args.get(0).toString();
-		for (Iterator i = args.listIterator(1); i.hasNext(); ) {
-			str += ", " + i.next().toString();
+		return new ValuePrinter().toString(this);
+	}
+
+	/**
+	 * The values of the fields of an object, as a list which cannot
+	 * be modified, for subclasses which work them out rather than keep
+	 * them.  A value keeps such a list itself, not a view of it.
+	 */
+	protected abstract static class Fields extends AbstractList {
+
+		public final void add(int index, Object element) {
+			throw new UnsupportedOperationException();
 		}
-		return str + ")";
-	}	
+
+		public final Object set(int index, Object element) {
+			throw new UnsupportedOperationException();
+		}
+
+		public final Object remove(int index) {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -0,0 +1,324 @@
+package fj.eval;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values as the constructor invocations which create them,
+ * straight to an {@link Appendable}, without building strings for
+ * their parts.  The printer walks a value with a stack of its own
+ * rather than by recursion, so it prints values of any depth in time
+ * proportional to their size, keeping only the path from the value to
+ * the object being printed.
+ *
+ * <p>A printer may cut values short.  An object nested more deeply
+ * than the depth limit is printed as <code>...</code>, and once as many
+ * objects as the size limit have been printed, the rest of the value
+ * is printed as <code>...</code> and the open parentheses are
+ * closed.</p>
+ *
+ * <p>Values which share objects may stand for trees far larger than
+ * the memory they take.  {@link #printShared} prints each shared object
+ * once, so that printing such a value takes time and space in
+ * proportion to the memory it takes instead.</p>
+ */
+public class ValuePrinter {
+
+	/**
+	 * What is printed in place of the part of a value cut short.
+	 */
+	private static final String ELLIPSIS = "...";
+
+	/**
+	 * The end of a line between bindings.
+	 */
+	private static final String LINE_SEPARATOR =
+		System.getProperty("line.separator");
+
+	/**
+	 * The deepest an object may be nested to be printed, the value
+	 * itself being at depth 0.
+	 */
+	private final int maxDepth;
+
+	/**
+	 * The most objects to print.
+	 */
+	private final long maxSize;
+
+	/**
+	 * Construct a printer which prints values whole.
+	 */
+	public ValuePrinter() {
+		this(Integer.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Construct a printer which cuts values short.
+	 * @param maxDepth the deepest an object may be nested to be
+	 * printed, the value itself being at depth 0
+	 * @param maxSize the most objects to print, at least 1
+	 */
+	public ValuePrinter(int maxDepth, long maxSize) {
+		this.maxDepth = Math.max(0, maxDepth);
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Print a value.
+	 * @param value the value
+	 * @param out where to print it
+	 * @throws IOException it could not be written
+	 */
+	public void print(Value value, Appendable out) throws IOException {
+		print(value, out, null, maxDepth, maxSize);
+	}
+
+	/**
+	 * Print a value once for each object in it rather than once for
+	 * each reference, so that the output is proportional to the size
+	 * of the value in memory, not to the size of the tree it stands
+	 * for.  Each object with arguments which is referred to more than
+	 * once, by identity, is printed first, as a binding <i>name</i>
+	 * <code>=</code> <i>object</i><code>;</code> on a line of its own,
+	 * and after that by its name.  The value follows the bindings.
+	 * Names are letters, so what follows each <code>=</code> is a
+	 * FeatherweightJava expression in the names bound before it; a
+	 * {@link fj.parse.ValueParser} reads it all back into a value
+	 * sharing the same objects.  Values are printed whole, whatever the
+	 * limits of this printer.
+	 * @param value the value
+	 * @param out where to print it
+	 * @throws IOException it could not be written
+	 */
+	public void printShared(Value value, Appendable out) throws IOException {
+		// Count the references to each object, visiting each once,
+		// and list them with each after the objects it refers to
+		Map references = new IdentityHashMap();
+		List objects = new ArrayList();
+		Path path = new Path();
+		references.put(value, new int[] { 1 });
+		path.push(value);
+		while (path.depth > 0) {
+			Value parent = path.top();
+			int i = path.next();
+			if (i == parent.args.size()) {
+				objects.add(parent);
+				path.pop();
+				continue;
+			}
+			Value child = (Value) parent.args.get(i);
+			int[] count = (int[]) references.get(child);
+			if (count != null) {
+				++count[0];
+			}
+			else {
+				references.put(child, new int[] { 1 });
+				path.push(child);
+			}
+		}
+
+		// Bind the objects referred to more than once, in that order
+		Map names = new IdentityHashMap();
+		for (int i = 0; i < objects.size(); ++i) {
+			Value object = (Value) objects.get(i);
+			if (object.args.isEmpty()) continue;
+			if (((int[]) references.get(object))[0] < 2) continue;
+			String name = name(names.size());
+			out.append(name).append(" = ");
+			print(object, out, names, Integer.MAX_VALUE, Long.MAX_VALUE);
+			out.append(';').append(LINE_SEPARATOR);
+			names.put(object, name);
+		}
+		print(value, out, names, Integer.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Print a value, cutting it short.
+	 * @param value the value
+	 * @param out where to print it
+	 * @param names the names to print objects inside the value by, by
+	 * identity, or <code>null</code>
+	 * @param maxDepth the deepest an object may be nested to be printed
+	 * @param maxSize the most objects to print
+	 * @throws IOException it could not be written
+	 */
+	private static void print(Value value, Appendable out, Map names,
+			int maxDepth, long maxSize) throws IOException {
+		Path path = new Path();
+		long size = 1;
+		if (!start(value, out)) path.push(value);
+		while (path.depth > 0) {
+			Value parent = path.top();
+			int i = path.next();
+			if (i == parent.args.size()) {
+				out.append(')');
+				path.pop();
+				continue;
+			}
+			if (i > 0) out.append(separator(parent));
+			if (size == maxSize) {
+				out.append(ELLIPSIS);
+				for (; path.depth > 0; path.pop()) out.append(')');
+				break;
+			}
+			if (path.depth > maxDepth) {
+				out.append(ELLIPSIS);
+				continue;
+			}
+			Value child = (Value) parent.args.get(i);
+			String name = (names != null) ? (String) names.get(child) : null;
+			if (name != null) {
+				out.append(name);
+				continue;
+			}
+			++size;
+			if (!start(child, out)) path.push(child);
+		}
+	}
+
+	/**
+	 * Print a value to a string.
+	 * @param value the value
+	 * @return the printed value
+	 */
+	public String toString(Value value) {
+		StringBuffer sb = new StringBuffer();
+		try {
+			print(value, sb);
+		}
+		catch (IOException e) {
+			// A StringBuffer does not throw
+			throw new IllegalStateException(e.toString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Print the start of an object, up to its first argument, or the
+	 * literal which stands for a value of a built-in class.  A vector
+	 * is printed as the empty vector with each element appended.
+	 * @param value the object
+	 * @param out where to print it
+	 * @return whether that printed the whole object, since it has no
+	 * arguments
+	 * @throws IOException it could not be written
+	 */
+	private static boolean start(Value value, Appendable out)
+		throws IOException {
+		if (value instanceof VectorValue) {
+			out.append("new Vector()");
+			if (value.args.isEmpty()) return true;
+			out.append(".append(");
+			return false;
+		}
+		if (value instanceof PrimitiveValue) {
+			out.append(value.toString());
+			return true;
+		}
+		out.append("new ").append(value.type.toString());
+		if (value.args.isEmpty()) {
+			out.append("()");
+			return true;
+		}
+		out.append('(');
+		return false;
+	}
+
+	/**
+	 * Find what goes between the arguments of an object.
+	 * @param value the object
+	 * @return a comma, or the end of one append and the start of the
+	 * next for a vector
+	 */
+	private static String separator(Value value) {
+		return (value instanceof VectorValue) ? ").append(" : ", ";
+	}
+
+	/**
+	 * Name a shared object.
+	 * @param n the number of objects named before it
+	 * @return the name, <code>v</code> followed by the number in
+	 * letters, since names in FeatherweightJava are made of letters
+	 * only; no keyword starts with <code>v</code>
+	 */
+	private static String name(int n) {
+		StringBuffer sb = new StringBuffer();
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return "v" + sb.reverse();
+	}
+
+	/**
+	 * The path from a value to the object being visited: the objects
+	 * whose arguments are being visited, and the index of the next
+	 * argument of each.
+	 */
+	private static class Path {
+
+		/**
+		 * The objects on the path, outermost first.
+		 */
+		Value[] objects = new Value[16];
+
+		/**
+		 * The index of the next argument of each object.
+		 */
+		int[] next = new int[16];
+
+		/**
+		 * The number of objects on the path.
+		 */
+		int depth;
+
+		/**
+		 * Add an object to the end of the path.
+		 * @param object the object
+		 */
+		void push(Value object) {
+			if (depth == objects.length) {
+				Value[] moreObjects = new Value[2 * depth];
+				int[] moreNext = new int[2 * depth];
+				System.arraycopy(objects, 0, moreObjects, 0, depth);
+				System.arraycopy(next, 0, moreNext, 0, depth);
+				objects = moreObjects;
+				next = moreNext;
+			}
+			objects[depth] = object;
+			next[depth] = 0;
+			++depth;
+		}
+
+		/**
+		 * Remove the object at the end of the path.
+		 */
+		void pop() {
+			objects[--depth] = null;
+		}
+
+		/**
+		 * Find the object at the end of the path.
+		 * @return the object
+		 */
+		Value top() {
+			return objects[depth - 1];
+		}
+
+		/**
+		 * Move on to the next argument of the object at the end of the
+		 * path.
+		 * @return the index of the argument, which is the number of
+		 * arguments once all have been visited
+		 */
+		int next() {
+			int i = next[depth - 1];
+			if (i < objects[depth - 1].args.size()) next[depth - 1] = i + 1;
+			return i;
+		}
+	}
+}
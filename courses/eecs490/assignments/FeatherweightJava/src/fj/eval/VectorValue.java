@@ -0,0 +1,263 @@
+package fj.eval;
+
+import fj.ast.Type;
+
+/**
+ * A value of the built-in class <code>Vector</code>: a sequence of
+ * values which never changes.  Setting or appending an element makes a
+ * new vector, which shares all but a few nodes with the old one.
+ *
+ * <p>The elements are kept in a trie of arrays of 32, indexed by five
+ * bits of the index at each level, with the last up to 32 elements in
+ * an array of their own, the tail, outside the trie.  Reading or
+ * setting an element takes time proportional to the depth of the
+ * trie, which is log<sub>32</sub> of the size, and appending one
+ * usually just copies the tail.  To everything but {@link Primitives}
+ * a vector is an object whose arguments are its elements, in order,
+ * and it is printed as <code>new Vector()</code> followed by an
+ * <code>append</code> of each of them.</p>
+ */
+public class VectorValue extends PrimitiveValue {
+
+	/**
+	 * The number of bits of the index used at each level of the trie.
+	 */
+	private static final int BITS = 5;
+
+	/**
+	 * The number of children of each node of the trie.
+	 */
+	private static final int WIDTH = 1 << BITS;
+
+	/**
+	 * The mask selecting an index's bits for one level.
+	 */
+	private static final int MASK = WIDTH - 1;
+
+	/**
+	 * The node of the trie of an empty vector.
+	 */
+	private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+	/**
+	 * The empty vector.
+	 */
+	public static final VectorValue EMPTY = new VectorValue(0, BITS,
+		EMPTY_NODE, new Object[0]);
+
+	/**
+	 * The number of elements.
+	 */
+	private final int count;
+
+	/**
+	 * The number of bits to shift an index by to find its child of the
+	 * root; the leaves are at shift 0.
+	 */
+	private final int shift;
+
+	/**
+	 * The root of the trie: an array of the nodes below it, or of
+	 * elements at the lowest level.
+	 */
+	private final Object[] root;
+
+	/**
+	 * The last elements, which are not in the trie.
+	 */
+	private final Object[] tail;
+
+	/**
+	 * Construct a vector.
+	 * @param count the number of elements
+	 * @param shift the shift of the root of the trie
+	 * @param root the root of the trie
+	 * @param tail the last elements
+	 */
+	private VectorValue(int count, int shift, Object[] root, Object[] tail) {
+		super(Primitives.VECTOR, new Elements());
+		((Elements) args).vector = this;
+		this.count = count;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	/**
+	 * Return the number of elements.
+	 * @return the size of the vector
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Return an element.
+	 * @param i the index of the element, from 0 to one less than the
+	 * size
+	 * @return the element
+	 */
+	public Value get(int i) {
+		return (Value) leaf(i)[i & MASK];
+	}
+
+	/**
+	 * Make a vector with one element changed.
+	 * @param i the index of the element, from 0 to one less than the
+	 * size
+	 * @param value the new element
+	 * @return the new vector
+	 */
+	public VectorValue set(int i, Value value) {
+		if (i >= tailOffset()) {
+			Object[] newTail = (Object[]) tail.clone();
+			newTail[i & MASK] = value;
+			return new VectorValue(count, shift, root, newTail);
+		}
+		return new VectorValue(count, shift, set(shift, root, i, value), tail);
+	}
+
+	/**
+	 * Make a vector with an element added at the end.
+	 * @param value the new element
+	 * @return the new vector
+	 */
+	public VectorValue append(Value value) {
+		
+		// Room in the tail
+		if (count - tailOffset() < WIDTH) {
+			Object[] newTail = new Object[tail.length + 1];
+			System.arraycopy(tail, 0, newTail, 0, tail.length);
+			newTail[tail.length] = value;
+			return new VectorValue(count + 1, shift, root, newTail);
+		}
+		
+		// The full tail goes into the trie, which grows a level when
+		// the root is full
+		Object[] newRoot;
+		int newShift = shift;
+		if ((count >>> BITS) > (1 << shift)) {
+			newRoot = new Object[WIDTH];
+			newRoot[0] = root;
+			newRoot[1] = path(shift, tail);
+			newShift += BITS;
+		}
+		else {
+			newRoot = push(shift, root, tail);
+		}
+		return new VectorValue(count + 1, newShift, newRoot,
+			new Object[] { value });
+	}
+
+	/**
+	 * Find the index of the first element in the tail.
+	 * @return the number of elements in the trie
+	 */
+	private int tailOffset() {
+		return (count < WIDTH) ? 0 : ((count - 1) >>> BITS) << BITS;
+	}
+
+	/**
+	 * Find the array holding an element.
+	 * @param i the index of the element
+	 * @return the leaf of the trie, or the tail
+	 */
+	private Object[] leaf(int i) {
+		if (i >= tailOffset()) return tail;
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(i >>> level) & MASK];
+		}
+		return node;
+	}
+
+	/**
+	 * Copy the path to an element in the trie, with the element
+	 * changed.
+	 * @param level the shift of the node
+	 * @param node the node
+	 * @param i the index of the element
+	 * @param value the new element
+	 * @return the copy of the node
+	 */
+	private static Object[] set(int level, Object[] node, int i, Value value) {
+		Object[] copy = (Object[]) node.clone();
+		if (level == 0) {
+			copy[i & MASK] = value;
+		}
+		else {
+			int child = (i >>> level) & MASK;
+			copy[child] = set(level - BITS, (Object[]) node[child], i, value);
+		}
+		return copy;
+	}
+
+	/**
+	 * Copy the path to the end of the trie, with a full tail added
+	 * there as a new leaf.
+	 * @param level the shift of the node
+	 * @param node the node
+	 * @param leaf the full tail
+	 * @return the copy of the node
+	 */
+	private Object[] push(int level, Object[] node, Object[] leaf) {
+		int child = ((count - 1) >>> level) & MASK;
+		Object[] copy = (Object[]) node.clone();
+		if (level == BITS) {
+			copy[child] = leaf;
+		}
+		else {
+			Object[] below = (Object[]) node[child];
+			copy[child] = (below != null)
+				? push(level - BITS, below, leaf)
+				: path(level - BITS, leaf);
+		}
+		return copy;
+	}
+
+	/**
+	 * Make a path of new nodes down to a leaf.
+	 * @param level the shift of the top node
+	 * @param leaf the leaf
+	 * @return the top node
+	 */
+	private static Object[] path(int level, Object[] leaf) {
+		Object[] node = leaf;
+		for (; level > 0; level -= BITS) {
+			Object[] parent = new Object[WIDTH];
+			parent[0] = node;
+			node = parent;
+		}
+		return node;
+	}
+
+	/**
+	 * The expression which builds this vector, as printed by a
+	 * {@link ValuePrinter}.
+	 */
+	public String toString() {
+		return new ValuePrinter().toString(this);
+	}
+
+	/**
+	 * The arguments of a vector: its elements.
+	 */
+	private static class Elements extends Fields {
+
+		/**
+		 * The vector.
+		 */
+		VectorValue vector;
+
+		public Object get(int index) {
+			if (index < 0 || index >= vector.count) {
+				throw new IndexOutOfBoundsException();
+			}
+			return vector.get(index);
+		}
+
+		public int size() {
+			return vector.count;
+		}
+	}
+}
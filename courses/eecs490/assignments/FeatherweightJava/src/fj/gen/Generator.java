@@ -0,0 +1,826 @@
+package fj.gen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generator of well-typed FeatherweightJava programs of a chosen
+ * shape, for benchmarks and stress tests.  A program is made of any of
+ * these features, each adding its classes and a part of the program's
+ * expression:
+ * <dl>
+ * <dt><code>peano</code></dt>
+ * <dd>arithmetic on Peano numerals, which every program has, since the
+ * other features compute with them;</dd>
+ * <dt><code>church</code></dt>
+ * <dd>arithmetic on Church numerals, converted to Peano numerals by
+ * applying a function object;</dd>
+ * <dt><code>lists</code></dt>
+ * <dd>cons lists of numerals, appended, reversed, and mapped over;</dd>
+ * <dt><code>visitor</code></dt>
+ * <dd>a hierarchy of shapes and visitors, with double dispatch;</dd>
+ * <dt><code>hierarchy</code></dt>
+ * <dd>a tree of classes of the chosen depth and width, each with the
+ * chosen number of methods, overriding some of those it inherits;</dd>
+ * <dt><code>primitives</code></dt>
+ * <dd>arithmetic and comparisons on the built-in <code>Int</code> and
+ * <code>Bool</code>, vectors, a subclass of <code>Vector</code>, and a
+ * native class (see {@link fj.eval.Primitives}).  Its programs only
+ * parse with the built-in classes, so it is left out unless asked
+ * for.</dd>
+ * </dl>
+ * The size sets how many operations each part of the expression does.
+ * Any expression may be cast to <code>Object</code> and back, with the
+ * chosen percentage of them; every cast succeeds.  Numerals are kept
+ * small, so that evaluation is quick and its value short.
+ *
+ * <p>Everything is chosen by a random number generator with a fixed
+ * seed, so the same seed and settings always give the same
+ * programs.</p>
+ */
+public class Generator {
+
+	/**
+	 * The names of the features, in the order they appear.
+	 */
+	public static final List FEATURES = Arrays.asList(new String[] {
+		"peano", "church", "lists", "visitor", "hierarchy", "primitives" });
+
+	/**
+	 * The features included unless others are chosen: all but
+	 * <code>primitives</code>.
+	 */
+	private static final List DEFAULT_FEATURES =
+		FEATURES.subList(0, FEATURES.size() - 1);
+
+	/**
+	 * The largest numeral to compute, which stops products growing.
+	 */
+	private static final int MAX = 64;
+
+	/**
+	 * The source of choices.
+	 */
+	private final Random random;
+
+	/**
+	 * The depth of the class hierarchy.
+	 */
+	private int depth;
+
+	/**
+	 * The number of subclasses of each class in the hierarchy.
+	 */
+	private int width;
+
+	/**
+	 * The number of methods of each class in the hierarchy, and of
+	 * visitors.
+	 */
+	private int methods;
+
+	/**
+	 * The number of operations in each part of the expression.
+	 */
+	private int size;
+
+	/**
+	 * The percentage of expressions cast to <code>Object</code> and
+	 * back.
+	 */
+	private int casts;
+
+	/**
+	 * The names of the features to include.
+	 */
+	private List features;
+
+	/**
+	 * The program being generated.
+	 */
+	private StringBuffer out;
+
+	/**
+	 * Construct a generator with every feature but
+	 * <code>primitives</code>, and a hierarchy three
+	 * classes deep and two wide with three methods, eight operations
+	 * in each part of the expression, and no casts.
+	 * @param seed the seed of the random choices
+	 */
+	public Generator(long seed) {
+		this.random = new Random(seed);
+		this.depth = 3;
+		this.width = 2;
+		this.methods = 3;
+		this.size = 8;
+		this.casts = 0;
+		this.features = DEFAULT_FEATURES;
+	}
+
+	/**
+	 * Set the depth of the class hierarchy.
+	 * @param depth the number of classes from the root to a leaf
+	 */
+	public void setDepth(int depth) {
+		this.depth = Math.max(1, depth);
+	}
+
+	/**
+	 * Set the width of the class hierarchy, which also sets the
+	 * number of kinds of shape visited.
+	 * @param width the number of subclasses of each class, at most 26
+	 */
+	public void setWidth(int width) {
+		this.width = Math.min(Math.max(1, width), 26);
+	}
+
+	/**
+	 * Set the number of methods of each class in the hierarchy, which
+	 * also sets the number of visitors.
+	 * @param methods the number of methods
+	 */
+	public void setMethods(int methods) {
+		this.methods = Math.max(1, methods);
+	}
+
+	/**
+	 * Set the number of operations in each part of the expression.
+	 * @param size the number of operations
+	 */
+	public void setSize(int size) {
+		this.size = Math.max(0, size);
+	}
+
+	/**
+	 * Set how many expressions are cast to <code>Object</code> and
+	 * back.
+	 * @param casts the percentage of expressions, from 0 to 100
+	 */
+	public void setCasts(int casts) {
+		this.casts = Math.min(Math.max(0, casts), 100);
+	}
+
+	/**
+	 * Set the features to include.
+	 * @param features the {@link String} names of the features, from
+	 * {@link #FEATURES}
+	 * @throws IllegalArgumentException a feature was unknown
+	 */
+	public void setFeatures(List features) {
+		for (int i = 0; i < features.size(); ++i) {
+			if (!FEATURES.contains(features.get(i))) {
+				throw new IllegalArgumentException("unknown feature \""
+					+ features.get(i) + "\"");
+			}
+		}
+		this.features = new ArrayList(features);
+	}
+
+	/**
+	 * Generate a program.  Each call generates a different one.
+	 * @return the source of the program
+	 */
+	public String program() {
+		out = new StringBuffer();
+		List parts = new ArrayList();
+		peanoClasses();
+		if (has("church") || has("lists")) functionClasses();
+		if (has("peano")) parts.add(arithmetic(size).text);
+		if (has("church")) {
+			churchClasses();
+			parts.add(church(size).text + ".toNat()");
+		}
+		if (has("lists")) {
+			listClasses();
+			parts.add(lists());
+		}
+		if (has("visitor")) parts.add(visitor());
+		if (has("hierarchy")) parts.add(hierarchy());
+		if (has("primitives")) parts.add(primitives());
+
+		// Gather the parts into one value
+		if (parts.size() == 1) {
+			out.append(parts.get(0)).append('\n');
+		}
+		else {
+			StringBuffer params = new StringBuffer();
+			StringBuffer inits = new StringBuffer();
+			StringBuffer args = new StringBuffer();
+			line("class Results extends Object {");
+			for (int i = 0; i < parts.size(); ++i) {
+				String field = letters("", i);
+				line("  Object " + field + ";");
+				if (i > 0) {
+					params.append(", ");
+					args.append(",\n  ");
+				}
+				params.append("Object ").append(field);
+				inits.append(" this.").append(field).append(" = ").append(field).append(';');
+				args.append(parts.get(i));
+			}
+			line("  Results(" + params + ") { super();" + inits + " }");
+			line("}");
+			out.append("new Results(\n  ").append(args).append(")\n");
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Determine whether a feature is included.
+	 * @param feature the name of the feature
+	 * @return whether it is
+	 */
+	private boolean has(String feature) {
+		return features.contains(feature);
+	}
+
+	/**
+	 * Write the Peano numerals.
+	 */
+	private void peanoClasses() {
+		line("class Nat extends Object {");
+		line("  Nat() { super(); }");
+		line("  Nat add(Nat m) { return m; }");
+		line("  Nat mul(Nat m) { return this; }");
+		line("}");
+		line("class Succ extends Nat {");
+		line("  Nat pred;");
+		line("  Succ(Nat pred) { super(); this.pred = pred; }");
+		line("  Nat add(Nat m) { return new Succ(this.pred.add(m)); }");
+		line("  Nat mul(Nat m) { return m.add(this.pred.mul(m)); }");
+		line("}");
+	}
+
+	/**
+	 * Write the function objects, and the function adding one.
+	 */
+	private void functionClasses() {
+		line("class Fun extends Object {");
+		line("  Fun() { super(); }");
+		line("  Object apply(Object x) { return x; }");
+		line("}");
+		line("class SuccFun extends Fun {");
+		line("  SuccFun() { super(); }");
+		line("  Object apply(Object x) { return new Succ((Nat) x); }");
+		line("}");
+	}
+
+	/**
+	 * Write the Church numerals.
+	 */
+	private void churchClasses() {
+		line("class Church extends Object {");
+		line("  Church() { super(); }");
+		line("  Object iter(Fun f, Object x) { return x; }");
+		line("  Nat toNat() { return (Nat) this.iter(new SuccFun(), new Nat()); }");
+		line("}");
+		line("class ChurchSucc extends Church {");
+		line("  Church n;");
+		line("  ChurchSucc(Church n) { super(); this.n = n; }");
+		line("  Object iter(Fun f, Object x) { return f.apply(this.n.iter(f, x)); }");
+		line("}");
+		line("class ChurchAdd extends Church {");
+		line("  Church a;");
+		line("  Church b;");
+		line("  ChurchAdd(Church a, Church b) { super(); this.a = a; this.b = b; }");
+		line("  Object iter(Fun f, Object x) { return this.a.iter(f, this.b.iter(f, x)); }");
+		line("}");
+		line("class ChurchMul extends Church {");
+		line("  Church a;");
+		line("  Church b;");
+		line("  ChurchMul(Church a, Church b) { super(); this.a = a; this.b = b; }");
+		line("  Object iter(Fun f, Object x) { return this.a.iter(new Iterate(this.b, f), x); }");
+		line("}");
+		line("class Iterate extends Fun {");
+		line("  Church n;");
+		line("  Fun f;");
+		line("  Iterate(Church n, Fun f) { super(); this.n = n; this.f = f; }");
+		line("  Object apply(Object x) { return this.n.iter(this.f, x); }");
+		line("}");
+	}
+
+	/**
+	 * Write the cons lists.
+	 */
+	private void listClasses() {
+		line("class List extends Object {");
+		line("  List() { super(); }");
+		line("  Nat sum() { return new Nat(); }");
+		line("  Nat length() { return new Nat(); }");
+		line("  List append(List l) { return l; }");
+		line("  List reverse() { return this.onto(new List()); }");
+		line("  List onto(List acc) { return acc; }");
+		line("  List map(Fun f) { return this; }");
+		line("}");
+		line("class Cons extends List {");
+		line("  Nat head;");
+		line("  List tail;");
+		line("  Cons(Nat head, List tail) { super(); this.head = head; this.tail = tail; }");
+		line("  Nat sum() { return this.head.add(this.tail.sum()); }");
+		line("  Nat length() { return new Succ(this.tail.length()); }");
+		line("  List append(List l) { return new Cons(this.head, this.tail.append(l)); }");
+		line("  List onto(List acc) { return this.tail.onto(new Cons(this.head, acc)); }");
+		line("  List map(Fun f) { return new Cons((Nat) f.apply(this.head), this.tail.map(f)); }");
+		line("}");
+	}
+
+	/**
+	 * Generate arithmetic on Peano numerals.
+	 * @param ops the number of operations
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private Expr arithmetic(int ops) {
+		if (ops == 0) {
+			int n = random.nextInt(4);
+			return new Expr(cast(numeral(n), "Nat"), n);
+		}
+		int left = random.nextInt(ops);
+		Expr a = arithmetic(left);
+		Expr b = arithmetic(ops - 1 - left);
+		if (random.nextBoolean() && a.value * b.value <= MAX) {
+			return new Expr(cast(a.text + ".mul(" + b.text + ")", "Nat"),
+				a.value * b.value);
+		}
+		else if (a.value + b.value <= MAX) {
+			return new Expr(cast(a.text + ".add(" + b.text + ")", "Nat"),
+				a.value + b.value);
+		}
+		return a;
+	}
+
+	/**
+	 * Generate arithmetic on Church numerals.
+	 * @param ops the number of operations
+	 * @return the expression, of type <code>Church</code>
+	 */
+	private Expr church(int ops) {
+		if (ops == 0) {
+			int n = random.nextInt(4);
+			StringBuffer sb = new StringBuffer();
+			for (int i = 0; i < n; ++i) sb.append("new ChurchSucc(");
+			sb.append("new Church()");
+			for (int i = 0; i < n; ++i) sb.append(')');
+			return new Expr(cast(sb.toString(), "Church"), n);
+		}
+		int left = random.nextInt(ops);
+		Expr a = church(left);
+		Expr b = church(ops - 1 - left);
+		if (random.nextBoolean() && a.value * b.value <= MAX) {
+			return new Expr(cast("new ChurchMul(" + a.text + ", " + b.text + ")",
+				"Church"), a.value * b.value);
+		}
+		else if (a.value + b.value <= MAX) {
+			return new Expr(cast("new ChurchAdd(" + a.text + ", " + b.text + ")",
+				"Church"), a.value + b.value);
+		}
+		return a;
+	}
+
+	/**
+	 * Generate a list, and operations on it.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String lists() {
+		String list = list(size);
+		for (int i = 0; i < size; ++i) {
+			switch (random.nextInt(3)) {
+			case 0:
+				list = list + ".reverse()";
+				break;
+			case 1:
+				list = list + ".append(" + list(random.nextInt(4)) + ")";
+				break;
+			default:
+				list = list + ".map(" + cast("new SuccFun()", "Fun") + ")";
+				break;
+			}
+			list = cast(list, "List");
+		}
+		return list + (random.nextBoolean() ? ".sum()" : ".length()");
+	}
+
+	/**
+	 * Generate a list of numerals.
+	 * @param length the length of the list
+	 * @return the expression, of type <code>List</code>
+	 */
+	private String list(int length) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < length; ++i) {
+			sb.append("new Cons(").append(cast(numeral(random.nextInt(4)), "Nat"))
+				.append(", ");
+		}
+		sb.append("new List()");
+		for (int i = 0; i < length; ++i) sb.append(')');
+		return cast(sb.toString(), "List");
+	}
+
+	/**
+	 * Write shapes and visitors, and generate a visit of a list of
+	 * shapes.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String visitor() {
+		int shapes = width + 1;
+		line("class Shape extends Object {");
+		line("  Nat size;");
+		line("  Shape(Nat size) { super(); this.size = size; }");
+		line("  Nat accept(Visitor v) { return new Nat(); }");
+		line("}");
+		for (int i = 0; i < shapes; ++i) {
+			String name = "Shape" + upper(i);
+			line("class " + name + " extends Shape {");
+			line("  " + name + "(Nat size) { super(size); }");
+			line("  Nat accept(Visitor v) { return v.visit" + name + "(this); }");
+			line("}");
+		}
+		line("class Visitor extends Object {");
+		line("  Visitor() { super(); }");
+		for (int i = 0; i < shapes; ++i) {
+			String name = "Shape" + upper(i);
+			line("  Nat visit" + name + "(" + name + " s) { return s.size; }");
+		}
+		line("}");
+		for (int v = 0; v < methods; ++v) {
+			String visitor = "Visitor" + upper(v);
+			line("class " + visitor + " extends Visitor {");
+			line("  " + visitor + "() { super(); }");
+			for (int i = 0; i < shapes; ++i) {
+				if (random.nextBoolean()) continue;
+				String name = "Shape" + upper(i);
+				line("  Nat visit" + name + "(" + name + " s) { return "
+					+ choose(new String[] { "new Nat()", "new Succ(s.size)",
+						"s.size.add(s.size)" }) + "; }");
+			}
+			line("}");
+		}
+		line("class Shapes extends Object {");
+		line("  Shapes() { super(); }");
+		line("  Nat count(Visitor v) { return new Nat(); }");
+		line("}");
+		line("class ShapeCons extends Shapes {");
+		line("  Shape head;");
+		line("  Shapes tail;");
+		line("  ShapeCons(Shape head, Shapes tail) { super(); this.head = head; this.tail = tail; }");
+		line("  Nat count(Visitor v) { return this.head.accept(v).add(this.tail.count(v)); }");
+		line("}");
+
+		// Visit a list of shapes
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < size; ++i) {
+			String shape = "new Shape" + upper(random.nextInt(shapes)) + "("
+				+ numeral(random.nextInt(4)) + ")";
+			sb.append("new ShapeCons(").append(cast(shape, "Shape")).append(", ");
+		}
+		sb.append("new Shapes()");
+		for (int i = 0; i < size; ++i) sb.append(')');
+		String visitor = "new Visitor" + upper(random.nextInt(methods)) + "()";
+		return cast(sb.toString(), "Shapes") + ".count(" + cast(visitor, "Visitor") + ")";
+	}
+
+	/**
+	 * Write a tree of classes, and generate calls of their methods.
+	 * Each method calls only methods before it, so calls always end.
+	 * @return the expression, of type <code>Nat</code>
+	 */
+	private String hierarchy() {
+		List classes = new ArrayList();
+		List parents = new ArrayList();
+		classes.add("H");
+		parents.add(null);
+		line("class H extends Object {");
+		line("  Nat n;");
+		line("  H(Nat n) { super(); this.n = n; }");
+		for (int m = 0; m < methods; ++m) {
+			line("  Nat " + letters("m", m) + "() { return " + methodBody(m) + "; }");
+		}
+		line("}");
+		for (int i = 0; i < classes.size(); ++i) {
+			String parent = (String) classes.get(i);
+			if (parent.length() >= depth) continue;
+			for (int w = 0; w < width; ++w) {
+				String name = parent + upper(w);
+				classes.add(name);
+				parents.add(parent);
+				line("class " + name + " extends " + parent + " {");
+				line("  " + name + "(Nat n) { super(n); }");
+				for (int m = 0; m < methods; ++m) {
+					if (random.nextBoolean()) continue;
+					line("  Nat " + letters("m", m) + "() { return "
+						+ methodBody(m) + "; }");
+				}
+				line("}");
+			}
+		}
+
+		// Call methods of objects of some classes, seen as some class
+		// above them
+		String sum = null;
+		for (int i = 0; i < Math.max(1, size / 2); ++i) {
+			int k = random.nextInt(classes.size());
+			String object = "new " + classes.get(k) + "(" + numeral(random.nextInt(4)) + ")";
+			for (int up = random.nextInt(depth); up > 0 && parents.get(k) != null; --up) {
+				k = classes.indexOf(parents.get(k));
+			}
+			String call = "((" + classes.get(k) + ") " + object + ")."
+				+ letters("m", random.nextInt(methods)) + "()";
+			sum = (sum == null) ? call : cast(sum, "Nat") + ".add(" + call + ")";
+		}
+		return sum;
+	}
+
+	/**
+	 * Generate the body of a method of the class hierarchy.
+	 * @param m the number of the method
+	 * @return its body, of type <code>Nat</code>, calling only methods
+	 * with smaller numbers
+	 */
+	private String methodBody(int m) {
+		if (m == 0) {
+			return random.nextBoolean() ? "this.n" : "new Succ(this.n)";
+		}
+		String call = "this." + letters("m", random.nextInt(m)) + "()";
+		return choose(new String[] { "this.n", call, "new Succ(" + call + ")" });
+	}
+
+	/**
+	 * Write a subclass of <code>Vector</code> and a native class, and
+	 * generate computations on the built-in classes.
+	 * @return the expression, of type <code>Int</code>
+	 */
+	private String primitives() {
+		line("class Counted extends Vector {");
+		line("  Counted() { super(); }");
+		line("  Int size() { return " + (random.nextInt(9) + 1) + "; }");
+		line("}");
+		line("native class Math extends Object {");
+		line("  Math() { super(); }");
+		line("  Int max(Int a, Int b);");
+		line("  Int floorMod(Int a, Int b);");
+		line("}");
+		return integer(size);
+	}
+
+	/**
+	 * Generate a computation on the built-in classes.
+	 * @param ops the number of operations
+	 * @return the expression, of type <code>Int</code>
+	 */
+	private String integer(int ops) {
+		if (ops == 0) {
+			int n = random.nextInt(110) - 10;
+			return (random.nextInt(8) > 0) ? String.valueOf(n)
+				: "new Counted().size()";
+		}
+		int left = random.nextInt(ops);
+		String a = integer(left);
+		String b = integer(ops - 1 - left);
+		String divisor = String.valueOf(random.nextInt(9) + 1);
+		String text;
+		switch (random.nextInt(9)) {
+		case 0: text = a + ".add(" + b + ")"; break;
+		case 1: text = a + ".sub(" + b + ")"; break;
+		case 2: text = a + ".mul(" + b + ")"; break;
+		case 3: text = a + ".div(" + divisor + ")"; break;
+		case 4: text = a + ".mod(" + divisor + ")"; break;
+		case 5:
+			text = "new Math()." + choose(new String[] { "max", "floorMod" })
+				+ "(" + a + ", " + (random.nextBoolean() ? b : divisor) + ")";
+			break;
+		case 6:
+			text = "((Int) " + bool(a, divisor) + ".cond(" + b + ", "
+				+ divisor + "))";
+			break;
+		case 7:
+			text = "new Vector().append(" + a + ").append(" + b + ")"
+				+ ".set(" + random.nextInt(2) + ", " + divisor + ").size()";
+			break;
+		default:
+			text = "((Int) new Vector().append(" + a + ").append(" + b
+				+ ").get(" + random.nextInt(2) + "))";
+			break;
+		}
+		return cast(text, "Int");
+	}
+
+	/**
+	 * Generate a comparison of two computations.
+	 * @param a the one expression, of type <code>Int</code>
+	 * @param b the other, of type <code>Int</code>
+	 * @return the expression, of type <code>Bool</code>
+	 */
+	private String bool(String a, String b) {
+		String test = a + "." + choose(new String[] { "lt", "le", "gt", "ge", "eq" })
+			+ "(" + b + ")";
+		switch (random.nextInt(4)) {
+		case 0: return test + ".not()";
+		case 1: return test + ".and(" + random.nextBoolean() + ")";
+		case 2: return test + ".or(" + random.nextBoolean() + ")";
+		default: return test;
+		}
+	}
+
+	/**
+	 * Cast an expression to <code>Object</code> and back, sometimes.
+	 * @param text the expression
+	 * @param type its type
+	 * @return the expression, perhaps cast
+	 */
+	private String cast(String text, String type) {
+		if (casts == 0 || random.nextInt(100) >= casts) return text;
+		return "((" + type + ") (Object) " + text + ")";
+	}
+
+	/**
+	 * Choose one of some strings.
+	 * @param choices the strings
+	 * @return one of them
+	 */
+	private String choose(String[] choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+
+	/**
+	 * Write a line of the program.
+	 * @param line the line, without a newline
+	 */
+	private void line(String line) {
+		out.append(line).append('\n');
+	}
+
+	/**
+	 * Write a Peano numeral.
+	 * @param n its value
+	 * @return the expression creating it
+	 */
+	private static String numeral(int n) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < n; ++i) sb.append("new Succ(");
+		sb.append("new Nat()");
+		for (int i = 0; i < n; ++i) sb.append(')');
+		return sb.toString();
+	}
+
+	/**
+	 * Write a number in capital letters, since names are made of
+	 * letters only.
+	 * @param n the number
+	 * @return the letters, <code>A</code> for 0
+	 */
+	private static String upper(int n) {
+		return letters("", n).toUpperCase();
+	}
+
+	/**
+	 * Append a number to a name, written in small letters.
+	 * @param prefix the name
+	 * @param n the number
+	 * @return the name followed by the number, <code>a</code> for 0
+	 */
+	private static String letters(String prefix, int n) {
+		StringBuffer sb = new StringBuffer();
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return prefix + sb.reverse();
+	}
+
+	/**
+	 * An expression, and the value of the numeral it computes.
+	 */
+	private static class Expr {
+
+		/**
+		 * The text of the expression.
+		 */
+		final String text;
+
+		/**
+		 * Its value.
+		 */
+		final int value;
+
+		/**
+		 * Construct an expression.
+		 * @param text the text of the expression
+		 * @param value its value
+		 */
+		Expr(String text, int value) {
+			this.text = text;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Write programs.
+	 * @param args options setting the seed and shape of the programs,
+	 * and how many to write where; see the usage message
+	 */
+	public static void main(String[] args) {
+		long seed = 1;
+		int count = 1;
+		String output = null;
+		Generator generator = null;
+		List settings = new ArrayList();
+		boolean usage = (args.length % 2 != 0);
+		for (int i = 0; !usage && i < args.length; i += 2) {
+			try {
+				if (args[i].equals("--seed")) {
+					seed = Long.parseLong(args[i + 1]);
+				}
+				else if (args[i].equals("--count")) {
+					count = Integer.parseInt(args[i + 1]);
+					usage = (count < 1);
+				}
+				else if (args[i].equals("--output")) {
+					output = args[i + 1];
+				}
+				else if (args[i].equals("--depth") || args[i].equals("--width")
+						|| args[i].equals("--methods") || args[i].equals("--size")
+						|| args[i].equals("--casts")) {
+					Integer.parseInt(args[i + 1]);
+					settings.add(args[i]);
+					settings.add(args[i + 1]);
+				}
+				else if (args[i].equals("--features")) {
+					settings.add(args[i]);
+					settings.add(args[i + 1]);
+				}
+				else {
+					usage = true;
+				}
+			}
+			catch (NumberFormatException e) {
+				usage = true;
+			}
+		}
+		if (!usage) {
+			generator = new Generator(seed);
+			try {
+				for (int i = 0; i < settings.size(); i += 2) {
+					generator.set((String) settings.get(i), (String) settings.get(i + 1));
+				}
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("fj: " + e.getMessage());
+				usage = true;
+			}
+		}
+		if (usage || (count > 1 && output == null)) {
+			System.err.println("usage: fj.gen.Generator [--seed n] [--depth n] [--width n] [--methods n]");
+			System.err.println("           [--size n] [--casts percent] [--features name,...]");
+			System.err.println("           [--count n --output directory]");
+			System.err.println("features: peano, church, lists, visitor, hierarchy, primitives");
+			return;
+		}
+		try {
+			if (output == null) {
+				System.out.print(generator.program());
+			}
+			else {
+				File dir = new File(output);
+				dir.mkdirs();
+				for (int i = 0; i < count; ++i) {
+					Writer out = new OutputStreamWriter(new FileOutputStream(
+						new File(dir, "gen" + i + ".fj")), "UTF-8");
+					try {
+						out.write(generator.program());
+					}
+					finally {
+						out.close();
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			System.err.println("fj: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Apply a setting from the command line.
+	 * @param option the option, such as <code>--depth</code>
+	 * @param value its value
+	 * @throws IllegalArgumentException a feature was unknown
+	 */
+	private void set(String option, String value) {
+		if (option.equals("--features")) {
+			setFeatures(Arrays.asList(value.split(",")));
+			return;
+		}
+		int n = Integer.parseInt(value);
+		if (option.equals("--depth")) setDepth(n);
+		else if (option.equals("--width")) setWidth(n);
+		else if (option.equals("--methods")) setMethods(n);
+		else if (option.equals("--size")) setSize(n);
+		else setCasts(n);
+	}
+}
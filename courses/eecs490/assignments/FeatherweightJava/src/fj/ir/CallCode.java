@@ -0,0 +1,111 @@
+package fj.ir;
+
+import java.util.Collections;
+import java.util.List;
+
+import fj.ast.Type;
+
+/**
+ * Code invoking a method.  The method run depends on the class of the
+ * receiver when the code runs, which may be any subclass of its static
+ * class; each call remembers the last class it was dispatched on and
+ * the method it found there, so a call which always sees the same
+ * class looks its method up only once.
+ */
+public class CallCode extends Code {
+
+	/**
+	 * The code computing the receiver.
+	 */
+	public final Code base;
+	
+	/**
+	 * The class of the receiver, as determined by the typechecker.
+	 */
+	public final Type staticType;
+	
+	/**
+	 * The name of the method to invoke.
+	 */
+	public final String selector;
+	
+	/**
+	 * The list of {@link Code} computing the arguments, in order.
+	 */
+	public final List args;
+	
+	/**
+	 * The last dispatch made by this call.  Several threads may
+	 * replace it at once, which is harmless, since a dispatch is
+	 * immutable and any of them is correct for its class.
+	 */
+	private Dispatch last;
+	
+	/**
+	 * Construct a new method invocation.
+	 * @param base the code computing the receiver
+	 * @param staticType the static class of the receiver
+	 * @param selector the name of the method
+	 * @param args the {@link Code} list computing the arguments
+	 */
+	public CallCode(Code base, Type staticType, String selector, List args) {
+		this.base = base;
+		this.staticType = staticType;
+		this.selector = selector;
+		this.args = Collections.unmodifiableList(args);
+	}
+	
+	/**
+	 * Find the method this call runs on a receiver of the given class.
+	 * @param program the program the call belongs to
+	 * @param type the class of the receiver
+	 * @return the method, or <code>null</code> if the class has none
+	 * by that name
+	 */
+	public MethodCode dispatch(ProgramCode program, Type type) {
+		Dispatch dispatch = last;
+		if (dispatch != null && dispatch.className == type.className) {
+			return dispatch.method;
+		}
+		MethodCode method = program.method(selector, type);
+		if (method != null) last = new Dispatch(type.className, method);
+		return method;
+	}
+	
+	/**
+	 * Determine whether this call would find its method for the given
+	 * class without searching, having found it last time.
+	 * @param type the class of the receiver
+	 * @return whether the dispatch is cached
+	 */
+	public boolean cached(Type type) {
+		Dispatch dispatch = last;
+		return dispatch != null && dispatch.className == type.className;
+	}
+	
+	/**
+	 * The method a call found on a class.
+	 */
+	private static class Dispatch {
+		
+		/**
+		 * The name of the class.
+		 */
+		final String className;
+		
+		/**
+		 * The method found.
+		 */
+		final MethodCode method;
+		
+		/**
+		 * Construct a dispatch.
+		 * @param className the name of the class
+		 * @param method the method found
+		 */
+		Dispatch(String className, MethodCode method) {
+			this.className = className;
+			this.method = method;
+		}
+	}
+}
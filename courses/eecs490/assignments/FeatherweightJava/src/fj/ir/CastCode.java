@@ -0,0 +1,32 @@
+package fj.ir;
+
+import fj.ast.Type;
+
+/**
+ * Code casting an object down the class hierarchy, which must be
+ * checked when it runs.  Casts up the hierarchy always succeed, so
+ * they are not translated into code at all; casts between unrelated
+ * classes always fail, and are translated into this.
+ */
+public class CastCode extends Code {
+
+	/**
+	 * The code computing the object to cast.
+	 */
+	public final Code term;
+	
+	/**
+	 * The class to cast to.
+	 */
+	public final Type type;
+	
+	/**
+	 * Construct a new checked cast.
+	 * @param term the code computing the object
+	 * @param type the class to cast to
+	 */
+	public CastCode(Code term, Type type) {
+		this.term = term;
+		this.type = type;
+	}
+}
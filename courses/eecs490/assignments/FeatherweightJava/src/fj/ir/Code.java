@@ -0,0 +1,8 @@
+package fj.ir;
+
+/**
+ * The base class of the various kinds of translated expressions.
+ * Like the terms they are translated from, codes are immutable.
+ */
+public abstract class Code {
+}
@@ -0,0 +1,36 @@
+package fj.ir;
+
+/**
+ * Code reading a field of an object.  Since the fields of a class
+ * follow those of its superclass, a field has the same offset in
+ * every subclass of the class it was found in.
+ */
+public class FieldCode extends Code {
+
+	/**
+	 * The code computing the object.
+	 */
+	public final Code base;
+	
+	/**
+	 * The position of the field among the object's fields.
+	 */
+	public final int offset;
+	
+	/**
+	 * The name of the field.
+	 */
+	public final String fieldName;
+	
+	/**
+	 * Construct a new field access.
+	 * @param base the code computing the object
+	 * @param offset the position of the field
+	 * @param fieldName the name of the field
+	 */
+	public FieldCode(Code base, int offset, String fieldName) {
+		this.base = base;
+		this.offset = offset;
+		this.fieldName = fieldName;
+	}
+}
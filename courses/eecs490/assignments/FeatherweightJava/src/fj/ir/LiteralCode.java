@@ -0,0 +1,31 @@
+package fj.ir;
+
+import fj.ast.Type;
+
+/**
+ * Code for a literal of one of the built-in classes <code>Int</code>
+ * and <code>Bool</code>.
+ */
+public class LiteralCode extends Code {
+
+	/**
+	 * The class of the literal.
+	 */
+	public final Type type;
+	
+	/**
+	 * The value of the literal: a Long for an <code>Int</code>, a
+	 * Boolean for a <code>Bool</code>.
+	 */
+	public final Object value;
+	
+	/**
+	 * Construct a new literal.
+	 * @param type the class of the literal
+	 * @param value its value
+	 */
+	public LiteralCode(Type type, Object value) {
+		this.type = type;
+		this.value = value;
+	}
+}
@@ -0,0 +1,44 @@
+package fj.ir;
+
+import fj.ast.Type;
+
+/**
+ * A translated method.  Its body runs in a frame holding
+ * <code>this</code> and then the arguments.
+ */
+public class MethodCode {
+
+	/**
+	 * The class declaring the method.
+	 */
+	public final Type owner;
+	
+	/**
+	 * The name of the method.
+	 */
+	public final String name;
+	
+	/**
+	 * The number of parameters of the method.
+	 */
+	public final int arity;
+	
+	/**
+	 * The code of the method body.
+	 */
+	public final Code body;
+	
+	/**
+	 * Construct a translated method.
+	 * @param owner the class declaring the method
+	 * @param name the name of the method
+	 * @param arity the number of parameters
+	 * @param body the code of the body
+	 */
+	public MethodCode(Type owner, String name, int arity, Code body) {
+		this.owner = owner;
+		this.name = name;
+		this.arity = arity;
+		this.body = body;
+	}
+}
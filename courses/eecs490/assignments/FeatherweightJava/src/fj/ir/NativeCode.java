@@ -0,0 +1,33 @@
+package fj.ir;
+
+import java.util.Collections;
+import java.util.List;
+
+import fj.eval.NativeMethod;
+
+/**
+ * Code for the body of a method of a native class, calling the Java
+ * method it was bound to when it was translated.
+ */
+public class NativeCode extends Code {
+
+	/**
+	 * The Java method to call.
+	 */
+	public final NativeMethod method;
+	
+	/**
+	 * The list of {@link Code} reading the arguments, in order.
+	 */
+	public final List args;
+	
+	/**
+	 * Construct a call of a Java method.
+	 * @param method the Java method
+	 * @param args the {@link Code} list reading the arguments
+	 */
+	public NativeCode(NativeMethod method, List args) {
+		this.method = method;
+		this.args = Collections.unmodifiableList(args);
+	}
+}
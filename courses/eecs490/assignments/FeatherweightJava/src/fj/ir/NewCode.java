@@ -0,0 +1,33 @@
+package fj.ir;
+
+import java.util.Collections;
+import java.util.List;
+
+import fj.ast.Type;
+
+/**
+ * Code creating an object.
+ */
+public class NewCode extends Code {
+
+	/**
+	 * The class of the new object.
+	 */
+	public final Type type;
+	
+	/**
+	 * The list of {@link Code} computing the values of its fields,
+	 * in order.
+	 */
+	public final List args;
+	
+	/**
+	 * Construct a new object creation.
+	 * @param type the class to instantiate
+	 * @param args the {@link Code} list computing the field values
+	 */
+	public NewCode(Type type, List args) {
+		this.type = type;
+		this.args = Collections.unmodifiableList(args);
+	}
+}
@@ -0,0 +1,96 @@
+package fj.ir;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.ClassDecl;
+import fj.ast.Type;
+
+/**
+ * A translated program: the code of every method, by class, and of
+ * the expression to evaluate.
+ */
+public class ProgramCode {
+
+	/**
+	 * The code of the expression to evaluate.
+	 */
+	public final Code term;
+	
+	/**
+	 * A mapping from class names to their superclasses.
+	 */
+	private final Map superTypes;
+	
+	/**
+	 * A mapping from class names to mappings from the names of the
+	 * methods they declare to their {@link MethodCode}.
+	 */
+	private final Map methods;
+	
+	/**
+	 * Construct a translated program.
+	 * @param classDecls the {@link ClassDecl} list of the program
+	 * @param methods the {@link MethodCode} of every method declared
+	 * @param term the code of the expression to evaluate
+	 */
+	public ProgramCode(List classDecls, List methods, Code term) {
+		this.term = term;
+		this.superTypes = new HashMap();
+		this.methods = new HashMap();
+		for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			superTypes.put(classDecl.name, classDecl.superType);
+			this.methods.put(classDecl.name, new HashMap());
+		}
+		for (Iterator i = methods.iterator(); i.hasNext(); ) {
+			MethodCode method = (MethodCode) i.next();
+			Map classMethods = (Map) this.methods.get(method.owner.className);
+			classMethods.put(method.name, method);
+		}
+	}
+	
+	/**
+	 * Construct a translated program sharing the methods of another.
+	 * @param program the program whose methods to use
+	 * @param term the code of the expression to evaluate
+	 */
+	protected ProgramCode(ProgramCode program, Code term) {
+		this.term = term;
+		this.superTypes = program.superTypes;
+		this.methods = program.methods;
+	}
+	
+	/**
+	 * Make a program with the same classes and methods as this one,
+	 * but a different expression to evaluate.
+	 * @param term the code of the expression, checked and translated
+	 * against the same class table
+	 * @return the new program
+	 */
+	public ProgramCode withTerm(Code term) {
+		return new ProgramCode(this, term);
+	}
+	
+	/**
+	 * Find the method with the given name in the given class.
+	 * Search up the class hierarchy until a match is found, as
+	 * {@link fj.types.ClassTable#mbody} does.
+	 * @param methodName the name of the method
+	 * @param type the class to start looking in
+	 * @return its code, or <code>null</code> if no method can be
+	 * found by that name
+	 */
+	public MethodCode method(String methodName, Type type) {
+		while (!type.isObject()) {
+			Map classMethods = (Map) methods.get(type.className);
+			if (classMethods == null) return null;
+			MethodCode method = (MethodCode) classMethods.get(methodName);
+			if (method != null) return method;
+			type = (Type) superTypes.get(type.className);
+		}
+		return null;
+	}
+}
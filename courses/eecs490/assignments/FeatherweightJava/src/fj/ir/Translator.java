@@ -0,0 +1,152 @@
+package fj.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.*;
+import fj.eval.NativeMethod;
+import fj.eval.Natives;
+import fj.types.ClassTable;
+
+/**
+ * Translation of checked terms into code.  The translator does no
+ * checking of its own: it relies on the static type of every subterm,
+ * as recorded by the typechecker, to resolve field names to offsets
+ * and to tell casts up the class hierarchy from the rest.
+ */
+public class Translator {
+
+	/**
+	 * The class table.
+	 */
+	private final ClassTable types;
+	
+	/**
+	 * A mapping from the terms being translated, by identity, to
+	 * their static types.
+	 */
+	private final Map staticTypes;
+	
+	/**
+	 * A mapping from the names of the variables in scope to their
+	 * slots in the frame, as Integers.
+	 */
+	private final Map slots;
+	
+	/**
+	 * Construct a translator.
+	 * @param types the class table the terms were checked against
+	 * @param staticTypes the mapping from terms to their static types;
+	 * it must have a key for every subterm to be translated
+	 */
+	public Translator(ClassTable types, Map staticTypes) {
+		this.types = types;
+		this.staticTypes = staticTypes;
+		this.slots = new HashMap();
+	}
+	
+	/**
+	 * Translate a method declaration.
+	 * @param method the method declaration
+	 * @param type the class it is declared in
+	 * @return the code of the method
+	 */
+	public MethodCode translate(Method method, Type type) {
+		slots.clear();
+		slots.put("this", new Integer(0));
+		int slot = 1;
+		for (Iterator i = method.paramNames.iterator(); i.hasNext(); ) {
+			slots.put(i.next(), new Integer(slot++));
+		}
+		Code body = translate(method.body);
+		return new MethodCode(type, method.name, method.params.size(), body);
+	}
+	
+	/**
+	 * Translate an expression.
+	 * @param t the expression to translate
+	 * @return its code
+	 */
+	public Code translate(Term t) {
+		if (t instanceof VarTerm) {
+			VarTerm term = (VarTerm) t;
+			Integer slot = (Integer) slots.get(term.name);
+			if (slot == null) {
+				throw new Error("Internal translator error: unknown variable");
+			}
+			return new VarCode(slot.intValue(), term.name);
+		}
+		else if (t instanceof FieldTerm) {
+			FieldTerm term = (FieldTerm) t;
+			Map fields = types.fields(staticType(term.base)).map;
+			Integer offset = (Integer) fields.get(term.fieldName);
+			return new FieldCode(translate(term.base), offset.intValue(),
+				term.fieldName);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			return new CallCode(translate(term.base), staticType(term.base),
+				term.methodName, translate(term.args));
+		}
+		else if (t instanceof NewTerm) {
+			NewTerm term = (NewTerm) t;
+			return new NewCode(term.type, translate(term.args));
+		}
+		else if (t instanceof CastTerm) {
+			
+			// Upcasts cannot fail, so they need no code
+			CastTerm term = (CastTerm) t;
+			Code code = translate(term.term);
+			if (types.subtype(staticType(term.term), term.type)) {
+				return code;
+			}
+			return new CastCode(code, term.type);
+		}
+		else if (t instanceof LiteralTerm) {
+			LiteralTerm term = (LiteralTerm) t;
+			return new LiteralCode(term.type, term.value);
+		}
+		else if (t instanceof NativeTerm) {
+			
+			// The typechecker found the binding on the whitelist
+			NativeTerm term = (NativeTerm) t;
+			NativeMethod method = Natives.lookup(term.library, term.methodName);
+			if (method == null) {
+				throw new Error("Internal translator error: unknown native method");
+			}
+			return new NativeCode(method, translate(term.args));
+		}
+		else {
+			throw new Error("Internal translator error: invalid term type");
+		}
+	}
+	
+	/**
+	 * Translate a list of expressions.
+	 * @param terms the {@link Term} list to translate
+	 * @return the resulting {@link Code} list
+	 */
+	private List translate(List terms) {
+		List codes = new ArrayList(terms.size());
+		for (Iterator i = terms.iterator(); i.hasNext(); ) {
+			codes.add(translate((Term) i.next()));
+		}
+		return codes;
+	}
+	
+	/**
+	 * Return the static type recorded for a term.
+	 * @param t the term
+	 * @return its static type
+	 */
+	private Type staticType(Term t) {
+		Type type = (Type) staticTypes.get(t);
+		if (type == null) {
+			throw new Error("Internal translator error: term was not checked");
+		}
+		return type;
+	}
+}
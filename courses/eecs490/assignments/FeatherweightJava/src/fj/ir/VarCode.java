@@ -0,0 +1,29 @@
+package fj.ir;
+
+/**
+ * Code reading a variable.  Within a method, <code>this</code> is
+ * kept in slot 0 of the frame, and the parameters in the slots after
+ * it, in order.
+ */
+public class VarCode extends Code {
+
+	/**
+	 * The position of the variable in the frame.
+	 */
+	public final int slot;
+	
+	/**
+	 * The name of the variable.
+	 */
+	public final String name;
+	
+	/**
+	 * Construct a new variable access.
+	 * @param slot the position of the variable in the frame
+	 * @param name the name of the variable
+	 */
+	public VarCode(int slot, String name) {
+		this.slot = slot;
+		this.name = name;
+	}
+}
@@ -1,13 +1,34 @@
 package fj.main;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import fj.ast.Program;
+import fj.ast.Term;
+import fj.cache.ProgramCache;
+import fj.eval.CodeEvaluator;
 import fj.eval.Evaluator;
+import fj.eval.Primitives;
+import fj.eval.Value;
+import fj.eval.ValuePrinter;
+import fj.ir.ProgramCode;
+import fj.opt.Inliner;
 import fj.parse.Lexer;
 import fj.parse.Parser;
 import fj.typecheck.TypeChecker;
@@ -20,12 +41,42 @@ import fj.types.ClassTableException;
  */
 public class Main {
 
+	/**
+	 * The most methods to list when profiling.
+	 */
+	private static final int PROFILE_LINES = 20;
+
+	/**
+	 * The size of the buffer of standard output, in characters.
+	 */
+	private static final int OUTPUT_BUFFER = 1 << 16;
+
+	/**
+	 * The end of a line printed on standard output.
+	 */
+	private static final String LINE_SEPARATOR =
+		System.getProperty("line.separator");
+
 	protected static class Factory {
+		/**
+		 * Whether programs may use the built-in classes of
+		 * {@link Primitives}.
+		 */
+		protected boolean primitives;
+		/**
+		 * Whether to inline calls in programs after checking them (see
+		 * {@link fj.opt.Inliner}).
+		 */
+		protected boolean inline;
 		public Program parse(InputStream in) throws Exception {
-			return (Program) new Parser(new Lexer(in)).parse().value;
+			return new Parser(new Lexer(in), primitives).parse();
+		}
+		public Term parseExpression(InputStream in) throws Exception {
+			return new Parser(new Lexer(in), primitives).parseExpression();
 		}
 		public ClassTable ClassTable(List classDecls) throws ClassTableException {
-			return new ClassTable(classDecls);
+			return new ClassTable(primitives
+				? Primitives.withBuiltIns(classDecls) : classDecls);
 		}
 		public TypeChecker TypeChecker(ClassTable types) {
 			return new TypeChecker(types);
@@ -33,6 +84,18 @@ public class Main {
 		public Evaluator Evaluator(ClassTable types) {
 			return new Evaluator(types);
 		}
+		public CodeEvaluator CodeEvaluator(ClassTable types, ProgramCode code) {
+			return new CodeEvaluator(types, code);
+		}
+		/**
+		 * Name the front end for the program cache, which shares
+		 * programs only between runs giving the same name.
+		 * @param name the name of the system
+		 * @return the name to key cached programs by
+		 */
+		public String cacheVariant(String name) {
+			return primitives ? name + "-primitives" : name;
+		}
 	}
 	
 	/**
@@ -40,43 +103,546 @@ public class Main {
 	 * typechecker, and evaluator.  Prints out the results of
 	 * evaluation if successful, or the first error discovered during
 	 * any of the above steps.
-	 * @param args one argument: the name of the source file to use
+	 * @param args the name of the source file to use, optionally
+	 * preceded by <code>--cache</code> to reuse the checked program
+	 * from an earlier run (see {@link ProgramCache}), and
+	 * <code>--parallel</code> to type check on all available processors;
+	 * or <code>--batch</code> followed by any number of directories,
+	 * globs, and manifests naming source files, to run them all (see
+	 * {@link Batch}), where <code>--jobs</code> <i>n</i> sets the number
+	 * run at once and <code>--output</code> <i>file</i> names the file
+	 * to write the results to; or <code>--server</code> <i>port</i> to
+	 * answer requests from other processes (see {@link Server}), where
+	 * <code>--jobs</code> <i>n</i> sets the number answered at once and
+	 * <code>--timeout</code> <i>ms</i> the longest each may run; or
+	 * <code>--repl</code>, optionally followed by the name of a source
+	 * file to load, to type in classes and expressions (see {@link Repl}).
+	 * A single source file may also be preceded by <code>--stats</code>
+	 * or <code>--stats-json</code> to report on standard error how long
+	 * each phase took and what evaluation did (see {@link Stats}), or
+	 * by <code>--profile</code> or <code>--profile-exact</code> to
+	 * report which methods took the most time (see {@link Profiler}),
+	 * where <code>--flame</code> <i>file</i> names a file to write the
+	 * chains of calls to for a flame graph.  A single source file or a
+	 * batch may also be preceded by <code>--print-depth</code> <i>n</i>
+	 * and <code>--print-size</code> <i>n</i> to cut printed values short
+	 * below depth <i>n</i> or after <i>n</i> objects (see
+	 * {@link ValuePrinter}), and a single source file by
+	 * <code>--print-shared</code> to print each object shared in the
+	 * value once, as a binding of a name used in its place.  Anything
+	 * but <code>--repl</code> may be preceded by
+	 * <code>--primitives</code> to let programs use the built-in
+	 * classes <code>Int</code>, <code>Bool</code>, and
+	 * <code>Vector</code> (see
+	 * {@link Primitives}), and declare native classes (see
+	 * {@link fj.eval.Natives}).  A single source file or a batch may
+	 * also be preceded by <code>--inline</code> to replace calls whose
+	 * method is known by the method's body once the program has been
+	 * checked (see {@link Inliner}).
 	 */
 	public static void main(String[] args) {
 		runMain("fj", args, new Factory());
 	}
 
-	protected static void runMain(String name, String[] args, Factory factory) {
-		// We expect exactly one argument
-		if (args.length != 1) {
-			System.err.println("usage: " + name + " filename." + name);
+	protected static void runMain(final String name, String[] args,
+			final Factory factory) {
+		// We expect one file name, or with --batch any number,
+		// possibly preceded by options
+		boolean useCache = false;
+		boolean parallel = false;
+		boolean batch = false;
+		boolean repl = false;
+		String stats = null;
+		String profile = null;
+		String flame = null;
+		int port = -1;
+		long timeout = 10000;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		String output = null;
+		int printDepth = Integer.MAX_VALUE;
+		long printSize = Long.MAX_VALUE;
+		boolean printShared = false;
+		boolean primitives = false;
+		boolean inline = false;
+		List fileNames = new ArrayList();
+		boolean usage = false;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--cache")) {
+				useCache = true;
+			}
+			else if (args[i].equals("--stats") || args[i].equals("--stats-json")) {
+				stats = args[i];
+			}
+			else if (args[i].equals("--profile") || args[i].equals("--profile-exact")) {
+				profile = args[i];
+			}
+			else if (args[i].equals("--flame") && i + 1 < args.length) {
+				flame = args[++i];
+			}
+			else if (args[i].equals("--parallel")) {
+				parallel = true;
+			}
+			else if (args[i].equals("--batch")) {
+				batch = true;
+			}
+			else if (args[i].equals("--repl")) {
+				repl = true;
+			}
+			else if (args[i].equals("--jobs") && i + 1 < args.length) {
+				try {
+					jobs = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--output") && i + 1 < args.length) {
+				output = args[++i];
+			}
+			else if (args[i].equals("--server") && i + 1 < args.length) {
+				try {
+					port = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--timeout") && i + 1 < args.length) {
+				try {
+					timeout = Long.parseLong(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--print-shared")) {
+				printShared = true;
+			}
+			else if (args[i].equals("--primitives")) {
+				primitives = true;
+			}
+			else if (args[i].equals("--inline")) {
+				inline = true;
+			}
+			else if (args[i].equals("--print-depth") && i + 1 < args.length) {
+				try {
+					printDepth = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].equals("--print-size") && i + 1 < args.length) {
+				try {
+					printSize = Long.parseLong(args[++i]);
+				}
+				catch (NumberFormatException e) {
+					usage = true;
+				}
+			}
+			else if (args[i].startsWith("--")) {
+				usage = true;
+			}
+			else {
+				fileNames.add(args[i]);
+			}
+		}
+		if (flame != null && profile == null) {
+			profile = "--profile";
+		}
+		if (batch || repl || port >= 0) {
+			usage = usage || stats != null || profile != null;
+		}
+		if (repl || port >= 0) {
+			usage = usage || printDepth != Integer.MAX_VALUE
+				|| printSize != Long.MAX_VALUE;
+		}
+		if (printShared) {
+			usage = usage || batch || repl || port >= 0
+				|| printDepth != Integer.MAX_VALUE || printSize != Long.MAX_VALUE;
+		}
+		usage = usage || (stats != null && profile != null)
+			|| (primitives && repl) || (inline && (repl || port >= 0));
+		if (port >= 0) {
+			usage = usage || batch || repl || !fileNames.isEmpty() || output != null;
+		}
+		else if (repl) {
+			usage = usage || batch || fileNames.size() > 1 || output != null;
+		}
+		else if (!batch) {
+			usage = usage || fileNames.size() != 1 || output != null;
 		}
 		else {
-			try {
-				// Read the input
-				InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
-				Program program = factory.parse(in);
-				
-				// Build class table and do rudimentary checks
-				ClassTable types = factory.ClassTable(program.classDecls);
-				
-				// Type check
+			usage = usage || fileNames.isEmpty();
+		}
+		if (usage || jobs < 1 || timeout < 1 || printDepth < 0 || printSize < 1) {
+			System.err.println("usage: " + name + " [--cache] [--parallel] [--inline] [print options] filename." + name);
+			System.err.println("       " + name + " (--stats | --stats-json) [--cache] [--parallel] [--inline] filename." + name);
+			System.err.println("       " + name + " (--profile | --profile-exact) [--flame file] [--cache] [--parallel] [--inline] filename." + name);
+			System.err.println("       " + name + " --batch [--jobs n] [--output file] [--cache] [--parallel] [--inline]");
+			System.err.println("           [print limits] (directory | glob | @manifest | filename." + name + ")...");
+			System.err.println("       " + name + " --server port [--jobs n] [--timeout ms]");
+			System.err.println("       " + name + " --repl [filename." + name + "]");
+			System.err.println("print limits: [--print-depth n] [--print-size n]");
+			System.err.println("print options: print limits | --print-shared");
+			System.err.println("--primitives may precede any of these but --repl");
+			return;
+		}
+		factory.primitives = primitives;
+		factory.inline = inline;
+		if (repl) {
+			runRepl(name, factory, fileNames);
+			return;
+		}
+		if (port >= 0) {
+			runServer(name, factory, port, jobs, timeout);
+			return;
+		}
+		
+		final boolean cached = useCache;
+		final boolean json = "--stats-json".equals(stats);
+		final ForkJoinPool pool = parallel ? new ForkJoinPool() : null;
+		final ValuePrinter printer = new ValuePrinter(printDepth, printSize);
+		final boolean shared = printShared;
+		try {
+			if (batch) {
+				runBatch(name, new Batch(name, new Batch.Pipeline() {
+					public String run(String fileName) throws Exception {
+						return show(Main.run(name, fileName, factory, cached, pool,
+							null, null), printer);
+					}
+				}, jobs), fileNames, output);
+			}
+			else {
+				String fileName = (String) fileNames.get(0);
+				Stats measured = (stats != null) ? new Stats(fileName) : null;
+				Profiler profiler = (profile != null) ? new Profiler(
+					profile.equals("--profile-exact"), Profiler.INTERVAL) : null;
+				try {
+					print(run(name, fileName, factory, cached, pool, measured,
+						profiler), printer, shared);
+				}
+				catch (FileNotFoundException e) {
+					System.err.println(name + ": can't find file \"" + fileName + "\"");
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+				if (measured != null) {
+					System.out.flush();
+					if (json) {
+						System.err.println(measured.toJson());
+					}
+					else {
+						System.err.print(measured.toText());
+					}
+				}
+				if (profiler != null) {
+					System.out.flush();
+					profiler.printTable(System.err, PROFILE_LINES);
+					if (flame != null) writeFlame(name, profiler, flame);
+				}
+			}
+		}
+		finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Run a program through the parser, class table builder,
+	 * typechecker, and evaluator.
+	 * @param name the name of the system, for messages and caches
+	 * @param fileName the name of the source file
+	 * @param factory the factory for the parts of the system
+	 * @param useCache whether to reuse the checked program from an
+	 * earlier run, and save it for later ones
+	 * @param pool the pool to type check in, or <code>null</code> to
+	 * type check on this thread
+	 * @param stats the statistics to collect, or <code>null</code> to
+	 * collect none
+	 * @param profiler the profiler to evaluate under, or
+	 * <code>null</code> to evaluate unprofiled
+	 * @return the {@link Value} of the program, or the first error
+	 * discovered, a {@link String}
+	 * @throws FileNotFoundException the source file does not exist
+	 * @throws Exception something else went wrong
+	 */
+	protected static Object run(String name, String fileName,
+			Factory factory, boolean useCache, ForkJoinPool pool, Stats stats,
+			Profiler profiler) throws Exception {
+		try {
+			// Read the input, or its cached form if it is up to date
+			ProgramCache cache = null;
+			Program program = null;
+			if (useCache) {
+				if (stats != null) stats.begin("load");
+				cache = new ProgramCache(new File(fileName),
+					factory.cacheVariant(name));
+				program = cache.load();
+				if (stats != null) {
+					stats.cache("program", (program != null) ? 1 : 0,
+						(program != null) ? 0 : 1);
+				}
+			}
+			boolean checked = (program != null);
+			if (program == null) {
+				if (stats != null) stats.begin("parse");
+				InputStream in = (cache != null) ? cache.source() :
+					new BufferedInputStream(new FileInputStream(fileName));
+				try {
+					program = factory.parse(in);
+				}
+				finally {
+					in.close();
+				}
+			}
+			
+			// Build class table and do rudimentary checks
+			if (stats != null) stats.begin("classes");
+			ClassTable types = factory.ClassTable(program.classDecls);
+			
+			// Type check, unless the cached program already passed,
+			// translating the program into code when checking on
+			// one thread
+			ProgramCode code = null;
+			if (!checked) {
+				if (stats != null) stats.begin("check");
 				TypeChecker check = factory.TypeChecker(types);
-				check.checkProgram(program);
-				
-				// Run the evaluator
-				Evaluator eval = factory.Evaluator(types);
-				System.out.println(eval.evalTerm(program.term));
+				if (pool != null) {
+					check.checkProgram(program, pool);
+				}
+				else {
+					code = check.compileProgram(program);
+				}
+				if (cache != null) storeCache(name, cache, program);
+			}
+			
+			// Inline calls, translating the result again if the
+			// evaluator is to run code
+			if (factory.inline) {
+				if (stats != null) stats.begin("inline");
+				Inliner inliner = new Inliner(types, program.classDecls);
+				program = inliner.inline(program);
+				types = factory.ClassTable(program.classDecls);
+				if (code != null) code = inliner.translate(program);
+			}
+			
+			// Run the evaluator, on the code if we have it, counting
+			// what it does or profiling it if asked to
+			if (stats != null) stats.begin("eval");
+			if (profiler != null) {
+				return profile(profiler, types, program, code);
+			}
+			else if (code != null) {
+				CodeEvaluator eval = (stats != null) ?
+					stats.CodeEvaluator(types, code) :
+					factory.CodeEvaluator(types, code);
+				return eval.evalProgram();
+			}
+			else {
+				Evaluator eval = (stats != null) ?
+					stats.Evaluator(types) : factory.Evaluator(types);
+				return eval.evalTerm(program.term);
+			}
+		}
+		catch (FeatherweightJavaException e) {
+			return e.getMessage();
+		}
+		finally {
+			if (stats != null) stats.end();
+		}
+	}
+	
+	/**
+	 * Evaluate a program under a profiler.
+	 * @param profiler the profiler
+	 * @param types the class table
+	 * @param program the program
+	 * @param code the translated program, or <code>null</code> to
+	 * evaluate the program itself
+	 * @return the value of the program
+	 * @throws FeatherweightJavaException the program could not be
+	 * evaluated
+	 */
+	private static Value profile(Profiler profiler, ClassTable types,
+			Program program, ProgramCode code)
+			throws FeatherweightJavaException {
+		if (code != null) {
+			CodeEvaluator eval = profiler.CodeEvaluator(types, code);
+			profiler.start();
+			try {
+				return eval.evalProgram();
 			}
-			catch (FileNotFoundException e) {
-				System.err.println(name + ": can't find file \"" + args[0] + "\"");
+			finally {
+				profiler.stop();
 			}
-			catch (FeatherweightJavaException e) {
-				System.out.println(e.getMessage());
+		}
+		else {
+			Evaluator eval = profiler.Evaluator(types, program.classDecls);
+			profiler.start();
+			try {
+				return eval.evalTerm(program.term);
+			}
+			finally {
+				profiler.stop();
+			}
+		}
+	}
+	
+	/**
+	 * Describe the result of running a program.
+	 * @param result what {@link #run} returned
+	 * @param printer the printer for values
+	 * @return the printed value, or the error
+	 */
+	private static String show(Object result, ValuePrinter printer) {
+		return (result instanceof Value) ?
+			printer.toString((Value) result) : String.valueOf(result);
+	}
+
+	/**
+	 * Print the result of running a program on standard output,
+	 * writing a value as it is walked rather than building its
+	 * string first.
+	 * @param result what {@link #run} returned
+	 * @param printer the printer for values
+	 * @param shared whether to print each object shared in a value
+	 * once (see {@link ValuePrinter#printShared})
+	 * @throws IOException the result could not be written
+	 */
+	private static void print(Object result, ValuePrinter printer,
+		boolean shared) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+			OUTPUT_BUFFER);
+		if (result instanceof Value && shared) {
+			printer.printShared((Value) result, out);
+		}
+		else if (result instanceof Value) {
+			printer.print((Value) result, out);
+		}
+		else {
+			out.write(String.valueOf(result));
+		}
+		out.write(LINE_SEPARATOR);
+		out.flush();
+	}
+
+	/**
+	 * Run a batch of programs, and report how long it took.
+	 * @param name the name of the system, for messages
+	 * @param batch the batch runner
+	 * @param args the arguments naming the programs
+	 * @param output the name of the file to write the results to, or
+	 * <code>null</code> for standard output
+	 */
+	private static void runBatch(String name, Batch batch, List args,
+			String output) {
+		try {
+			List fileNames = batch.sourceFiles(args);
+			PrintStream out = (output != null) ? new PrintStream(
+				new BufferedOutputStream(new FileOutputStream(output))) :
+				System.out;
+			long start = System.currentTimeMillis();
+			int failures;
+			try {
+				failures = batch.run(fileNames, out);
 			}
-			catch (Exception e) {
-				e.printStackTrace();
+			finally {
+				if (out != System.out) out.close();
 			}
+			long time = System.currentTimeMillis() - start;
+			System.err.println(name + ": " + fileNames.size() + " programs, "
+				+ failures + " could not be run, " + time + " ms");
+		}
+		catch (IOException e) {
+			System.err.println(name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Answer requests from other processes until killed.
+	 * @param name the name of the system, for messages
+	 * @param factory the factory for the parts of the system
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param jobs the number of requests to run at once
+	 * @param timeout the longest a request may run, in milliseconds
+	 */
+	private static void runServer(String name, Factory factory, int port,
+			int jobs, long timeout) {
+		try {
+			Server server = new Server(name, factory, port, jobs, timeout);
+			System.err.println(name + ": listening on port " + server.port());
+			server.serve();
+		}
+		catch (IOException e) {
+			System.err.println(name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read classes and expressions from the terminal until it ends.
+	 * @param name the name of the system, for prompts and messages
+	 * @param factory the factory for the parts of the system
+	 * @param fileNames the {@link String} names of the source files to
+	 * load first
+	 */
+	private static void runRepl(String name, Factory factory,
+			List fileNames) {
+		try {
+			Repl repl = new Repl(name, factory, System.out);
+			for (Iterator i = fileNames.iterator(); i.hasNext(); ) {
+				repl.answer(":load " + i.next());
+			}
+			repl.run(new BufferedReader(new InputStreamReader(System.in)),
+				System.console() != null);
+		}
+		catch (FeatherweightJavaException e) {
+			System.err.println(name + ": " + e.getMessage());
+		}
+		catch (IOException e) {
+			System.err.println(name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write the chains of calls a profiler found to a file, for a
+	 * flame graph.
+	 * @param name the name of the system, for messages
+	 * @param profiler the profiler
+	 * @param fileName the name of the file
+	 */
+	private static void writeFlame(String name, Profiler profiler,
+			String fileName) {
+		try {
+			PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+			try {
+				profiler.printCollapsed(out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.err.println(name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Store a checked program in its cache.  Failing to write the
+	 * cache is not an error; the program simply runs uncached.
+	 * @param name the name of the system, for messages
+	 * @param cache the cache to write
+	 * @param program the checked program
+	 */
+	private static void storeCache(String name, ProgramCache cache,
+			Program program) {
+		try {
+			cache.store(program);
+		}
+		catch (IOException e) {
+			System.err.println(name + ": " + e.getMessage());
 		}
 	}
 }
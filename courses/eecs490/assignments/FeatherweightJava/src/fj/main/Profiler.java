@@ -0,0 +1,758 @@
+package fj.main;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import fj.ast.CallTerm;
+import fj.ast.ClassDecl;
+import fj.ast.Method;
+import fj.ast.NewTerm;
+import fj.eval.CodeEvaluator;
+import fj.eval.EvaluationException;
+import fj.eval.Evaluator;
+import fj.eval.Value;
+import fj.ir.MethodCode;
+import fj.ir.NewCode;
+import fj.ir.ProgramCode;
+import fj.types.ClassTable;
+import fj.types.MethodBody;
+
+/**
+ * A profiler of FeatherweightJava methods.  It finds, for every method
+ * <i>C.m</i> (named by the class declaring it) that a program runs, how
+ * often it was called, the time spent in its own body and the time
+ * including what it called, and the objects it created, itself and
+ * including what it called.  The program's expression counts as a
+ * method of its own, <code>main</code>.  The results are printed as a
+ * table of the methods taking the most time, and as collapsed stacks,
+ * one line per chain of calls, which flame graph tools read.
+ *
+ * <p>The evaluators made here keep a stack of the methods being run.
+ * In exact mode, they also read the clock on entering and leaving
+ * every method, and add the time to the chain of calls that led
+ * there, so the times are exact but each call costs two clock reads
+ * more.  In sampling mode, they only keep the stack, which costs a
+ * few stores per call; a thread of the
+ * profiler wakes every interval and counts the chain of calls it
+ * finds there, and each method's time is its share of the samples.
+ * Calls and objects are counted exactly in both modes.</p>
+ *
+ * <p>Sampling adds some 20 nanoseconds to every call, whether or not
+ * a sample is taken, and the sampling thread's work is too little to
+ * measure.  On the Fibonacci program of
+ * <code>fj.bench.EvaluationBench</code>, whose calls do almost nothing
+ * else, that slowed the evaluation of translated code by about 30%
+ * and the evaluation of terms by about 20%, while exact mode made them
+ * three times and twice as slow.  Programs doing more work per call
+ * slow down less.</p>
+ *
+ * <p>A profiler follows one evaluation at a time, between {@link
+ * #start} and {@link #stop}.</p>
+ */
+public class Profiler {
+
+	/**
+	 * The interval between samples by default, in nanoseconds.
+	 */
+	public static final long INTERVAL = 1000000;
+
+	/**
+	 * Whether to time every call, rather than sample.
+	 */
+	private final boolean exact;
+
+	/**
+	 * The interval between samples, in nanoseconds.
+	 */
+	private final long interval;
+
+	/**
+	 * A mapping from method bodies, either {@link fj.ast.Term} or
+	 * {@link MethodCode}, to the {@link MethodProfile} of their method.
+	 */
+	private final Map methods;
+
+	/**
+	 * A mapping from method names to their {@link MethodProfile}.
+	 */
+	private final Map names;
+
+	/**
+	 * The profile of the program's expression.
+	 */
+	private final MethodProfile main;
+
+	/**
+	 * The root of the tree of chains of calls, whose only child is
+	 * the node of {@link #main}.
+	 */
+	private final Node root;
+
+	/**
+	 * The stack of methods being run, up to {@link #depth}.
+	 */
+	private MethodProfile[] frames;
+
+	/**
+	 * The number of methods being run.  It is written after the
+	 * stack, so the sampling thread sees the stack up to it, but
+	 * through {@link #DEPTH}, which orders the write after those
+	 * before it without waiting for it to reach other processors.
+	 */
+	private volatile int depth;
+
+	/**
+	 * The updater of {@link #depth}.
+	 */
+	private static final AtomicIntegerFieldUpdater DEPTH =
+		AtomicIntegerFieldUpdater.newUpdater(Profiler.class, "depth");
+
+	/**
+	 * The number of objects created when each method on the stack was
+	 * entered.
+	 */
+	private long[] marks;
+
+	/**
+	 * The number of objects created so far.
+	 */
+	private long objects;
+
+	/**
+	 * In exact mode, the node of the chain of calls being run.
+	 */
+	private Node current;
+
+	/**
+	 * In exact mode, the time each method on the stack was entered.
+	 */
+	private long[] starts;
+
+	/**
+	 * In exact mode, the time each method on the stack has spent in
+	 * the methods it called.
+	 */
+	private long[] children;
+
+	/**
+	 * The thread taking samples, or <code>null</code> if none is.
+	 */
+	private Sampler sampler;
+
+	/**
+	 * The time profiling started.
+	 */
+	private long startTime;
+
+	/**
+	 * The time profiling took, from start to stop.
+	 */
+	private long elapsed;
+
+	/**
+	 * Construct a profiler.
+	 * @param exact whether to time every call, rather than sample
+	 * @param interval the interval between samples, in nanoseconds
+	 */
+	public Profiler(boolean exact, long interval) {
+		this.exact = exact;
+		this.interval = interval;
+		this.methods = new IdentityHashMap();
+		this.names = new HashMap();
+		this.main = method("main");
+		this.root = new Node(null, null);
+		this.frames = new MethodProfile[64];
+		this.marks = new long[64];
+		this.starts = exact ? new long[64] : null;
+		this.children = exact ? new long[64] : null;
+		this.current = root;
+	}
+
+	/**
+	 * Make an evaluator whose method calls are profiled.
+	 * @param types the class table
+	 * @param classDecls the {@link ClassDecl} list of the program, to
+	 * name its methods by
+	 * @return the evaluator
+	 */
+	public Evaluator Evaluator(ClassTable types, List classDecls) {
+		for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				Method method = (Method) j.next();
+				methods.put(method.body, method(classDecl.name + "." + method.name));
+			}
+		}
+		return new ProfilingEvaluator(types, this);
+	}
+
+	/**
+	 * Make an evaluator of translated programs whose method calls are
+	 * profiled.
+	 * @param types the class table
+	 * @param code the translated program
+	 * @return the evaluator
+	 */
+	public CodeEvaluator CodeEvaluator(ClassTable types, ProgramCode code) {
+		return new ProfilingCodeEvaluator(types, code, this);
+	}
+
+	/**
+	 * Start profiling, entering the program's expression.
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+		enter(main);
+		if (!exact) {
+			sampler = new Sampler();
+			sampler.start();
+		}
+	}
+
+	/**
+	 * Stop profiling, leaving the program's expression.
+	 */
+	public void stop() {
+		if (sampler != null) {
+			sampler.running = false;
+			LockSupport.unpark(sampler);
+			boolean interrupted = false;
+			while (sampler.isAlive()) {
+				try {
+					sampler.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			sampler = null;
+		}
+		while (depth > 0) exit();
+		elapsed = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Print a table of the methods which spent the most time in their
+	 * own bodies, with their calls, times, and objects created.
+	 * @param out the stream to print to
+	 * @param count the most methods to print
+	 */
+	public void printTable(PrintStream out, int count) {
+		List list = new ArrayList(names.values());
+		double scale = nanosPerUnit();
+		Collections.sort(list, new Comparator() {
+			public int compare(Object a, Object b) {
+				long x = ((MethodProfile) a).self;
+				long y = ((MethodProfile) b).self;
+				return (x > y) ? -1 : (x < y) ? 1 : 0;
+			}
+		});
+		long units = (scale == 0) ? 0 : Math.round(elapsed / scale);
+
+		// Make the first column as wide as the longest name printed
+		int width = 16;
+		for (int i = 0; i < list.size() && i < count; ++i) {
+			width = Math.max(width, ((MethodProfile) list.get(i)).name.length());
+		}
+		out.println((exact ? "exact profile, " : "sampled profile, "
+			+ root.total() + " samples, ") + millis(elapsed) + " ms");
+		out.println(pad("method", -width) + pad("calls", 12)
+			+ "    self ms  self%   total ms total%    objects  objects+");
+		for (int i = 0; i < list.size() && i < count; ++i) {
+			MethodProfile method = (MethodProfile) list.get(i);
+			out.println(pad(method.name, -width)
+				+ pad(String.valueOf(method.calls), 12)
+				+ pad(millis((long) (method.self * scale)), 11)
+				+ pad(percent(method.self, units), 7)
+				+ pad(millis((long) (method.total * scale)), 11)
+				+ pad(percent(method.total, units), 7)
+				+ pad(String.valueOf(method.selfObjects), 11)
+				+ pad(String.valueOf(method.totalObjects), 10));
+		}
+	}
+
+	/**
+	 * Print every chain of calls and the time spent at its end, in
+	 * the collapsed form flame graph tools read: the methods from
+	 * <code>main</code> outwards separated by semicolons, a space, and
+	 * the time, in nanoseconds in exact mode and samples otherwise.
+	 * @param out the stream to print to
+	 */
+	public void printCollapsed(PrintStream out) {
+		printCollapsed(out, root, new StringBuffer());
+	}
+
+	/**
+	 * Print the chains of calls below a node.
+	 * @param out the stream to print to
+	 * @param node the node
+	 * @param path the chain of calls leading to the node, which is
+	 * left as it was
+	 */
+	private static void printCollapsed(PrintStream out, Node node,
+			StringBuffer path) {
+		int length = path.length();
+		if (node.method != null) {
+			if (length > 0) path.append(';');
+			path.append(node.method.name);
+			if (node.weight > 0) out.println(path + " " + node.weight);
+		}
+		for (Iterator i = node.children.values().iterator(); i.hasNext(); ) {
+			printCollapsed(out, (Node) i.next(), path);
+		}
+		path.setLength(length);
+	}
+
+	/**
+	 * Find the profile of a method, making it if need be.
+	 * @param name the name of the method
+	 * @return its profile
+	 */
+	private MethodProfile method(String name) {
+		MethodProfile method = (MethodProfile) names.get(name);
+		if (method == null) {
+			method = new MethodProfile(name);
+			names.put(name, method);
+		}
+		return method;
+	}
+
+	/**
+	 * Find the profile of the method with the given body.
+	 * @param body the body of the method
+	 * @param className the name of the class to name the method by if
+	 * its body was not seen before
+	 * @param methodName the name of the method
+	 * @return its profile
+	 */
+	private MethodProfile method(Object body, String className,
+			String methodName) {
+		MethodProfile method = (MethodProfile) methods.get(body);
+		if (method == null) {
+			method = method(className + "." + methodName);
+			methods.put(body, method);
+		}
+		return method;
+	}
+
+	/**
+	 * Note that a method has been entered.
+	 * @param method the method
+	 */
+	private void enter(MethodProfile method) {
+		int d = depth;
+		if (d == frames.length) grow();
+		frames[d] = method;
+		marks[d] = objects;
+		++method.calls;
+		++method.active;
+		if (exact) {
+			current = current.child(method);
+			children[d] = 0;
+			starts[d] = System.nanoTime();
+		}
+		DEPTH.lazySet(this, d + 1);
+	}
+
+	/**
+	 * Note that the method entered last has been left.
+	 */
+	private void exit() {
+		int d = depth - 1;
+		MethodProfile method = frames[d];
+		boolean outermost = (--method.active == 0);
+		if (outermost) method.totalObjects += objects - marks[d];
+		if (exact) {
+			long time = System.nanoTime() - starts[d];
+			long self = time - children[d];
+			current.weight += self;
+			current = current.parent;
+			method.self += self;
+			if (outermost) method.total += time;
+			if (d > 0) children[d - 1] += time;
+		}
+		DEPTH.lazySet(this, d);
+	}
+
+	/**
+	 * Note that an object has been created.
+	 */
+	private void allocate() {
+		++objects;
+		++frames[depth - 1].selfObjects;
+	}
+
+	/**
+	 * Double the room on the stack.
+	 */
+	private void grow() {
+		int length = 2 * frames.length;
+		MethodProfile[] newFrames = new MethodProfile[length];
+		System.arraycopy(frames, 0, newFrames, 0, frames.length);
+		frames = newFrames;
+		marks = copy(marks, length);
+		if (exact) {
+			starts = copy(starts, length);
+			children = copy(children, length);
+		}
+	}
+
+	/**
+	 * Copy an array into a longer one.
+	 * @param array the array
+	 * @param length the length of the copy
+	 * @return the copy
+	 */
+	private static long[] copy(long[] array, int length) {
+		long[] copy = new long[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	/**
+	 * Find the time each unit of a method's time stands for: a
+	 * nanosecond in exact mode, and in sampling mode, the time
+	 * profiled divided evenly among the samples.
+	 * @return the nanoseconds per unit
+	 */
+	private double nanosPerUnit() {
+		if (exact) return 1;
+		long samples = root.total();
+		return (samples == 0) ? 0 : (double) elapsed / samples;
+	}
+
+	/**
+	 * Format a share of the time as a percentage.
+	 * @param part the share
+	 * @param whole the whole time
+	 * @return the formatted percentage
+	 */
+	private static String percent(long part, long whole) {
+		if (whole == 0) return "-";
+		return String.valueOf(Math.round(1000.0 * part / whole) / 10.0);
+	}
+
+	/**
+	 * Format a time in milliseconds, to the nearest microsecond.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String millis(long nanos) {
+		long micros = (nanos + 500) / 1000;
+		String fraction = String.valueOf(1000 + micros % 1000).substring(1);
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/**
+	 * Pad a string with spaces to a given width.
+	 * @param str the string to pad
+	 * @param width the width to pad to; if negative, the string is
+	 * padded on the right rather than the left
+	 * @return the padded string
+	 */
+	private static String pad(String str, int width) {
+		StringBuffer sb = new StringBuffer();
+		boolean left = width < 0;
+		if (left) width = -width;
+		if (left) sb.append(str);
+		for (int i = str.length(); i < width; ++i) sb.append(' ');
+		if (!left) sb.append(str);
+		return sb.toString();
+	}
+
+	/**
+	 * What is known about a method.  Its times are in nanoseconds in
+	 * exact mode, and in samples otherwise.
+	 */
+	private static class MethodProfile {
+
+		/**
+		 * The name of the method.
+		 */
+		final String name;
+
+		/**
+		 * The number of times it was called.
+		 */
+		long calls;
+
+		/**
+		 * The time spent in its own body.
+		 */
+		long self;
+
+		/**
+		 * The time spent in it, including the methods it called.
+		 */
+		long total;
+
+		/**
+		 * The number of objects its own body created.
+		 */
+		long selfObjects;
+
+		/**
+		 * The number of objects created while it ran.
+		 */
+		long totalObjects;
+
+		/**
+		 * The number of times it is on the stack, so that recursive
+		 * calls are not counted twice in its totals.
+		 */
+		int active;
+
+		/**
+		 * The number of the last sample it was counted in.
+		 */
+		long sample;
+
+		/**
+		 * Construct the profile of a method.
+		 * @param name the name of the method
+		 */
+		MethodProfile(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A chain of calls, which is a node in the tree of every chain
+	 * the program made.
+	 */
+	private static class Node {
+
+		/**
+		 * The method called last, or <code>null</code> at the root.
+		 */
+		final MethodProfile method;
+
+		/**
+		 * The chain without its last call, or <code>null</code> at the
+		 * root.
+		 */
+		final Node parent;
+
+		/**
+		 * A mapping from {@link MethodProfile} to the {@link Node} of
+		 * this chain followed by a call of that method.
+		 */
+		final Map children;
+
+		/**
+		 * The time spent at the end of this chain.
+		 */
+		long weight;
+
+		/**
+		 * The child found last, which is likely to be wanted again.
+		 */
+		Node last;
+
+		/**
+		 * Construct a node.
+		 * @param method the method called last
+		 * @param parent the chain without its last call
+		 */
+		Node(MethodProfile method, Node parent) {
+			this.method = method;
+			this.parent = parent;
+			this.children = new HashMap();
+		}
+
+		/**
+		 * Find the chain of this one followed by a call, making it if
+		 * need be.
+		 * @param method the method called
+		 * @return the longer chain
+		 */
+		Node child(MethodProfile method) {
+			Node node = last;
+			if (node != null && node.method == method) return node;
+			node = (Node) children.get(method);
+			if (node == null) {
+				node = new Node(method, this);
+				children.put(method, node);
+			}
+			last = node;
+			return node;
+		}
+
+		/**
+		 * Find the time spent at the end of this chain and every
+		 * longer one.
+		 * @return the time
+		 */
+		long total() {
+			long total = weight;
+			for (Iterator i = children.values().iterator(); i.hasNext(); ) {
+				total += ((Node) i.next()).total();
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * The thread taking samples of the stack.
+	 */
+	private class Sampler extends Thread {
+
+		/**
+		 * Whether to keep sampling.
+		 */
+		volatile boolean running;
+
+		/**
+		 * The number of samples taken.
+		 */
+		private long samples;
+
+		/**
+		 * Construct the sampling thread.
+		 */
+		Sampler() {
+			super("profiler");
+			setDaemon(true);
+			this.running = true;
+		}
+
+		public void run() {
+			while (running) {
+				LockSupport.parkNanos(interval);
+				if (running) sample();
+			}
+		}
+
+		/**
+		 * Count the chain of calls on the stack.  The stack may change
+		 * while it is read, which at worst counts a chain that was
+		 * never quite made.
+		 */
+		private void sample() {
+			int d = depth;
+			MethodProfile[] stack = frames;
+			if (d > stack.length) d = stack.length;
+			if (d == 0) return;
+			++samples;
+			Node node = root;
+			for (int i = 0; i < d; ++i) {
+				MethodProfile method = stack[i];
+				if (method == null) return;
+				node = node.child(method);
+				if (method.sample != samples) {
+					method.sample = samples;
+					++method.total;
+				}
+			}
+			++node.weight;
+			++node.method.self;
+		}
+	}
+
+	/**
+	 * An evaluator whose method calls are profiled.
+	 */
+	private static class ProfilingEvaluator extends Evaluator {
+
+		/**
+		 * The profiler.
+		 */
+		private final Profiler profiler;
+
+		/**
+		 * Construct an evaluator.
+		 * @param types the class table
+		 * @param profiler the profiler
+		 */
+		ProfilingEvaluator(ClassTable types, Profiler profiler) {
+			super(types);
+			this.profiler = profiler;
+		}
+
+		/**
+		 * Construct a nested evaluator for a method body.
+		 * @param env the new environment to append
+		 * @param parent the evaluator with the outer environment
+		 */
+		ProfilingEvaluator(Map env, ProfilingEvaluator parent) {
+			super(env, parent);
+			this.profiler = parent.profiler;
+		}
+
+		protected Evaluator nest(Map newEnv) {
+			return new ProfilingEvaluator(newEnv, this);
+		}
+
+		protected Value evalMethod(CallTerm t, MethodBody body, Map newEnv)
+			throws EvaluationException {
+			Value receiver = (Value) newEnv.get("this");
+			profiler.enter(profiler.method(body.term,
+				receiver.type.className, t.methodName));
+			try {
+				return super.evalMethod(t, body, newEnv);
+			}
+			finally {
+				profiler.exit();
+			}
+		}
+
+		protected Value evalNewTerm(NewTerm t) throws EvaluationException {
+			Value value = super.evalNewTerm(t);
+			profiler.allocate();
+			return value;
+		}
+	}
+
+	/**
+	 * An evaluator of translated programs whose method calls are
+	 * profiled.
+	 */
+	private static class ProfilingCodeEvaluator extends CodeEvaluator {
+
+		/**
+		 * The profiler.
+		 */
+		private final Profiler profiler;
+
+		/**
+		 * Construct an evaluator.
+		 * @param types the class table
+		 * @param program the translated program
+		 * @param profiler the profiler
+		 */
+		ProfilingCodeEvaluator(ClassTable types, ProgramCode program,
+				Profiler profiler) {
+			super(types, program);
+			this.profiler = profiler;
+		}
+
+		protected Value evalMethod(MethodCode method, Value[] frame)
+			throws EvaluationException {
+			profiler.enter(profiler.method(method,
+				method.owner.className, method.name));
+			try {
+				return super.evalMethod(method, frame);
+			}
+			finally {
+				profiler.exit();
+			}
+		}
+
+		protected Value evalNewCode(NewCode c, Value[] frame)
+			throws EvaluationException {
+			Value value = super.evalNewCode(c, frame);
+			profiler.allocate();
+			return value;
+		}
+	}
+}
@@ -0,0 +1,465 @@
+package fj.main;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.ClassDecl;
+import fj.ast.Method;
+import fj.ast.NewTerm;
+import fj.ast.Program;
+import fj.ast.Term;
+import fj.ast.Type;
+import fj.eval.Value;
+import fj.ir.Code;
+import fj.ir.MethodCode;
+import fj.ir.ProgramCode;
+import fj.parse.Lexer;
+import fj.parse.Parser;
+import fj.typecheck.IncrementalChecker;
+import fj.typecheck.TypeChecker;
+import fj.types.ClassTable;
+
+/**
+ * An interactive session, reading class declarations and expressions
+ * and evaluating each expression against the classes declared so far.
+ * A class declared again replaces the earlier one.  Lines starting
+ * with a colon are commands; <code>:help</code> lists them.  An input
+ * continues onto the next line while it has more open braces or
+ * parentheses than closed ones.
+ *
+ * <p>The class table lives as long as the session.  New classes are
+ * checked by an {@link IncrementalChecker}, so declaring one judges
+ * only what it may have changed, and are rejected, leaving the classes
+ * as they were, if they are in error.  Methods are translated into code
+ * the first time they are called, and the code is kept until the
+ * classes next change, so an expression costs only checking and
+ * translating itself and evaluating.</p>
+ */
+public class Repl {
+
+	/**
+	 * The expression ending the programs checked when classes change,
+	 * which is always the same so its verdict is reused.
+	 */
+	private static final Term PLACEHOLDER =
+		new NewTerm(new Type("Object"), Collections.EMPTY_LIST);
+
+	/**
+	 * The name of the system, for prompts and messages.
+	 */
+	private final String name;
+
+	/**
+	 * The factory for the parts of the system.
+	 */
+	private final Main.Factory factory;
+
+	/**
+	 * Where results and errors are written.
+	 */
+	private final PrintStream out;
+
+	/**
+	 * The class table, kept up to date with the classes declared.
+	 */
+	private final ClassTable types;
+
+	/**
+	 * The typechecker, which also translates expressions and methods.
+	 */
+	private final TypeChecker checker;
+
+	/**
+	 * The checker of the classes as they change.
+	 */
+	private final IncrementalChecker incremental;
+
+	/**
+	 * The {@link ClassDecl} list of the classes declared, in order.
+	 */
+	private List classDecls;
+
+	/**
+	 * A mapping from class names to their {@link ClassDecl}.
+	 */
+	private Map classes;
+
+	/**
+	 * A mapping from methods, by identity, to their code, for those
+	 * translated since the classes last changed.
+	 */
+	private final Map methods;
+
+	/**
+	 * The program whose methods are found in {@link #methods}, or
+	 * translated and added there when first called.
+	 */
+	private final ProgramCode linked;
+
+	/**
+	 * Whether to report the time and memory each evaluation takes.
+	 */
+	private boolean timing;
+
+	/**
+	 * Start a session with no classes.
+	 * @param name the name of the system, for prompts and messages
+	 * @param factory the factory for the parts of the system
+	 * @param out where to write results and errors
+	 * @throws FeatherweightJavaException the empty class table could
+	 * not be built
+	 */
+	Repl(String name, Main.Factory factory, PrintStream out)
+		throws FeatherweightJavaException {
+		this.name = name;
+		this.factory = factory;
+		this.out = out;
+		this.types = factory.ClassTable(Collections.EMPTY_LIST);
+		this.checker = factory.TypeChecker(types);
+		this.incremental = new IncrementalChecker(checker);
+		this.classDecls = Collections.EMPTY_LIST;
+		this.classes = new HashMap();
+		this.methods = new IdentityHashMap();
+		this.linked = new Linked();
+		incremental.check(new Program(classDecls, PLACEHOLDER));
+	}
+
+	/**
+	 * Read and answer inputs until the end of the input or
+	 * <code>:quit</code>.
+	 * @param in the input
+	 * @param prompt whether to prompt for each input
+	 * @throws IOException the input could not be read
+	 */
+	public void run(BufferedReader in, boolean prompt) throws IOException {
+		for (;;) {
+			if (prompt) {
+				out.print(name + "> ");
+				out.flush();
+			}
+			String line = in.readLine();
+			if (line == null) break;
+			StringBuffer input = new StringBuffer(line);
+			while (unbalanced(input)) {
+				if (prompt) {
+					out.print(name.replaceAll(".", " ") + "| ");
+					out.flush();
+				}
+				line = in.readLine();
+				if (line == null) break;
+				input.append('\n').append(line);
+			}
+			String text = input.toString().trim();
+			if (text.equals(":quit")) break;
+			answer(text);
+		}
+	}
+
+	/**
+	 * Answer one input.
+	 * @param text the input
+	 */
+	void answer(String text) {
+		try {
+			if (text.length() == 0) {
+				return;
+			}
+			else if (text.startsWith(":")) {
+				command(text);
+			}
+			else if (text.startsWith("class") && (text.length() == 5
+					|| !Character.isLetter(text.charAt(5)))) {
+				define(parser(text).parseClasses());
+			}
+			else {
+				eval(parser(text).parseExpression());
+			}
+		}
+		catch (FeatherweightJavaException e) {
+			out.println(e.getMessage());
+		}
+		catch (StackOverflowError e) {
+			out.println("evaluation error: stack overflow");
+		}
+	}
+
+	/**
+	 * Carry out a command.
+	 * @param text the command
+	 * @throws FeatherweightJavaException a file loaded failed to parse,
+	 * typecheck, or evaluate
+	 */
+	private void command(String text) throws FeatherweightJavaException {
+		String[] words = text.split("\\s+");
+		String command = words[0];
+		if (command.equals(":help") && words.length == 1) {
+			out.println("class C extends D { ... }  declare classes, replacing any of the same names");
+			out.println("expression                 evaluate an expression");
+			out.println(":classes                   list the classes");
+			out.println(":drop C...                 remove classes");
+			out.println(":load file                 declare the classes of a program and evaluate it");
+			out.println(":reset                     remove every class");
+			out.println(":time                      report the time and memory each evaluation takes, or stop");
+			out.println(":quit                      end the session");
+		}
+		else if (command.equals(":classes") && words.length == 1) {
+			for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+				ClassDecl classDecl = (ClassDecl) i.next();
+				out.println(classDecl.name + " extends " + classDecl.superType.className);
+			}
+		}
+		else if (command.equals(":drop") && words.length > 1) {
+			List kept = new ArrayList(classDecls);
+			for (int i = 1; i < words.length; ++i) {
+				if (!kept.remove(classes.get(words[i]))) {
+					out.println("no class " + words[i]);
+					return;
+				}
+			}
+			change(kept);
+		}
+		else if (command.equals(":load") && words.length == 2) {
+			Program program = load(words[1]);
+			if (program != null) {
+				if (define(program.classDecls)) eval(program.term);
+			}
+		}
+		else if (command.equals(":reset") && words.length == 1) {
+			change(Collections.EMPTY_LIST);
+		}
+		else if (command.equals(":time") && words.length == 1) {
+			timing = !timing;
+			out.println(timing ? "timing on" : "timing off");
+		}
+		else {
+			out.println("unknown command; try :help");
+		}
+	}
+
+	/**
+	 * Declare classes, replacing those of the same names.
+	 * @param newDecls the {@link ClassDecl} list of the classes
+	 * @return whether the classes were declared
+	 */
+	private boolean define(List newDecls) {
+		List all = new ArrayList(classDecls);
+		for (Iterator i = newDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			int index = all.indexOf(classes.get(classDecl.name));
+			if (index >= 0) {
+				all.set(index, classDecl);
+			}
+			else {
+				all.add(classDecl);
+			}
+		}
+		return change(all);
+	}
+
+	/**
+	 * Change the classes, unless the new ones are in error.
+	 * @param newDecls the {@link ClassDecl} list of every class
+	 * @return whether the classes were changed
+	 */
+	private boolean change(List newDecls) {
+		long start = System.nanoTime();
+		try {
+			incremental.check(new Program(newDecls, PLACEHOLDER));
+		}
+		catch (FeatherweightJavaException e) {
+			out.println(e.getMessage());
+			try {
+				incremental.check(new Program(classDecls, PLACEHOLDER));
+			}
+			catch (FeatherweightJavaException f) {
+				throw new Error("Internal error: classes checked before failed: "
+					+ f.getMessage());
+			}
+			return false;
+		}
+		classDecls = newDecls;
+		classes = new HashMap();
+		for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			classes.put(classDecl.name, classDecl);
+		}
+		methods.clear();
+		if (timing) {
+			out.println("checked " + incremental.checked() + ", reused "
+				+ incremental.reused() + " in " + millis(System.nanoTime() - start)
+				+ " ms");
+		}
+		return true;
+	}
+
+	/**
+	 * Check, translate, and evaluate an expression, and print its value.
+	 * @param term the expression
+	 * @throws FeatherweightJavaException the expression failed to
+	 * typecheck or evaluate
+	 */
+	private void eval(Term term) throws FeatherweightJavaException {
+		long allocated = allocated();
+		long start = System.nanoTime();
+		Code code = checker.compileTerm(term);
+		long checked = System.nanoTime();
+		Value value = factory.CodeEvaluator(types, linked.withTerm(code))
+			.evalProgram();
+		long done = System.nanoTime();
+		allocated = allocated() - allocated;
+		out.println(value);
+		if (timing) {
+			out.println("checked in " + millis(checked - start)
+				+ " ms, evaluated in " + millis(done - checked) + " ms"
+				+ (allocated >= 0 ? ", " + allocated + " bytes allocated" : ""));
+		}
+	}
+
+	/**
+	 * Read a program from a file.
+	 * @param fileName the name of the file
+	 * @return the program, or <code>null</code> if the file could not
+	 * be read
+	 * @throws FeatherweightJavaException the program failed to parse
+	 */
+	private Program load(String fileName) throws FeatherweightJavaException {
+		try {
+			InputStream in = new FileInputStream(fileName);
+			try {
+				return new Parser(new Lexer(in)).parse();
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			out.println("can't read file \"" + fileName + "\"");
+			return null;
+		}
+	}
+
+	/**
+	 * Make a parser for an input.
+	 * @param text the input
+	 * @return the parser
+	 */
+	private static Parser parser(String text) {
+		return new Parser(new Lexer(new ByteArrayInputStream(text.getBytes())));
+	}
+
+	/**
+	 * Determine whether an input has more open braces or parentheses
+	 * than closed ones, and so continues on the next line.
+	 * @param input the input so far
+	 * @return whether it is unfinished
+	 */
+	private static boolean unbalanced(StringBuffer input) {
+		int depth = 0;
+		for (int i = 0; i < input.length(); ++i) {
+			char c = input.charAt(i);
+			if (c == '{' || c == '(') ++depth;
+			if (c == '}' || c == ')') --depth;
+		}
+		return depth > 0;
+	}
+
+	/**
+	 * Find the number of bytes this thread has allocated, if the
+	 * virtual machine can say.
+	 * @return the number of bytes, or a negative number if unknown
+	 */
+	private static long allocated() {
+		java.lang.management.ThreadMXBean bean =
+			ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Format a time in milliseconds, to the nearest microsecond.
+	 * @param nanos the time in nanoseconds
+	 * @return the formatted time
+	 */
+	private static String millis(long nanos) {
+		long micros = (nanos + 500) / 1000;
+		String fraction = String.valueOf(1000 + micros % 1000).substring(1);
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/**
+	 * The translated program of the session, whose methods are
+	 * translated when first called.
+	 */
+	private class Linked extends ProgramCode {
+
+		/**
+		 * Construct the program, with no expression to evaluate.
+		 */
+		Linked() {
+			super(Collections.EMPTY_LIST, Collections.EMPTY_LIST, null);
+		}
+
+		/**
+		 * Construct the program with an expression to evaluate.
+		 * @param program the program without it
+		 * @param term the code of the expression
+		 */
+		Linked(Linked program, Code term) {
+			super(program, term);
+		}
+
+		public ProgramCode withTerm(Code term) {
+			return new Linked(this, term);
+		}
+
+		public MethodCode method(String methodName, Type type) {
+			while (!type.isObject()) {
+				ClassDecl classDecl = (ClassDecl) classes.get(type.className);
+				if (classDecl == null) return null;
+				for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
+					Method method = (Method) i.next();
+					if (method.name.equals(methodName)) return link(method, type);
+				}
+				type = classDecl.superType;
+			}
+			return null;
+		}
+
+		/**
+		 * Find the code of a method, translating it if it has not been
+		 * since the classes last changed.
+		 * @param method the method
+		 * @param type the class declaring it
+		 * @return its code
+		 */
+		private MethodCode link(Method method, Type type) {
+			MethodCode code = (MethodCode) methods.get(method);
+			if (code == null) {
+				try {
+					code = checker.compileMethod(method, type);
+				}
+				catch (FeatherweightJavaException e) {
+					throw new Error("Internal error: checked method failed: "
+						+ e.getMessage());
+				}
+				methods.put(method, code);
+			}
+			return code;
+		}
+	}
+}
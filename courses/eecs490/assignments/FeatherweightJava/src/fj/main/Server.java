@@ -0,0 +1,504 @@
+package fj.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import fj.ast.Program;
+import fj.ast.Term;
+import fj.ir.Code;
+import fj.ir.ProgramCode;
+import fj.types.ClassTable;
+
+/**
+ * A server running programs for other processes, so that they pay for
+ * starting a virtual machine and compiling the system once rather than
+ * on every program.  It listens on a port of the loopback interface,
+ * and each connection carries any number of requests, answered in
+ * turn.  Every request and reply is a frame: a four-byte big-endian
+ * length, then that many bytes of UTF-8 text.  The first line of a
+ * request says what to do with the rest:
+ * <dl>
+ * <dt><code>run</code> [<i>ms</i>]</dt>
+ * <dd>check and evaluate the program;</dd>
+ * <dt><code>load</code></dt>
+ * <dd>check the program, and keep it for <code>eval</code> requests;</dd>
+ * <dt><code>eval</code> <i>hash</i> [<i>ms</i>]</dt>
+ * <dd>check and evaluate the expression against the classes of the
+ * program loaded with the given hash.</dd>
+ * </dl>
+ * The first line of a reply is <code>ok</code> or <code>error</code>,
+ * and the rest is the value, the hash of the program loaded, or the
+ * error.  {@link Client} speaks this protocol.
+ *
+ * <p>Checked programs are kept by a hash of their source, so running or
+ * loading one again costs only its evaluation.  The least recently used
+ * are forgotten when there are too many; an <code>eval</code> naming a
+ * program forgotten fails, and the program can simply be loaded again.
+ * Requests run on a pool of threads with deep stacks, each for at most
+ * the server's time limit, or less if the request asks; evaluation that
+ * runs longer is interrupted.</p>
+ */
+public class Server {
+
+	/**
+	 * The largest request accepted, in bytes.
+	 */
+	private static final int MAX_REQUEST = 16 << 20;
+
+	/**
+	 * The number of checked programs to keep.
+	 */
+	private static final int PROGRAMS = 256;
+
+	/**
+	 * The stack size of the threads running requests, in bytes.
+	 */
+	private static final long STACK_SIZE = 256L << 20;
+
+	/**
+	 * The name of the system, for messages.
+	 */
+	private final String name;
+
+	/**
+	 * The factory for the parts of the system.
+	 */
+	private final Main.Factory factory;
+
+	/**
+	 * The longest a request may run, in milliseconds.
+	 */
+	private final long timeLimit;
+
+	/**
+	 * The socket connections arrive on.
+	 */
+	private final ServerSocket socket;
+
+	/**
+	 * The threads requests run on.
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * The threads reading requests and writing replies, one for each
+	 * connection.
+	 */
+	private final ExecutorService readers;
+
+	/**
+	 * The connections open, so they can be closed when the server is.
+	 */
+	private final Set connections;
+
+	/**
+	 * A mapping from the hashes of programs' sources to the {@link
+	 * Loaded} programs, least recently used first.
+	 */
+	private final Map programs;
+
+	/**
+	 * Open a server on a port of the loopback interface.  It does not
+	 * answer requests until {@link #serve} is called.
+	 * @param name the name of the system, for messages
+	 * @param factory the factory for the parts of the system
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param jobs the number of requests to run at once
+	 * @param timeLimit the longest a request may run, in milliseconds
+	 * @throws IOException the port could not be opened
+	 */
+	Server(final String name, Main.Factory factory, int port, int jobs,
+			long timeLimit) throws IOException {
+		this.name = name;
+		this.factory = factory;
+		this.timeLimit = timeLimit;
+		this.socket = new ServerSocket(port, 50, InetAddress.getByName(null));
+		this.workers = Executors.newFixedThreadPool(jobs, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(null, r, name + " worker", STACK_SIZE);
+			}
+		});
+		this.readers = Executors.newCachedThreadPool();
+		this.connections = new HashSet();
+		this.programs = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > PROGRAMS;
+			}
+		};
+	}
+
+	/**
+	 * Find the port the server listens on.
+	 * @return the port number
+	 */
+	public int port() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Accept connections and answer their requests until the server
+	 * is closed.
+	 * @throws IOException the socket failed
+	 */
+	public void serve() throws IOException {
+		try {
+			for (;;) {
+				final Socket connection = socket.accept();
+				synchronized (connections) {
+					connections.add(connection);
+				}
+				readers.execute(new Runnable() {
+					public void run() {
+						converse(connection);
+					}
+				});
+			}
+		}
+		catch (SocketException e) {
+			if (!socket.isClosed()) throw e;
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stop accepting connections, close those open, and interrupt the
+	 * requests running.
+	 */
+	public void close() {
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			// Closing anyway
+		}
+		List open;
+		synchronized (connections) {
+			open = new ArrayList(connections);
+		}
+		for (Iterator i = open.iterator(); i.hasNext(); ) {
+			closeQuietly((Socket) i.next());
+		}
+		readers.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Answer the requests on a connection until the client closes it.
+	 * @param connection the connection
+	 */
+	private void converse(Socket connection) {
+		try {
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(connection.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(connection.getOutputStream()));
+			for (;;) {
+				String request;
+				try {
+					request = readFrame(in, MAX_REQUEST);
+				}
+				catch (FrameException e) {
+					writeFrame(out, "error\n" + e.getMessage());
+					break;
+				}
+				if (request == null) break;
+				writeFrame(out, answer(request));
+			}
+		}
+		catch (IOException e) {
+			// The client went away
+		}
+		finally {
+			synchronized (connections) {
+				connections.remove(connection);
+			}
+			closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Answer a request.
+	 * @param request the text of the request
+	 * @return the text of the reply
+	 */
+	private String answer(String request) {
+		int newline = request.indexOf('\n');
+		String[] words = ((newline < 0) ? request :
+			request.substring(0, newline)).trim().split(" +");
+		final String text = (newline < 0) ? "" : request.substring(newline + 1);
+		String command = words[0];
+		int argc = words.length - 1;
+		Callable task;
+		long limit = timeLimit;
+		try {
+			if (command.equals("run") && argc <= 1) {
+				if (argc == 1) limit = Math.min(limit, Long.parseLong(words[1]));
+				task = new Callable() {
+					public Object call() throws Exception {
+						return run(load(text));
+					}
+				};
+			}
+			else if (command.equals("load") && argc == 0) {
+				task = new Callable() {
+					public Object call() throws Exception {
+						return load(text).hash;
+					}
+				};
+			}
+			else if (command.equals("eval") && (argc == 1 || argc == 2)) {
+				if (argc == 2) limit = Math.min(limit, Long.parseLong(words[2]));
+				final Loaded loaded;
+				synchronized (programs) {
+					loaded = (Loaded) programs.get(words[1]);
+				}
+				if (loaded == null) {
+					return "error\nno program loaded with hash " + words[1];
+				}
+				task = new Callable() {
+					public Object call() throws Exception {
+						return eval(loaded, text);
+					}
+				};
+			}
+			else {
+				return "error\nbad request \"" + words[0] + "\"";
+			}
+		}
+		catch (NumberFormatException e) {
+			return "error\nbad time limit";
+		}
+
+		// Run it for no longer than allowed
+		Future future = workers.submit(task);
+		try {
+			return "ok\n" + future.get(limit, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			future.cancel(true);
+			return "error\nout of time after " + limit + " ms";
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FeatherweightJavaException) {
+				return "error\n" + cause.getMessage();
+			}
+			else {
+				return "error\ninternal error: " + cause;
+			}
+		}
+		catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return "error\n" + name + " server is shutting down";
+		}
+	}
+
+	/**
+	 * Check a program, or find it checked already.
+	 * @param source the source of the program
+	 * @return the checked program
+	 * @throws Exception the program failed to parse or typecheck
+	 */
+	private Loaded load(String source) throws Exception {
+		String hash = hash(source);
+		Loaded loaded;
+		synchronized (programs) {
+			loaded = (Loaded) programs.get(hash);
+		}
+		if (loaded == null) {
+			Program program = factory.parse(
+				new ByteArrayInputStream(source.getBytes("UTF-8")));
+			ClassTable types = factory.ClassTable(program.classDecls);
+			ProgramCode code = factory.TypeChecker(types).compileProgram(program);
+			loaded = new Loaded(hash, types, code);
+			synchronized (programs) {
+				programs.put(hash, loaded);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Evaluate a checked program.
+	 * @param loaded the program
+	 * @return its value
+	 * @throws Exception the program failed to evaluate
+	 */
+	private String run(Loaded loaded) throws Exception {
+		return factory.CodeEvaluator(loaded.types, loaded.code)
+			.evalProgram().toString();
+	}
+
+	/**
+	 * Check and evaluate an expression against the classes of a
+	 * checked program.
+	 * @param loaded the program
+	 * @param source the source of the expression
+	 * @return its value
+	 * @throws Exception the expression failed to parse, typecheck,
+	 * or evaluate
+	 */
+	private String eval(Loaded loaded, String source) throws Exception {
+		Term term = factory.parseExpression(
+			new ByteArrayInputStream(source.getBytes("UTF-8")));
+		Code code = factory.TypeChecker(loaded.types).compileTerm(term);
+		return factory.CodeEvaluator(loaded.types, loaded.code.withTerm(code))
+			.evalProgram().toString();
+	}
+
+	/**
+	 * Find the hash naming the source of a program: its SHA-256
+	 * digest, in hexadecimal.
+	 * @param source the source of the program
+	 * @return the hash
+	 */
+	private static String hash(String source) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+				.digest(source.getBytes("UTF-8"));
+			StringBuffer hex = new StringBuffer(2 * digest.length);
+			for (int i = 0; i < digest.length; ++i) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new Error("SHA-256 is not available");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error("UTF-8 is not available");
+		}
+	}
+
+	/**
+	 * Read a frame.
+	 * @param in the stream to read from
+	 * @param limit the longest frame to accept, in bytes
+	 * @return the text of the frame, or <code>null</code> if the stream
+	 * ended before it
+	 * @throws FrameException the frame was too long
+	 * @throws IOException the stream could not be read, or ended
+	 * within the frame
+	 */
+	static String readFrame(DataInputStream in, int limit)
+		throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		}
+		catch (EOFException e) {
+			return null;
+		}
+		if (length < 0 || length > limit) {
+			throw new FrameException("frame of " + length + " bytes is too long");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Write a frame.
+	 * @param out the stream to write to
+	 * @param text the text of the frame
+	 * @throws IOException the stream could not be written
+	 */
+	static void writeFrame(DataOutputStream out, String text)
+		throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * Close a connection, ignoring any failure.
+	 * @param connection the connection
+	 */
+	private static void closeQuietly(Socket connection) {
+		try {
+			connection.close();
+		}
+		catch (IOException e) {
+			// Closing anyway
+		}
+	}
+
+	/**
+	 * A frame was too long to accept.
+	 */
+	private static class FrameException extends IOException {
+
+		/**
+		 * Construct a new frame exception.
+		 * @param str the reason for the exception
+		 */
+		FrameException(String str) {
+			super(str);
+		}
+	}
+
+	/**
+	 * A checked program.
+	 */
+	private static class Loaded {
+
+		/**
+		 * The hash of its source.
+		 */
+		final String hash;
+
+		/**
+		 * Its class table.
+		 */
+		final ClassTable types;
+
+		/**
+		 * Its translation.
+		 */
+		final ProgramCode code;
+
+		/**
+		 * Construct a checked program.
+		 * @param hash the hash of its source
+		 * @param types its class table
+		 * @param code its translation
+		 */
+		Loaded(String hash, ClassTable types, ProgramCode code) {
+			this.hash = hash;
+			this.types = types;
+			this.code = code;
+		}
+	}
+}
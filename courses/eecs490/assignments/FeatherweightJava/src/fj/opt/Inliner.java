@@ -0,0 +1,631 @@
+package fj.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.*;
+import fj.ir.Code;
+import fj.ir.ProgramCode;
+import fj.ir.Translator;
+import fj.types.ClassTable;
+import fj.types.FieldInfo;
+import fj.types.MethodType;
+
+/**
+ * Inlining of method invocations in a checked program.  Every method
+ * of FeatherweightJava is a single expression, so evaluating a call
+ * usually costs more than evaluating the body it runs; the inliner
+ * replaces a call by the body of the method it must run, with the
+ * receiver put in place of <code>this</code> and the arguments in place
+ * of the parameters, wherever the method can be known before the
+ * program runs.  That is when the receiver is created right there, as
+ * in <code>new C().m()</code>, or when no subclass of the receiver's
+ * static class overrides the method its static class has.
+ *
+ * <p>Inlining must not change what a program computes, or how it
+ * fails.  A call evaluates its receiver and arguments once each, in
+ * order, before the body; so an argument which may fail, or not end,
+ * is substituted only if the body uses it exactly once, and evaluates
+ * all such arguments in their order before anything else which may
+ * fail.  An argument which cannot fail but creates an object is
+ * substituted if it is used at most once, and variables, literals,
+ * and the fields of these, which cost no more to repeat than to keep,
+ * wherever the body uses them.  A call for which this does not hold
+ * is left alone.</p>
+ *
+ * <p>A method is inlined only if its body has at most
+ * {@link #MAX_BODY} terms, calls inlined inside inlined bodies nest at
+ * most {@link #MAX_DEPTH} deep, and inlining adds at most
+ * {@link #MAX_GROWTH} terms to a method.  A method is never inlined
+ * within itself, so recursion is left to calls.</p>
+ *
+ * <p>The inliner works out the static type of every term it returns,
+ * as the typechecker would, so the result may also be translated into
+ * code; see {@link #translate}.  The program given must have passed
+ * the typechecker, against the class table given.</p>
+ */
+public class Inliner {
+
+	/**
+	 * The most terms the body of a method may have to be inlined.
+	 */
+	public static final int MAX_BODY = 16;
+
+	/**
+	 * The deepest that inlined calls may nest within each other.
+	 */
+	public static final int MAX_DEPTH = 4;
+
+	/**
+	 * The most terms inlining may add to the body of one method.
+	 */
+	public static final int MAX_GROWTH = 256;
+
+	/**
+	 * Kind of argument which costs nothing to evaluate again.
+	 */
+	private static final int TRIVIAL = 0;
+
+	/**
+	 * Kind of argument which cannot fail, but creates an object.
+	 */
+	private static final int PURE = 1;
+
+	/**
+	 * Kind of argument which may fail or not end.
+	 */
+	private static final int EFFECT = 2;
+
+	/**
+	 * Marks, in the order a body is evaluated, a step which may fail.
+	 */
+	private static final String STEP = "";
+
+	/**
+	 * The class table.
+	 */
+	private final ClassTable types;
+
+	/**
+	 * A mapping from the names of the program's classes to their
+	 * {@link ClassDecl}s.
+	 */
+	private final Map classes;
+
+	/**
+	 * A mapping from the names of the program's classes to the
+	 * {@link List} of the names of their direct subclasses.
+	 */
+	private final Map subclasses;
+
+	/**
+	 * A mapping from the names of classes to whether a method of the
+	 * given name is declared in the class or a subclass, as Booleans,
+	 * by the class name and method name separated by a dot.
+	 */
+	private final Map overridden;
+
+	/**
+	 * A mapping from the terms returned, by identity, to their static
+	 * types.
+	 */
+	private final Map staticTypes;
+
+	/**
+	 * The methods whose bodies are being inlined into, outermost
+	 * first.
+	 */
+	private final List inlining;
+
+	/**
+	 * The number of terms inlining has added to the method being
+	 * inlined into.
+	 */
+	private int growth;
+
+	/**
+	 * Construct an inliner.
+	 * @param types the class table the program was checked against
+	 * @param classDecls the {@link ClassDecl} list of the program
+	 */
+	public Inliner(ClassTable types, List classDecls) {
+		this.types = types;
+		this.classes = new HashMap();
+		this.subclasses = new HashMap();
+		this.overridden = new HashMap();
+		this.staticTypes = new IdentityHashMap();
+		this.inlining = new ArrayList();
+		for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			classes.put(classDecl.name, classDecl);
+			subclasses.put(classDecl.name, new ArrayList());
+		}
+		for (Iterator i = classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			List siblings = (List) subclasses.get(classDecl.superType.className);
+			if (siblings != null) siblings.add(classDecl.name);
+		}
+	}
+
+	/**
+	 * Inline the calls of a program.
+	 * @param program the program, which passed the typechecker
+	 * @return the program with calls inlined into the bodies of its
+	 * methods and into its expression
+	 */
+	public Program inline(Program program) {
+		List classDecls = new ArrayList(program.classDecls.size());
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			List methods = new ArrayList(classDecl.methods.size());
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				Method method = (Method) j.next();
+				Map env = new HashMap();
+				env.put("this", classDecl.type);
+				for (Iterator k = method.params.iterator(); k.hasNext(); ) {
+					Declaration param = (Declaration) k.next();
+					env.put(param.name, param.type);
+				}
+				inlining.add(method);
+				growth = 0;
+				Term body = optimize(method.body, env, 0);
+				inlining.clear();
+				methods.add((body == method.body) ? method :
+					new Method(method.returnType, method.name, method.params, body));
+			}
+			classDecls.add(new ClassDecl(classDecl.name, classDecl.superType,
+				classDecl.fields, classDecl.constructor, methods,
+				classDecl.isNative));
+		}
+		growth = 0;
+		Term term = optimize(program.term, new HashMap(), 0);
+		return new Program(classDecls, term);
+	}
+
+	/**
+	 * Translate a program this inliner returned into code, using the
+	 * static types it worked out, as
+	 * {@link fj.typecheck.TypeChecker#compileProgram} does with those
+	 * the typechecker works out.
+	 * @param program the program returned by {@link #inline}
+	 * @return the translated program
+	 */
+	public ProgramCode translate(Program program) {
+		Translator translator = new Translator(types, staticTypes);
+		List methods = new ArrayList();
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				methods.add(translator.translate((Method) j.next(), classDecl.type));
+			}
+		}
+		Code term = translator.translate(program.term);
+		return new ProgramCode(program.classDecls, methods, term);
+	}
+
+	/**
+	 * Inline the calls in an expression, and work out the static types
+	 * of its terms.
+	 * @param t the expression
+	 * @param env a mapping from the names of the variables in scope
+	 * to their types
+	 * @param depth how many inlined bodies the expression is within
+	 * @return the expression with calls inlined, which may be
+	 * <code>t</code> itself
+	 */
+	private Term optimize(Term t, Map env, int depth) {
+
+		// Arguments already substituted were optimized where they were
+		if (staticTypes.containsKey(t)) return t;
+		Term result = t;
+		Type type;
+		if (t instanceof VarTerm) {
+			type = (Type) env.get(((VarTerm) t).name);
+		}
+		else if (t instanceof FieldTerm) {
+			FieldTerm term = (FieldTerm) t;
+			Term base = optimize(term.base, env, depth);
+			if (base != term.base) result = new FieldTerm(base, term.fieldName);
+			FieldInfo fields = types.fields(typeOf(base));
+			Integer offset = (Integer) fields.map.get(term.fieldName);
+			type = ((Declaration) fields.list.get(offset.intValue())).type;
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			Term base = optimize(term.base, env, depth);
+			List args = optimize(term.args, env, depth);
+			if (base != term.base || args != term.args) {
+				result = new CallTerm(base, term.methodName, args);
+			}
+			Term body = inline(term.methodName, base, args, env, depth);
+			if (body != null) return body;
+			MethodType mtype = types.mtype(term.methodName, typeOf(base));
+			if (mtype == null) {
+				throw new Error("Internal inliner error: unknown method");
+			}
+			type = mtype.returnType;
+		}
+		else if (t instanceof NewTerm) {
+			NewTerm term = (NewTerm) t;
+			List args = optimize(term.args, env, depth);
+			if (args != term.args) result = new NewTerm(term.type, args);
+			type = term.type;
+		}
+		else if (t instanceof CastTerm) {
+			CastTerm term = (CastTerm) t;
+			Term operand = optimize(term.term, env, depth);
+			if (operand != term.term) result = new CastTerm(term.type, operand);
+			type = term.type;
+		}
+		else if (t instanceof LiteralTerm) {
+			type = ((LiteralTerm) t).type;
+		}
+		else if (t instanceof NativeTerm) {
+			NativeTerm term = (NativeTerm) t;
+			List args = optimize(term.args, env, depth);
+			if (args != term.args) {
+				result = new NativeTerm(term.library, term.methodName,
+					term.type, args);
+			}
+			type = term.type;
+		}
+		else {
+			throw new Error("Internal inliner error: invalid term type");
+		}
+		if (type == null) {
+			throw new Error("Internal inliner error: term was not checked");
+		}
+		staticTypes.put(result, type);
+		return result;
+	}
+
+	/**
+	 * Inline the calls in a list of expressions.
+	 * @param terms the {@link Term} list
+	 * @param env the types of the variables in scope
+	 * @param depth how many inlined bodies the expressions are within
+	 * @return the list of optimized terms, which is <code>terms</code>
+	 * itself if none changed
+	 */
+	private List optimize(List terms, Map env, int depth) {
+		List results = null;
+		for (int i = 0; i < terms.size(); ++i) {
+			Term term = (Term) terms.get(i);
+			Term result = optimize(term, env, depth);
+			if (result != term && results == null) {
+				results = new ArrayList(terms.subList(0, i));
+			}
+			if (results != null) results.add(result);
+		}
+		return (results != null) ? results : terms;
+	}
+
+	/**
+	 * Inline a call, if its method is known and it may be.
+	 * @param methodName the name of the method
+	 * @param base the optimized receiver
+	 * @param args the optimized arguments
+	 * @param env the types of the variables in scope
+	 * @param depth how many inlined bodies the call is within
+	 * @return the optimized body with the receiver and arguments
+	 * substituted, or <code>null</code> if the call is to be left
+	 */
+	private Term inline(String methodName, Term base, List args, Map env,
+			int depth) {
+		if (depth >= MAX_DEPTH) return null;
+		Method method = target(methodName, typeOf(base),
+			base instanceof NewTerm);
+		if (method == null || inlining.contains(method)) return null;
+		int size = size(method.body);
+		if (size > MAX_BODY || growth + size > MAX_GROWTH) return null;
+
+		// The receiver and arguments, as the body names them
+		Map actuals = new HashMap();
+		List names = new ArrayList(args.size() + 1);
+		actuals.put("this", base);
+		names.add("this");
+		for (int i = 0; i < args.size(); ++i) {
+			String name = (String) method.paramNames.get(i);
+			actuals.put(name, args.get(i));
+			names.add(name);
+		}
+		if (!substitutable(method.body, names, actuals)) return null;
+
+		// Substitute, then inline what the body calls in turn
+		growth += size;
+		inlining.add(method);
+		try {
+			return optimize(substitute(method.body, actuals), env, depth + 1);
+		}
+		finally {
+			inlining.remove(inlining.size() - 1);
+		}
+	}
+
+	/**
+	 * Find the method a call must run, if it can be known.
+	 * @param methodName the name of the method
+	 * @param type the static class of the receiver
+	 * @param exact whether the receiver is known to be of exactly that
+	 * class
+	 * @return the method declaration, or <code>null</code> if the
+	 * method may be any of several, or is not declared by the
+	 * program's own classes
+	 */
+	private Method target(String methodName, Type type, boolean exact) {
+		if (!exact && overridden(methodName, type, false)) return null;
+		for (ClassDecl classDecl = (ClassDecl) classes.get(type.className);
+			classDecl != null;
+			classDecl = (ClassDecl) classes.get(classDecl.superType.className)) {
+			for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
+				Method method = (Method) i.next();
+				if (method.name.equals(methodName)) return method;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determine whether a subclass of a class declares a method.
+	 * @param methodName the name of the method
+	 * @param type the class
+	 * @param self whether the class itself counts
+	 * @return whether or not it does
+	 */
+	private boolean overridden(String methodName, Type type, boolean self) {
+		String key = type.className + "." + methodName;
+		Boolean known = (Boolean) overridden.get(key);
+		if (known == null) {
+			boolean found = false;
+			List subs = (List) subclasses.get(type.className);
+			if (subs != null) {
+				for (Iterator i = subs.iterator(); i.hasNext() && !found; ) {
+					found = overridden(methodName, new Type((String) i.next()), true);
+				}
+			}
+			known = Boolean.valueOf(found);
+			overridden.put(key, known);
+		}
+		if (known.booleanValue()) return true;
+		if (!self) return false;
+		ClassDecl classDecl = (ClassDecl) classes.get(type.className);
+		for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
+			if (((Method) i.next()).name.equals(methodName)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether substituting the receiver and arguments into a
+	 * body keeps what the call computes, and how it fails: each
+	 * argument which may fail is used once, and all of them are
+	 * evaluated in order before any other step which may fail.
+	 * @param body the body of the method
+	 * @param names the names of the receiver and parameters, in the
+	 * order the call evaluates them
+	 * @param actuals a mapping from the names to the terms to put in
+	 * their place
+	 * @return whether or not the substitution is safe
+	 */
+	private boolean substitutable(Term body, List names, Map actuals) {
+		List order = new ArrayList();
+		evaluationOrder(body, order);
+
+		// Each argument which may fail, in turn, before the first step
+		int next = 0;
+		boolean stepped = false;
+		Map uses = new HashMap();
+		for (Iterator i = order.iterator(); i.hasNext(); ) {
+			Object step = i.next();
+			if (step == STEP) {
+				stepped = true;
+				continue;
+			}
+			int[] count = (int[]) uses.get(step);
+			if (count == null) uses.put(step, count = new int[1]);
+			++count[0];
+			if (kind((Term) actuals.get(step)) != EFFECT) continue;
+			if (stepped || count[0] > 1) return false;
+			while (next < names.size() &&
+				kind((Term) actuals.get(names.get(next))) != EFFECT) {
+				++next;
+			}
+			if (next == names.size() || !names.get(next).equals(step)) return false;
+			++next;
+		}
+
+		// None left out, and none which creates objects repeated
+		for (int i = 0; i < names.size(); ++i) {
+			String name = (String) names.get(i);
+			int[] count = (int[]) uses.get(name);
+			int used = (count != null) ? count[0] : 0;
+			int kind = kind((Term) actuals.get(name));
+			if ((kind == EFFECT && used != 1) || (kind == PURE && used > 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * List the variables a body reads, and the steps which may fail,
+	 * in the order they are evaluated.
+	 * @param t the body
+	 * @param order the list to add the names of the variables and
+	 * {@link #STEP} to
+	 */
+	private static void evaluationOrder(Term t, List order) {
+		if (t instanceof VarTerm) {
+			order.add(((VarTerm) t).name);
+		}
+		else if (t instanceof FieldTerm) {
+			evaluationOrder(((FieldTerm) t).base, order);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			evaluationOrder(term.base, order);
+			evaluationOrder(term.args, order);
+			order.add(STEP);
+		}
+		else if (t instanceof NewTerm) {
+			evaluationOrder(((NewTerm) t).args, order);
+		}
+		else if (t instanceof CastTerm) {
+			evaluationOrder(((CastTerm) t).term, order);
+			order.add(STEP);
+		}
+		else if (t instanceof NativeTerm) {
+			evaluationOrder(((NativeTerm) t).args, order);
+			order.add(STEP);
+		}
+	}
+
+	/**
+	 * List the variables a list of expressions reads, and the steps
+	 * which may fail, in the order they are evaluated.
+	 * @param terms the {@link Term} list
+	 * @param order the list to add to
+	 */
+	private static void evaluationOrder(List terms, List order) {
+		for (Iterator i = terms.iterator(); i.hasNext(); ) {
+			evaluationOrder((Term) i.next(), order);
+		}
+	}
+
+	/**
+	 * Classify an argument by what evaluating it may do.
+	 * @param t the argument
+	 * @return {@link #TRIVIAL} for a variable, a literal, or a field of
+	 * one of these; {@link #PURE} for an object creation or field of
+	 * one whose arguments are all trivial or pure; {@link #EFFECT}
+	 * otherwise
+	 */
+	private static int kind(Term t) {
+		if (t instanceof VarTerm || t instanceof LiteralTerm) {
+			return TRIVIAL;
+		}
+		else if (t instanceof FieldTerm) {
+			return kind(((FieldTerm) t).base);
+		}
+		else if (t instanceof NewTerm) {
+			for (Iterator i = ((NewTerm) t).args.iterator(); i.hasNext(); ) {
+				if (kind((Term) i.next()) == EFFECT) return EFFECT;
+			}
+			return PURE;
+		}
+		return EFFECT;
+	}
+
+	/**
+	 * Replace the variables of a body by the receiver and arguments.
+	 * @param t the body
+	 * @param actuals a mapping from the names of the receiver and
+	 * parameters to the terms to put in their place
+	 * @return a new expression
+	 */
+	private static Term substitute(Term t, Map actuals) {
+		if (t instanceof VarTerm) {
+			Term actual = (Term) actuals.get(((VarTerm) t).name);
+			if (actual == null) {
+				throw new Error("Internal inliner error: unknown variable");
+			}
+			return actual;
+		}
+		else if (t instanceof FieldTerm) {
+			FieldTerm term = (FieldTerm) t;
+			return new FieldTerm(substitute(term.base, actuals), term.fieldName);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			return new CallTerm(substitute(term.base, actuals), term.methodName,
+				substitute(term.args, actuals));
+		}
+		else if (t instanceof NewTerm) {
+			NewTerm term = (NewTerm) t;
+			return new NewTerm(term.type, substitute(term.args, actuals));
+		}
+		else if (t instanceof CastTerm) {
+			CastTerm term = (CastTerm) t;
+			return new CastTerm(term.type, substitute(term.term, actuals));
+		}
+		else if (t instanceof LiteralTerm) {
+			LiteralTerm term = (LiteralTerm) t;
+			return (term.type.equals(LiteralTerm.INT))
+				? new LiteralTerm(((Long) term.value).longValue())
+				: new LiteralTerm(((Boolean) term.value).booleanValue());
+		}
+		else if (t instanceof NativeTerm) {
+			NativeTerm term = (NativeTerm) t;
+			return new NativeTerm(term.library, term.methodName, term.type,
+				substitute(term.args, actuals));
+		}
+		else {
+			throw new Error("Internal inliner error: invalid term type");
+		}
+	}
+
+	/**
+	 * Replace the variables of a list of expressions.
+	 * @param terms the {@link Term} list
+	 * @param actuals the terms to put in place of the variables
+	 * @return a new list
+	 */
+	private static List substitute(List terms, Map actuals) {
+		List results = new ArrayList(terms.size());
+		for (Iterator i = terms.iterator(); i.hasNext(); ) {
+			results.add(substitute((Term) i.next(), actuals));
+		}
+		return results;
+	}
+
+	/**
+	 * Count the terms of an expression.
+	 * @param t the expression
+	 * @return the number of terms in it, itself included
+	 */
+	private static int size(Term t) {
+		if (t instanceof FieldTerm) {
+			return 1 + size(((FieldTerm) t).base);
+		}
+		else if (t instanceof CallTerm) {
+			CallTerm term = (CallTerm) t;
+			return 1 + size(term.base) + size(term.args);
+		}
+		else if (t instanceof NewTerm) {
+			return 1 + size(((NewTerm) t).args);
+		}
+		else if (t instanceof CastTerm) {
+			return 1 + size(((CastTerm) t).term);
+		}
+		else if (t instanceof NativeTerm) {
+			return 1 + size(((NativeTerm) t).args);
+		}
+		return 1;
+	}
+
+	/**
+	 * Count the terms of a list of expressions.
+	 * @param terms the {@link Term} list
+	 * @return the number of terms in them
+	 */
+	private static int size(List terms) {
+		int size = 0;
+		for (Iterator i = terms.iterator(); i.hasNext(); ) {
+			size += size((Term) i.next());
+		}
+		return size;
+	}
+
+	/**
+	 * Return the static type worked out for a term.
+	 * @param t the term, returned by {@link #optimize}
+	 * @return its static type
+	 */
+	private Type typeOf(Term t) {
+		return (Type) staticTypes.get(t);
+	}
+}
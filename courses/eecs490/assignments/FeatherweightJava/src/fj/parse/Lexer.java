@@ -0,0 +1,341 @@
+package fj.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Converts character input into a stream of tokens suitable for parsing
+ * into FeatherweightJava abstract syntax.  Rather than allocating an
+ * object per token, the lexer keeps the current token in its own
+ * fields ({@link #token}, {@link #value}, and {@link #line}), which
+ * {@link #advance()} overwrites with the next one.
+ *
+ * <p>The whole input is read into memory before the first token is
+ * produced.  Identifier names are interned in a table local to the
+ * lexer, so every occurrence of a name in a program shares a single
+ * <code>String</code>, and keywords are recognized by comparing
+ * against the interned keyword strings.</p>
+ */
+public class Lexer {
+
+	/** Token representing end-of-file. */
+	public static final int EOF = 0;
+
+	/** Token representing FeatherweightJava identifiers. */
+	public static final int IDENTIFIER = 1;
+
+	/** Token representing the <code>class</code> keyword. */
+	public static final int CLASS = 2;
+
+	/** Token representing the <code>extends</code> keyword. */
+	public static final int EXTENDS = 3;
+
+	/** Token representing the <code>super</code> keyword. */
+	public static final int SUPER = 4;
+
+	/** Token representing the <code>this</code> keyword. */
+	public static final int THIS = 5;
+
+	/** Token representing the <code>return</code> keyword. */
+	public static final int RETURN = 6;
+
+	/** Token representing the <code>new</code> keyword. */
+	public static final int NEW = 7;
+
+	/** Token representing the '{' punctuation. */
+	public static final int LBRACE = 8;
+
+	/** Token representing the '}' punctuation. */
+	public static final int RBRACE = 9;
+
+	/** Token representing the '(' punctuation. */
+	public static final int LPAREN = 10;
+
+	/** Token representing the ')' punctuation. */
+	public static final int RPAREN = 11;
+
+	/** Token representing the '=' punctuation. */
+	public static final int EQUALS = 12;
+
+	/** Token representing the '.' punctuation. */
+	public static final int DOT = 13;
+
+	/** Token representing the ';' punctuation. */
+	public static final int SEMI = 14;
+
+	/** Token representing the ',' punctuation. */
+	public static final int COMMA = 15;
+
+	/** Token representing a decimal number, perhaps negative. */
+	public static final int NUMBER = 16;
+
+	/**
+	 * The keywords of FeatherweightJava, indexed by token number.
+	 */
+	private static final String[] KEYWORDS = {
+		null, null, "class", "extends", "super", "this", "return", "new"
+	};
+
+	/**
+	 * The identifying number of the current token.
+	 */
+	public int token;
+
+	/**
+	 * The name of the current token when <code>token ==
+	 * IDENTIFIER</code>, or its digits when <code>token ==
+	 * NUMBER</code>.
+	 */
+	public String value;
+
+	/**
+	 * The line on which the current token starts, counting from 1.
+	 */
+	public int line;
+
+	/**
+	 * The underlying input stream, until it has been read.
+	 */
+	private InputStream input;
+
+	/**
+	 * The complete input.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * The number of valid bytes in {@link #buffer}.
+	 */
+	private int limit;
+
+	/**
+	 * The position of the next unread byte in {@link #buffer}.
+	 */
+	private int pos;
+
+	/**
+	 * The line number at {@link #pos}.
+	 */
+	private int lineNumber;
+
+	/**
+	 * Open-addressed hash table of interned names; its length is
+	 * always a power of two.
+	 */
+	private String[] names;
+
+	/**
+	 * The number of names in {@link #names}.
+	 */
+	private int nameCount;
+
+	/**
+	 * Construct a lexer with a given input stream.  Nothing is read
+	 * until the first call to {@link #advance()}.
+	 * @param input the underlying input stream
+	 */
+	public Lexer(InputStream input) {
+		this.input = input;
+		this.lineNumber = 1;
+		this.names = new String[64];
+		for (int i = CLASS; i <= NEW; ++i) {
+			names[slot(KEYWORDS[i])] = KEYWORDS[i];
+			++nameCount;
+		}
+	}
+
+	/**
+	 * Move on to the next token in the input stream, storing it in
+	 * {@link #token}, {@link #value}, and {@link #line}.
+	 * @throws ParseException an I/O exception occurred, or the input
+	 * contained an illegal character
+	 */
+	public void advance() throws ParseException {
+		if (input != null) readInput();
+		byte[] buf = buffer;
+		int p = pos;
+		value = null;
+
+		// Skip whitespace and comments
+		for (;;) {
+			if (p == limit) {
+				pos = p; line = lineNumber; token = EOF;
+				return;
+			}
+			int c = buf[p];
+			if (c == '\n') {
+				++lineNumber; ++p;
+			}
+			else if (c == ' ' || c == '\t' || c == '\r') {
+				++p;
+			}
+			else if (c == '/' && p + 1 < limit && buf[p + 1] == '/') {
+				while (p < limit && buf[p] != '\n') ++p;
+			}
+			else {
+				break;
+			}
+		}
+		line = lineNumber;
+
+		// Punctuation is a single character
+		int c = buf[p];
+		switch (c) {
+		case '{': token = LBRACE; pos = p + 1; return;
+		case '}': token = RBRACE; pos = p + 1; return;
+		case '(': token = LPAREN; pos = p + 1; return;
+		case ')': token = RPAREN; pos = p + 1; return;
+		case '=': token = EQUALS; pos = p + 1; return;
+		case '.': token = DOT; pos = p + 1; return;
+		case ';': token = SEMI; pos = p + 1; return;
+		case ',': token = COMMA; pos = p + 1; return;
+		}
+
+		// Numbers are digits, which no name contains, perhaps after
+		// a minus sign
+		if ((c >= '0' && c <= '9') || (c == '-' && p + 1 < limit &&
+			buf[p + 1] >= '0' && buf[p + 1] <= '9')) {
+			int start = p;
+			do {
+				++p;
+			} while (p < limit && buf[p] >= '0' && buf[p] <= '9');
+			pos = p;
+			char[] digits = new char[p - start];
+			for (int i = 0; i < digits.length; ++i) {
+				digits[i] = (char) buf[start + i];
+			}
+			token = NUMBER;
+			value = new String(digits);
+			return;
+		}
+
+		// Everything else must be an identifier or keyword
+		if (!isLetter(c)) die("illegal character");
+		int start = p;
+		int hash = 0;
+		do {
+			hash = 31 * hash + buf[p++];
+		} while (p < limit && isLetter(buf[p]));
+		pos = p;
+		String name = intern(start, p - start, hash);
+		for (int i = CLASS; i <= NEW; ++i) {
+			if (name == KEYWORDS[i]) {
+				token = i;
+				return;
+			}
+		}
+		token = IDENTIFIER;
+		value = name;
+	}
+
+	/**
+	 * Throw a {@link ParseException} for the given reason, reported
+	 * at the line of the current token.
+	 * @param reason the message to associate with the exception
+	 * @throws ParseException always; that's the point
+	 */
+	public void die(String reason) throws ParseException {
+		throw new ParseException(line, reason);
+	}
+
+	/**
+	 * Determine whether a character may appear in an identifier.
+	 * @param c the character to examine
+	 * @return whether or not it is an ASCII letter
+	 */
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Return the single shared string for a name in the input.
+	 * @param start the offset of the name in {@link #buffer}
+	 * @param length the length of the name
+	 * @param hash the name's {@link String#hashCode()}
+	 * @return the interned name
+	 */
+	private String intern(int start, int length, int hash) {
+		int mask = names.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask) {
+			String name = names[i];
+			if (name == null) break;
+			if (name.length() == length && matches(name, start)) {
+				return name;
+			}
+		}
+
+		// A new name; ASCII letters decode one byte to one char
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = (char) buffer[start + i];
+		}
+		String name = new String(chars);
+		if (2 * ++nameCount > names.length) rehash();
+		names[slot(name)] = name;
+		return name;
+	}
+
+	/**
+	 * Determine whether a name occurs in the input at a position.
+	 * @param name the name to compare with
+	 * @param start the offset in {@link #buffer} to compare at
+	 * @return whether or not the characters match
+	 */
+	private boolean matches(String name, int start) {
+		for (int i = 0; i < name.length(); ++i) {
+			if (name.charAt(i) != buffer[start + i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Find the empty slot in which to store a new name.
+	 * @param name the name to be stored
+	 * @return its index in {@link #names}
+	 */
+	private int slot(String name) {
+		int mask = names.length - 1;
+		int i = name.hashCode() & mask;
+		while (names[i] != null) i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Double the size of the name table.
+	 */
+	private void rehash() {
+		String[] old = names;
+		names = new String[2 * old.length];
+		for (int i = 0; i < old.length; ++i) {
+			if (old[i] != null) names[slot(old[i])] = old[i];
+		}
+	}
+
+	/**
+	 * Read the entire input stream into {@link #buffer}.
+	 * @throws ParseException an I/O error occurred
+	 */
+	private void readInput() throws ParseException {
+		try {
+			byte[] buf = new byte[8192];
+			int n = 0;
+			for (;;) {
+				if (n == buf.length) {
+					byte[] bigger = new byte[2 * buf.length];
+					System.arraycopy(buf, 0, bigger, 0, n);
+					buf = bigger;
+				}
+				int k = input.read(buf, n, buf.length - n);
+				if (k < 0) break;
+				n += k;
+			}
+			buffer = buf;
+			limit = n;
+			input = null;
+		}
+		catch (IOException e) {
+			line = lineNumber;
+			die("input/output error");
+		}
+	}
+}
@@ -1,17 +1,19 @@
-package fj.parse;
-
-import fj.main.FeatherweightJavaException;
-
-/**
- * An exception raised during source file parsing.
- */
-public class ParseException extends FeatherweightJavaException {
-	
-	/**
-	 * Construct a new parse exception.
-	 * @param str the reason for the exception
-	 */
-	ParseException(String str) {
-		super("parse error: " + str);
-	}
-}
+package fj.parse;
+
+import fj.main.FeatherweightJavaException;
+
+/**
+ * An exception raised during source file parsing.
+ */
+public class ParseException extends FeatherweightJavaException {
+
+	/**
+	 * Construct a new parse exception.
+	 * @param lineNumber the line of the source file where the
+	 * exception occurred
+	 * @param str the reason for the exception
+	 */
+	ParseException(int lineNumber, String str) {
+		super("parse error on line " + lineNumber + ": " + str);
+	}
+}
@@ -0,0 +1,420 @@
+package fj.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import fj.ast.*;
+
+/**
+ * Convert a stream of tokens into a FeatherweightJava abstract syntax
+ * tree.  This is a recursive-descent parser needing a single token of
+ * lookahead, which it reads directly from the {@link Lexer}'s fields.
+ *
+ * <p>The language accepted is exactly the one of the original
+ * FeatherweightJava grammar.  In particular, an identifier alone in
+ * parentheses is always a type cast, as in <code>(A) x</code>, and the
+ * operand of a cast extends as far to the right as possible, so
+ * <code>(A) x.f</code> casts <code>x.f</code>.</p>
+ *
+ * <p>A parser may be asked to accept literals of the built-in classes
+ * <code>Int</code> and <code>Bool</code> of {@link fj.eval.Primitives}
+ * as well: decimal numbers, and <code>true</code> and
+ * <code>false</code>, which are then literals wherever a name would
+ * be an expression, and classes declared <code>native</code>, whose
+ * methods have no bodies and are bound to Java methods by
+ * {@link fj.eval.Natives}.</p>
+ */
+public class Parser {
+
+	/**
+	 * The token provider.
+	 */
+	private final Lexer lexer;
+
+	/**
+	 * Whether to accept literals of the built-in classes, and native
+	 * classes.
+	 */
+	private final boolean primitives;
+
+	/**
+	 * Construct a new parser.
+	 * @param lexer the token provider
+	 */
+	public Parser(Lexer lexer) {
+		this(lexer, false);
+	}
+
+	/**
+	 * Construct a new parser which may accept literals of the built-in
+	 * classes.
+	 * @param lexer the token provider
+	 * @param primitives whether to accept literals
+	 */
+	public Parser(Lexer lexer, boolean primitives) {
+		this.lexer = lexer;
+		this.primitives = primitives;
+	}
+
+	/**
+	 * Convert the token stream into a FeatherweightJava program.
+	 * @return the abstract syntax of the program
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, or the parser encountered a
+	 * bad token sequence
+	 */
+	public Program parse() throws ParseException {
+		lexer.advance();
+
+		// Read class declarations first
+		List classList = parseClassList();
+
+		// Read a term
+		Term term = parseTerm();
+
+		// Should be end-of-file
+		if (lexer.token != Lexer.EOF) lexer.die("expected end of file");
+
+		// All done
+		return new Program(classList, term);
+	}
+
+	/**
+	 * Convert the token stream into a single FeatherweightJava
+	 * expression, such as ends a program.
+	 * @return the abstract syntax of the expression
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, or the parser encountered a
+	 * bad token sequence
+	 */
+	public Term parseExpression() throws ParseException {
+		lexer.advance();
+		Term term = parseTerm();
+		if (lexer.token != Lexer.EOF) lexer.die("expected end of file");
+		return term;
+	}
+
+	/**
+	 * Convert the token stream into a list of FeatherweightJava class
+	 * declarations, with no expression after them.
+	 * @return the {@link ClassDecl} list
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, or the parser encountered a
+	 * bad token sequence
+	 */
+	public List parseClasses() throws ParseException {
+		lexer.advance();
+		List classList = parseClassList();
+		if (lexer.token != Lexer.EOF) lexer.die("expected class or end of file");
+		return classList;
+	}
+
+	/**
+	 * Parse class declarations, as long as they last.  A class is
+	 * native if <code>native</code> comes before <code>class</code>,
+	 * which is only a keyword there, and only if the parser accepts
+	 * native classes.
+	 * @return the {@link ClassDecl} list
+	 * @throws ParseException a parse error occurred
+	 */
+	private List parseClassList() throws ParseException {
+		List classList = new ArrayList();
+		for (;;) {
+			boolean isNative = primitives &&
+				lexer.token == Lexer.IDENTIFIER && lexer.value.equals("native");
+			if (isNative) {
+				lexer.advance();
+				if (lexer.token != Lexer.CLASS) {
+					lexer.die("expected \"class\" after \"native\"");
+				}
+			}
+			else if (lexer.token != Lexer.CLASS) {
+				return classList;
+			}
+			lexer.advance();
+			classList.add(parseClass(isNative));
+		}
+	}
+
+	/**
+	 * Parse a class declaration, after the <code>class</code> keyword.
+	 * @param isNative whether the class was declared native
+	 * @return class declaration abstract syntax
+	 * @throws ParseException a parse error occurred
+	 */
+	private ClassDecl parseClass(boolean isNative) throws ParseException {
+		String className = eat(Lexer.IDENTIFIER, "class name");
+		eat(Lexer.EXTENDS, "\"extends\" after class name");
+		Type superType = new Type(eat(Lexer.IDENTIFIER, "super class name"));
+		eat(Lexer.LBRACE, "'{' after super class name");
+
+		// Fields, until a name followed by '(' starts the constructor
+		List fields = new ArrayList();
+		String name;
+		for (;;) {
+			name = eat(Lexer.IDENTIFIER, "field type or constructor");
+			if (lexer.token == Lexer.LPAREN) break;
+			String fieldName = eat(Lexer.IDENTIFIER, "field name");
+			fields.add(new Declaration(new Type(name), fieldName));
+			eat(Lexer.SEMI, "';' after field declaration");
+		}
+		Constructor cons = parseConstructor(name);
+
+		// Methods, up to the closing brace
+		List methods = new ArrayList();
+		while (lexer.token != Lexer.RBRACE) {
+			methods.add(isNative ? parseNativeMethod(className) : parseMethod());
+		}
+		lexer.advance();
+		return new ClassDecl(className, superType, fields, cons, methods,
+			isNative);
+	}
+
+	/**
+	 * Parse the constructor of a class, after its name.
+	 * @param name the name given to the constructor
+	 * @return the parsed constructor
+	 * @throws ParseException a parse error occurred
+	 */
+	private Constructor parseConstructor(String name) throws ParseException {
+		List params = parseParams();
+
+		// Call to super constructor
+		eat(Lexer.LBRACE, "'{' after constructor parameter list");
+		eat(Lexer.SUPER, "\"super\" invocation");
+		eat(Lexer.LPAREN, "'(' after \"super\" in constructor");
+		List superArgs = Collections.EMPTY_LIST;
+		if (lexer.token != Lexer.RPAREN) {
+			superArgs = new ArrayList();
+			for (;;) {
+				superArgs.add(eat(Lexer.IDENTIFIER, "field name"));
+				if (lexer.token != Lexer.COMMA) break;
+				lexer.advance();
+			}
+		}
+		eat(Lexer.RPAREN, "')' after \"super\" arguments");
+		eat(Lexer.SEMI, "';' after \"super\" invocation");
+
+		// Field initialization, plus closing brace
+		List fieldInits = new ArrayList();
+		while (lexer.token != Lexer.RBRACE) {
+			eat(Lexer.THIS, "\"this\" in field initialization");
+			eat(Lexer.DOT, "'.' after \"this\"");
+			String field = eat(Lexer.IDENTIFIER, "field name");
+			eat(Lexer.EQUALS, "'=' in field initialization");
+			String param = eat(Lexer.IDENTIFIER, "parameter name");
+			eat(Lexer.SEMI, "';' after field initialization");
+			fieldInits.add(new FieldInit(field, param));
+		}
+		lexer.advance();
+		return new Constructor(name, params, superArgs, fieldInits);
+	}
+
+	/**
+	 * Parse a method.
+	 * @return the parsed method
+	 * @throws ParseException a parse error occurred
+	 */
+	private Method parseMethod() throws ParseException {
+		Type returnType = new Type(eat(Lexer.IDENTIFIER, "return type"));
+		String name = eat(Lexer.IDENTIFIER, "method name");
+		List params = parseParams();
+		eat(Lexer.LBRACE, "'{' after method parameter list");
+		eat(Lexer.RETURN, "\"return\" in method body");
+		Term body = parseTerm();
+		eat(Lexer.SEMI, "';' after return statement");
+		eat(Lexer.RBRACE, "'}' after method body");
+		return new Method(returnType, name, params, body);
+	}
+
+	/**
+	 * Parse a method of a native class, which ends after its parameter
+	 * list.
+	 * @param className the name of the class
+	 * @return the parsed method, whose body is a {@link NativeTerm}
+	 * @throws ParseException a parse error occurred
+	 */
+	private Method parseNativeMethod(String className) throws ParseException {
+		Type returnType = new Type(eat(Lexer.IDENTIFIER, "return type"));
+		String name = eat(Lexer.IDENTIFIER, "method name");
+		List params = parseParams();
+		eat(Lexer.SEMI, "';' after native method parameter list");
+		List args = new ArrayList(params.size());
+		for (int i = 0; i < params.size(); ++i) {
+			args.add(new VarTerm(((Declaration) params.get(i)).name));
+		}
+		return new Method(returnType, name, params,
+			new NativeTerm(className, name, returnType, args));
+	}
+
+	/**
+	 * Parse the parameter list of a constructor or method.
+	 * @return the parsed parameter list
+	 * @throws ParseException a parse error occurred
+	 */
+	private List parseParams() throws ParseException {
+		eat(Lexer.LPAREN, "'(' to begin parameter list");
+		if (lexer.token == Lexer.RPAREN) {
+			lexer.advance();
+			return Collections.EMPTY_LIST;
+		}
+
+		// Keep going till we hit the end
+		List paramList = new ArrayList();
+		for (;;) {
+			Type type = new Type(eat(Lexer.IDENTIFIER, "parameter type"));
+			String name = eat(Lexer.IDENTIFIER, "variable name");
+			paramList.add(new Declaration(type, name));
+			if (lexer.token != Lexer.COMMA) break;
+			lexer.advance();
+		}
+		eat(Lexer.RPAREN, "')' at end of parameter list");
+		return paramList;
+	}
+
+	/**
+	 * Parse an expression.
+	 * @return the parsed expression
+	 * @throws ParseException a parse error occurred
+	 */
+	private Term parseTerm() throws ParseException {
+		Term term;
+		switch (lexer.token) {
+
+		// "this" is just a variable
+		case Lexer.THIS:
+			lexer.advance();
+			term = new VarTerm("this");
+			break;
+
+		// Identifiers are just variables, but for the boolean literals
+		case Lexer.IDENTIFIER:
+			term = primitives ? parseBoolean(lexer.value) : null;
+			if (term == null) term = new VarTerm(lexer.value);
+			lexer.advance();
+			break;
+
+		// Numbers are integer literals
+		case Lexer.NUMBER:
+			if (!primitives) lexer.die("expected expression");
+			try {
+				term = new LiteralTerm(Long.parseLong(lexer.value));
+			}
+			catch (NumberFormatException e) {
+				lexer.die("integer literal too large");
+				return null;
+			}
+			lexer.advance();
+			break;
+
+		// Object creation
+		case Lexer.NEW: {
+			lexer.advance();
+			Type type = new Type(eat(Lexer.IDENTIFIER,
+				"class name in \"new\" expression"));
+			term = new NewTerm(type, parseTermList());
+			break;
+		}
+
+		// Must be a cast or a (term)
+		case Lexer.LPAREN:
+			lexer.advance();
+			if (lexer.token == Lexer.IDENTIFIER) {
+				String name = lexer.value;
+				lexer.advance();
+				Term literal = primitives ? parseBoolean(name) : null;
+
+				// (name) is always a cast, whose operand extends as
+				// far as it can; nothing can follow the operand
+				if (literal == null && lexer.token == Lexer.RPAREN) {
+					lexer.advance();
+					return new CastTerm(new Type(name), parseTerm());
+				}
+				term = parseSelections((literal != null)
+					? literal : new VarTerm(name));
+			}
+			else {
+				term = parseTerm();
+			}
+			eat(Lexer.RPAREN, "')' in expression");
+			break;
+
+		default:
+			lexer.die("expected expression");
+			return null;
+		}
+		return parseSelections(term);
+	}
+
+	/**
+	 * Recognize a boolean literal.
+	 * @param name the name read
+	 * @return the literal, or <code>null</code> if the name is neither
+	 * <code>true</code> nor <code>false</code>
+	 */
+	private static Term parseBoolean(String name) {
+		if (name.equals("true")) return new LiteralTerm(true);
+		if (name.equals("false")) return new LiteralTerm(false);
+		return null;
+	}
+
+	/**
+	 * Parse any field selections and method invocations following
+	 * the beginning of a term.
+	 * @param term the term so far
+	 * @return the term with its selections applied
+	 * @throws ParseException a parse error occurred
+	 */
+	private Term parseSelections(Term term) throws ParseException {
+		while (lexer.token == Lexer.DOT) {
+			lexer.advance();
+			String name = eat(Lexer.IDENTIFIER, "field or method name");
+			if (lexer.token == Lexer.LPAREN) {
+				term = new CallTerm(term, name, parseTermList());
+			}
+			else {
+				term = new FieldTerm(term, name);
+			}
+		}
+		return term;
+	}
+
+	/**
+	 * Parse a list of arguments to a method or constructor invocation.
+	 * @return the parsed argument list
+	 * @throws ParseException a parse error occurred
+	 */
+	private List parseTermList() throws ParseException {
+		eat(Lexer.LPAREN, "'(' to begin argument list");
+		if (lexer.token == Lexer.RPAREN) {
+			lexer.advance();
+			return Collections.EMPTY_LIST;
+		}
+
+		// Keep going till we hit the end
+		List termList = new ArrayList();
+		for (;;) {
+			termList.add(parseTerm());
+			if (lexer.token != Lexer.COMMA) break;
+			lexer.advance();
+		}
+		eat(Lexer.RPAREN, "')' at end of argument list");
+		return termList;
+	}
+
+	/**
+	 * Require that the current token has the specified identifying
+	 * number, and move past it.
+	 * @param id the identifying number to look for
+	 * @param what a string description of what was expected
+	 * @return the name of the token, if it was an identifier
+	 * @throws ParseException the given token type was not read
+	 */
+	private String eat(int id, String what) throws ParseException {
+		if (lexer.token != id) lexer.die("expected " + what);
+		String value = lexer.value;
+		lexer.advance();
+		return value;
+	}
+}
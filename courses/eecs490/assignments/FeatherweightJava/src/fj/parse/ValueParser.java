@@ -0,0 +1,210 @@
+package fj.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fj.ast.Type;
+import fj.eval.BoolValue;
+import fj.eval.IntValue;
+import fj.eval.Primitives;
+import fj.eval.Value;
+import fj.eval.VectorValue;
+
+/**
+ * Reads values back from what a {@link fj.eval.ValuePrinter} printed:
+ * either a value written as a constructor invocation, or values with
+ * shared objects, written as bindings of names to invocations followed
+ * by the value.  A name stands for the same object wherever it is
+ * used, so the value read back shares what the value printed did.
+ * Like the printer, the parser keeps a stack of its own rather than
+ * recursing, so values may nest to any depth.  Literals of the
+ * built-in classes of {@link fj.eval.Primitives} are read as their
+ * values, and <code>new Vector()</code>, followed by any number of
+ * <code>.append(</code><i>value</i><code>)</code>, as a vector.
+ */
+public class ValueParser {
+
+	/**
+	 * The token provider.
+	 */
+	private final Lexer lexer;
+
+	/**
+	 * The objects bound so far, by name.
+	 */
+	private final Map bindings = new HashMap();
+
+	/**
+	 * Construct a new parser.
+	 * @param lexer the token provider
+	 */
+	public ValueParser(Lexer lexer) {
+		this.lexer = lexer;
+	}
+
+	/**
+	 * Read the whole input as a value, after any bindings.
+	 * @return the value
+	 * @throws ParseException an I/O exception occurred, the lexer
+	 * encountered an invalid lexeme, a name was used before it was
+	 * bound, or the parser encountered a bad token sequence
+	 */
+	public Value parse() throws ParseException {
+		lexer.advance();
+		for (;;) {
+			if (lexer.token != Lexer.IDENTIFIER) break;
+			String name = lexer.value;
+			if (literal(name) != null) break;
+			lexer.advance();
+			if (lexer.token != Lexer.EQUALS) {
+				// Just a name; it is the whole value
+				Value value = lookup(name);
+				if (lexer.token != Lexer.EOF) lexer.die("expected end of file");
+				return value;
+			}
+			lexer.advance();
+			if (bindings.containsKey(name)) lexer.die(name + " bound twice");
+			Value value = parseValue();
+			bindings.put(name, value);
+			if (lexer.token != Lexer.SEMI) lexer.die("expected ';' after binding");
+			lexer.advance();
+		}
+		Value value = parseValue();
+		if (lexer.token != Lexer.EOF) lexer.die("expected end of file");
+		return value;
+	}
+
+	/**
+	 * Parse a constructor invocation whose arguments are invocations or
+	 * bound names.
+	 * @return the value
+	 * @throws ParseException a parse error occurred
+	 */
+	private Value parseValue() throws ParseException {
+		// The objects whose arguments are being read, outermost
+		// first, as the type and the list of arguments read so far,
+		// or for a vector, the vector built so far
+		List types = new ArrayList();
+		List argLists = new ArrayList();
+		for (;;) {
+			// Read the start of an argument, down to its first argument
+			Value value;
+			if (lexer.token == Lexer.IDENTIFIER) {
+				value = literal(lexer.value);
+				if (value == null) value = lookup(lexer.value);
+				lexer.advance();
+			}
+			else if (lexer.token == Lexer.NUMBER) {
+				try {
+					value = IntValue.valueOf(Long.parseLong(lexer.value));
+				}
+				catch (NumberFormatException e) {
+					lexer.die("integer literal too large");
+					return null;
+				}
+				lexer.advance();
+			}
+			else {
+				if (lexer.token != Lexer.NEW) lexer.die("expected value");
+				lexer.advance();
+				if (lexer.token != Lexer.IDENTIFIER) lexer.die("expected class name");
+				Type type = new Type(lexer.value);
+				lexer.advance();
+				if (lexer.token != Lexer.LPAREN) lexer.die("expected '('");
+				lexer.advance();
+				if (lexer.token != Lexer.RPAREN) {
+					types.add(type);
+					argLists.add(new ArrayList());
+					continue;
+				}
+				lexer.advance();
+				if (type.equals(Primitives.VECTOR)) {
+					if (startAppend()) {
+						types.add(type);
+						argLists.add(VectorValue.EMPTY);
+						continue;
+					}
+					value = VectorValue.EMPTY;
+				}
+				else {
+					value = new Value(type, Collections.EMPTY_LIST);
+				}
+			}
+
+			// Finish the objects it completes
+			for (;;) {
+				int depth = types.size();
+				if (depth == 0) return value;
+				Object top = argLists.get(depth - 1);
+				if (top instanceof VectorValue) {
+					VectorValue vector = ((VectorValue) top).append(value);
+					if (lexer.token != Lexer.RPAREN) lexer.die("expected ')'");
+					lexer.advance();
+					if (startAppend()) {
+						argLists.set(depth - 1, vector);
+						break;
+					}
+					types.remove(depth - 1);
+					argLists.remove(depth - 1);
+					value = vector;
+					continue;
+				}
+				List args = (List) top;
+				args.add(value);
+				if (lexer.token == Lexer.COMMA) {
+					lexer.advance();
+					break;
+				}
+				if (lexer.token != Lexer.RPAREN) lexer.die("expected ',' or ')'");
+				lexer.advance();
+				value = new Value((Type) types.remove(depth - 1), args);
+				argLists.remove(depth - 1);
+			}
+		}
+	}
+
+	/**
+	 * Read the start of an element appended to a vector, if there is
+	 * one.
+	 * @return whether <code>.append(</code> was read
+	 * @throws ParseException a parse error occurred
+	 */
+	private boolean startAppend() throws ParseException {
+		if (lexer.token != Lexer.DOT) return false;
+		lexer.advance();
+		if (lexer.token != Lexer.IDENTIFIER || !lexer.value.equals("append")) {
+			lexer.die("expected 'append'");
+		}
+		lexer.advance();
+		if (lexer.token != Lexer.LPAREN) lexer.die("expected '('");
+		lexer.advance();
+		return true;
+	}
+
+	/**
+	 * Recognize a boolean literal.
+	 * @param name the name read
+	 * @return its value, or <code>null</code> if the name is neither
+	 * <code>true</code> nor <code>false</code>
+	 */
+	private static Value literal(String name) {
+		if (name.equals("true")) return BoolValue.TRUE;
+		if (name.equals("false")) return BoolValue.FALSE;
+		return null;
+	}
+
+	/**
+	 * Find the object bound to a name.
+	 * @param name the name
+	 * @return the object
+	 * @throws ParseException the name was not bound
+	 */
+	private Value lookup(String name) throws ParseException {
+		Value value = (Value) bindings.get(name);
+		if (value == null) lexer.die(name + " is not bound");
+		return value;
+	}
+}
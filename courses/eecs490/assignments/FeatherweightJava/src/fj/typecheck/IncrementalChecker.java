@@ -0,0 +1,610 @@
+package fj.typecheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fj.ast.*;
+import fj.types.ClassTable;
+import fj.types.ClassTableException;
+
+/**
+ * Typechecking of a program that changes over time, as in an editing
+ * session, repeating only the judgments a change may have overturned.
+ *
+ * <p>A program is checked in the same units as a parallel check: each
+ * class header, each method, and the program's term.  Each unit is
+ * judged through a {@linkplain ClassTable#recording(Map) recording
+ * view} of the class table, so its verdict comes with the facts about
+ * classes it was drawn from, and the units are indexed by the classes
+ * they consulted.  When the program is checked again, each unit is
+ * compared with its counterpart in the last program checked, only the
+ * classes whose declarations changed are updated in the class table,
+ * and a unit is judged again only if its own text changed or a fact
+ * it consulted about an affected class no longer holds.  Every other
+ * verdict, success or failure, is reused.  Apart from the comparison,
+ * which takes no time for declarations carried over from the last
+ * program rather than parsed again, the work done is in proportion to
+ * the change rather than to the program.</p>
+ *
+ * <p>The outcome of each check is the same as that of {@link
+ * TypeChecker#checkProgram(Program)} on the whole program: the first
+ * failure in declaration order, if any.  Units after it are left to
+ * be judged by a later check.  Stupid cast warnings are only emitted
+ * when a unit is judged, not when its verdict is reused.</p>
+ */
+public class IncrementalChecker {
+
+	/**
+	 * The typechecker which makes the typecheckers of the units.
+	 */
+	private final TypeChecker checker;
+
+	/**
+	 * The class table, which is kept up to date with the program.
+	 */
+	private final ClassTable types;
+
+	/**
+	 * The class declarations of the program last checked, or
+	 * <code>null</code> if the class table has to be rebuilt.
+	 */
+	private List classDecls;
+
+	/**
+	 * The generation of the class table after the last check.
+	 */
+	private int generation;
+
+	/**
+	 * A mapping of the names of the classes of the last program
+	 * checked to their units ({@link ClassUnits}).
+	 */
+	private Map classes;
+
+	/**
+	 * The unit of the term of the last program checked.
+	 */
+	private Unit termUnit;
+
+	/**
+	 * The dependency graph: a mapping from class names to the set of
+	 * units whose verdicts consulted facts about them.
+	 */
+	private final Map dependents;
+
+	/**
+	 * The number of units judged by the last check.
+	 */
+	private int checked;
+
+	/**
+	 * The number of verdicts reused by the last check.
+	 */
+	private int reused;
+
+	/**
+	 * Construct an incremental checker.  The class table of the given
+	 * typechecker is rebuilt by the first check, and changed by the
+	 * ones after, to match the program checked.
+	 * @param checker the typechecker whose {@link
+	 * TypeChecker#newChecker(ClassTable)} makes the typechecker of
+	 * each unit
+	 */
+	public IncrementalChecker(TypeChecker checker) {
+		this.checker = checker;
+		this.types = checker.types;
+		this.classes = new HashMap();
+		this.dependents = new HashMap();
+	}
+
+	/**
+	 * Typecheck a program, reusing whatever verdicts of earlier checks
+	 * still stand.  Afterwards the class table holds the program's
+	 * classes, unless they are in error.
+	 * @param program the program to check
+	 * @throws ClassTableException the program's classes do not make a
+	 * valid class table; the class table is rebuilt from the last
+	 * program checked
+	 * @throws TypeException the program failed typechecking
+	 */
+	public void check(Program program)
+		throws ClassTableException, TypeException {
+		checked = 0;
+		reused = 0;
+
+		// Match the classes of the new program with those of the last
+		List order = new ArrayList(program.classDecls.size());
+		Map newClasses = new HashMap(2 * program.classDecls.size());
+		List added = new ArrayList();
+		List replaced = new ArrayList();
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			ClassUnits old = (ClassUnits) classes.get(classDecl.name);
+			ClassUnits units = (old != null && old.classDecl == classDecl)
+				? old : new ClassUnits(classDecl, old);
+			if (newClasses.put(classDecl.name, units) != null) {
+				classDecls = null;
+			}
+			order.add(units);
+			if (old == null) {
+				added.add(classDecl);
+			}
+			else if (units != old && units.changed) {
+				replaced.add(classDecl);
+			}
+		}
+		List removed = new ArrayList();
+		for (Iterator i = classes.values().iterator(); i.hasNext(); ) {
+			ClassUnits units = (ClassUnits) i.next();
+			if (!newClasses.containsKey(units.classDecl.name)) {
+				removed.add(units.classDecl);
+				units.forgetAll();
+			}
+		}
+		if (termUnit == null || !sameTerm(termUnit.term, program.term)) {
+			if (termUnit != null) forget(termUnit);
+			termUnit = new Unit(null, null);
+		}
+		termUnit.term = program.term;
+
+		// Bring the class table up to date, and discard the verdicts
+		// it may have overturned
+		Set affected = update(program.classDecls, added, replaced, removed);
+		classes = newClasses;
+		if (affected == null) {
+			for (Iterator i = order.iterator(); i.hasNext(); ) {
+				((ClassUnits) i.next()).forgetAll();
+			}
+			forget(termUnit);
+			dependents.clear();
+		}
+		else {
+			for (Iterator i = affected.iterator(); i.hasNext(); ) {
+				String name = (String) i.next();
+				Set set = (Set) dependents.get(name);
+				if (set == null) continue;
+				for (Iterator j = new ArrayList(set).iterator(); j.hasNext(); ) {
+					Unit unit = (Unit) j.next();
+					if (!types.stillHolds(name, (Map) unit.facts.get(name))) {
+						forget(unit);
+					}
+				}
+			}
+		}
+
+		// Judge what has to be, stopping at the first failure
+		for (Iterator i = order.iterator(); i.hasNext(); ) {
+			ClassUnits units = (ClassUnits) i.next();
+			judge(units.header);
+			for (int j = 0; j < units.methods.length; ++j) {
+				judge(units.methods[j]);
+			}
+		}
+		judge(termUnit);
+	}
+
+	/**
+	 * Return the number of units judged by the last check.
+	 * @return the number of class headers, methods, and terms checked
+	 */
+	public int checked() {
+		return checked;
+	}
+
+	/**
+	 * Return the number of verdicts reused by the last check.
+	 * @return the number of class headers, methods, and terms whose
+	 * earlier verdicts still stood
+	 */
+	public int reused() {
+		return reused;
+	}
+
+	/**
+	 * Update the class table to hold the classes of the new program.
+	 * Only the classes added, replaced, and removed are changed, unless
+	 * the table has to be rebuilt: before the first check, after a
+	 * failed one, when someone else has changed the table, or when the
+	 * changes cannot be made one at a time.
+	 * @param decls the class declarations of the new program
+	 * @param added the class declarations new to the program
+	 * @param replaced the class declarations which have changed
+	 * @param removed the class declarations no longer in the program
+	 * @return the set of names of the classes affected, or
+	 * <code>null</code> if the table was rebuilt
+	 * @throws ClassTableException the classes do not make a valid
+	 * class table
+	 */
+	private Set update(List decls, List added, List replaced, List removed)
+		throws ClassTableException {
+		if (classDecls != null && types.generation() == generation) {
+			try {
+				Set affected = new HashSet();
+				if (!added.isEmpty()) affected.addAll(types.addClasses(added));
+				for (Iterator i = replaced.iterator(); i.hasNext(); ) {
+					affected.addAll(types.replaceClass((ClassDecl) i.next()));
+				}
+				for (Iterator i = bottomUp(removed).iterator(); i.hasNext(); ) {
+					affected.addAll(types.removeClass((Type) i.next()));
+				}
+				classDecls = decls;
+				generation = types.generation();
+				return affected;
+			}
+			catch (ClassTableException e) {
+				// Perhaps only the order of the changes was at fault
+			}
+		}
+		try {
+			types.reset(decls);
+		}
+		catch (ClassTableException e) {
+			if (classDecls != null) types.reset(classDecls);
+			classDecls = null;
+			throw e;
+		}
+		classDecls = decls;
+		generation = types.generation();
+		return null;
+	}
+
+	/**
+	 * Order classes to be removed so that subclasses come before their
+	 * superclasses.
+	 * @param decls the class declarations to remove
+	 * @return the list of their types, deepest in the hierarchy first
+	 */
+	private List bottomUp(List decls) {
+		List removed = new ArrayList();
+		final Map depths = new HashMap();
+		for (Iterator i = decls.iterator(); i.hasNext(); ) {
+			Type type = ((ClassDecl) i.next()).type;
+			int depth = 0;
+			for (Type t = type; t != null && !t.isObject();
+				t = types.superType(t)) {
+				++depth;
+			}
+			removed.add(type);
+			depths.put(type, new Integer(depth));
+		}
+		Collections.sort(removed, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return ((Integer) depths.get(o2)).intValue() -
+					((Integer) depths.get(o1)).intValue();
+			}
+		});
+		return removed;
+	}
+
+	/**
+	 * Judge a unit unless its verdict stands, and throw its failure if
+	 * it has one.  The facts the verdict is drawn from are recorded,
+	 * and the unit entered into the dependency graph.
+	 * @param unit the unit to judge
+	 * @throws TypeException the unit failed typechecking
+	 */
+	private void judge(Unit unit) throws TypeException {
+		if (unit.facts != null) {
+			++reused;
+			if (unit.failure != null) throw unit.failure;
+			return;
+		}
+		Map facts = new HashMap();
+		TypeChecker unitChecker = checker.newChecker(types.recording(facts));
+		try {
+			if (unit.method != null) {
+				unitChecker.checkMethod(unit.method, unit.classDecl.type);
+			}
+			else if (unit.classDecl != null) {
+				unitChecker.checkClassHeader(unit.classDecl);
+			}
+			else {
+				unitChecker.checkTerm(unit.term);
+			}
+		}
+		catch (TypeException e) {
+			unit.failure = e;
+		}
+		++checked;
+		unit.facts = facts;
+		for (Iterator i = facts.keySet().iterator(); i.hasNext(); ) {
+			String name = (String) i.next();
+			Set set = (Set) dependents.get(name);
+			if (set == null) {
+				set = new HashSet();
+				dependents.put(name, set);
+			}
+			set.add(unit);
+		}
+		if (unit.failure != null) throw unit.failure;
+	}
+
+	/**
+	 * Discard the verdict of a unit, and remove it from the dependency
+	 * graph.
+	 * @param unit the unit whose verdict no longer stands
+	 */
+	private void forget(Unit unit) {
+		if (unit.facts == null) return;
+		for (Iterator i = unit.facts.keySet().iterator(); i.hasNext(); ) {
+			String name = (String) i.next();
+			Set set = (Set) dependents.get(name);
+			if (set == null) continue;
+			set.remove(unit);
+			if (set.isEmpty()) dependents.remove(name);
+		}
+		unit.facts = null;
+		unit.failure = null;
+	}
+
+	/**
+	 * Determine whether two class declarations agree in everything but
+	 * their methods.
+	 * @param decl1 the first class declaration
+	 * @param decl2 the second class declaration
+	 * @return whether or not their names, superclasses, fields, and
+	 * constructors are the same
+	 */
+	private static boolean sameHeader(ClassDecl decl1, ClassDecl decl2) {
+		if (decl1 == decl2) return true;
+		Constructor cons1 = decl1.constructor;
+		Constructor cons2 = decl2.constructor;
+		if (!decl1.name.equals(decl2.name) ||
+			decl1.isNative != decl2.isNative ||
+			!decl1.superType.equals(decl2.superType) ||
+			!sameDeclarations(decl1.fields, decl2.fields) ||
+			!cons1.className.equals(cons2.className) ||
+			!sameDeclarations(cons1.params, cons2.params) ||
+			!cons1.superArgs.equals(cons2.superArgs) ||
+			cons1.inits.size() != cons2.inits.size()) return false;
+		Iterator j = cons2.inits.iterator();
+		for (Iterator i = cons1.inits.iterator(); i.hasNext(); ) {
+			FieldInit init1 = (FieldInit) i.next();
+			FieldInit init2 = (FieldInit) j.next();
+			if (!init1.fieldName.equals(init2.fieldName) ||
+				!init1.initName.equals(init2.initName)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determine whether two method declarations are the same.
+	 * @param method1 the first method declaration
+	 * @param method2 the second method declaration
+	 * @return whether or not they agree in every part
+	 */
+	private static boolean sameMethod(Method method1, Method method2) {
+		if (method1 == method2) return true;
+		return method1.name.equals(method2.name) &&
+			method1.returnType.equals(method2.returnType) &&
+			sameDeclarations(method1.params, method2.params) &&
+			sameTerm(method1.body, method2.body);
+	}
+
+	/**
+	 * Determine whether two lists of {@linkplain Declaration field or
+	 * parameter declarations} are the same.
+	 * @param decls1 the first list
+	 * @param decls2 the second list
+	 * @return whether or not they agree in types and names
+	 */
+	private static boolean sameDeclarations(List decls1, List decls2) {
+		if (decls1.size() != decls2.size()) return false;
+		Iterator j = decls2.iterator();
+		for (Iterator i = decls1.iterator(); i.hasNext(); ) {
+			Declaration decl1 = (Declaration) i.next();
+			Declaration decl2 = (Declaration) j.next();
+			if (!decl1.type.equals(decl2.type) ||
+				!decl1.name.equals(decl2.name)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determine whether two expressions are the same.
+	 * @param t1 the first expression
+	 * @param t2 the second expression
+	 * @return whether or not they agree in every part
+	 */
+	private static boolean sameTerm(Term t1, Term t2) {
+		if (t1 == t2) {
+			return true;
+		}
+		else if (t1 instanceof VarTerm && t2 instanceof VarTerm) {
+			return ((VarTerm) t1).name.equals(((VarTerm) t2).name);
+		}
+		else if (t1 instanceof FieldTerm && t2 instanceof FieldTerm) {
+			FieldTerm term1 = (FieldTerm) t1;
+			FieldTerm term2 = (FieldTerm) t2;
+			return term1.fieldName.equals(term2.fieldName) &&
+				sameTerm(term1.base, term2.base);
+		}
+		else if (t1 instanceof CallTerm && t2 instanceof CallTerm) {
+			CallTerm term1 = (CallTerm) t1;
+			CallTerm term2 = (CallTerm) t2;
+			return term1.methodName.equals(term2.methodName) &&
+				sameTerm(term1.base, term2.base) &&
+				sameTerms(term1.args, term2.args);
+		}
+		else if (t1 instanceof NewTerm && t2 instanceof NewTerm) {
+			NewTerm term1 = (NewTerm) t1;
+			NewTerm term2 = (NewTerm) t2;
+			return term1.type.equals(term2.type) &&
+				sameTerms(term1.args, term2.args);
+		}
+		else if (t1 instanceof CastTerm && t2 instanceof CastTerm) {
+			CastTerm term1 = (CastTerm) t1;
+			CastTerm term2 = (CastTerm) t2;
+			return term1.type.equals(term2.type) &&
+				sameTerm(term1.term, term2.term);
+		}
+		else if (t1 instanceof LiteralTerm && t2 instanceof LiteralTerm) {
+			return ((LiteralTerm) t1).value.equals(((LiteralTerm) t2).value);
+		}
+		else if (t1 instanceof NativeTerm && t2 instanceof NativeTerm) {
+			NativeTerm term1 = (NativeTerm) t1;
+			NativeTerm term2 = (NativeTerm) t2;
+			return term1.library.equals(term2.library) &&
+				term1.methodName.equals(term2.methodName) &&
+				term1.type.equals(term2.type) &&
+				sameTerms(term1.args, term2.args);
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether two lists of expressions are the same.
+	 * @param terms1 the first {@link Term} list
+	 * @param terms2 the second {@link Term} list
+	 * @return whether or not they agree in every part
+	 */
+	private static boolean sameTerms(List terms1, List terms2) {
+		if (terms1.size() != terms2.size()) return false;
+		Iterator j = terms2.iterator();
+		for (Iterator i = terms1.iterator(); i.hasNext(); ) {
+			if (!sameTerm((Term) i.next(), (Term) j.next())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The units of one class declaration: its header and its methods.
+	 */
+	private class ClassUnits {
+
+		/**
+		 * The class declaration.
+		 */
+		final ClassDecl classDecl;
+
+		/**
+		 * The unit of the class header.
+		 */
+		final Unit header;
+
+		/**
+		 * The units of the methods, in declaration order.
+		 */
+		final Unit[] methods;
+
+		/**
+		 * Whether the declaration differs from the one it replaces.
+		 */
+		final boolean changed;
+
+		/**
+		 * Make the units of a class declaration, reusing those of the
+		 * declaration it replaces whose text is the same.  The others
+		 * are forgotten.
+		 * @param classDecl the class declaration
+		 * @param old the units of the declaration it replaces, or
+		 * <code>null</code> if it is a new class
+		 */
+		ClassUnits(ClassDecl classDecl, ClassUnits old) {
+			this.classDecl = classDecl;
+			boolean changed = (old == null) ||
+				classDecl.methods.size() != old.methods.length;
+
+			// Reuse the header if it is the same
+			Unit header = (old != null) ? old.header : null;
+			if (header == null || !sameHeader(header.classDecl, classDecl)) {
+				if (header != null) forget(header);
+				header = new Unit(classDecl, null);
+				changed = true;
+			}
+			header.classDecl = classDecl;
+			this.header = header;
+
+			// Reuse the methods which are the same, matched by name
+			Map oldMethods = new HashMap();
+			if (old != null) {
+				for (int i = 0; i < old.methods.length; ++i) {
+					oldMethods.put(old.methods[i].method.name, old.methods[i]);
+				}
+			}
+			this.methods = new Unit[classDecl.methods.size()];
+			int k = 0;
+			for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ++k) {
+				Method method = (Method) i.next();
+				Unit unit = (Unit) oldMethods.remove(method.name);
+				if (unit == null || !sameMethod(unit.method, method)) {
+					if (unit != null) forget(unit);
+					unit = new Unit(classDecl, method);
+					changed = true;
+				}
+				unit.classDecl = classDecl;
+				unit.method = method;
+				methods[k] = unit;
+			}
+			for (Iterator i = oldMethods.values().iterator(); i.hasNext(); ) {
+				forget((Unit) i.next());
+			}
+			this.changed = changed;
+		}
+
+		/**
+		 * Discard the verdicts of all the units.
+		 */
+		void forgetAll() {
+			forget(header);
+			for (int i = 0; i < methods.length; ++i) {
+				forget(methods[i]);
+			}
+		}
+	}
+
+	/**
+	 * A unit of checking: a class header, a method, or the program's
+	 * term, with its verdict if it has been judged.
+	 */
+	private static class Unit {
+
+		/**
+		 * The class declaration of the unit, for a class header or a
+		 * method.
+		 */
+		ClassDecl classDecl;
+
+		/**
+		 * The method declaration of the unit, for a method.
+		 */
+		Method method;
+
+		/**
+		 * The program's term, for the term.
+		 */
+		Term term;
+
+		/**
+		 * The facts the verdict was drawn from, as recorded by the
+		 * class table, or <code>null</code> if the unit has not been
+		 * judged.
+		 */
+		Map facts;
+
+		/**
+		 * The failure the unit was judged to have, or <code>null</code>
+		 * if it passed.
+		 */
+		TypeException failure;
+
+		/**
+		 * Construct a unit which has not been judged.
+		 * @param classDecl the class declaration, or <code>null</code>
+		 * for the term
+		 * @param method the method declaration, or <code>null</code>
+		 * for a class header or the term
+		 */
+		Unit(ClassDecl classDecl, Method method) {
+			this.classDecl = classDecl;
+			this.method = method;
+		}
+	}
+}
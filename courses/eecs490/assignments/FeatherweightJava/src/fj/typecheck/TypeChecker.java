@@ -1,11 +1,23 @@
 package fj.typecheck;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fj.ast.*;
+import fj.eval.NativeMethod;
+import fj.eval.Natives;
+import fj.ir.Code;
+import fj.ir.MethodCode;
+import fj.ir.ProgramCode;
+import fj.ir.Translator;
 import fj.types.FieldInfo;
 import fj.types.MethodType;
 import fj.types.ClassTable;
@@ -20,6 +32,21 @@ import fj.types.ClassTable;
  * the reason for typechecking failure.  In addition, if typechecking
  * discovers a stupid cast, a message indicating the participating types
  * is emitted on {@link java.lang.System#err}.
+ *
+ * <p>Once the class table is built, each class header and each method
+ * can be checked independently of the others, so a program may also
+ * be checked in parallel; see {@link #checkProgram(Program, ForkJoinPool)}.
+ * For the same reason, a program that changes over time can be
+ * checked again without repeating the judgments a change leaves
+ * standing; see {@link IncrementalChecker}.</p>
+ *
+ * <p>The static types the typechecker computes may also be kept, to
+ * translate the program into {@linkplain fj.ir code} which the
+ * evaluator need not resolve again; see {@link #compileProgram}.</p>
+ *
+ * <p>Each judgment is a protected method, so a typechecker may also
+ * be completed by a subclass, which then overrides {@link
+ * #newChecker(ClassTable)} as well.</p>
  */
 public class TypeChecker {
 
@@ -28,6 +55,12 @@ public class TypeChecker {
 	 */
 	protected final ClassTable types;
 	
+	/**
+	 * A mapping from the terms checked, by identity, to their types,
+	 * while a program is being compiled; <code>null</code> otherwise.
+	 */
+	private Map staticTypes;
+	
 	// TODO: Add additional variables if necessary
 	
 	/**
@@ -51,6 +84,215 @@ public class TypeChecker {
 		checkTerm(program.term);
 	}
 	
+	/**
+	 * Typecheck a {@link Program}, and translate it into code using
+	 * the types found.  The program is checked exactly as {@link
+	 * #checkProgram(Program)} checks it; the static type of every
+	 * subterm of a method is kept until the method has been checked
+	 * and translated.
+	 * @param program the program to check
+	 * @return the translated program
+	 * @throws TypeException the program failed typechecking
+	 */
+	public ProgramCode compileProgram(Program program) throws TypeException {
+		List methods = new ArrayList();
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			ClassDecl classDecl = (ClassDecl) i.next();
+			checkClassHeader(classDecl);
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				Method method = (Method) j.next();
+				methods.add(compileMethod(method, classDecl.type));
+			}
+		}
+		Code term = compileTerm(program.term);
+		return new ProgramCode(program.classDecls, methods, term);
+	}
+	
+	/**
+	 * Typecheck a method, and translate it into code.  The static type
+	 * of every subterm is kept until the method has been translated.
+	 * @param method the method to check
+	 * @param type the class declaring it
+	 * @return the translated method
+	 * @throws TypeException the method failed typechecking
+	 */
+	public MethodCode compileMethod(Method method, Type type)
+		throws TypeException {
+		try {
+			staticTypes = new IdentityHashMap();
+			checkMethod(method, type);
+			return new Translator(types, staticTypes).translate(method, type);
+		}
+		finally {
+			staticTypes = null;
+		}
+	}
+	
+	/**
+	 * Typecheck an expression outside any method, as the one ending a
+	 * program is checked, and translate it into code.  Together with
+	 * {@link ProgramCode#withTerm(Code)}, this evaluates new expressions
+	 * against a program compiled earlier without checking its classes
+	 * again.
+	 * @param t the expression to check
+	 * @return the translated expression
+	 * @throws TypeException the expression failed typechecking
+	 */
+	public Code compileTerm(Term t) throws TypeException {
+		try {
+			staticTypes = new IdentityHashMap();
+			checkTerm(t);
+			return new Translator(types, staticTypes).translate(t);
+		}
+		finally {
+			staticTypes = null;
+		}
+	}
+	
+	/**
+	 * Typecheck a {@link Program}, spreading the work over a pool of
+	 * threads.  Every class header, every method, and the program's
+	 * term is checked as a separate task, each by its own typechecker
+	 * from {@link #newChecker(ClassTable)}, and all tasks run to completion,
+	 * except that tasks after one that has already failed are skipped.
+	 * If any fail, the failure reported is the one {@link
+	 * #checkProgram(Program)} would have reported, which is the first
+	 * in declaration order.  Stupid cast warnings may appear in any
+	 * order.
+	 * @param program the program to check
+	 * @param pool the pool to run the tasks in
+	 * @throws TypeException the program failed typechecking
+	 */
+	public void checkProgram(Program program, ForkJoinPool pool)
+		throws TypeException {
+		
+		// One task per unit of work, in the order checkProgram visits them
+		final List tasks = new ArrayList();
+		final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+		for (Iterator i = program.classDecls.iterator(); i.hasNext(); ) {
+			final ClassDecl classDecl = (ClassDecl) i.next();
+			tasks.add(new CheckTask(tasks.size(), firstFailure) {
+				void check(TypeChecker checker) throws TypeException {
+					checker.checkClassHeader(classDecl);
+				}
+			});
+			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+				final Method method = (Method) j.next();
+				tasks.add(new CheckTask(tasks.size(), firstFailure) {
+					void check(TypeChecker checker) throws TypeException {
+						checker.checkMethod(method, classDecl.type);
+					}
+				});
+			}
+		}
+		final Term term = program.term;
+		tasks.add(new CheckTask(tasks.size(), firstFailure) {
+			void check(TypeChecker checker) throws TypeException {
+				checker.checkTerm(term);
+			}
+		});
+		
+		// Run them all, then report the first failure
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (Iterator i = tasks.iterator(); i.hasNext(); ) {
+			((CheckTask) i.next()).rethrow();
+		}
+	}
+	
+	/**
+	 * Construct a typechecker for one task of a parallel check, or
+	 * one judgment of an {@link IncrementalChecker}.  Tasks never share
+	 * a typechecker, so any state a typechecker keeps while checking
+	 * is private to its task.  Subclasses should override this to
+	 * construct an instance of themselves.
+	 * @param types the class table the new typechecker is to use
+	 * @return a new typechecker using the given class table
+	 */
+	protected TypeChecker newChecker(ClassTable types) {
+		return new TypeChecker(types);
+	}
+	
+	/**
+	 * One unit of work in a parallel check, which records its failure
+	 * rather than letting it escape into the pool.
+	 */
+	private abstract class CheckTask extends RecursiveAction {
+		
+		/**
+		 * The position of this task in the order of checking.
+		 */
+		private final int index;
+		
+		/**
+		 * The position of the earliest task known to have failed,
+		 * shared by all the tasks of a check.
+		 */
+		private final AtomicInteger firstFailure;
+		
+		/**
+		 * The exception or error raised by the check, if any.
+		 */
+		private Throwable failure;
+		
+		/**
+		 * Construct a task.
+		 * @param index the position of the task in the order of checking
+		 * @param firstFailure the position of the earliest failed task
+		 */
+		CheckTask(int index, AtomicInteger firstFailure) {
+			this.index = index;
+			this.firstFailure = firstFailure;
+		}
+		
+		/**
+		 * Perform the check.
+		 * @param checker the typechecker to use
+		 * @throws TypeException the check failed
+		 */
+		abstract void check(TypeChecker checker) throws TypeException;
+		
+		protected void compute() {
+			
+			// An earlier failure will be reported instead
+			if (index > firstFailure.get()) return;
+			try {
+				check(newChecker(types));
+			}
+			catch (TypeException e) {
+				failure = e;
+			}
+			catch (RuntimeException e) {
+				failure = e;
+			}
+			catch (Error e) {
+				failure = e;
+			}
+			
+			// Record our failure if it is the earliest so far
+			if (failure != null) {
+				int first;
+				do {
+					first = firstFailure.get();
+				} while (index < first &&
+					!firstFailure.compareAndSet(first, index));
+			}
+		}
+		
+		/**
+		 * Raise the failure of the check again, if there was one.
+		 * @throws TypeException the check failed
+		 */
+		void rethrow() throws TypeException {
+			if (failure instanceof TypeException) throw (TypeException) failure;
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure instanceof Error) throw (Error) failure;
+		}
+	}
+	
 	/**
 	 * Typecheck an expression.
 	 * @param t the expression to check
@@ -58,24 +300,35 @@ public class TypeChecker {
 	 * @throws TypeException the expression failed typechecking
 	 */
 	protected Type checkTerm(Term t) throws TypeException {
+		Type type;
 		if (t instanceof VarTerm) {
-			return checkVarTerm((VarTerm) t);	
+			type = checkVarTerm((VarTerm) t);	
 		}
 		else if (t instanceof FieldTerm) {
-			return checkFieldTerm((FieldTerm) t);
+			type = checkFieldTerm((FieldTerm) t);
 		}
 		else if (t instanceof CallTerm) {
-			return checkCallTerm((CallTerm) t);
+			type = checkCallTerm((CallTerm) t);
 		}
 		else if (t instanceof NewTerm) {
-			return checkNewTerm((NewTerm) t);
+			type = checkNewTerm((NewTerm) t);
 		}
 		else if (t instanceof CastTerm) {
-			return checkCastTerm((CastTerm) t);
+			type = checkCastTerm((CastTerm) t);
+		}
+		else if (t instanceof LiteralTerm) {
+			type = ((LiteralTerm) t).type;
+		}
+		else if (t instanceof NativeTerm) {
+			type = checkNativeTerm((NativeTerm) t);
 		}
 		else {
 			throw new Error("Internal typechecker error: invalid term type");
 		}
+		
+		// Keep the type if we are compiling
+		if (staticTypes != null) staticTypes.put(t, type);
+		return type;
 	}
 	
 	/**
@@ -95,7 +348,7 @@ public class TypeChecker {
 	 * @return the type of the expression
 	 * @throws TypeException the expression failed typechecking
 	 */
-	private Type checkFieldTerm(FieldTerm t) throws TypeException {
+	protected Type checkFieldTerm(FieldTerm t) throws TypeException {
 		// TODO: Implement field term checking
 		throw new TypeException("checkFieldTerm unimplemented");
 	}
@@ -106,7 +359,7 @@ public class TypeChecker {
 	 * @return the type of the expression
 	 * @throws TypeException the expression failed typechecking
 	 */
-	private Type checkCallTerm(CallTerm t) throws TypeException {
+	protected Type checkCallTerm(CallTerm t) throws TypeException {
 		// TODO: Implement method invocation term checking
 		throw new TypeException("checkCallTerm unimplemented");
 	}
@@ -117,7 +370,7 @@ public class TypeChecker {
 	 * @return the type of the expression
 	 * @throws TypeException the expression failed typechecking
 	 */
-	private Type checkNewTerm(NewTerm t) throws TypeException {
+	protected Type checkNewTerm(NewTerm t) throws TypeException {
 		// TODO: Implement constructor invocation term checking
 		throw new TypeException("checkNewTerm unimplemented");
 	}
@@ -130,18 +383,45 @@ public class TypeChecker {
 	 * @return the type of the expression
 	 * @throws TypeException the expression failed typechecking
 	 */
-	private Type checkCastTerm(CastTerm t) throws TypeException {
+	protected Type checkCastTerm(CastTerm t) throws TypeException {
 		// TODO: Implement type cast term checking
 		throw new TypeException("checkCastTerm unimplemented");
 	}
 
+	/**
+	 * Typecheck the body of a method of a native class: the method
+	 * must be on the whitelist of {@link Natives}, and the marshaller
+	 * of the Java method it is bound to must convert its arguments
+	 * and its result.
+	 * @param t the body to typecheck
+	 * @return the return type of the method
+	 * @throws TypeException the body failed typechecking
+	 */
+	private Type checkNativeTerm(NativeTerm t) throws TypeException {
+		String name = t.library + "." + t.methodName;
+		NativeMethod method = Natives.lookup(t.library, t.methodName);
+		if (method == null) {
+			throw new TypeException("native method " + name + " is not allowed");
+		}
+		List argTypes = new ArrayList(t.args.size());
+		for (Iterator i = t.args.iterator(); i.hasNext(); ) {
+			argTypes.add(checkTerm((Term) i.next()));
+		}
+		String reason = method.disagreement(t.type, argTypes);
+		if (reason != null) {
+			throw new TypeException("native method " + name +
+				" does not agree with " + method + ": " + reason);
+		}
+		return t.type;
+	}
+
 	/**
 	 * Typecheck a method declaration in a class.
 	 * @param method the method declaration
 	 * @param type the type <code>method</code> is declared in
 	 * @throws TypeException the method failed typechecking
 	 */
-	private void checkMethod(Method method, Type type)
+	protected void checkMethod(Method method, Type type)
 		throws TypeException {
 		// TODO: Implement method declaration type checking
 		throw new TypeException("checkMethod unimplemented");
@@ -153,6 +433,21 @@ public class TypeChecker {
 	 * @throws TypeException the class declaration failed typechecking
 	 */
 	private void checkClass(ClassDecl classDecl) throws TypeException {
+		checkClassHeader(classDecl);
+		
+		// Now check all our methods
+		for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
+			checkMethod((Method) i.next(), classDecl.type);
+		}
+	}
+
+	/**
+	 * Typecheck everything in a class declaration but its methods:
+	 * its superclass, fields, and constructor.
+	 * @param classDecl the class declaration to check
+	 * @throws TypeException the class declaration failed typechecking
+	 */
+	void checkClassHeader(ClassDecl classDecl) throws TypeException {
 		
 		// Get the fields of our parent
 		FieldInfo parentInfo = types.fields(classDecl.superType);
@@ -195,7 +490,7 @@ public class TypeChecker {
 		
 		// Now iterate over this class's fields for the remaining
 		// constructor args
-		Iterator fields = classDecl.fields.listIterator(parentInfo.list.size());
+		Iterator fields = classDecl.fields.iterator();
 		Iterator inits = cons.inits.iterator();
 		while (fields.hasNext() && params.hasNext()) {
 			Declaration field = (Declaration) fields.next();
@@ -215,10 +510,5 @@ public class TypeChecker {
 			throw new TypeException("incorrect number of arguments" +
 					"to constructor");
 		}
-		
-		// Now check all our methods
-		for (Iterator i = classDecl.methods.iterator(); i.hasNext(); ) {
-			checkMethod((Method) i.next(), classDecl.type);
-		}
 	}
 }
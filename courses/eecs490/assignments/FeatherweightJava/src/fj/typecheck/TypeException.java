@@ -11,7 +11,7 @@ public class TypeException extends FeatherweightJavaException {
 	 * Construct a type checking exception.
 	 * @param str the reason for the exception
 	 */
-	TypeException(String str) {
+	public TypeException(String str) {
 		super("type check error: " + str);
 	}
 }
@@ -28,21 +28,39 @@ public class ClassInfo {
 	 */
 	public final Map methodMap;
 
+	/**
+	 * Whether this class has the shape of a successor (see
+	 * {@link ClassTable#successor(Type)}).
+	 */
+	final boolean successor;
+
 	/**
 	 * Construct a new ClassInfo object.
 	 * @param superType the superclass of this class
 	 * @param fieldInfo the field information
 	 * @param methodMap the mapping of names to methods
+	 * @param successor whether the class has the shape of a successor
 	 */
-	ClassInfo(Type superType, FieldInfo fieldInfo, Map methodMap) {
+	ClassInfo(Type superType, FieldInfo fieldInfo, Map methodMap,
+		boolean successor) {
 		this.superType = superType;
 		this.fieldInfo = fieldInfo;
 		this.methodMap = Collections.unmodifiableMap(methodMap);
+		this.successor = successor;
 	}
 	
-	ClassInfo(Type superType) {
-		this.superType = superType;
-		this.fieldInfo = null;
-		this.methodMap = null;
+	/**
+	 * Construct a copy of a ClassInfo object with different field
+	 * information, for when a superclass changes its fields.
+	 * @param info the class information to copy
+	 * @param fieldInfo the new field information
+	 * @param successor whether the class has the shape of a successor
+	 * with that information
+	 */
+	ClassInfo(ClassInfo info, FieldInfo fieldInfo, boolean successor) {
+		this.superType = info.superType;
+		this.fieldInfo = fieldInfo;
+		this.methodMap = info.methodMap;
+		this.successor = successor;
 	}
 }
@@ -2,12 +2,15 @@ package fj.types;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import fj.ast.ClassDecl;
+import fj.ast.Declaration;
 import fj.ast.Method;
 import fj.ast.Type;
 
@@ -31,7 +34,31 @@ import fj.ast.Type;
  * This class also supplies definitions of the <code>mbody</code>,
  * <code>mtype</code>, <code>fields</code>, and <code>override</code>
  * functions defined in the <i>auxiliary definitions</i> table in
- * the FeatherweightJava paper.
+ * the FeatherweightJava paper.  For the evaluator, it spots classes
+ * shaped like the successor of unary numerals (see
+ * {@link #successor(Type)}).
+ *
+ * <p>After construction, classes can be added, replaced, and removed,
+ * for sessions that load classes over time.  A change rebuilds only
+ * the information of the classes it affects: a class and its
+ * subclasses, transitively.  The same five errors are detected, and
+ * a change that fails leaves the table as it was.  Every successful
+ * change advances the table's {@linkplain #generation() generation},
+ * so that anything cached from the table can tell when it is stale.
+ * The class table is not synchronized; it must not be changed while
+ * it is in use by another thread.  Reading it from several threads at
+ * once is safe, since no query modifies it.</p>
+ *
+ * <p>To find out what a judgment depended on, it can be made through
+ * a {@linkplain #recording(Map) recording view} of the table, which
+ * notes each fact about a class that its queries consult: the class's
+ * superclass, its fields, its information as a whole, or its version
+ * of a method.  After a change, {@link #stillHolds(String, Map)} tells
+ * whether the facts recorded about one of the affected classes have
+ * the same answers as before, and so whether the judgment still
+ * stands.  The <code>subtype</code> and <code>override</code>
+ * functions should be written in terms of the other queries, so that
+ * their reads are recorded too.</p>
  */
 public class ClassTable {
 
@@ -40,11 +67,62 @@ public class ClassTable {
 	 * The ClassInfo structure is private to this package; use the
 	 * public methods of this class to get a class's information.
 	 */
-	private Map classMap;
+	private final Map classMap;
+	
+	/**
+	 * A mapping from class names (String) to the declarations
+	 * ({@link ClassDecl}) they were built from.
+	 */
+	private final Map declMap;
+	
+	/**
+	 * A mapping from class names (String) to the set of names of
+	 * their direct subclasses.
+	 */
+	private final Map subclassMap;
+	
+	/** The fact of a class's superclass (a Type). */
+	private static final String SUPERTYPE = "superclass";
+	
+	/** The fact of a class's information as a whole (a ClassInfo). */
+	private static final String INFO = "info";
+	
+	/** The fact of a class's fields (a FieldInfo). */
+	private static final String FIELDS = "fields";
+	
+	/**
+	 * The prefix of the fact of a class's signature for a method,
+	 * followed by the method's name (a Method, or <code>null</code>
+	 * if the class does not declare it).
+	 */
+	private static final String METHOD = "method ";
+	
+	/**
+	 * The prefix of the fact of a class's declaration of a method,
+	 * body included, followed by the method's name (a Method, or
+	 * <code>null</code> if the class does not declare it).
+	 */
+	private static final String BODY = "body ";
+	
+	/**
+	 * The number of changes made to the table since it was built.
+	 */
+	private int generation;
+	
+	/**
+	 * For a recording view, the mapping of class names (String) to
+	 * the facts recorded about each class (a Map of fact names to
+	 * answers); <code>null</code> for a table itself.
+	 */
+	private final Map facts;
 	
 	/**
 	 * Build a class table from a list of classes.  This object can
-	 * then be used in typechecking and evaluation.
+	 * then be used in typechecking and evaluation.  The classes may
+	 * be declared in any order; the hierarchy is sorted so that each
+	 * class is laid out after its superclass, and construction takes
+	 * time linear in the size of the declarations (plus the size of
+	 * the field layouts it builds).
 	 * @param classes the list of class declarations
 	 * @throws ClassTableException a class, field, or method is multiply
 	 * defined, a class extends an unknown class, or a cycle in the
@@ -52,86 +130,566 @@ public class ClassTable {
 	 * @see fj.ast.ClassDecl
 	 */
 	public ClassTable(List classes) throws ClassTableException {
-		final Map declMap = new HashMap();
-
-		class FieldFixer {
-			private final Map fieldMap;
-			FieldFixer() {
-				this.fieldMap = new HashMap();
+		this.classMap = new HashMap(2 * classes.size());
+		this.declMap = new HashMap(2 * classes.size());
+		this.subclassMap = new HashMap();
+		this.facts = null;
+		addClasses(classes);
+		this.generation = 0;
+	}
+	
+	/**
+	 * Construct a recording view of a class table.  Subclasses should
+	 * use this to construct an instance of themselves in {@link
+	 * #recording(Map)}.
+	 * @param table the table to view
+	 * @param facts the mapping to record facts in
+	 */
+	protected ClassTable(ClassTable table, Map facts) {
+		this.classMap = table.classMap;
+		this.declMap = table.declMap;
+		this.subclassMap = table.subclassMap;
+		this.generation = table.generation;
+		this.facts = facts;
+	}
+	
+	/**
+	 * Return a view of the table which answers queries as the table
+	 * does, and records the facts each answer was drawn from.  The
+	 * facts are kept per class: <code>facts</code> maps the name of
+	 * each class consulted to a Map of its facts, to be passed to
+	 * {@link #stillHolds(String, Map)} later.  A view is meant to be
+	 * used by a single thread for a single judgment, and must not be
+	 * changed, nor used once the table has changed.
+	 * @param facts the mapping to record facts in
+	 * @return the recording view
+	 */
+	public ClassTable recording(Map facts) {
+		return new ClassTable(this, facts);
+	}
+	
+	/**
+	 * Determine whether the facts recorded about a class by a
+	 * {@linkplain #recording(Map) recording view} still hold, that is,
+	 * whether every query that consulted them would get the same
+	 * answer from the table as it is now.
+	 * @param className the name of the class
+	 * @param classFacts the facts recorded about it
+	 * @return whether or not they all still hold
+	 */
+	public boolean stillHolds(String className, Map classFacts) {
+		ClassInfo info = (ClassInfo) classMap.get(className);
+		for (Iterator i = classFacts.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry entry = (Map.Entry) i.next();
+			String fact = (String) entry.getKey();
+			Object answer = entry.getValue();
+			if (fact.equals(SUPERTYPE)) {
+				Type superType = (info != null) ? info.superType : null;
+				if (superType != answer && (superType == null ||
+					answer == null || !superType.equals(answer))) return false;
 			}
-			List fixFields(String name) throws ClassTableException {
-				ClassDecl classDecl = (ClassDecl) declMap.get(name);
-				if (classDecl == null) {
-					throw new ClassTableException(
-						"unknown class \"" + name + "\"");
-				}
-				else if (classDecl.superType.isObject()) {
-					return classDecl.fields;
-				}
-				List fieldList = new LinkedList();
-				fieldList.addAll(fixFields(classDecl.superType.className));
-				fieldMap.put(name, fieldList);
-				return fieldList;
+			else if (fact.equals(INFO)) {
+				if (info != answer) return false;
+			}
+			else if (fact.equals(FIELDS)) {
+				FieldInfo fieldInfo = (info != null) ? info.fieldInfo : null;
+				if (fieldInfo != answer && (fieldInfo == null ||
+					answer == null || !sameFields(fieldInfo.list,
+					((FieldInfo) answer).list))) return false;
+			}
+			else {
+				Method method = (info != null) ? (Method)
+					info.methodMap.get(fact.substring(fact.indexOf(' ') + 1))
+					: null;
+				if (method != answer && (fact.startsWith(BODY) ||
+					method == null || answer == null ||
+					!sameSignature(method, (Method) answer))) return false;
 			}
 		}
+		return true;
+	}
+	
+	/**
+	 * Replace the whole contents of the table, as if it had been
+	 * built again from a list of classes.
+	 * @param classes the list of class declarations
+	 * @return the set of names of the classes affected, which are
+	 * those of the classes in the table before or after
+	 * @throws ClassTableException a class, field, or method is multiply
+	 * defined, a class extends an unknown class, or a cycle in the
+	 * subtyping relation is introduced; the table is left as it was
+	 */
+	public Set reset(List classes) throws ClassTableException {
+		ClassTable table = new ClassTable(classes);
+		Set affected = new HashSet(declMap.keySet());
+		affected.addAll(table.declMap.keySet());
+		classMap.clear();
+		classMap.putAll(table.classMap);
+		declMap.clear();
+		declMap.putAll(table.declMap);
+		subclassMap.clear();
+		subclassMap.putAll(table.subclassMap);
+		++generation;
+		return affected;
+	}
+	
+	/**
+	 * Return the generation of the table: the number of changes made
+	 * to it since it was built.
+	 * @return the current generation
+	 */
+	public int generation() {
+		return generation;
+	}
+	
+	/**
+	 * Add a class to the table.  Its superclass must already be in
+	 * the table.
+	 * @param classDecl the class declaration
+	 * @return the set of names of the classes affected, which is
+	 * just the name of the new class
+	 * @throws ClassTableException the class is already in the table,
+	 * or one of its fields or methods is multiply defined, or it
+	 * extends an unknown class or itself
+	 */
+	public Set addClass(ClassDecl classDecl) throws ClassTableException {
+		return addClasses(Collections.singletonList(classDecl));
+	}
+	
+	/**
+	 * Add several classes to the table at once.  The new classes may
+	 * extend each other, in any order, or classes already in the table.
+	 * @param classes the list of class declarations
+	 * @return the set of names of the classes affected, which are the
+	 * names of the new classes
+	 * @throws ClassTableException a class, field, or method is multiply
+	 * defined, a class extends an unknown class, or a cycle in the
+	 * subtyping relation is introduced
+	 */
+	public Set addClasses(List classes) throws ClassTableException {
 		
-		// Construct a temporary classMap for below calls to subtype
-		classMap = new HashMap();
-		
-		// Phase 1: Construct ClassInfos with only superType
-		for (Iterator i = classes.iterator(); i.hasNext(); ) {
+		// Phase 1: Number the classes, stopping at a repeated class
+		Map indexMap = new HashMap();
+		ClassDecl[] decls = new ClassDecl[classes.size()];
+		int count = 0;
+		String duplicate = null;
+		for (Iterator i = classes.iterator(); i.hasNext(); ++count) {
 			ClassDecl classDecl = (ClassDecl) i.next();
-			String name = classDecl.name;
-			
-			// Check for repeated classes
-			if (classMap.containsKey(name)) {
+			if (indexMap.containsKey(classDecl.name) ||
+				declMap.containsKey(classDecl.name)) {
+				duplicate = classDecl.name;
+				break;
+			}
+			indexMap.put(classDecl.name, new Integer(count));
+			decls[count] = classDecl;
+		}
+		
+		// Link each class to its superclass; -1 stands for Object or
+		// for a class outside the new ones, which is looked up (and
+		// reported if unknown) in phase 3
+		int[] parent = new int[count];
+		for (int i = 0; i < count; ++i) {
+			Integer index = (Integer) indexMap.get(
+				decls[i].superType.className);
+			parent[i] = (index == null || decls[i].superType.isObject())
+				? -1 : index.intValue();
+		}
+		
+		// Phase 2: Sort the classes and check for subtyping cycles;
+		// the classes already in the table cannot be part of a cycle
+		int[] order = sortClasses(decls, parent);
+		if (duplicate != null) {
+			throw new ClassTableException(
+				"duplicate class name \"" + duplicate + "\"");
+		}
+		
+		// Phase 3: Build the ClassInfos, superclasses first
+		ClassInfo[] infos = new ClassInfo[count];
+		Map built = new HashMap();
+		for (int k = 0; k < count; ++k) {
+			int i = order[k];
+			FieldInfo parentInfo = (parent[i] >= 0)
+				? infos[parent[i]].fieldInfo
+				: parentFields(decls[i]);
+			infos[i] = buildInfo(decls[i], parentInfo, built);
+			built.put(decls[i].name, infos[i]);
+		}
+		
+		// Finally we're set to enter them
+		Set affected = new HashSet();
+		for (int k = 0; k < count; ++k) {
+			int i = order[k];
+			enter(decls[i], infos[i]);
+			affected.add(decls[i].name);
+		}
+		++generation;
+		return affected;
+	}
+	
+	/**
+	 * Replace the declaration of a class already in the table.  The
+	 * information of the class's subclasses is rebuilt as needed.
+	 * @param classDecl the new class declaration
+	 * @return the set of names of the classes affected: the class and
+	 * all of its subclasses, transitively
+	 * @throws ClassTableException the class is not in the table, a field
+	 * or method is multiply defined, the class extends an unknown
+	 * class, or a cycle in the subtyping relation is introduced
+	 */
+	public Set replaceClass(ClassDecl classDecl) throws ClassTableException {
+		String name = classDecl.name;
+		ClassDecl oldDecl = (ClassDecl) declMap.get(name);
+		if (oldDecl == null) {
+			throw new ClassTableException("unknown class \"" + name + "\"");
+		}
+		
+		// The new superclass must not be the class or a subclass of it
+		for (Type t = classDecl.superType; !t.isObject(); ) {
+			if (t.className.equals(name)) {
 				throw new ClassTableException(
-						"duplicate class name \"" + name + "\"");				
+					"class \"" + name + "\" introduces a subtyping cycle");
 			}
+			ClassDecl decl = (ClassDecl) declMap.get(t.className);
+			if (decl == null) break;
+			t = decl.superType;
+		}
+		
+		// If the layout hasn't changed, neither have those below it
+		ClassInfo oldInfo = (ClassInfo) classMap.get(name);
+		Map newInfos = new HashMap();
+		ClassInfo info;
+		if (classDecl.superType.equals(oldDecl.superType) &&
+			sameFields(classDecl.fields, oldDecl.fields)) {
+			info = new ClassInfo(classDecl.superType, oldInfo.fieldInfo,
+				methodMap(classDecl), oldInfo.successor);
+			newInfos.put(name, info);
+		}
+		else {
+			info = buildInfo(classDecl, parentFields(classDecl), newInfos);
+			newInfos.put(name, info);
 			
-			// Check for subtyping cycles
-			Type superType = classDecl.superType;
-			if (subtype(superType, classDecl.type)) {
+			// Lay out the subclasses again, top down
+			LinkedList queue = new LinkedList();
+			queue.add(name);
+			while (!queue.isEmpty()) {
+				String parentName = (String) queue.removeFirst();
+				FieldInfo parentInfo =
+					((ClassInfo) newInfos.get(parentName)).fieldInfo;
+				for (Iterator i = subclassesOf(parentName).iterator(); i.hasNext(); ) {
+					String subName = (String) i.next();
+					ClassDecl subDecl = (ClassDecl) declMap.get(subName);
+					ClassInfo subInfo = (ClassInfo) classMap.get(subName);
+					FieldInfo subFields = layout(subDecl, parentInfo);
+					newInfos.put(subName, new ClassInfo(subInfo, subFields,
+						successor(subInfo.superType, subFields, newInfos)));
+					queue.add(subName);
+				}
+			}
+		}
+		
+		// Everything succeeded; swing the hierarchy over
+		subclasses(oldDecl.superType.className).remove(name);
+		subclasses(classDecl.superType.className).add(name);
+		declMap.put(name, classDecl);
+		classMap.putAll(newInfos);
+		++generation;
+		
+		// Report the whole subtree, since subclasses inherit methods
+		Set affected = new HashSet();
+		LinkedList queue = new LinkedList();
+		queue.add(name);
+		while (!queue.isEmpty()) {
+			String className = (String) queue.removeFirst();
+			affected.add(className);
+			queue.addAll(subclassesOf(className));
+		}
+		return affected;
+	}
+	
+	/**
+	 * Remove a class from the table.  No other class may extend it.
+	 * @param type the class to remove
+	 * @return the set of names of the classes affected, which is just
+	 * the name of the removed class
+	 * @throws ClassTableException the class is not in the table, or
+	 * another class extends it
+	 */
+	public Set removeClass(Type type) throws ClassTableException {
+		String name = type.className;
+		ClassDecl classDecl = (ClassDecl) declMap.get(name);
+		if (classDecl == null) {
+			throw new ClassTableException("unknown class \"" + name + "\"");
+		}
+		Set subclasses = subclassesOf(name);
+		if (!subclasses.isEmpty()) {
+			throw new ClassTableException("class \"" + name +
+				"\" is extended by \"" + subclasses.iterator().next() + "\"");
+		}
+		subclasses(classDecl.superType.className).remove(name);
+		subclassMap.remove(name);
+		declMap.remove(name);
+		classMap.remove(name);
+		++generation;
+		return Collections.singleton(name);
+	}
+	
+	/**
+	 * Enter a new class into the table.
+	 * @param classDecl the class declaration
+	 * @param info its class information
+	 */
+	private void enter(ClassDecl classDecl, ClassInfo info) {
+		declMap.put(classDecl.name, classDecl);
+		classMap.put(classDecl.name, info);
+		subclasses(classDecl.superType.className).add(classDecl.name);
+	}
+	
+	/**
+	 * Return the names of the direct subclasses of a class.
+	 * @param name the name of the class
+	 * @return the set of names of its subclasses, which must not be
+	 * modified
+	 */
+	private Set subclassesOf(String name) {
+		Set subclasses = (Set) subclassMap.get(name);
+		return (subclasses != null) ? subclasses : Collections.EMPTY_SET;
+	}
+	
+	/**
+	 * Return the names of the direct subclasses of a class, creating
+	 * an empty set if there are none yet.
+	 * @param name the name of the class
+	 * @return the modifiable set of names of its subclasses
+	 */
+	private Set subclasses(String name) {
+		Set subclasses = (Set) subclassMap.get(name);
+		if (subclasses == null) {
+			subclasses = new HashSet();
+			subclassMap.put(name, subclasses);
+		}
+		return subclasses;
+	}
+	
+	/**
+	 * Return the field information of a class's superclass, which
+	 * must already be in the table.
+	 * @param classDecl the class declaration
+	 * @return the field information of its superclass
+	 * @throws ClassTableException the superclass is unknown
+	 */
+	private FieldInfo parentFields(ClassDecl classDecl)
+		throws ClassTableException {
+		FieldInfo parentInfo = fields(classDecl.superType);
+		if (parentInfo == null) {
+			throw new ClassTableException(
+				"unknown class \"" + classDecl.superType + "\"");
+		}
+		return parentInfo;
+	}
+	
+	/**
+	 * Build the ClassInfo structure of a class.
+	 * @param classDecl the class declaration
+	 * @param parentInfo the field information of its superclass
+	 * @param pending the information of classes built but not yet in
+	 * the table, by name, which its superclasses may be among
+	 * @return its class information
+	 * @throws ClassTableException a field or method is multiply defined
+	 */
+	private ClassInfo buildInfo(ClassDecl classDecl, FieldInfo parentInfo,
+		Map pending) throws ClassTableException {
+		Map methodMap = methodMap(classDecl);
+		FieldInfo fieldInfo = layout(classDecl, parentInfo);
+		return new ClassInfo(classDecl.superType, fieldInfo, methodMap,
+			successor(classDecl.superType, fieldInfo, pending));
+	}
+	
+	/**
+	 * Determine whether a class has the shape of a successor, as
+	 * {@link #successor(Type)} describes, from its superclass and
+	 * fields.
+	 * @param superType the superclass of the class
+	 * @param fieldInfo the field information of the class
+	 * @param pending the information of classes built but not yet in
+	 * the table, by name, which its superclasses may be among
+	 * @return whether or not it is a successor class
+	 */
+	private boolean successor(Type superType, FieldInfo fieldInfo,
+		Map pending) {
+		List fields = fieldInfo.list;
+		if (fields.size() != 1) return false;
+		Type fieldType = ((Declaration) fields.get(0)).type;
+		for (Type t = superType; t != null && !t.isObject(); ) {
+			if (t.equals(fieldType)) return true;
+			ClassInfo tInfo = (ClassInfo) pending.get(t.className);
+			if (tInfo == null) tInfo = (ClassInfo) classMap.get(t.className);
+			t = (tInfo != null) ? tInfo.superType : null;
+		}
+		return false;
+	}
+	
+	/**
+	 * Associate the method names of a class with method information.
+	 * @param classDecl the class declaration
+	 * @return the mapping of names to methods
+	 * @throws ClassTableException a method is multiply defined
+	 */
+	private static Map methodMap(ClassDecl classDecl)
+		throws ClassTableException {
+		Map methodMap = new HashMap();
+		for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
+			Method method = (Method) j.next();
+			String methodName = method.name;
+			if (methodMap.containsKey(methodName)) {
 				throw new ClassTableException(
-					"class \"" + classDecl.name +
-					"\" introduces a subtyping cycle");					
+					"duplicate method name \"" + classDecl.name + "\"");
 			}
-			
-			// Insert a pretty blank ClassInfo to satisfy subtype
-			classMap.put(name, new ClassInfo(superType));
-			declMap.put(name, classDecl);
+			methodMap.put(methodName, method);
 		}
-
-		// Prepare the class map
-		FieldFixer fixer = new FieldFixer();
-		Map tmpClassMap = new HashMap();
-		for (Iterator i = classes.iterator(); i.hasNext(); ) {
-			ClassDecl classDecl = (ClassDecl) i.next();
-			String name = classDecl.name;
-
-			// Associate method names with method information
-			Map methodMap = new HashMap();
-			for (Iterator j = classDecl.methods.iterator(); j.hasNext(); ) {
-				Method method = (Method) j.next();
-				String methodName = method.name;
-				if (methodMap.containsKey(methodName)) {
-					throw new ClassTableException(
-						"duplicate method name \"" + name + "\"");
+		return methodMap;
+	}
+	
+	/**
+	 * Lay out the fields of a class after those of its superclass.
+	 * A class declaring no fields shares its superclass's layout.
+	 * @param classDecl the class declaration
+	 * @param parentInfo the field information of its superclass
+	 * @return the field information of the class
+	 * @throws ClassTableException a field is multiply defined
+	 */
+	private static FieldInfo layout(ClassDecl classDecl, FieldInfo parentInfo)
+		throws ClassTableException {
+		return classDecl.fields.isEmpty()
+			? parentInfo : new FieldInfo(parentInfo, classDecl.fields);
+	}
+	
+	/**
+	 * Determine whether two field lists declare the same fields, in
+	 * the same order.
+	 * @param fields1 the first {@link Declaration} list
+	 * @param fields2 the second {@link Declaration} list
+	 * @return whether or not they agree in types and names
+	 */
+	private static boolean sameFields(List fields1, List fields2) {
+		if (fields1.size() != fields2.size()) return false;
+		Iterator j = fields2.iterator();
+		for (Iterator i = fields1.iterator(); i.hasNext(); ) {
+			Declaration field1 = (Declaration) i.next();
+			Declaration field2 = (Declaration) j.next();
+			if (!field1.type.equals(field2.type) ||
+				!field1.name.equals(field2.name)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Order the classes so that every class comes after its
+	 * superclass.  Since each class has at most one superclass, the
+	 * hierarchy is a forest unless it contains a cycle, and one walk
+	 * up from each class suffices to find both the order and the
+	 * cycles.  When there are several cycles, the one reported is the
+	 * first to be completed in declaration order, naming the class
+	 * that completes it.
+	 * @param decls the class declarations
+	 * @param parent the index of each class's superclass in
+	 * <code>decls</code>, or -1 for a root of the hierarchy
+	 * @return the indices of the classes, superclasses first
+	 * @throws ClassTableException the subtyping relation has a cycle
+	 */
+	private static int[] sortClasses(ClassDecl[] decls, int[] parent)
+		throws ClassTableException {
+		
+		// The state of a class is 0 if it has not been seen, -1 once
+		// it has been placed, -2 if it is on or under a cycle, and
+		// i + 1 while the walk starting from class i is visiting it
+		int count = parent.length;
+		int[] state = new int[count];
+		int[] walk = new int[count];
+		int[] order = new int[count];
+		int placed = 0;
+		int cycle = count;
+		for (int i = 0; i < count; ++i) {
+			
+			// Walk up until we reach a root or a class seen before
+			int depth = 0;
+			int j = i;
+			while (j >= 0 && state[j] == 0) {
+				state[j] = i + 1;
+				walk[depth++] = j;
+				j = parent[j];
+			}
+			
+			// Back where this walk has been: the cycle through j is
+			// completed by its last declared class
+			if (j >= 0 && state[j] == i + 1) {
+				int last = j;
+				for (int k = parent[j]; k != j; k = parent[k]) {
+					if (k > last) last = k;
+				}
+				if (last < cycle) cycle = last;
+			}
+			
+			// Place the classes walked over, superclasses first,
+			// unless they lead into a cycle
+			boolean bad = j >= 0 && state[j] != -1;
+			while (depth > 0) {
+				int k = walk[--depth];
+				if (bad) {
+					state[k] = -2;
+				}
+				else {
+					state[k] = -1;
+					order[placed++] = k;
 				}
-				methodMap.put(methodName, method);
 			}
-
-			// Construct the ClassInfo structure
-			tmpClassMap.put(name, new ClassInfo(classDecl.superType,
-				new FieldInfo(fixer.fixFields(name)), methodMap));
 		}
-
-		// Finally we're set to assign to our field
-		classMap = Collections.unmodifiableMap(tmpClassMap);
+		if (cycle < count) {
+			throw new ClassTableException(
+				"class \"" + decls[cycle].name +
+				"\" introduces a subtyping cycle");
+		}
+		return order;
 	}
 	
+	/**
+	 * Return the information of a class.
+	 * @param type the class to look up
+	 * @return its ClassInfo structure, or <code>null</code> if the
+	 * given class is not in the class table
+	 */
 	protected ClassInfo lookup(Type type) {
-		return (ClassInfo) classMap.get(type.className);
+		ClassInfo info = (ClassInfo) classMap.get(type.className);
+		if (facts != null) record(type.className, INFO, info);
+		return info;
+	}
+	
+	/**
+	 * Record a fact consulted by a query, if this is a recording view.
+	 * Only the first answer is kept, since the table cannot change
+	 * while the view is in use.
+	 * @param className the name of the class the fact is about
+	 * @param fact the name of the fact
+	 * @param answer the answer the query drew from it
+	 */
+	private void record(String className, String fact, Object answer) {
+		if (facts == null) return;
+		Map classFacts = (Map) facts.get(className);
+		if (classFacts == null) {
+			classFacts = new HashMap();
+			facts.put(className, classFacts);
+		}
+		if (!classFacts.containsKey(fact)) classFacts.put(fact, answer);
+	}
+	
+	/**
+	 * Determine whether two methods have the same signature.
+	 * @param method1 the first method
+	 * @param method2 the second method
+	 * @return whether or not they agree in parameter and return types
+	 */
+	private static boolean sameSignature(Method method1, Method method2) {
+		return method1.returnType.equals(method2.returnType) &&
+			method1.paramTypes.equals(method2.paramTypes);
 	}
 
 	/**
@@ -142,27 +700,33 @@ public class ClassTable {
 	 * {@link #mtype} and {@link #mbody}.
 	 * @param methodName the name of the method to find
 	 * @param type the type to start looking in
+	 * @param fact the prefix of the facts to record about each class
+	 * searched, <code>METHOD</code> or <code>BODY</code>
 	 * @return the requested method object, or <code>null</code>
 	 * if no method can be found by that name
 	 * @see fj.ast.Method
 	 */
-	private Method methodLookup(String methodName, Type type) {
-		
-		// Special case for Object: it has no methods
-		if (type.isObject()) return null;
-		
-		// Get the class information
-		ClassInfo info = lookup(type);
-		if (info == null) return null;
+	private Method methodLookup(String methodName, Type type, String fact) {
 		
-		// Lookup the method
-		Method method = (Method) info.methodMap.get(methodName);
-		if (method == null) {
-			return methodLookup(methodName, info.superType);
-		}
-		else {
-			return method;
+		// Walk up the hierarchy; Object has no methods
+		while (!type.isObject()) {
+			
+			// Get the class information
+			String className = type.className;
+			ClassInfo info = (ClassInfo) classMap.get(className);
+			if (info == null) {
+				record(className, SUPERTYPE, null);
+				return null;
+			}
+			
+			// Lookup the method
+			Method method = (Method) info.methodMap.get(methodName);
+			if (facts != null) record(className, fact + methodName, method);
+			if (method != null) return method;
+			record(className, SUPERTYPE, info.superType);
+			type = info.superType;
 		}
+		return null;
 	}
 	
 	/**
@@ -172,9 +736,10 @@ public class ClassTable {
 	 * the given class is not in the class table
 	 */
 	public Type superType(Type type) {
-		ClassInfo info = lookup(type);
-		if (info == null) return null;
-		return info.superType;
+		ClassInfo info = (ClassInfo) classMap.get(type.className);
+		Type superType = (info != null) ? info.superType : null;
+		record(type.className, SUPERTYPE, superType);
+		return superType;
 	}
 	
 	/**
@@ -187,9 +752,45 @@ public class ClassTable {
 		
 		// Special case for Object: it has no fields
 		if (type.isObject()) return FieldInfo.EMPTY;
-		ClassInfo info = lookup(type);
-		if (info == null) return null;
-		return info.fieldInfo;	
+		ClassInfo info = (ClassInfo) classMap.get(type.className);
+		FieldInfo fieldInfo = (info != null) ? info.fieldInfo : null;
+		record(type.className, FIELDS, fieldInfo);
+		return fieldInfo;
+	}
+	
+	/**
+	 * Determine whether a class has the shape of the successor class
+	 * of unary numerals: exactly one field, whose declared type is one
+	 * of the class's superclasses other than <code>Object</code>, as
+	 * the <code>Nat</code> field of <code>Succ extends Nat</code> is.
+	 * The objects of such a class nest in chains, as
+	 * <code>new Succ(new Succ(new Zero()))</code> does, which the
+	 * evaluator may keep as a count.  A class holding an
+	 * <code>Object</code>, or an object of its own class, is an ordinary
+	 * wrapper or list, not a numeral.  The answer is worked out when the
+	 * class's information is built, and again whenever the class or one
+	 * of its superclasses changes, so asking never changes the table.
+	 * It is not recorded by a recording view, since no judgment depends
+	 * on it.
+	 * @param type the class
+	 * @return whether or not it is a successor class; never for a
+	 * class not in the table
+	 */
+	public boolean successor(Type type) {
+		ClassInfo info = (ClassInfo) classMap.get(type.className);
+		return info != null && info.successor;
+	}
+	
+	/**
+	 * Return the declaration of a class, as it was given to the table.
+	 * It is not recorded by a recording view, since no judgment depends
+	 * on it.
+	 * @param type the class
+	 * @return the declaration, or <code>null</code> if the class is not
+	 * in the table
+	 */
+	public ClassDecl declaration(Type type) {
+		return (ClassDecl) declMap.get(type.className);
 	}
 	
 	/**
@@ -201,7 +802,7 @@ public class ClassTable {
 	 * the method cannot be found
 	 */
 	public MethodType mtype(String methodName, Type type) {
-		Method method = methodLookup(methodName, type);
+		Method method = methodLookup(methodName, type, METHOD);
 		if (method == null) return null;
 		return new MethodType(method.paramTypes, method.returnType);		
 	}
@@ -215,7 +816,7 @@ public class ClassTable {
 	 * the method cannot be found
 	 */
 	public MethodBody mbody(String methodName, Type type) {
-		Method method = methodLookup(methodName, type);
+		Method method = methodLookup(methodName, type, BODY);
 		if (method == null) return null;
 		return new MethodBody(method.paramNames, method.body);
 	}
@@ -1,5 +1,6 @@
 package fj.types;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -50,6 +51,35 @@ public class FieldInfo {
 		this.map = Collections.unmodifiableMap(tempMap);		
 	}
 	
+	/**
+	 * Construct the FieldInfo structure of a subclass, whose fields
+	 * follow those of its superclass.  Only the new fields are checked
+	 * for duplicates, since the superclass's have been already.
+	 * @param parent the field information of the superclass
+	 * @param fields the {@link Declaration} list of fields declared
+	 * in the subclass
+	 * @throws ClassTableException a field is declared twice
+	 */
+	FieldInfo(FieldInfo parent, List fields) throws ClassTableException {
+		List tempList = new ArrayList(parent.list.size() + fields.size());
+		tempList.addAll(parent.list);
+		Map tempMap = new HashMap(parent.map);
+		int k = tempList.size();
+		for (Iterator i = fields.iterator(); i.hasNext(); ++k) {
+			Declaration field = (Declaration) i.next();
+			String name = field.name;
+			if (tempMap.containsKey(name)) {
+				throw new ClassTableException(
+					"duplicate field name \"" + name + "\"");
+			}
+			tempMap.put(name, new Integer(k));
+			tempList.add(field);
+		}
+
+		this.list = Collections.unmodifiableList(tempList);
+		this.map = Collections.unmodifiableMap(tempMap);
+	}
+
 	/**
 	 * Construct an empty field information structure.
 	 */